@@ -3,8 +3,12 @@ package prsa.egosoft.netmapper;
 import prsa.egosoft.netmapper.gui.MainWindow;
 import prsa.egosoft.netmapper.model.NetworkDevice;
 import prsa.egosoft.netmapper.model.NetworkGraph;
+import prsa.egosoft.netmapper.scan.ArpFrameSender;
 import prsa.egosoft.netmapper.service.ExportService;
 import prsa.egosoft.netmapper.service.NetworkController;
+import prsa.egosoft.netmapper.service.NeighborCrawler;
+import prsa.egosoft.netmapper.service.PassiveCollector;
+import prsa.egosoft.netmapper.service.ScanExecutorMode;
 import prsa.egosoft.netmapper.i18n.Messages;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -12,6 +16,8 @@ import org.slf4j.LoggerFactory;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 import javax.swing.SwingUtilities;
@@ -71,12 +77,27 @@ public class Main {
 			return;
 		}
 
-		if (cliArgs.jsonPath == null) {
-			if (cliArgs.targets == null && !cliArgs.autoDiscovery) {
+		if (cliArgs.monitorInterval > 0 && cliArgs.community == null) {
+			logger.error(Messages.getString("cli.error.missing_community"));
+			return;
+		}
+
+		if (cliArgs.passiveInterfaces != null && cliArgs.monitorInterval > 0) {
+			logger.error(Messages.getString("cli.error.exclusive_passive"));
+			return;
+		}
+
+		if (cliArgs.crawl && cliArgs.targets == null) {
+			logger.error(Messages.getString("cli.error.crawl_seeds"));
+			return;
+		}
+
+		if (!cliArgs.loadsMap()) {
+			if (cliArgs.targets == null && !cliArgs.autoDiscovery && !cliArgs.isPassive()) {
 				logger.error(Messages.getString("cli.error.missing_target"));
 				return;
 			}
-			if (cliArgs.community == null) {
+			if (cliArgs.community == null && (cliArgs.targets != null || cliArgs.autoDiscovery)) {
 				logger.error(Messages.getString("cli.error.missing_community"));
 				return;
 			}
@@ -85,8 +106,25 @@ public class Main {
 		NetworkController controller = new NetworkController();
 		controller.setVerbose(cliArgs.verbose);
 		controller.setForensics(cliArgs.forensics);
+		applyMaxRepetitions(controller, cliArgs.maxRepetitions);
+		if (cliArgs.agentInFlight > 0) {
+			controller.setAgentInFlightLimit(cliArgs.agentInFlight);
+		}
+		if (cliArgs.maxInFlight > 0) {
+			controller.setGlobalInFlightLimit(cliArgs.maxInFlight);
+		}
+		if (cliArgs.arpRate >= 0 || cliArgs.arpBurst > 0) {
+			controller.setArpRate(cliArgs.arpRate >= 0 ? cliArgs.arpRate : ArpFrameSender.DEFAULT_PACKETS_PER_SECOND,
+					cliArgs.arpBurst > 0 ? cliArgs.arpBurst : ArpFrameSender.DEFAULT_BURST_SIZE);
+		}
+		if (cliArgs.ouiOnline) {
+			controller.setOnlineVendorLookup(true);
+		}
+		if (cliArgs.executorMode != null) {
+			controller.setExecutorMode(cliArgs.executorMode);
+		}
 
-		if (cliArgs.jsonPath != null && cliArgs.targets == null && !cliArgs.autoDiscovery) {
+		if (cliArgs.loadsMap()) {
 			logger.info(Messages.getString("cli.msg.loading_map", cliArgs.jsonPath));
 			try {
 				controller.loadDevicesFromJson(new File(cliArgs.jsonPath));
@@ -95,20 +133,49 @@ public class Main {
 				return;
 			}
 		} else {
-			logger.info(Messages.getString("cli.msg.scan_start"));
-			if (cliArgs.autoDiscovery) {
-				controller.autoDiscoverBlocking(cliArgs.community,
-						device -> logger.info(Messages.getString("message.scan_complete", device.toString())));
-			} else {
-				controller.scanNetworkBlocking(cliArgs.targets, cliArgs.community,
-						device -> logger.info(Messages.getString("message.scan_complete", device.toString())));
+			if (cliArgs.resumePath != null) {
+				try {
+					int restored = controller.openJournal(new File(cliArgs.resumePath));
+					logger.info(Messages.getString("cli.msg.journal_resumed", restored, cliArgs.resumePath));
+				} catch (Exception e) {
+					logger.error(Messages.getString("cli.error.journal", e.getMessage()));
+					controller.shutdown();
+					return;
+				}
+			}
+			if (cliArgs.targets != null || cliArgs.autoDiscovery) {
+				logger.info(Messages.getString("cli.msg.scan_start"));
+				if (cliArgs.crawl) {
+					controller.crawlBlocking(cliArgs.targets, cliArgs.community, cliArgs.crawlAllow,
+							cliArgs.crawlDepth,
+							device -> logger.info(Messages.getString("message.scan_complete", device.toString())),
+							null);
+				} else if (cliArgs.autoDiscovery) {
+					controller.autoDiscoverBlocking(cliArgs.community,
+							device -> logger.info(Messages.getString("message.scan_complete", device.toString())));
+				} else {
+					controller.scanNetworkBlocking(cliArgs.targets, cliArgs.community,
+							device -> logger.info(Messages.getString("message.scan_complete", device.toString())));
+				}
+			}
+		}
+
+		if (cliArgs.pcapPath != null) {
+			try {
+				long frames = controller.importPcap(new File(cliArgs.pcapPath),
+						device -> logger.debug(Messages.getString("cli.msg.passive_learned", device.toString())));
+				logger.info(Messages.getString("cli.msg.pcap_imported", frames, cliArgs.pcapPath));
+			} catch (Exception e) {
+				logger.error(Messages.getString("cli.error.pcap", e.getMessage()));
+				controller.shutdown();
+				return;
 			}
 		}
 
 		Map<String, NetworkDevice> devices = controller.getDiscoveredDevices();
 		logger.info(Messages.getString("cli.msg.scan_complete", devices.size()));
 
-		if (devices.isEmpty()) {
+		if (devices.isEmpty() && cliArgs.passiveInterfaces == null) {
 			logger.info(Messages.getString("cli.msg.no_devices"));
 			controller.shutdown();
 			return;
@@ -131,6 +198,25 @@ public class Main {
 
 		executeExports(cliArgs, devices, graph, exportService);
 
+		// Re-export after the topology changes in monitor or passive mode
+		Runnable reExport = () -> {
+			NetworkGraph updated = NetworkGraph.buildFromDevices(devices);
+			if (cliArgs.minConfidence > 0) {
+				exportService.filterGraphByConfidence(updated, cliArgs.minConfidence);
+			}
+			executeExports(cliArgs, devices, updated, exportService);
+		};
+		if (cliArgs.monitorInterval > 0) {
+			logger.info(Messages.getString("cli.msg.monitor_start", cliArgs.monitorInterval));
+			controller.monitorBlocking(cliArgs.targets, cliArgs.community, cliArgs.monitorInterval,
+					event -> logger.info(Messages.getString("cli.msg.monitor_event", event.toString())), reExport);
+		} else if (cliArgs.passiveInterfaces != null) {
+			List<String> interfaces = Arrays.asList(cliArgs.passiveInterfaces.split("\\s*,\\s*"));
+			logger.info(Messages.getString("cli.msg.passive_start", String.join(", ", interfaces)));
+			controller.passiveCollectBlocking(interfaces, PassiveCollector.DEFAULT_INFERENCE_INTERVAL_SECONDS,
+					device -> logger.info(Messages.getString("cli.msg.passive_learned", device.toString())), reExport);
+		}
+
 		controller.shutdown();
 		logger.info(Messages.getString("cli.msg.done"));
 	}
@@ -172,6 +258,64 @@ public class Main {
 				case "--forensics":
 					cliArgs.forensics = true;
 					break;
+				case "--max-repetitions":
+					if (i + 1 < args.length)
+						cliArgs.maxRepetitions = args[++i];
+					break;
+				case "--agent-inflight":
+					if (i + 1 < args.length)
+						cliArgs.agentInFlight = parsePositiveInt(args[++i], "--agent-inflight");
+					break;
+				case "--max-inflight":
+					if (i + 1 < args.length)
+						cliArgs.maxInFlight = parsePositiveInt(args[++i], "--max-inflight");
+					break;
+				case "--executor":
+					if (i + 1 < args.length)
+						cliArgs.executorMode = parseExecutorMode(args[++i]);
+					break;
+				case "--crawl":
+					cliArgs.crawl = true;
+					break;
+				case "--crawl-depth":
+					if (i + 1 < args.length) {
+						int depth = parsePositiveInt(args[++i], "--crawl-depth");
+						if (depth > 0) {
+							cliArgs.crawlDepth = depth;
+						}
+					}
+					break;
+				case "--monitor":
+					if (i + 1 < args.length)
+						cliArgs.monitorInterval = parsePositiveInt(args[++i], "--monitor");
+					break;
+				case "--resume":
+					if (i + 1 < args.length)
+						cliArgs.resumePath = args[++i];
+					break;
+				case "--crawl-allow":
+					if (i + 1 < args.length)
+						cliArgs.crawlAllow = args[++i];
+					break;
+				case "--arp-rate":
+					if (i + 1 < args.length)
+						cliArgs.arpRate = parseNonNegativeInt(args[++i], "--arp-rate");
+					break;
+				case "--arp-burst":
+					if (i + 1 < args.length)
+						cliArgs.arpBurst = parsePositiveInt(args[++i], "--arp-burst");
+					break;
+				case "--pcap":
+					if (i + 1 < args.length)
+						cliArgs.pcapPath = args[++i];
+					break;
+				case "--passive":
+					if (i + 1 < args.length)
+						cliArgs.passiveInterfaces = args[++i];
+					break;
+				case "--oui-online":
+					cliArgs.ouiOnline = true;
+					break;
 				case "--min-confidence":
 					if (i + 1 < args.length) {
 						try {
@@ -186,6 +330,66 @@ public class Main {
 		return cliArgs;
 	}
 
+	private static int parsePositiveInt(String value, String option) {
+		try {
+			int n = Integer.parseInt(value.trim());
+			if (n > 0) {
+				return n;
+			}
+		} catch (NumberFormatException e) {
+			// handled below
+		}
+		logger.warn("Invalid " + option + " value: " + value);
+		return 0;
+	}
+
+	// 0 is a valid value (e.g. --arp-rate 0: unpaced); -1 means "not set"
+	private static int parseNonNegativeInt(String value, String option) {
+		try {
+			int n = Integer.parseInt(value.trim());
+			if (n >= 0) {
+				return n;
+			}
+		} catch (NumberFormatException e) {
+			// handled below
+		}
+		logger.warn("Invalid " + option + " value: " + value);
+		return -1;
+	}
+
+	private static ScanExecutorMode parseExecutorMode(String value) {
+		try {
+			return ScanExecutorMode.valueOf(value.trim().toUpperCase(java.util.Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			logger.warn("Invalid --executor value: " + value);
+			return null;
+		}
+	}
+
+	/**
+	 * Applies a max-repetitions spec such as "32" or "32,10.0.0.1=8": a bare
+	 * number sets the default, ip=n entries override single devices.
+	 */
+	private static void applyMaxRepetitions(NetworkController controller, String spec) {
+		if (spec == null) {
+			return;
+		}
+		for (String part : spec.split(",")) {
+			part = part.trim();
+			try {
+				int eq = part.indexOf('=');
+				if (eq > 0) {
+					controller.setMaxRepetitions(part.substring(0, eq).trim(),
+							Integer.parseInt(part.substring(eq + 1).trim()));
+				} else if (!part.isEmpty()) {
+					controller.setMaxRepetitions(Integer.parseInt(part));
+				}
+			} catch (NumberFormatException e) {
+				logger.warn("Invalid max-repetitions value: " + part);
+			}
+		}
+	}
+
 	private static void displayHelp() {
 		logger.info(Messages.getString("cli.usage"));
 		logger.info(Messages.getString("cli.options"));
@@ -199,6 +403,20 @@ public class Main {
 		logger.info("  -v			  " + Messages.getString("cli.opt.verbose"));
 		logger.info("  --forensics	 " + Messages.getString("cli.opt.forensics"));
 		logger.info("  --min-confidence <val> " + Messages.getString("cli.opt.min_confidence"));
+		logger.info("  --max-repetitions <n|ip=n,...> " + Messages.getString("cli.opt.max_repetitions"));
+		logger.info("  --agent-inflight <n> " + Messages.getString("cli.opt.agent_inflight"));
+		logger.info("  --max-inflight <n>   " + Messages.getString("cli.opt.max_inflight"));
+		logger.info("  --executor <mode>    " + Messages.getString("cli.opt.executor"));
+		logger.info("  --crawl              " + Messages.getString("cli.opt.crawl"));
+		logger.info("  --crawl-depth <n>    " + Messages.getString("cli.opt.crawl_depth"));
+		logger.info("  --crawl-allow <cidrs> " + Messages.getString("cli.opt.crawl_allow"));
+		logger.info("  --resume <journal>   " + Messages.getString("cli.opt.resume"));
+		logger.info("  --monitor <seconds>  " + Messages.getString("cli.opt.monitor"));
+		logger.info("  --arp-rate <pps>     " + Messages.getString("cli.opt.arp_rate"));
+		logger.info("  --arp-burst <n>      " + Messages.getString("cli.opt.arp_burst"));
+		logger.info("  --pcap <file>        " + Messages.getString("cli.opt.pcap"));
+		logger.info("  --passive <ifaces>   " + Messages.getString("cli.opt.passive"));
+		logger.info("  --oui-online         " + Messages.getString("cli.opt.oui_online"));
 		logger.info("  -h			  " + Messages.getString("cli.opt.help"));
 	}
 
@@ -219,7 +437,7 @@ public class Main {
 	private static void executeExports(CliArguments cliArgs, Map<String, NetworkDevice> devices, NetworkGraph graph,
 			ExportService exportService) {
 		try {
-			boolean loadedFromMap = (cliArgs.jsonPath != null && cliArgs.targets == null && !cliArgs.autoDiscovery);
+			boolean loadedFromMap = cliArgs.loadsMap();
 
 			if (cliArgs.jsonPath != null && !loadedFromMap) {
 				logger.info(Messages.getString("cli.export.json", cliArgs.jsonPath));
@@ -250,5 +468,34 @@ public class Main {
 		boolean verbose = false;
 		boolean forensics = false;
 		double minConfidence = 0.0;
+		String maxRepetitions = null;
+		int agentInFlight = 0;
+		int maxInFlight = 0;
+		ScanExecutorMode executorMode = null;
+		boolean crawl = false;
+		int crawlDepth = NeighborCrawler.DEFAULT_MAX_DEPTH;
+		String crawlAllow = null;
+		String resumePath = null;
+		int monitorInterval = 0;
+		int arpRate = -1;
+		int arpBurst = 0;
+		String pcapPath = null;
+		String passiveInterfaces = null;
+		boolean ouiOnline = false;
+
+		/**
+		 * Devices come from a capture file or live capture instead of probes.
+		 */
+		boolean isPassive() {
+			return pcapPath != null || passiveInterfaces != null;
+		}
+
+		/**
+		 * -m/-json loads a map when nothing else supplies devices; otherwise it
+		 * is the JSON export path.
+		 */
+		boolean loadsMap() {
+			return jsonPath != null && targets == null && !autoDiscovery && !isPassive();
+		}
 	}
 }
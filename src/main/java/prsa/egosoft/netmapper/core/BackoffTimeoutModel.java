@@ -0,0 +1,29 @@
+package prsa.egosoft.netmapper.core;
+
+import org.snmp4j.TimeoutModel;
+
+/**
+ * Modelo de timeout de SNMP4J con backoff exponencial: cada reintento espera
+ * el doble que el anterior, sin superar {@link RttEstimator#MAX_TIMEOUT_MS}.
+ * El timeout del primer intento lo fija el {@link RttEstimator} del agente.
+ */
+public class BackoffTimeoutModel implements TimeoutModel
+{
+    @Override
+    public long getRetryTimeout(int retryCount, int totalNumberOfRetries, long targetTimeout)
+    {
+        long timeout = targetTimeout << Math.min(retryCount, 16);
+        return Math.min(timeout, Math.max(targetTimeout, RttEstimator.MAX_TIMEOUT_MS));
+    }
+
+    @Override
+    public long getRequestTimeout(int totalNumberOfRetries, long targetTimeout)
+    {
+        long total = 0;
+        for(int i = 0; i <= totalNumberOfRetries; i++)
+        {
+            total += getRetryTimeout(i, totalNumberOfRetries, targetTimeout);
+        }
+        return total;
+    }
+}
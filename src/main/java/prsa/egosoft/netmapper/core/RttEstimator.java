@@ -0,0 +1,124 @@
+package prsa.egosoft.netmapper.core;
+
+/**
+ * Estimador del tiempo de respuesta SNMP de un agente al estilo
+ * Jacobson/Karels (RFC 6298): media suavizada (SRTT) más varianza (RTTVAR).
+ * El timeout de cada petición se deriva de ambos, acotado entre un mínimo y un
+ * máximo, y se duplica tras cada ventana de timeout sin respuesta hasta que
+ * llega una muestra válida.
+ * <p>
+ * Es thread-safe: varios hilos pueden muestrear el mismo agente a la vez.
+ */
+public class RttEstimator
+{
+    public static final long MIN_TIMEOUT_MS = 100;
+    public static final long MAX_TIMEOUT_MS = 5000;
+    public static final long INITIAL_TIMEOUT_MS = 1000;
+
+    private static final double ALPHA = 1.0 / 8;
+    private static final double BETA = 1.0 / 4;
+    private static final int MAX_BACKOFF = 8;
+
+    private double srtt;
+    private double rttvar;
+    private int samples;
+    private int backoff = 1;
+    // Instante (System.nanoTime) del último backoff aplicado
+    private long lastBackOffNanos;
+    private boolean backedOff;
+
+    public RttEstimator()
+    {
+    }
+
+    /**
+     * Crea un estimador que parte de un valor aprendido en un escaneo anterior.
+     */
+    public RttEstimator(double srttMillis, double rttvarMillis)
+    {
+        if(srttMillis > 0)
+        {
+            this.srtt = srttMillis;
+            this.rttvar = Math.max(0, rttvarMillis);
+            this.samples = 1;
+        }
+    }
+
+    /**
+     * Incorpora una muestra de RTT. Sólo deben medirse respuestas al primer
+     * intento (algoritmo de Karn): con reintentos no se sabe a qué envío
+     * corresponde la respuesta.
+     */
+    public synchronized void sample(long rttMillis)
+    {
+        double rtt = Math.max(0, rttMillis);
+        if(samples == 0)
+        {
+            srtt = rtt;
+            rttvar = rtt / 2;
+        }
+        else
+        {
+            rttvar = (1 - BETA) * rttvar + BETA * Math.abs(srtt - rtt);
+            srtt = (1 - ALPHA) * srtt + ALPHA * rtt;
+        }
+        samples++;
+        backoff = 1;
+    }
+
+    /**
+     * Registra que el primer intento de una petición agotó su timeout (se
+     * respondió a un reintento o no se respondió): los siguientes timeouts se
+     * duplican, hasta el máximo, mientras no llegue una muestra válida.
+     * <p>
+     * Se duplica una sola vez por ventana de timeout: si ya hubo un backoff
+     * después de enviar esta petición, su timeout es la misma pérdida que
+     * otras peticiones concurrentes ya contaron y no se vuelve a duplicar.
+     *
+     * @param sentAtNanos Instante de envío de la petición (System.nanoTime).
+     * @return true si se aplicó el backoff.
+     */
+    public synchronized boolean backOff(long sentAtNanos)
+    {
+        if(backedOff && lastBackOffNanos - sentAtNanos >= 0)
+        {
+            return false;
+        }
+        backoff = Math.min(backoff * 2, MAX_BACKOFF);
+        backedOff = true;
+        lastBackOffNanos = System.nanoTime();
+        return true;
+    }
+
+    /**
+     * Timeout del primer intento: SRTT + 4 * RTTVAR con backoff, acotado entre
+     * {@link #MIN_TIMEOUT_MS} y {@link #MAX_TIMEOUT_MS}.
+     */
+    public synchronized long getTimeoutMillis()
+    {
+        double base = samples == 0 ? INITIAL_TIMEOUT_MS : srtt + 4 * rttvar;
+        long timeout = (long) Math.ceil(base * backoff);
+        return Math.max(MIN_TIMEOUT_MS, Math.min(MAX_TIMEOUT_MS, timeout));
+    }
+
+    public synchronized double getSrttMillis()
+    {
+        return srtt;
+    }
+
+    public synchronized double getRttvarMillis()
+    {
+        return rttvar;
+    }
+
+    public synchronized boolean hasSamples()
+    {
+        return samples > 0;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return String.format("srtt=%.1fms rttvar=%.1fms rto=%dms", srtt, rttvar, getTimeoutMillis());
+    }
+}
@@ -0,0 +1,94 @@
+package prsa.egosoft.netmapper.core;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contadores de un escaneo (sockets, round trips, tiempos de fase...). Es
+ * thread-safe y barato de actualizar desde cualquier worker.
+ */
+public class ScanMetrics
+{
+    public static final String SNMP_SOCKETS = "snmp.sockets";
+    public static final String SNMP_THREADS = "snmp.threads";
+    public static final String SNMP_REQUESTS = "snmp.requests";
+    public static final String SNMP_TIMEOUTS = "snmp.timeouts";
+    public static final String SNMP_SCHEDULER_WAITS = "snmp.scheduler.waits";
+    public static final String SNMP_INFLIGHT_PEAK = "snmp.inflight.peak";
+    public static final String SNMP_WALKS = "snmp.walks";
+    public static final String SNMP_TABLES = "snmp.tables";
+    public static final String SNMP_WALK_ROUND_TRIPS = "snmp.walk.roundtrips";
+    public static final String SNMP_TOO_BIG = "snmp.toobig";
+    public static final String SCAN_PROBE_MS = "scan.probe.ms";
+    public static final String SCAN_PROBE_TARGETS = "scan.probe.targets";
+    public static final String SCAN_PROBE_RESPONDERS = "scan.probe.responders";
+    public static final String SCAN_DEEP_MS = "scan.deep.ms";
+    public static final String SCAN_BACKBONE_MS = "scan.backbone.ms";
+    public static final String SCAN_BACKBONE_DEVICES = "scan.backbone.devices";
+    public static final String CRAWL_CANDIDATES = "crawl.candidates";
+    public static final String CRAWL_DEVICES = "crawl.devices";
+    public static final String JOURNAL_RECORDS = "journal.records";
+    public static final String JOURNAL_BYTES = "journal.bytes";
+    public static final String JOURNAL_FLUSHES = "journal.flushes";
+    public static final String JOURNAL_MS = "journal.ms";
+    public static final String JOURNAL_SKIPPED = "journal.skipped";
+    public static final String MONITOR_POLLED = "monitor.polled";
+    public static final String MONITOR_REDISCOVERED = "monitor.rediscovered";
+    public static final String MONITOR_CANDIDATES = "monitor.candidates";
+    public static final String MONITOR_EVENTS = "monitor.events";
+    public static final String ARP_SENT = "arp.sent";
+    public static final String ARP_SEND_ERRORS = "arp.send.errors";
+    public static final String ARP_SEND_MS = "arp.send.ms";
+    public static final String ARP_SEND_PPS = "arp.send.pps";
+    public static final String ARP_PACER_WAITS = "arp.pacer.waits";
+    public static final String ARP_DROP_ESTIMATE = "arp.drop.estimate";
+    public static final String ARP_REPLIES = "arp.replies";
+    public static final String ARP_PASSES = "arp.passes";
+    public static final String ARP_PASS_MS = "arp.pass.ms";
+    public static final String ARP_TABLE_LOADS = "arp.table.loads";
+    public static final String PASSIVE_FRAMES = "passive.frames";
+    public static final String PASSIVE_ADDRESSES = "passive.addresses";
+    public static final String PASSIVE_NEIGHBORS = "passive.neighbors";
+    public static final String PASSIVE_DEVICES = "passive.devices";
+    public static final String PASSIVE_MAC_CHANGES = "passive.mac.changes";
+    public static final String PASSIVE_UNADDRESSED = "passive.unaddressed";
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    public void increment(String name)
+    {
+        add(name, 1);
+    }
+
+    public void add(String name, long delta)
+    {
+        counters.computeIfAbsent(name, k -> new LongAdder()).add(delta);
+    }
+
+    public long get(String name)
+    {
+        LongAdder adder = counters.get(name);
+        return adder != null ? adder.sum() : 0;
+    }
+
+    /**
+     * Copia ordenada de todos los contadores.
+     */
+    public Map<String, Long> snapshot()
+    {
+        Map<String, Long> result = new TreeMap<>();
+        for(Map.Entry<String, LongAdder> entry : counters.entrySet())
+        {
+            result.put(entry.getKey(), entry.getValue().sum());
+        }
+        return result;
+    }
+
+    @Override
+    public String toString()
+    {
+        return snapshot().toString();
+    }
+}
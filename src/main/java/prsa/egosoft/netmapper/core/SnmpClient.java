@@ -5,68 +5,125 @@ import org.snmp4j.PDU;
 import org.snmp4j.Snmp;
 import org.snmp4j.TransportMapping;
 import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.event.ResponseListener;
 import org.snmp4j.mp.SnmpConstants;
 import org.snmp4j.smi.*;
-import org.snmp4j.transport.DefaultUdpTransportMapping;
-import org.snmp4j.util.DefaultPDUFactory;
-import org.snmp4j.util.TreeUtils;
-import org.snmp4j.util.TreeEvent;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 /**
  * Cliente SNMP wrapper para simplificar operaciones GET y WALK.
+ * <p>
+ * Es un objeto ligero por dispositivo: las opciones de destino (comunidad,
+ * dirección local) son propias de cada cliente, pero el socket y los hilos de
+ * SNMP4J pertenecen a una {@link SnmpSession} que puede compartirse entre
+ * todos los dispositivos de un escaneo.
+ * <p>
+ * Cada operación tiene una variante {@code ...Async} que no bloquea ningún
+ * hilo mientras espera: se apoya en el envío asíncrono de SNMP4J y encadena
+ * las peticiones de un walk desde las propias respuestas. Las variantes
+ * bloqueantes simplemente esperan a la asíncrona.
  */
 public class SnmpClient
 {
     
     private static final Logger logger = LoggerFactory.getLogger(SnmpClient.class);
     
-    private Snmp snmp;
+    private final SnmpSession session;
+    private final boolean ownsSession;
+    private final Snmp snmp;
+    private final TransportMapping<UdpAddress> transport;
     private String community;
     private String localAddress;
+    private WalkMode walkMode = WalkMode.GETNEXT;
     private static final int RETRIES = 1;
-    private static final int TIMEOUT = 1000;
+    // Tramo de espera de await(): una petición con todos sus reintentos
+    private static final long AWAIT_SLICE_MS = RttEstimator.MAX_TIMEOUT_MS * (RETRIES + 1);
+    private static final String OID_SYS_OBJECT_ID = "1.3.6.1.2.1.1.2.0";
+    private static final String OID_SYS_SERVICES = "1.3.6.1.2.1.1.7.0";
+    
+    /**
+     * Tipo de PDU usado para recorrer tablas.
+     */
+    public enum WalkMode
+    {
+        /** Un varbind por round trip. Compatible con SNMPv1. */
+        GETNEXT,
+        /** SNMPv2c GETBULK con max-repetitions configurable por dispositivo. */
+        GETBULK
+    }
+    
+    /**
+     * Receptor de un walk en streaming. Recibe cada varbind según llega, con
+     * el sufijo de instancia (lo que sigue al OID raíz) ya separado como
+     * enteros, sin construir cadenas intermedias.
+     */
+    @FunctionalInterface
+    public interface WalkVisitor
+    {
+        /**
+         * @param index Sufijo de instancia del OID (array nuevo en cada
+         *              llamada, el visitante puede conservarlo).
+         * @param value Valor devuelto por el agente.
+         */
+        void visit(int[] index, Variable value);
+    }
     
     public SnmpClient(String community) throws IOException
     {
         this(community, null);
     }
     
+    /**
+     * Crea un cliente con su propia sesión SNMP (un socket dedicado). Se cierra
+     * con {@link #stop()}.
+     */
     public SnmpClient(String community, String localAddress) throws IOException
     {
-        this.community = community;
-        this.localAddress = localAddress;
-        start();
+        this(new SnmpSession(), true, community, localAddress);
     }
     
-    private void start() throws IOException
+    /**
+     * Crea un cliente que multiplexa sus peticiones sobre una sesión compartida.
+     * {@link #stop()} no cierra la sesión; eso corresponde a su propietario.
+     */
+    public SnmpClient(SnmpSession session, String community, String localAddress) throws IOException
     {
-        TransportMapping<UdpAddress> transport;
-        if(localAddress != null && !localAddress.isEmpty())
-        {
-            // Bind to specific local address (e.g., 192.168.1.15/0)
-            transport = new DefaultUdpTransportMapping(new UdpAddress(localAddress + "/0"));
-        }
-        else
-        {
-            transport = new DefaultUdpTransportMapping();
-        }
-        snmp = new Snmp(transport);
-        transport.listen();
+        this(session, false, community, localAddress);
+    }
+    
+    private SnmpClient(SnmpSession session, boolean ownsSession, String community, String localAddress)
+            throws IOException
+    {
+        this.session = session;
+        this.ownsSession = ownsSession;
+        this.community = community;
+        this.localAddress = localAddress;
+        this.snmp = session.getSnmp();
+        this.transport = session.getTransport(localAddress);
     }
     
     public void stop() throws IOException
     {
-        if(snmp != null)
+        if(ownsSession)
         {
-            snmp.close();
+            session.close();
         }
     }
     
@@ -79,45 +136,300 @@ public class SnmpClient
      */
     public String get(String ip, String oid)
     {
-        try
+        return await(getAsync(ip, oid), null);
+    }
+    
+    /**
+     * Versión asíncrona de {@link #get(String, String)}.
+     */
+    public CompletableFuture<String> getAsync(String ip, String oid)
+    {
+        CommunityTarget<UdpAddress> target = createTarget(ip);
+        PDU pdu = new PDU();
+        pdu.add(new VariableBinding(new OID(oid)));
+        pdu.setType(PDU.GET);
+        
+        return sendAsync(pdu, target, ip).handle((response, error) ->
         {
-            CommunityTarget<Address> target = createTarget(ip);
-            PDU pdu = new PDU();
-            pdu.add(new VariableBinding(new OID(oid)));
-            pdu.setType(PDU.GET);
-            
-            ResponseEvent<Address> event = snmp.send(pdu, target);
-            PDU response = event.getResponse();
-            
+            if(error != null)
+            {
+                logger.error("Exception during SNMP GET from {} interface to {}",
+                        localAddress != null ? localAddress : "default", ip, error);
+                return null;
+            }
             if(response != null && response.getErrorStatus() == PDU.noError)
             {
-                Variable variable = response.get(0).getVariable();
-                
-                // Si es un OctetString, convertirlo a String legible
-                if(variable instanceof OctetString)
+                return toText(response.get(0).getVariable());
+            }
+            logger.warn("SNMP GET error from {} interface for {}: {}",
+                    localAddress != null ? localAddress : "default", ip,
+                    response != null ? response.getErrorStatusText() : "Timeout");
+            return null;
+        });
+    }
+    
+    /**
+     * Resultado del sondeo de vida: lo mínimo para clasificar el dispositivo
+     * antes del descubrimiento completo.
+     */
+    public static final class ProbeResult
+    {
+        private final String sysObjectId;
+        private final int sysServices;
+        
+        ProbeResult(String sysObjectId, int sysServices)
+        {
+            this.sysObjectId = sysObjectId;
+            this.sysServices = sysServices;
+        }
+        
+        /**
+         * sysObjectID; cadena vacía si el agente respondió sin ese valor.
+         */
+        public String getSysObjectId()
+        {
+            return sysObjectId;
+        }
+        
+        /**
+         * sysServices o -1 si el agente no lo devolvió.
+         */
+        public int getSysServices()
+        {
+            return sysServices;
+        }
+        
+        /**
+         * Indica si sysServices anuncia funciones de red (capa 2, bit 0x02, o
+         * capa 3, bit 0x04): switch o router.
+         */
+        public boolean isNetworkDevice()
+        {
+            return sysServices > 0 && (sysServices & 0x06) != 0;
+        }
+    }
+    
+    /**
+     * Sondeo de vida: un GET de sysObjectID con timeout corto y sin reintentos.
+     *
+     * @param ip            Dirección IP del dispositivo.
+     * @param timeoutMillis Timeout de la petición.
+     * @return sysObjectID; cadena vacía si el agente respondió sin ese valor;
+     *         null si no hubo respuesta.
+     */
+    public String probe(String ip, long timeoutMillis)
+    {
+        return await(probeAsync(ip, timeoutMillis), null);
+    }
+    
+    /**
+     * Versión asíncrona de {@link #probe(String, long)}.
+     */
+    public CompletableFuture<String> probeAsync(String ip, long timeoutMillis)
+    {
+        return sweepAsync(ip, timeoutMillis).thenApply(result -> result != null ? result.getSysObjectId() : null);
+    }
+    
+    /**
+     * Como {@link #probeAsync(String, long)} pero pidiendo también sysServices
+     * en la misma PDU, para priorizar la infraestructura sin coste extra.
+     *
+     * @return el resultado o null si no hubo respuesta.
+     */
+    public CompletableFuture<ProbeResult> sweepAsync(String ip, long timeoutMillis)
+    {
+        CommunityTarget<UdpAddress> target = createTarget(ip);
+        // Un agente lento ya conocido (RTT sembrado) no debe darse por muerto
+        RttEstimator rtt = session.getRttEstimator(ip);
+        target.setTimeout(rtt.hasSamples() ? Math.max(timeoutMillis, rtt.getTimeoutMillis()) : timeoutMillis);
+        target.setRetries(0);
+        PDU pdu = new PDU();
+        pdu.add(new VariableBinding(new OID(OID_SYS_OBJECT_ID)));
+        pdu.add(new VariableBinding(new OID(OID_SYS_SERVICES)));
+        pdu.setType(PDU.GET);
+        
+        return sendAsync(pdu, target, ip).handle((response, error) ->
+        {
+            if(error != null)
+            {
+                logger.debug("Exception during SNMP probe to {}: {}", ip, error.getMessage());
+                return null;
+            }
+            if(response == null)
+            {
+                return null;
+            }
+            // Un error a nivel de PDU (v1 sin sysServices) también prueba que hay agente
+            if(response.getErrorStatus() != PDU.noError || response.size() == 0
+                    || response.get(0).getVariable().isException())
+            {
+                return new ProbeResult("", -1);
+            }
+            int services = -1;
+            if(response.size() > 1 && !response.get(1).getVariable().isException())
+            {
+                try
                 {
-                    OctetString octetString = (OctetString) variable;
-                    // toValue() devuelve el contenido como String en lugar de la representación
-                    // hexadecimal
-                    return new String(octetString.getValue());
+                    services = response.get(1).getVariable().toInt();
+                }
+                catch(UnsupportedOperationException e)
+                {
+                    // Tipo inesperado: se ignora
                 }
-                
-                return variable.toString();
             }
-            else
+            return new ProbeResult(toText(response.get(0).getVariable()), services);
+        });
+    }
+    
+    /**
+     * GET de varios valores numéricos (TimeTicks, contadores, enteros) en una
+     * sola PDU, sin pasarlos a texto. Pensado para sondear indicadores de
+     * cambio baratos.
+     *
+     * @return los valores en el orden pedido (-1 si el agente no tiene ese
+     *         OID) o null si no hubo respuesta.
+     */
+    public CompletableFuture<long[]> getLongsAsync(String ip, String... oids)
+    {
+        CommunityTarget<UdpAddress> target = createTarget(ip);
+        PDU pdu = new PDU();
+        for(String oid : oids)
+        {
+            pdu.add(new VariableBinding(new OID(oid)));
+        }
+        pdu.setType(PDU.GET);
+        
+        return sendAsync(pdu, target, ip).handle((response, error) ->
+        {
+            if(error != null)
+            {
+                logger.debug("Exception during SNMP GET to {}: {}", ip, error.getMessage());
+                return null;
+            }
+            if(response == null)
             {
-                logger.warn("SNMP GET error from {} interface for {}: {}",
-                        localAddress != null ? localAddress : "default", ip,
-                        response != null ? response.getErrorStatusText() : "Timeout");
                 return null;
             }
+            long[] values = new long[oids.length];
+            Arrays.fill(values, -1);
+            if(response.getErrorStatus() != PDU.noError)
+            {
+                return values;
+            }
+            for(int i = 0; i < oids.length && i < response.size(); i++)
+            {
+                Variable variable = response.get(i).getVariable();
+                if(!variable.isException())
+                {
+                    try
+                    {
+                        values[i] = variable.toLong();
+                    }
+                    catch(UnsupportedOperationException e)
+                    {
+                        // No es numérico: se deja como desconocido
+                    }
+                }
+            }
+            return values;
+        });
+    }
+    
+    /**
+     * Realiza un único SNMP GET con varios OIDs (p. ej. todo el grupo system).
+     * Si el agente rechaza la PDU completa (error a nivel de PDU, típico de v1
+     * cuando falta un solo OID) se repite con GETs individuales. En v2c un OID
+     * inexistente llega como noSuchObject/noSuchInstance en su varbind y sólo
+     * ese valor queda a null.
+     *
+     * @param ip   Dirección IP del dispositivo.
+     * @param oids OIDs a consultar.
+     * @return Mapa OID -> valor en el orden pedido; null si no hay valor.
+     */
+    public Map<String, String> getAll(String ip, String... oids)
+    {
+        return await(getAllAsync(ip, oids), emptyResult(oids));
+    }
+    
+    /**
+     * Versión asíncrona de {@link #getAll(String, String...)}.
+     */
+    public CompletableFuture<Map<String, String>> getAllAsync(String ip, String... oids)
+    {
+        CommunityTarget<UdpAddress> target = createTarget(ip);
+        PDU pdu = new PDU();
+        for(String oid : oids)
+        {
+            pdu.add(new VariableBinding(new OID(oid)));
         }
-        catch(Exception e)
+        pdu.setType(PDU.GET);
+        
+        return sendAsync(pdu, target, ip).handle((response, error) ->
         {
-            logger.error("Exception during SNMP GET from {} interface to {}",
-                    localAddress != null ? localAddress : "default", ip, e);
-            return null;
+            Map<String, String> result = emptyResult(oids);
+            if(error != null)
+            {
+                logger.error("Exception during SNMP GET from {} interface to {}",
+                        localAddress != null ? localAddress : "default", ip, error);
+                return CompletableFuture.completedFuture(result);
+            }
+            if(response == null)
+            {
+                logger.warn("SNMP GET error from {} interface for {}: Timeout",
+                        localAddress != null ? localAddress : "default", ip);
+                return CompletableFuture.completedFuture(result);
+            }
+            if(response.getErrorStatus() != PDU.noError || response.size() != oids.length)
+            {
+                logger.debug("Multi-OID GET on {} failed ({}), falling back to single GETs", ip,
+                        response.getErrorStatusText());
+                List<CompletableFuture<String>> singles = new ArrayList<>();
+                for(String oid : oids)
+                {
+                    singles.add(getAsync(ip, oid));
+                }
+                return CompletableFuture.allOf(singles.toArray(new CompletableFuture<?>[0])).thenApply(done ->
+                {
+                    for(int i = 0; i < oids.length; i++)
+                    {
+                        result.put(oids[i], singles.get(i).join());
+                    }
+                    return result;
+                });
+            }
+            for(int i = 0; i < oids.length; i++)
+            {
+                Variable variable = response.get(i).getVariable();
+                if(!variable.isException())
+                {
+                    result.put(oids[i], toText(variable));
+                }
+            }
+            return CompletableFuture.completedFuture(result);
+        }).thenCompose(stage -> stage);
+    }
+    
+    private static Map<String, String> emptyResult(String... oids)
+    {
+        Map<String, String> result = new LinkedHashMap<>();
+        for(String oid : oids)
+        {
+            result.put(oid, null);
         }
+        return result;
+    }
+    
+    /**
+     * Convierte el valor a texto. Los OctetString se devuelven como cadena
+     * legible en lugar de su representación hexadecimal.
+     */
+    private static String toText(Variable variable)
+    {
+        if(variable instanceof OctetString)
+        {
+            return new String(((OctetString) variable).getValue());
+        }
+        return variable.toString();
     }
     
     /**
@@ -129,52 +441,556 @@ public class SnmpClient
      */
     public Map<String, String> walk(String ip, String rootOid)
     {
-        Map<String, String> result = new TreeMap<>();
-        CommunityTarget<Address> target = createTarget(ip);
-        TreeUtils treeUtils = new TreeUtils(snmp, new DefaultPDUFactory());
+        return await(walkAsync(ip, rootOid), new TreeMap<>());
+    }
+    
+    /**
+     * Versión asíncrona de {@link #walk(String, String)}.
+     */
+    public CompletableFuture<Map<String, String>> walkAsync(String ip, String rootOid)
+    {
+        return walkSubtreeAsync(ip, new OID(rootOid)).thenApply(vbs ->
+        {
+            Map<String, String> result = new TreeMap<>();
+            for(VariableBinding vb : vbs)
+            {
+                result.put(vb.getOid().toString(), vb.getVariable().toString());
+            }
+            return result;
+        });
+    }
+    
+    /**
+     * Realiza un SNMP WALK entregando cada varbind al visitante según llega,
+     * sin acumular el subárbol en memoria. Pensado para tablas grandes (FDB,
+     * ARP) donde construir un mapa de cadenas cuesta más que la propia red.
+     *
+     * @param ip      Dirección IP del dispositivo.
+     * @param rootOid OID raíz para el walk.
+     * @param visitor Receptor de cada varbind.
+     * @return Número de varbinds entregados.
+     */
+    public int walk(String ip, String rootOid, WalkVisitor visitor)
+    {
+        return await(walkAsync(ip, rootOid, visitor), 0);
+    }
+    
+    /**
+     * Versión asíncrona de {@link #walk(String, String, WalkVisitor)}. El
+     * visitante se invoca desde los hilos de respuesta de la sesión, nunca en
+     * paralelo consigo mismo.
+     */
+    public CompletableFuture<Integer> walkAsync(String ip, String rootOid, WalkVisitor visitor)
+    {
+        OID root = new OID(rootOid);
+        int rootLength = root.size();
+        int[] count = new int[1];
+        Consumer<VariableBinding> sink = vb ->
+        {
+            int[] oid = vb.getOid().getValue();
+            visitor.visit(Arrays.copyOfRange(oid, rootLength, oid.length), vb.getVariable());
+            count[0]++;
+        };
+        return streamSubtreeAsync(ip, root, sink).thenApply(complete -> count[0]);
+    }
+    
+    /**
+     * Recorre el subárbol de {@code root} y lo devuelve como lista.
+     */
+    private CompletableFuture<List<VariableBinding>> walkSubtreeAsync(String ip, OID root)
+    {
+        List<VariableBinding> result = new ArrayList<>();
+        return streamSubtreeAsync(ip, root, result::add).thenApply(complete -> result);
+    }
+    
+    /**
+     * Estado de un walk en curso: cada respuesta decide si se envía la
+     * siguiente petición o se termina.
+     */
+    private final class WalkState
+    {
+        final String ip;
+        final OID root;
+        final Consumer<VariableBinding> sink;
+        final CommunityTarget<UdpAddress> target;
+        final boolean bulk;
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        OID cursor;
+        int maxRepetitions;
+        int roundTrips;
+        int varbinds;
         
-        List<TreeEvent> events = treeUtils.getSubtree(target, new OID(rootOid));
+        WalkState(String ip, OID root, Consumer<VariableBinding> sink)
+        {
+            this.ip = ip;
+            this.root = root;
+            this.sink = sink;
+            this.target = createTarget(ip);
+            this.bulk = walkMode == WalkMode.GETBULK;
+            this.cursor = root;
+            this.maxRepetitions = session.getMaxRepetitions(ip, 1);
+        }
+    }
+    
+    /**
+     * Recorre el subárbol de {@code root} con GETNEXT o GETBULK según el modo
+     * configurado, entregando cada varbind a {@code sink}. En GETBULK, si el
+     * agente responde tooBig se reduce a la mitad max-repetitions y se
+     * reintenta; el valor reducido queda aprendido en la sesión para los
+     * siguientes walks del mismo dispositivo.
+     *
+     * @return true si el walk llegó al final del subárbol; false si se cortó
+     *         por timeout o error.
+     */
+    private CompletableFuture<Boolean> streamSubtreeAsync(String ip, OID root, Consumer<VariableBinding> sink)
+    {
+        WalkState state = new WalkState(ip, root, sink);
+        walkStep(state);
+        return state.result;
+    }
+    
+    private void walkStep(WalkState state)
+    {
+        if(state.result.isDone())
+        {
+            return; // Cancelado
+        }
+        PDU pdu = new PDU();
+        pdu.add(new VariableBinding(state.cursor));
+        if(state.bulk)
+        {
+            pdu.setType(PDU.GETBULK);
+            pdu.setMaxRepetitions(state.maxRepetitions);
+        }
+        else
+        {
+            pdu.setType(PDU.GETNEXT);
+        }
         
-        if(events == null || events.isEmpty())
+        sendAsync(pdu, state.target, state.ip).whenComplete((response, error) ->
+        {
+            state.roundTrips++;
+            try
+            {
+                if(error != null)
+                {
+                    logger.error("Exception during SNMP WALK from {} interface to {}",
+                            localAddress != null ? localAddress : "default", state.ip, error);
+                    finishWalk(state, false);
+                }
+                else if(processWalkResponse(state, response))
+                {
+                    walkStep(state);
+                }
+            }
+            catch(RuntimeException e)
+            {
+                // Excepción del receptor: se propaga al llamante
+                state.result.completeExceptionally(e);
+            }
+        });
+    }
+    
+    /**
+     * Procesa una respuesta del walk. Devuelve true si hay que pedir más.
+     */
+    private boolean processWalkResponse(WalkState state, PDU response)
+    {
+        String ip = state.ip;
+        if(response == null)
         {
-            logger.warn("No response for WALK on {} OID {} from {} interface", ip, rootOid,
+            logger.warn("No response for WALK on {} OID {} from {} interface", ip, state.root,
                     localAddress != null ? localAddress : "default");
-            return result;
+            finishWalk(state, false);
+            return false;
+        }
+        if(state.bulk && response.getErrorStatus() == PDU.tooBig && state.maxRepetitions > 1)
+        {
+            session.learnTooBig(ip, state.maxRepetitions);
+            session.getMetrics().increment(ScanMetrics.SNMP_TOO_BIG);
+            state.maxRepetitions = session.getMaxRepetitions(ip, 1);
+            return true;
+        }
+        if(response.getErrorStatus() != PDU.noError)
+        {
+            // En v1 noSuchName marca el final de la MIB
+            boolean endOfMib = response.getErrorStatus() == PDU.noSuchName;
+            if(!endOfMib)
+            {
+                logger.error("Error in SNMP WALK from {} interface to {}: {}",
+                        localAddress != null ? localAddress : "default", ip, response.getErrorStatusText());
+            }
+            finishWalk(state, endOfMib);
+            return false;
+        }
+        
+        OID previous = state.cursor;
+        OID next = null;
+        for(VariableBinding vb : response.getVariableBindings())
+        {
+            OID oid = vb.getOid();
+            if(vb.getVariable().isException() || !oid.startsWith(state.root))
+            {
+                next = null;
+                break;
+            }
+            if(oid.compareTo(previous) <= 0)
+            {
+                logger.warn("Agent returned non-increasing OID {} after {}; stopping walk", oid, previous);
+                next = null;
+                break;
+            }
+            state.sink.accept(vb);
+            state.varbinds++;
+            previous = oid;
+            next = oid;
+        }
+        if(next == null)
+        {
+            finishWalk(state, true);
+            return false;
+        }
+        state.cursor = next;
+        return true;
+    }
+    
+    private void finishWalk(WalkState state, boolean complete)
+    {
+        session.getMetrics().increment(ScanMetrics.SNMP_WALKS);
+        session.getMetrics().add(ScanMetrics.SNMP_WALK_ROUND_TRIPS, state.roundTrips);
+        logger.debug("WALK {} on {}: {} varbinds in {} round trips", state.root, state.ip, state.varbinds,
+                state.roundTrips);
+        state.result.complete(complete);
+    }
+    
+    /**
+     * Recupera varias columnas de una tabla SNMP a la vez, al estilo de
+     * {@code TableUtils} de SNMP4J: cada PDU GETNEXT/GETBULK lleva un varbind
+     * por columna pendiente, de modo que una tabla de N columnas cuesta
+     * aproximadamente lo mismo que recorrer una sola. Las columnas pueden ser
+     * de tablas distintas siempre que compartan índice (p. ej. ifTable e
+     * ifXTable).
+     *
+     * @param ip         Dirección IP del dispositivo.
+     * @param columnOids OIDs de las columnas (sin índice).
+     * @return Filas en orden de llegada: índice (sufijo del OID) -> (OID de
+     *         columna -> valor). Una celda ausente en el agente no aparece.
+     */
+    public Map<String, Map<String, String>> getTable(String ip, String... columnOids)
+    {
+        return await(getTableAsync(ip, columnOids), new LinkedHashMap<>());
+    }
+    
+    /**
+     * Versión asíncrona de {@link #getTable(String, String...)}.
+     */
+    public CompletableFuture<Map<String, Map<String, String>>> getTableAsync(String ip, String... columnOids)
+    {
+        TableState state = new TableState(ip, columnOids);
+        tableStep(state);
+        return state.result;
+    }
+    
+    /**
+     * Estado de una lectura de tabla en curso.
+     */
+    private final class TableState
+    {
+        final String ip;
+        final String[] columnOids;
+        final OID[] roots;
+        final OID[] cursors;
+        final boolean[] done;
+        final int[] active;
+        final CommunityTarget<UdpAddress> target;
+        final boolean bulk;
+        final Map<String, Map<String, String>> rows = new LinkedHashMap<>();
+        final CompletableFuture<Map<String, Map<String, String>>> result = new CompletableFuture<>();
+        int activeCount;
+        int maxRepetitions;
+        int roundTrips;
+        
+        TableState(String ip, String[] columnOids)
+        {
+            this.ip = ip;
+            this.columnOids = columnOids;
+            int columns = columnOids.length;
+            this.roots = new OID[columns];
+            this.cursors = new OID[columns];
+            this.done = new boolean[columns];
+            this.active = new int[columns];
+            for(int c = 0; c < columns; c++)
+            {
+                roots[c] = new OID(columnOids[c]);
+                cursors[c] = roots[c];
+            }
+            this.target = createTarget(ip);
+            this.bulk = walkMode == WalkMode.GETBULK;
+        }
+    }
+    
+    private void tableStep(TableState state)
+    {
+        if(state.result.isDone())
+        {
+            return; // Cancelado
+        }
+        int columns = state.columnOids.length;
+        state.activeCount = 0;
+        for(int c = 0; c < columns; c++)
+        {
+            if(!state.done[c])
+            {
+                state.active[state.activeCount++] = c;
+            }
+        }
+        if(state.activeCount == 0)
+        {
+            finishTable(state);
+            return;
+        }
+        
+        PDU pdu = new PDU();
+        for(int i = 0; i < state.activeCount; i++)
+        {
+            pdu.add(new VariableBinding(state.cursors[state.active[i]]));
+        }
+        state.maxRepetitions = state.bulk ? session.getMaxRepetitions(state.ip, state.activeCount) : 1;
+        if(state.bulk)
+        {
+            pdu.setType(PDU.GETBULK);
+            pdu.setMaxRepetitions(state.maxRepetitions);
+        }
+        else
+        {
+            pdu.setType(PDU.GETNEXT);
+        }
+        
+        sendAsync(pdu, state.target, state.ip).whenComplete((response, error) ->
+        {
+            state.roundTrips++;
+            try
+            {
+                if(error != null)
+                {
+                    logger.error("Exception during SNMP table fetch from {} interface to {}",
+                            localAddress != null ? localAddress : "default", state.ip, error);
+                    finishTable(state);
+                }
+                else if(processTableResponse(state, response))
+                {
+                    tableStep(state);
+                }
+                else
+                {
+                    finishTable(state);
+                }
+            }
+            catch(RuntimeException e)
+            {
+                state.result.completeExceptionally(e);
+            }
+        });
+    }
+    
+    /**
+     * Procesa una respuesta de tabla. Devuelve true si hay que pedir más.
+     */
+    private boolean processTableResponse(TableState state, PDU response)
+    {
+        String ip = state.ip;
+        if(response == null)
+        {
+            logger.warn("No response for table fetch on {} ({} columns from {}) from {} interface", ip,
+                    state.columnOids.length, state.roots[0], localAddress != null ? localAddress : "default");
+            return false;
+        }
+        if(state.bulk && response.getErrorStatus() == PDU.tooBig && state.maxRepetitions > 1)
+        {
+            session.learnTooBig(ip, state.maxRepetitions * state.activeCount);
+            session.getMetrics().increment(ScanMetrics.SNMP_TOO_BIG);
+            return true;
+        }
+        if(response.getErrorStatus() != PDU.noError)
+        {
+            if(response.getErrorStatus() != PDU.noSuchName)
+            {
+                logger.error("Error in SNMP table fetch from {} interface to {}: {}",
+                        localAddress != null ? localAddress : "default", ip, response.getErrorStatusText());
+            }
+            return false;
+        }
+        if(response.size() == 0)
+        {
+            return false;
         }
         
-        for(TreeEvent event : events)
+        // Respuesta en orden fila a fila: el varbind i corresponde a la
+        // columna activa i % activeCount
+        List<? extends VariableBinding> vbs = response.getVariableBindings();
+        for(int i = 0; i < vbs.size(); i++)
+        {
+            int c = state.active[i % state.activeCount];
+            if(state.done[c])
+            {
+                continue;
+            }
+            VariableBinding vb = vbs.get(i);
+            OID oid = vb.getOid();
+            OID root = state.roots[c];
+            if(vb.getVariable().isException() || !oid.startsWith(root) || oid.compareTo(state.cursors[c]) <= 0)
+            {
+                state.done[c] = true;
+                continue;
+            }
+            String index = new OID(oid.getValue(), root.size(), oid.size() - root.size()).toDottedString();
+            state.rows.computeIfAbsent(index, k -> new HashMap<>()).put(state.columnOids[c],
+                    vb.getVariable().toString());
+            state.cursors[c] = oid;
+        }
+        return true;
+    }
+    
+    private void finishTable(TableState state)
+    {
+        session.getMetrics().increment(ScanMetrics.SNMP_TABLES);
+        session.getMetrics().add(ScanMetrics.SNMP_WALK_ROUND_TRIPS, state.roundTrips);
+        logger.debug("TABLE {} ({} columns) on {}: {} rows in {} round trips", state.roots[0],
+                state.columnOids.length, state.ip, state.rows.size(), state.roundTrips);
+        state.result.complete(state.rows);
+    }
+    
+    /**
+     * Envía una petición sin bloquear. El futuro se completa con la respuesta,
+     * o con null si hubo timeout, en un hilo de respuestas de la sesión. Antes
+     * de salir la petición espera su turno en el planificador de la sesión.
+     */
+    private CompletableFuture<PDU> sendAsync(PDU pdu, CommunityTarget<UdpAddress> target, String ip)
+    {
+        SnmpRequestScheduler scheduler = session.getScheduler();
+        return scheduler.acquireAsync(ip).thenCompose(granted ->
+        {
+            CompletableFuture<PDU> result = new CompletableFuture<>();
+            session.getMetrics().increment(ScanMetrics.SNMP_REQUESTS);
+            RttEstimator rtt = session.getRttEstimator(ip);
+            long start = System.nanoTime();
+            ResponseListener listener = new ResponseListener()
+            {
+                @Override
+                public <A extends Address> void onResponse(ResponseEvent<A> event)
+                {
+                    // En modo asíncrono SNMP4J exige cancelar la petición al recibirla
+                    ((Snmp) event.getSource()).cancel(event.getRequest(), this);
+                    scheduler.release(ip);
+                    PDU response = event.getResponse();
+                    if(response == null)
+                    {
+                        rtt.backOff(start);
+                        session.getMetrics().increment(ScanMetrics.SNMP_TIMEOUTS);
+                    }
+                    else
+                    {
+                        long elapsed = (System.nanoTime() - start) / 1_000_000;
+                        // Karn: si hubo reintento no sabemos a qué envío responde; no se
+                        // muestrea, pero se mantiene el backoff para la siguiente petición
+                        if(elapsed <= target.getTimeout())
+                        {
+                            rtt.sample(elapsed);
+                        }
+                        else
+                        {
+                            rtt.backOff(start);
+                        }
+                    }
+                    session.complete(result, response);
+                }
+            };
+            try
+            {
+                snmp.send(pdu, target, null, listener);
+            }
+            catch(IOException | RuntimeException e)
+            {
+                scheduler.release(ip);
+                result.completeExceptionally(e);
+            }
+            return result;
+        });
+    }
+    
+    /**
+     * Espera el resultado de una operación asíncrona desde código bloqueante.
+     * Si el hilo se interrumpe, o la sesión se cierra mientras tanto (por
+     * ejemplo al vencer el timeout del escaneo), devuelve {@code fallback}.
+     * La espera se hace en tramos del timeout máximo de una petición con sus
+     * reintentos, comprobando al final de cada uno si la sesión sigue abierta.
+     */
+    private <T> T await(CompletableFuture<T> future, T fallback)
+    {
+        try
         {
-            if(event != null)
+            while(true)
             {
-                if(event.isError())
+                try
                 {
-                    logger.error("Error in SNMP WALK from {} interface to {}: {}",
-                            localAddress != null ? localAddress : "default", ip, event.getErrorMessage());
-                    continue;
+                    return future.get(AWAIT_SLICE_MS, TimeUnit.MILLISECONDS);
                 }
-                
-                VariableBinding[] varBindings = event.getVariableBindings();
-                if(varBindings != null)
+                catch(TimeoutException e)
                 {
-                    for(VariableBinding vb : varBindings)
+                    if(session.isClosed())
                     {
-                        result.put(vb.getOid().toString(), vb.getVariable().toString());
+                        future.cancel(false);
+                        return fallback;
                     }
                 }
             }
         }
-        return result;
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            future.cancel(false);
+            return fallback;
+        }
+        catch(ExecutionException e)
+        {
+            if(session.isClosed())
+            {
+                return fallback;
+            }
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            if(cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+    
+    public WalkMode getWalkMode()
+    {
+        return walkMode;
+    }
+    
+    public void setWalkMode(WalkMode walkMode)
+    {
+        this.walkMode = walkMode;
     }
     
-    private CommunityTarget<Address> createTarget(String ip)
+    private CommunityTarget<UdpAddress> createTarget(String ip)
     {
-        Address targetAddress = GenericAddress.parse("udp:" + ip + "/161");
-        CommunityTarget<Address> target = new CommunityTarget<>();
+        UdpAddress targetAddress = new UdpAddress(ip + "/" + session.getAgentPort());
+        CommunityTarget<UdpAddress> target = new CommunityTarget<>();
         target.setCommunity(new OctetString(community));
         target.setAddress(targetAddress);
         target.setRetries(RETRIES);
-        target.setTimeout(TIMEOUT);
+        target.setTimeout(session.getRttEstimator(ip).getTimeoutMillis());
         target.setVersion(SnmpConstants.version2c);
+        // Forzamos el socket enlazado a la dirección local de este cliente
+        target.setPreferredTransports(Collections.singletonList(transport));
         return target;
     }
 }
@@ -0,0 +1,229 @@
+package prsa.egosoft.netmapper.core;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Planificador de peticiones SNMP de un escaneo. Limita las peticiones en
+ * vuelo por agente (para no saturar switches con CPUs de gestión débiles) y
+ * en total (objetivo global de concurrencia), repartiendo la capacidad global
+ * por turnos entre los agentes que esperan.
+ * <p>
+ * Cada petición obtiene un permiso con {@link #acquire(String)} (bloqueante)
+ * o {@link #acquireAsync(String)} y lo devuelve con {@link #release(String)}
+ * al llegar la respuesta o el timeout. Al cerrar la sesión, {@link #close()}
+ * falla los permisos que aún esperan para que nadie quede bloqueado.
+ */
+public class SnmpRequestScheduler
+{
+    public static final int DEFAULT_AGENT_LIMIT = 4;
+    public static final int DEFAULT_GLOBAL_LIMIT = 256;
+
+    private final ScanMetrics metrics;
+    private final Map<String, AgentState> agents = new HashMap<>();
+    // Agentes con peticiones esperando y hueco propio, a la espera de hueco global
+    private final ArrayDeque<AgentState> ready = new ArrayDeque<>();
+    private int agentLimit = DEFAULT_AGENT_LIMIT;
+    private int globalLimit = DEFAULT_GLOBAL_LIMIT;
+    private int globalInFlight;
+    private int peakInFlight;
+    private boolean closed;
+
+    private static final class AgentState
+    {
+        final String ip;
+        final ArrayDeque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+        int inFlight;
+        boolean queued;
+
+        AgentState(String ip)
+        {
+            this.ip = ip;
+        }
+    }
+
+    public SnmpRequestScheduler(ScanMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    public synchronized void setAgentLimit(int agentLimit)
+    {
+        this.agentLimit = Math.max(1, agentLimit);
+    }
+
+    public synchronized void setGlobalLimit(int globalLimit)
+    {
+        this.globalLimit = Math.max(1, globalLimit);
+    }
+
+    public synchronized int getAgentLimit()
+    {
+        return agentLimit;
+    }
+
+    public synchronized int getGlobalLimit()
+    {
+        return globalLimit;
+    }
+
+    public synchronized int getInFlight()
+    {
+        return globalInFlight;
+    }
+
+    public synchronized int getPeakInFlight()
+    {
+        return peakInFlight;
+    }
+
+    /**
+     * Pide un permiso para enviar una petición al agente. El futuro se completa
+     * cuando hay hueco; si se cancela antes, el permiso no se consume.
+     */
+    public CompletableFuture<Void> acquireAsync(String ip)
+    {
+        CompletableFuture<Void> permit = new CompletableFuture<>();
+        synchronized(this)
+        {
+            if(closed)
+            {
+                permit.completeExceptionally(new IOException("SNMP session already closed"));
+                return permit;
+            }
+            AgentState agent = agents.computeIfAbsent(ip, AgentState::new);
+            if(agent.waiters.isEmpty() && agent.inFlight < agentLimit && globalInFlight < globalLimit)
+            {
+                grant(agent);
+                permit.complete(null);
+                return permit;
+            }
+            agent.waiters.add(permit);
+            if(agent.inFlight < agentLimit && !agent.queued)
+            {
+                agent.queued = true;
+                ready.add(agent);
+            }
+        }
+        metrics.increment(ScanMetrics.SNMP_SCHEDULER_WAITS);
+        return permit;
+    }
+
+    /**
+     * Versión bloqueante de {@link #acquireAsync(String)}.
+     */
+    public void acquire(String ip) throws InterruptedException
+    {
+        CompletableFuture<Void> permit = acquireAsync(ip);
+        try
+        {
+            permit.get();
+        }
+        catch(InterruptedException e)
+        {
+            // Si el permiso llegó justo a la vez, lo devolvemos
+            if(!permit.cancel(false))
+            {
+                release(ip);
+            }
+            throw e;
+        }
+        catch(ExecutionException e)
+        {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Devuelve el permiso de una petición terminada y cede el hueco al
+     * siguiente agente en espera.
+     */
+    public void release(String ip)
+    {
+        List<CompletableFuture<Void>> granted = new ArrayList<>();
+        List<String> granteeIps = new ArrayList<>();
+        synchronized(this)
+        {
+            AgentState agent = agents.get(ip);
+            if(agent == null || agent.inFlight == 0)
+            {
+                return;
+            }
+            agent.inFlight--;
+            globalInFlight--;
+            if(!agent.waiters.isEmpty() && !agent.queued)
+            {
+                agent.queued = true;
+                ready.add(agent);
+            }
+            while(globalInFlight < globalLimit && !ready.isEmpty())
+            {
+                AgentState next = ready.poll();
+                next.queued = false;
+                if(next.waiters.isEmpty() || next.inFlight >= agentLimit)
+                {
+                    continue;
+                }
+                grant(next);
+                granted.add(next.waiters.poll());
+                granteeIps.add(next.ip);
+                if(!next.waiters.isEmpty() && next.inFlight < agentLimit)
+                {
+                    next.queued = true;
+                    ready.add(next);
+                }
+            }
+            if(agent.inFlight == 0 && agent.waiters.isEmpty())
+            {
+                agents.remove(ip);
+            }
+        }
+        // Completar fuera del cerrojo: los callbacks pueden enviar más peticiones
+        for(int i = 0; i < granted.size(); i++)
+        {
+            if(!granted.get(i).complete(null))
+            {
+                // Cancelado mientras esperaba
+                release(granteeIps.get(i));
+            }
+        }
+    }
+
+    /**
+     * Cierra el planificador: los permisos pendientes terminan con error y
+     * los nuevos fallan en el acto.
+     */
+    public void close()
+    {
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        synchronized(this)
+        {
+            closed = true;
+            for(AgentState agent : agents.values())
+            {
+                pending.addAll(agent.waiters);
+            }
+            agents.clear();
+            ready.clear();
+            globalInFlight = 0;
+        }
+        IOException closedError = new IOException("SNMP session closed");
+        for(CompletableFuture<Void> permit : pending)
+        {
+            permit.completeExceptionally(closedError);
+        }
+    }
+
+    private void grant(AgentState agent)
+    {
+        agent.inFlight++;
+        globalInFlight++;
+        peakInFlight = Math.max(peakInFlight, globalInFlight);
+    }
+}
@@ -0,0 +1,294 @@
+package prsa.egosoft.netmapper.core;
+
+import org.snmp4j.MessageDispatcher;
+import org.snmp4j.MessageDispatcherImpl;
+import org.snmp4j.Snmp;
+import org.snmp4j.TransportMapping;
+import org.snmp4j.mp.MPv1;
+import org.snmp4j.mp.MPv2c;
+import org.snmp4j.smi.UdpAddress;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Motor SNMP compartido por todo un escaneo. Mantiene una única instancia de
+ * {@link Snmp} (un dispatcher y un timer) y un transporte UDP por dirección
+ * local de enlace. Todas las peticiones de todos los dispositivos se
+ * multiplexan sobre esos sockets y SNMP4J demultiplexa las respuestas por
+ * request-ID.
+ */
+public class SnmpSession implements Closeable
+{
+    private static final Logger logger = LoggerFactory.getLogger(SnmpSession.class);
+    private static final String DEFAULT_BIND = "";
+    public static final int DEFAULT_MAX_REPETITIONS = 32;
+    public static final int DEFAULT_AGENT_PORT = 161;
+
+    private final Snmp snmp;
+    private final Map<String, TransportMapping<UdpAddress>> transports = new ConcurrentHashMap<>();
+    private final ScanMetrics metrics;
+    private final SnmpRequestScheduler scheduler;
+    private final Map<String, Integer> maxRepetitionsOverrides = new ConcurrentHashMap<>();
+    private final Map<String, Integer> learnedMaxResponseVarbinds = new ConcurrentHashMap<>();
+    private final Map<String, RttEstimator> rttEstimators = new ConcurrentHashMap<>();
+    private volatile int defaultMaxRepetitions = DEFAULT_MAX_REPETITIONS;
+    private volatile int agentPort = DEFAULT_AGENT_PORT;
+    private ExecutorService callbackExecutor;
+    private volatile boolean closed = false;
+
+    public SnmpSession()
+    {
+        this(new ScanMetrics());
+    }
+
+    public SnmpSession(ScanMetrics metrics)
+    {
+        this.metrics = metrics;
+        this.scheduler = new SnmpRequestScheduler(metrics);
+        // Solo usamos v1/v2c: evitamos inicializar MPv3/USM en cada escaneo
+        MessageDispatcher dispatcher = new MessageDispatcherImpl();
+        dispatcher.addMessageProcessingModel(new MPv1());
+        dispatcher.addMessageProcessingModel(new MPv2c());
+        this.snmp = new Snmp(dispatcher);
+        this.snmp.setTimeoutModel(new BackoffTimeoutModel());
+        // Hilo del timer de peticiones de SNMP4J (uno por sesión)
+        metrics.increment(ScanMetrics.SNMP_THREADS);
+    }
+
+    public Snmp getSnmp()
+    {
+        return snmp;
+    }
+
+    public ScanMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Limitador de peticiones en vuelo (por agente y global) del escaneo.
+     */
+    public SnmpRequestScheduler getScheduler()
+    {
+        return scheduler;
+    }
+
+    /**
+     * Devuelve el transporte asociado a la dirección local indicada, creándolo
+     * la primera vez. Un transporte equivale a un socket y un hilo listener.
+     *
+     * @param localAddress IP local a la que enlazar o null para la interfaz por
+     *                     defecto.
+     */
+    public TransportMapping<UdpAddress> getTransport(String localAddress) throws IOException
+    {
+        if(closed)
+        {
+            throw new IOException("SNMP session already closed");
+        }
+        String key = localAddress != null ? localAddress : DEFAULT_BIND;
+        TransportMapping<UdpAddress> transport = transports.get(key);
+        if(transport != null)
+        {
+            return transport;
+        }
+        synchronized(transports)
+        {
+            transport = transports.get(key);
+            if(transport == null)
+            {
+                transport = openTransport(key);
+                transports.put(key, transport);
+            }
+        }
+        return transport;
+    }
+
+    private TransportMapping<UdpAddress> openTransport(String localAddress) throws IOException
+    {
+        TransportMapping<UdpAddress> transport;
+        if(!localAddress.isEmpty())
+        {
+            // Bind to specific local address (e.g., 192.168.1.15/0)
+            transport = new DefaultUdpTransportMapping(new UdpAddress(localAddress + "/0"));
+        }
+        else
+        {
+            transport = new DefaultUdpTransportMapping();
+        }
+        snmp.addTransportMapping(transport);
+        transport.listen();
+        metrics.increment(ScanMetrics.SNMP_SOCKETS);
+        metrics.increment(ScanMetrics.SNMP_THREADS);
+        logger.debug("Opened shared SNMP transport on {}", localAddress.isEmpty() ? "default" : localAddress);
+        return transport;
+    }
+
+    /**
+     * Completa un futuro de respuesta en el pool de respuestas de la sesión,
+     * para que las continuaciones no ocupen el hilo receptor de SNMP4J.
+     */
+    public <T> void complete(CompletableFuture<T> future, T value)
+    {
+        try
+        {
+            getCallbackExecutor().execute(() -> future.complete(value));
+        }
+        catch(RejectedExecutionException e)
+        {
+            // Sesión cerrándose: completamos en el hilo actual
+            future.complete(value);
+        }
+    }
+
+    private synchronized ExecutorService getCallbackExecutor()
+    {
+        if(callbackExecutor == null)
+        {
+            int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+            AtomicInteger counter = new AtomicInteger();
+            callbackExecutor = Executors.newFixedThreadPool(threads, r ->
+            {
+                Thread t = new Thread(r, "snmp-callback-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+            metrics.add(ScanMetrics.SNMP_THREADS, threads);
+        }
+        return callbackExecutor;
+    }
+
+    /**
+     * Puerto UDP de los agentes (161 salvo en pruebas o agentes no estándar).
+     */
+    public int getAgentPort()
+    {
+        return agentPort;
+    }
+
+    public void setAgentPort(int agentPort)
+    {
+        this.agentPort = agentPort;
+    }
+
+    public void setDefaultMaxRepetitions(int maxRepetitions)
+    {
+        this.defaultMaxRepetitions = Math.max(1, maxRepetitions);
+    }
+    
+    /**
+     * Fija max-repetitions para un dispositivo concreto (p. ej. un agente con
+     * CPU limitada o un buffer de respuesta pequeño).
+     */
+    public void setMaxRepetitions(String ip, int maxRepetitions)
+    {
+        maxRepetitionsOverrides.put(ip, Math.max(1, maxRepetitions));
+    }
+    
+    /**
+     * max-repetitions configurado para un dispositivo: el específico de ese
+     * dispositivo o, si no hay, el global.
+     */
+    public int getMaxRepetitions(String ip)
+    {
+        return maxRepetitionsOverrides.getOrDefault(ip, defaultMaxRepetitions);
+    }
+    
+    /**
+     * max-repetitions efectivo para una petición GETBULK de {@code columns}
+     * varbinds, limitado por el tamaño de respuesta aprendido tras un tooBig.
+     */
+    public int getMaxRepetitions(String ip, int columns)
+    {
+        int configured = getMaxRepetitions(ip);
+        Integer maxVarbinds = learnedMaxResponseVarbinds.get(ip);
+        if(maxVarbinds == null)
+        {
+            return configured;
+        }
+        return Math.max(1, Math.min(configured, maxVarbinds / Math.max(1, columns)));
+    }
+    
+    /**
+     * Registra que el dispositivo rechazó (tooBig) una respuesta de
+     * {@code requestedVarbinds} varbinds: a partir de ahora se pide como máximo
+     * la mitad.
+     */
+    public void learnTooBig(String ip, int requestedVarbinds)
+    {
+        int limit = Math.max(1, requestedVarbinds / 2);
+        learnedMaxResponseVarbinds.merge(ip, limit, Math::min);
+    }
+    
+    /**
+     * Estimador de RTT del agente, creado la primera vez que se consulta.
+     */
+    public RttEstimator getRttEstimator(String ip)
+    {
+        return rttEstimators.computeIfAbsent(ip, k -> new RttEstimator());
+    }
+    
+    /**
+     * Estimador de RTT del agente o null si aún no se le ha enviado nada.
+     */
+    public RttEstimator findRttEstimator(String ip)
+    {
+        return rttEstimators.get(ip);
+    }
+    
+    /**
+     * Arranca el estimador de un agente con el RTT aprendido en un escaneo
+     * anterior. No sustituye un estimador que ya tenga muestras.
+     */
+    public void seedRtt(String ip, double srttMillis, double rttvarMillis)
+    {
+        if(srttMillis > 0)
+        {
+            rttEstimators.putIfAbsent(ip, new RttEstimator(srttMillis, rttvarMillis));
+        }
+    }
+    
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+    public int getSocketsCreated()
+    {
+        return (int) metrics.get(ScanMetrics.SNMP_SOCKETS);
+    }
+
+    public int getThreadsCreated()
+    {
+        return (int) metrics.get(ScanMetrics.SNMP_THREADS);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        closed = true;
+        // Primero los que esperan turno; snmp.close() avisa a los que están en vuelo
+        scheduler.close();
+        snmp.close();
+        synchronized(this)
+        {
+            if(callbackExecutor != null)
+            {
+                callbackExecutor.shutdown();
+            }
+        }
+        transports.clear();
+    }
+}
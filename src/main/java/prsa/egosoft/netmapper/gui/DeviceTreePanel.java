@@ -329,16 +329,24 @@ public class DeviceTreePanel extends JPanel {
 		});
 	}
 
+	/**
+	 * Los hijos de la raíz se mantienen ordenados por IP: búsqueda binaria del
+	 * primer hijo cuya IP es mayor que la nueva.
+	 */
 	private int findInsertionIndex(String ip) {
-		int count = rootNode.getChildCount();
-		for (int i = 0; i < count; i++) {
-			DefaultMutableTreeNode child = (DefaultMutableTreeNode) rootNode.getChildAt(i);
+		int low = 0;
+		int high = rootNode.getChildCount();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			DefaultMutableTreeNode child = (DefaultMutableTreeNode) rootNode.getChildAt(mid);
 			NetworkDevice cd = (NetworkDevice) child.getUserObject();
 			if (SubnetUtils.compareIps(ip, cd.getIpAddress()) < 0) {
-				return i;
+				high = mid;
+			} else {
+				low = mid + 1;
 			}
 		}
-		return count;
+		return low;
 	}
 
 	private class DeviceTreeCellRenderer extends javax.swing.tree.DefaultTreeCellRenderer {
@@ -0,0 +1,71 @@
+package prsa.egosoft.netmapper.model;
+
+/**
+ * A single change detected between two monitoring cycles: a device that
+ * appeared or disappeared, a restart, a link state or neighbor change, or a
+ * MAC address seen on a different port.
+ */
+public class MonitorEvent {
+    public enum Type {
+        DEVICE_ADDED, DEVICE_REMOVED, DEVICE_RESTARTED, LINK_UP, LINK_DOWN, NEIGHBOR_ADDED, NEIGHBOR_REMOVED,
+        MAC_MOVED
+    }
+
+    private final Type type;
+    private final String deviceIp;
+    private final int interfaceIndex;
+    private final String detail;
+    private final long timestamp;
+
+    public MonitorEvent(Type type, String deviceIp, int interfaceIndex, String detail) {
+        this.type = type;
+        this.deviceIp = deviceIp;
+        this.interfaceIndex = interfaceIndex;
+        this.detail = detail;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getDeviceIp() {
+        return deviceIp;
+    }
+
+    /**
+     * Interface (ifIndex) the event refers to, or -1 for device-level events.
+     */
+    public int getInterfaceIndex() {
+        return interfaceIndex;
+    }
+
+    public String getDetail() {
+        return detail;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Whether the event can change the inferred topology (everything except
+     * a restart that left the device's tables as they were).
+     */
+    public boolean affectsTopology() {
+        return type != Type.DEVICE_RESTARTED;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(type).append(' ').append(deviceIp);
+        if (interfaceIndex >= 0) {
+            sb.append(" if ").append(interfaceIndex);
+        }
+        if (detail != null && !detail.isEmpty()) {
+            sb.append(": ").append(detail);
+        }
+        return sb.toString();
+    }
+}
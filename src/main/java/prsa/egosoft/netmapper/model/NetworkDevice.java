@@ -40,6 +40,9 @@ public class NetworkDevice {
     private java.util.List<String> discoverySources;
     private double confidence;
     private double stabilityScore;
+    // RTT SNMP aprendido (ms); 0 = desconocido. Se reutiliza en re-escaneos
+    private double snmpSrttMillis;
+    private double snmpRttvarMillis;
 
     // New MUDFR Attributes
     private DeviceType typeEnum;
@@ -62,12 +65,16 @@ public class NetworkDevice {
     // Mapa: Puerto (Index) -> Info Vecino LLDP/CDP (String descrtion/sysname)
     private Map<Integer, String> lldpNeighbors;
 
+    // IPs de gestión anunciadas por los vecinos LLDP/CDP
+    private List<String> neighborAddresses;
+
     public NetworkDevice() {
         this.interfaces = new ArrayList<>();
         this.routingTable = new HashMap<>();
         this.vlans = new ArrayList<>();
         this.macAddressTable = new HashMap<>();
         this.lldpNeighbors = new HashMap<>();
+        this.neighborAddresses = new ArrayList<>();
         this.routeProtocols = new HashMap<>();
         this.discoverySources = new ArrayList<>();
         this.confidence = 1.0;
@@ -201,6 +208,14 @@ public class NetworkDevice {
         this.lldpNeighbors = lldpNeighbors;
     }
 
+    public List<String> getNeighborAddresses() {
+        return neighborAddresses;
+    }
+
+    public void setNeighborAddresses(List<String> neighborAddresses) {
+        this.neighborAddresses = neighborAddresses;
+    }
+
     public String getDeviceType() {
         return deviceType;
     }
@@ -259,6 +274,22 @@ public class NetworkDevice {
         this.stabilityScore = stabilityScore;
     }
 
+    public double getSnmpSrttMillis() {
+        return snmpSrttMillis;
+    }
+
+    public void setSnmpSrttMillis(double snmpSrttMillis) {
+        this.snmpSrttMillis = snmpSrttMillis;
+    }
+
+    public double getSnmpRttvarMillis() {
+        return snmpRttvarMillis;
+    }
+
+    public void setSnmpRttvarMillis(double snmpRttvarMillis) {
+        this.snmpRttvarMillis = snmpRttvarMillis;
+    }
+
     public Map<String, String> getRouteProtocols() {
         return routeProtocols;
     }
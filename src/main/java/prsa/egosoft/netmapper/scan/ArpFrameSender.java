@@ -0,0 +1,183 @@
+package prsa.egosoft.netmapper.scan;
+
+import org.pcap4j.core.PcapHandle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends ARP requests as raw frames from a single pre-built template.
+ * <p>
+ * The Ethernet + ARP request frame is built once per pass; for every target
+ * only the four target protocol address bytes are patched in place before
+ * the frame is handed to pcap, so sending allocates nothing. Transmission is
+ * paced by a token bucket ({@code packetsPerSecond} sustained, up to
+ * {@code burstSize} frames back to back) so large ranges do not trip switch
+ * storm control or port policers.
+ * <p>
+ * The sender never blocks: {@link #trySend(int)} refuses a frame the pacer
+ * has no token for, so one thread can interleave sends with reads on the
+ * same pcap handle. Not thread-safe: one sender per pass and thread.
+ */
+public class ArpFrameSender
+{
+    private static final Logger logger = LoggerFactory.getLogger(ArpFrameSender.class);
+
+    public static final int DEFAULT_PACKETS_PER_SECOND = 2000;
+    public static final int DEFAULT_BURST_SIZE = 64;
+
+    // 14 byte Ethernet header + 28 byte ARP, zero-padded to the Ethernet minimum
+    static final int FRAME_LENGTH = 60;
+    private static final int TARGET_IP_OFFSET = 38;
+
+    private final PcapHandle handle;
+    private final byte[] frame;
+    private final double packetsPerSecond;
+    private final double burstSize;
+
+    private double tokens;
+    private long lastRefillNanos;
+
+    private long sent;
+    private long errors;
+    private long pacerWaits;
+    private long startNanos;
+    private long endNanos;
+
+    /**
+     * @param packetsPerSecond Sustained send rate; 0 or less disables pacing.
+     * @param burstSize        Frames that may leave back to back after an idle
+     *                         period.
+     */
+    public ArpFrameSender(PcapHandle handle, byte[] srcMac, int srcIp, int packetsPerSecond, int burstSize)
+    {
+        this.handle = handle;
+        this.frame = buildTemplate(srcMac, srcIp);
+        this.packetsPerSecond = packetsPerSecond;
+        this.burstSize = Math.max(1, burstSize);
+        this.tokens = this.burstSize;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Builds a broadcast ARP "who-has" request with an empty target address.
+     */
+    static byte[] buildTemplate(byte[] srcMac, int srcIp)
+    {
+        byte[] frame = new byte[FRAME_LENGTH];
+        // Ethernet: broadcast destination, our MAC, EtherType ARP
+        for(int i = 0; i < 6; i++)
+        {
+            frame[i] = (byte) 0xFF;
+        }
+        System.arraycopy(srcMac, 0, frame, 6, 6);
+        frame[12] = 0x08;
+        frame[13] = 0x06;
+        // ARP: Ethernet/IPv4, 6/4 byte addresses, request
+        frame[15] = 0x01;
+        frame[16] = 0x08;
+        frame[18] = 6;
+        frame[19] = 4;
+        frame[21] = 0x01;
+        System.arraycopy(srcMac, 0, frame, 22, 6);
+        putInt(frame, 28, srcIp);
+        // Target hardware address (32..37) and padding (42..59) stay zero
+        return frame;
+    }
+
+    private static void putInt(byte[] frame, int offset, int value)
+    {
+        frame[offset] = (byte) (value >>> 24);
+        frame[offset + 1] = (byte) (value >>> 16);
+        frame[offset + 2] = (byte) (value >>> 8);
+        frame[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Sends one request for the given IPv4 address (as an int) if the pacer
+     * has a token for it. Otherwise nothing is sent and false is returned, so
+     * the caller can read replies until {@link #nanosUntilReady()} elapses.
+     * Send failures are counted, not thrown.
+     */
+    public boolean trySend(int targetIp)
+    {
+        if(nanosUntilReady() > 0)
+        {
+            pacerWaits++;
+            return false;
+        }
+        if(packetsPerSecond > 0)
+        {
+            tokens -= 1;
+        }
+        if(sent == 0 && errors == 0)
+        {
+            startNanos = System.nanoTime();
+        }
+        putInt(frame, TARGET_IP_OFFSET, targetIp);
+        try
+        {
+            handle.sendPacket(frame, FRAME_LENGTH);
+            sent++;
+        }
+        catch(Exception e)
+        {
+            if(errors++ == 0)
+            {
+                logger.warn("Error sending ARP frame: {}", e.getMessage());
+            }
+        }
+        endNanos = System.nanoTime();
+        return true;
+    }
+
+    /**
+     * Time until the pacer has a token for the next frame; 0 if it can leave
+     * now.
+     */
+    public long nanosUntilReady()
+    {
+        if(packetsPerSecond <= 0)
+        {
+            return 0;
+        }
+        long now = System.nanoTime();
+        tokens = Math.min(burstSize, tokens + (now - lastRefillNanos) * packetsPerSecond / 1e9);
+        lastRefillNanos = now;
+        return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) * 1e9 / packetsPerSecond);
+    }
+
+    public long getSent()
+    {
+        return sent;
+    }
+
+    public long getErrors()
+    {
+        return errors;
+    }
+
+    /**
+     * Times the pacer had to hold a frame back.
+     */
+    public long getPacerWaits()
+    {
+        return pacerWaits;
+    }
+
+    /**
+     * Time from the first frame to the last one.
+     */
+    public long getElapsedNanos()
+    {
+        return endNanos - startNanos;
+    }
+
+    /**
+     * Achieved send rate in frames per second.
+     */
+    public long getRate()
+    {
+        long elapsed = getElapsedNanos();
+        return elapsed > 0 ? sent * 1_000_000_000L / elapsed : sent;
+    }
+}
@@ -0,0 +1,233 @@
+package prsa.egosoft.netmapper.scan;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Runs several active ARP passes over a range to measure how stable each host
+ * is, without re-sweeping the whole range every time.
+ * <p>
+ * The first pass covers every IP. Later passes only re-probe the IPs that
+ * have not answered yet, plus a random sample of the hosts that did (to catch
+ * hosts that come and go). Scanning stops early once a pass finds no new host
+ * and every sampled host answered again. Each IP keeps the timestamps at which
+ * it was probed and at which it answered; its stability score is the fraction
+ * of its probes that got a reply.
+ */
+public class ArpPassScheduler
+{
+    private static final Logger logger = LoggerFactory.getLogger(ArpPassScheduler.class);
+
+    public static final int DEFAULT_MAX_PASSES = 3;
+    public static final double DEFAULT_SAMPLE_RATE = 0.25;
+    public static final long DEFAULT_PASS_GAP_MS = 1000;
+    private static final int MIN_SAMPLE = 8;
+
+    private final ArpScanner scanner;
+    private final int maxPasses;
+    private final double sampleRate;
+    private final long passGapMillis;
+    private final Random random;
+
+    public ArpPassScheduler(ArpScanner scanner)
+    {
+        this(scanner, DEFAULT_MAX_PASSES, DEFAULT_SAMPLE_RATE, DEFAULT_PASS_GAP_MS, new Random());
+    }
+
+    /**
+     * @param maxPasses     Upper bound on passes, including the full first one.
+     * @param sampleRate    Fraction of the hosts seen so far re-probed in each
+     *                      later pass.
+     * @param passGapMillis Pause between passes.
+     */
+    public ArpPassScheduler(ArpScanner scanner, int maxPasses, double sampleRate, long passGapMillis, Random random)
+    {
+        this.scanner = scanner;
+        this.maxPasses = Math.max(1, maxPasses);
+        this.sampleRate = sampleRate;
+        this.passGapMillis = passGapMillis;
+        this.random = random;
+    }
+
+    /**
+     * Probe and reply timestamps of one IP.
+     */
+    public static final class Observation
+    {
+        private final List<Long> probedAt = new ArrayList<>();
+        private final List<Long> repliedAt = new ArrayList<>();
+        private String mac;
+
+        public String getMac()
+        {
+            return mac;
+        }
+
+        public List<Long> getProbedAt()
+        {
+            return Collections.unmodifiableList(probedAt);
+        }
+
+        public List<Long> getRepliedAt()
+        {
+            return Collections.unmodifiableList(repliedAt);
+        }
+
+        /**
+         * Fraction of the probes sent to this IP that got a reply.
+         */
+        public double getStability()
+        {
+            return probedAt.isEmpty() ? 0.0 : (double) repliedAt.size() / probedAt.size();
+        }
+    }
+
+    /**
+     * Outcome of a scheduled scan: one observation per IP that answered at
+     * least once.
+     */
+    public static final class Result
+    {
+        private final Map<String, Observation> observations;
+        private final int passes;
+        private final long probesSent;
+
+        Result(Map<String, Observation> observations, int passes, long probesSent)
+        {
+            this.observations = observations;
+            this.passes = passes;
+            this.probesSent = probesSent;
+        }
+
+        public Map<String, Observation> getObservations()
+        {
+            return observations;
+        }
+
+        /**
+         * IP to MAC of every host that answered (latest MAC seen).
+         */
+        public Map<String, String> getMacs()
+        {
+            Map<String, String> macs = new HashMap<>();
+            observations.forEach((ip, observation) -> macs.put(ip, observation.getMac()));
+            return macs;
+        }
+
+        public double getStability(String ip)
+        {
+            Observation observation = observations.get(ip);
+            return observation != null ? observation.getStability() : 0.0;
+        }
+
+        public int getPasses()
+        {
+            return passes;
+        }
+
+        public long getProbesSent()
+        {
+            return probesSent;
+        }
+    }
+
+    public Result run(List<String> ips, String interfaceName) throws InterruptedException
+    {
+        Map<String, Observation> observations = new HashMap<>();
+        List<String> targets = ips;
+        List<String> sampled = Collections.emptyList();
+        List<Long> passTimes = new ArrayList<>();
+        long probesSent = 0;
+        int pass = 0;
+        while(pass < maxPasses && !targets.isEmpty())
+        {
+            pass++;
+            long probedAt = System.currentTimeMillis();
+            passTimes.add(probedAt);
+            Map<String, String> replies = scanner.scan(targets, interfaceName);
+            probesSent += targets.size();
+
+            int newHosts = 0;
+            for(String ip : targets)
+            {
+                String mac = replies.get(ip);
+                Observation observation = observations.get(ip);
+                if(observation == null)
+                {
+                    if(mac == null)
+                    {
+                        // Silent IPs only get an observation once they answer
+                        continue;
+                    }
+                    observation = new Observation();
+                    observations.put(ip, observation);
+                    // Earlier passes probed it without a reply
+                    observation.probedAt.addAll(passTimes.subList(0, pass - 1));
+                    newHosts++;
+                }
+                observation.probedAt.add(probedAt);
+                if(mac != null)
+                {
+                    observation.repliedAt.add(probedAt);
+                    observation.mac = mac;
+                }
+            }
+            int lostSamples = 0;
+            for(String ip : sampled)
+            {
+                if(!replies.containsKey(ip))
+                {
+                    lostSamples++;
+                }
+            }
+            logger.info("ARP pass {}/{}: {} probes, {} new hosts, {}/{} sampled hosts lost", pass, maxPasses,
+                    targets.size(), newHosts, lostSamples, sampled.size());
+
+            if(pass > 1 && newHosts == 0 && lostSamples == 0)
+            {
+                logger.info("ARP response set converged after {} passes", pass);
+                break;
+            }
+            if(pass < maxPasses)
+            {
+                sampled = sampleResponders(observations);
+                targets = nextTargets(ips, observations, sampled);
+                Thread.sleep(passGapMillis);
+            }
+        }
+        return new Result(observations, pass, probesSent);
+    }
+
+    private List<String> sampleResponders(Map<String, Observation> observations)
+    {
+        List<String> responders = new ArrayList<>(observations.keySet());
+        int size = Math.min(responders.size(),
+                Math.max(MIN_SAMPLE, (int) Math.ceil(responders.size() * sampleRate)));
+        Collections.shuffle(responders, random);
+        return responders.subList(0, size);
+    }
+
+    /**
+     * The sampled responders followed by the IPs that have not answered yet.
+     */
+    private static List<String> nextTargets(List<String> ips, Map<String, Observation> observations,
+            List<String> sampled)
+    {
+        List<String> targets = new ArrayList<>(sampled);
+        for(String ip : ips)
+        {
+            if(!observations.containsKey(ip))
+            {
+                targets.add(ip);
+            }
+        }
+        return targets;
+    }
+}
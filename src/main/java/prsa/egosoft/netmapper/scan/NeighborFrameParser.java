@@ -0,0 +1,502 @@
+package prsa.egosoft.netmapper.scan;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes the frames a passive collector cares about straight from their
+ * bytes: ARP (requests, replies and gratuitous ARP) for IP/MAC bindings, and
+ * LLDP and CDP advertisements for directly attached neighbors. Other frames
+ * are ignored without allocating anything.
+ */
+public class NeighborFrameParser
+{
+    public static final String CAPTURE_FILTER = "arp or ether proto 0x88cc or ether dst 01:00:0c:cc:cc:cc";
+
+    private static final int ETHERTYPE_ARP = 0x0806;
+    private static final int ETHERTYPE_IPV4 = 0x0800;
+    private static final int ETHERTYPE_VLAN = 0x8100;
+    private static final int ETHERTYPE_LLDP = 0x88CC;
+    private static final long CDP_MULTICAST = 0x01000CCCCCCCL;
+    private static final long BROADCAST = 0xFFFFFFFFFFFFL;
+
+    // LLDP TLV types and chassis/port ID subtypes
+    private static final int LLDP_END = 0;
+    private static final int LLDP_CHASSIS_ID = 1;
+    private static final int LLDP_PORT_ID = 2;
+    private static final int LLDP_TTL = 3;
+    private static final int LLDP_PORT_DESCRIPTION = 4;
+    private static final int LLDP_SYSTEM_NAME = 5;
+    private static final int LLDP_SYSTEM_DESCRIPTION = 6;
+    private static final int LLDP_CAPABILITIES = 7;
+    private static final int LLDP_MANAGEMENT_ADDRESS = 8;
+    private static final int LLDP_SUBTYPE_MAC = 4;
+    private static final int LLDP_SUBTYPE_NETWORK_ADDRESS = 5;
+    private static final int LLDP_PORT_SUBTYPE_MAC = 3;
+    private static final int LLDP_CAP_BRIDGE = 0x04;
+    private static final int LLDP_CAP_ROUTER = 0x10;
+
+    // CDP TLV types and capability bits
+    private static final int CDP_DEVICE_ID = 0x0001;
+    private static final int CDP_ADDRESSES = 0x0002;
+    private static final int CDP_PORT_ID = 0x0003;
+    private static final int CDP_CAPABILITIES = 0x0004;
+    private static final int CDP_SOFTWARE_VERSION = 0x0005;
+    private static final int CDP_PLATFORM = 0x0006;
+    private static final int CDP_CAP_ROUTER = 0x01;
+    private static final int CDP_CAP_BRIDGE = 0x02 | 0x04 | 0x08;
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * Receives what the parser learns from each frame.
+     */
+    public interface Listener
+    {
+        /**
+         * An IPv4 address seen bound to a MAC (ARP sender fields).
+         *
+         * @param gratuitous the host announced its own address
+         */
+        void onAddress(int ip, long mac, boolean gratuitous, long timestampMillis);
+
+        void onNeighbor(Advertisement advertisement);
+    }
+
+    /**
+     * A device announcing itself over LLDP or CDP.
+     */
+    public static final class Advertisement
+    {
+        public enum Protocol
+        {
+            LLDP, CDP
+        }
+
+        private final Protocol protocol;
+        private final long sourceMac;
+        private final long timestampMillis;
+        private String chassisId;
+        private String portId;
+        private String portDescription;
+        private String systemName;
+        private String systemDescription;
+        private String platform;
+        private String managementAddress;
+        private boolean bridge;
+        private boolean router;
+        private int ttlSeconds;
+
+        Advertisement(Protocol protocol, long sourceMac, long timestampMillis)
+        {
+            this.protocol = protocol;
+            this.sourceMac = sourceMac;
+            this.timestampMillis = timestampMillis;
+        }
+
+        public Protocol getProtocol()
+        {
+            return protocol;
+        }
+
+        /**
+         * Ethernet source of the frame: the MAC of the advertising port.
+         */
+        public long getSourceMac()
+        {
+            return sourceMac;
+        }
+
+        public long getTimestampMillis()
+        {
+            return timestampMillis;
+        }
+
+        public String getChassisId()
+        {
+            return chassisId;
+        }
+
+        public String getPortId()
+        {
+            return portId;
+        }
+
+        public String getPortDescription()
+        {
+            return portDescription;
+        }
+
+        /**
+         * LLDP system name or CDP device ID.
+         */
+        public String getSystemName()
+        {
+            return systemName;
+        }
+
+        /**
+         * LLDP system description or CDP software version.
+         */
+        public String getSystemDescription()
+        {
+            return systemDescription;
+        }
+
+        /**
+         * CDP platform (hardware model); null for LLDP.
+         */
+        public String getPlatform()
+        {
+            return platform;
+        }
+
+        /**
+         * First IPv4 management address advertised, or null.
+         */
+        public String getManagementAddress()
+        {
+            return managementAddress;
+        }
+
+        public boolean isBridge()
+        {
+            return bridge;
+        }
+
+        public boolean isRouter()
+        {
+            return router;
+        }
+
+        public int getTtlSeconds()
+        {
+            return ttlSeconds;
+        }
+
+        /**
+         * Name that identifies the device: system name, else chassis ID, else
+         * the source MAC.
+         */
+        public String getIdentity()
+        {
+            if(systemName != null && !systemName.isEmpty())
+            {
+                return systemName;
+            }
+            if(chassisId != null && !chassisId.isEmpty())
+            {
+                return chassisId;
+            }
+            return formatMac(sourceMac);
+        }
+    }
+
+    /**
+     * Parses one Ethernet frame and reports to the listener what it carries.
+     * Returns false if the frame is none of ARP, LLDP or CDP, or is malformed.
+     */
+    public static boolean parse(byte[] frame, int length, long timestampMillis, Listener listener)
+    {
+        if(length < 14)
+        {
+            return false;
+        }
+        long destination = mac(frame, 0);
+        long source = mac(frame, 6);
+        int offset = 12;
+        int type = u16(frame, offset);
+        if(type == ETHERTYPE_VLAN)
+        {
+            offset += 4;
+            if(length < offset + 2)
+            {
+                return false;
+            }
+            type = u16(frame, offset);
+        }
+        offset += 2;
+        try
+        {
+            if(type == ETHERTYPE_ARP)
+            {
+                return parseArp(frame, offset, length, timestampMillis, listener);
+            }
+            if(type == ETHERTYPE_LLDP)
+            {
+                return parseLldp(frame, offset, length, source, timestampMillis, listener);
+            }
+            if(type <= 1500 && destination == CDP_MULTICAST)
+            {
+                return parseCdp(frame, offset, length, source, timestampMillis, listener);
+            }
+        }
+        catch(ArrayIndexOutOfBoundsException e)
+        {
+            // TLV claiming more bytes than the frame has
+        }
+        return false;
+    }
+
+    private static boolean parseArp(byte[] frame, int offset, int length, long timestampMillis, Listener listener)
+    {
+        if(length < offset + 28 || u16(frame, offset) != 1 || u16(frame, offset + 2) != ETHERTYPE_IPV4
+                || frame[offset + 4] != 6 || frame[offset + 5] != 4)
+        {
+            return false;
+        }
+        long senderMac = mac(frame, offset + 8);
+        int senderIp = s32(frame, offset + 14);
+        int targetIp = s32(frame, offset + 24);
+        // ARP probes (sender 0.0.0.0) announce nothing yet
+        if(senderIp == 0 || senderMac == 0 || senderMac == BROADCAST)
+        {
+            return false;
+        }
+        listener.onAddress(senderIp, senderMac, senderIp == targetIp, timestampMillis);
+        return true;
+    }
+
+    private static boolean parseLldp(byte[] frame, int offset, int length, long source, long timestampMillis,
+            Listener listener)
+    {
+        Advertisement advertisement = new Advertisement(Advertisement.Protocol.LLDP, source, timestampMillis);
+        int position = offset;
+        while(position + 2 <= length)
+        {
+            int header = u16(frame, position);
+            int type = header >>> 9;
+            int tlvLength = header & 0x1FF;
+            int value = position + 2;
+            if(type == LLDP_END || value + tlvLength > length)
+            {
+                break;
+            }
+            switch(type)
+            {
+                case LLDP_CHASSIS_ID:
+                    advertisement.chassisId = lldpId(frame, value, tlvLength, LLDP_SUBTYPE_MAC);
+                    break;
+                case LLDP_PORT_ID:
+                    advertisement.portId = lldpId(frame, value, tlvLength, LLDP_PORT_SUBTYPE_MAC);
+                    break;
+                case LLDP_TTL:
+                    advertisement.ttlSeconds = tlvLength >= 2 ? u16(frame, value) : 0;
+                    break;
+                case LLDP_PORT_DESCRIPTION:
+                    advertisement.portDescription = text(frame, value, tlvLength);
+                    break;
+                case LLDP_SYSTEM_NAME:
+                    advertisement.systemName = text(frame, value, tlvLength);
+                    break;
+                case LLDP_SYSTEM_DESCRIPTION:
+                    advertisement.systemDescription = text(frame, value, tlvLength);
+                    break;
+                case LLDP_CAPABILITIES:
+                    if(tlvLength >= 4)
+                    {
+                        int enabled = u16(frame, value + 2);
+                        advertisement.bridge = (enabled & LLDP_CAP_BRIDGE) != 0;
+                        advertisement.router = (enabled & LLDP_CAP_ROUTER) != 0;
+                    }
+                    break;
+                case LLDP_MANAGEMENT_ADDRESS:
+                    // Address string length (subtype included), subtype 1 = IPv4
+                    if(advertisement.managementAddress == null && tlvLength >= 6 && frame[value] == 5
+                            && frame[value + 1] == 1)
+                    {
+                        advertisement.managementAddress = ip(frame, value + 2);
+                    }
+                    break;
+                default:
+                    break;
+            }
+            position = value + tlvLength;
+        }
+        if(advertisement.chassisId == null)
+        {
+            return false;
+        }
+        listener.onNeighbor(advertisement);
+        return true;
+    }
+
+    /**
+     * Chassis or port ID: MAC and IPv4 subtypes are formatted, the rest are
+     * names.
+     */
+    private static String lldpId(byte[] frame, int value, int length, int macSubtype)
+    {
+        if(length < 2)
+        {
+            return null;
+        }
+        int subtype = frame[value] & 0xFF;
+        if(subtype == macSubtype && length == 7)
+        {
+            return formatMac(mac(frame, value + 1));
+        }
+        if(subtype == LLDP_SUBTYPE_NETWORK_ADDRESS && macSubtype == LLDP_SUBTYPE_MAC && length == 6
+                && frame[value + 1] == 1)
+        {
+            return ip(frame, value + 2);
+        }
+        return text(frame, value + 1, length - 1);
+    }
+
+    private static boolean parseCdp(byte[] frame, int offset, int length, long source, long timestampMillis,
+            Listener listener)
+    {
+        // 802.2 LLC + SNAP: AA AA 03, OUI 00 00 0C, protocol 0x2000
+        if(length < offset + 12 || (frame[offset] & 0xFF) != 0xAA || (frame[offset + 1] & 0xFF) != 0xAA
+                || frame[offset + 2] != 3 || u16(frame, offset + 6) != 0x2000)
+        {
+            return false;
+        }
+        Advertisement advertisement = new Advertisement(Advertisement.Protocol.CDP, source, timestampMillis);
+        // CDP header: version, TTL, checksum
+        advertisement.ttlSeconds = frame[offset + 9] & 0xFF;
+        int position = offset + 12;
+        while(position + 4 <= length)
+        {
+            int type = u16(frame, position);
+            int tlvLength = u16(frame, position + 2);
+            if(tlvLength < 4 || position + tlvLength > length)
+            {
+                break;
+            }
+            int value = position + 4;
+            int valueLength = tlvLength - 4;
+            switch(type)
+            {
+                case CDP_DEVICE_ID:
+                    advertisement.systemName = text(frame, value, valueLength);
+                    advertisement.chassisId = advertisement.systemName;
+                    break;
+                case CDP_ADDRESSES:
+                    advertisement.managementAddress = cdpAddress(frame, value, valueLength);
+                    break;
+                case CDP_PORT_ID:
+                    advertisement.portId = text(frame, value, valueLength);
+                    break;
+                case CDP_CAPABILITIES:
+                    if(valueLength >= 4)
+                    {
+                        int capabilities = s32(frame, value);
+                        advertisement.router = (capabilities & CDP_CAP_ROUTER) != 0;
+                        advertisement.bridge = (capabilities & CDP_CAP_BRIDGE) != 0;
+                    }
+                    break;
+                case CDP_SOFTWARE_VERSION:
+                    advertisement.systemDescription = text(frame, value, valueLength);
+                    break;
+                case CDP_PLATFORM:
+                    advertisement.platform = text(frame, value, valueLength);
+                    break;
+                default:
+                    break;
+            }
+            position += tlvLength;
+        }
+        if(advertisement.chassisId == null)
+        {
+            return false;
+        }
+        listener.onNeighbor(advertisement);
+        return true;
+    }
+
+    /**
+     * First IPv4 entry of a CDP address list (protocol type 1, NLPID 0xCC).
+     */
+    private static String cdpAddress(byte[] frame, int value, int length)
+    {
+        int end = value + length;
+        if(length < 4)
+        {
+            return null;
+        }
+        int count = s32(frame, value);
+        int position = value + 4;
+        for(int i = 0; i < count && position + 2 <= end; i++)
+        {
+            int protocolType = frame[position] & 0xFF;
+            int protocolLength = frame[position + 1] & 0xFF;
+            int addressLengthAt = position + 2 + protocolLength;
+            if(addressLengthAt + 2 > end)
+            {
+                break;
+            }
+            int addressLength = u16(frame, addressLengthAt);
+            int address = addressLengthAt + 2;
+            if(address + addressLength > end)
+            {
+                break;
+            }
+            if(protocolType == 1 && protocolLength == 1 && (frame[position + 2] & 0xFF) == 0xCC && addressLength == 4)
+            {
+                return ip(frame, address);
+            }
+            position = address + addressLength;
+        }
+        return null;
+    }
+
+    private static int u16(byte[] frame, int offset)
+    {
+        return ((frame[offset] & 0xFF) << 8) | (frame[offset + 1] & 0xFF);
+    }
+
+    private static int s32(byte[] frame, int offset)
+    {
+        return ((frame[offset] & 0xFF) << 24) | ((frame[offset + 1] & 0xFF) << 16) | ((frame[offset + 2] & 0xFF) << 8)
+                | (frame[offset + 3] & 0xFF);
+    }
+
+    private static long mac(byte[] frame, int offset)
+    {
+        long value = 0;
+        for(int i = 0; i < 6; i++)
+        {
+            value = (value << 8) | (frame[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static String ip(byte[] frame, int offset)
+    {
+        return (frame[offset] & 0xFF) + "." + (frame[offset + 1] & 0xFF) + "." + (frame[offset + 2] & 0xFF) + "."
+                + (frame[offset + 3] & 0xFF);
+    }
+
+    /**
+     * TLV text, without trailing NULs or spaces.
+     */
+    private static String text(byte[] frame, int offset, int length)
+    {
+        int end = offset + length;
+        while(end > offset && (frame[end - 1] == 0 || frame[end - 1] == ' '))
+        {
+            end--;
+        }
+        return new String(frame, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * MAC from its 48-bit value, upper case with colons (AA:BB:CC:DD:EE:FF).
+     */
+    public static String formatMac(long mac)
+    {
+        char[] chars = new char[17];
+        for(int i = 0; i < 6; i++)
+        {
+            int octet = (int) (mac >>> (40 - 8 * i)) & 0xFF;
+            chars[i * 3] = HEX[octet >>> 4];
+            chars[i * 3 + 1] = HEX[octet & 0x0F];
+            if(i < 5)
+            {
+                chars[i * 3 + 2] = ':';
+            }
+        }
+        return new String(chars);
+    }
+}
@@ -1,16 +1,14 @@
 package prsa.egosoft.netmapper.scan;
 
+import prsa.egosoft.netmapper.core.ScanMetrics;
+import prsa.egosoft.netmapper.util.IntLongHashMap;
+import prsa.egosoft.netmapper.util.IpRange;
 import org.pcap4j.core.BpfProgram;
+import org.pcap4j.core.NotOpenException;
 import org.pcap4j.core.PcapHandle;
 import org.pcap4j.core.PcapNetworkInterface;
+import org.pcap4j.core.PcapStat;
 import org.pcap4j.core.Pcaps;
-import org.pcap4j.packet.ArpPacket;
-import org.pcap4j.packet.EthernetPacket;
-import org.pcap4j.packet.Packet;
-import org.pcap4j.packet.namednumber.ArpHardwareType;
-import org.pcap4j.packet.namednumber.ArpOperation;
-import org.pcap4j.packet.namednumber.EtherType;
-import org.pcap4j.util.ByteArrays;
 import org.pcap4j.util.MacAddress;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,14 +17,53 @@ import java.net.InetAddress;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
 
 public class PcapArpScanner implements ArpScanner
 {
     private static final Logger logger = LoggerFactory.getLogger(PcapArpScanner.class);
     private static final int READ_TIMEOUT = 10; // ms
-    private static final int SNAPLEN = 65536;
+    private static final int SNAPLEN = 128; // Enough for a (tagged) ARP frame
     private static final int COUNT = 1; // Packets to send per IP (could be more)
-    private static final int SCAN_TIMEOUT_MS = 2000; // Time to wait for replies
+    private static final int SCAN_TIMEOUT_MS = 2000; // Max wait for replies after the last frame
+    private static final int QUIET_PERIOD_MS = 500; // Stop early after this long without new replies
+    private static final long POLL_INTERVAL_NANOS = 1_000_000; // Capture poll while nothing can be sent
+    
+    // Fixed offsets of an Ethernet II + ARP frame
+    private static final int ETHERNET_HEADER = 14;
+    private static final int ARP_LENGTH = 28;
+    private static final int ETHERTYPE_ARP = 0x0806;
+    private static final int ETHERTYPE_IPV4 = 0x0800;
+    private static final int ETHERTYPE_VLAN = 0x8100;
+    private static final int ARP_REPLY = 2;
+    
+    private final int packetsPerSecond;
+    private final int burstSize;
+    
+    // Send statistics accumulated across passes, drained by reportTo()
+    private long sent;
+    private long sendErrors;
+    private long sendNanos;
+    private long pacerWaits;
+    private long captureDrops;
+    private long repliesReceived;
+    private long passes;
+    private long passTotalNanos;
+    
+    public PcapArpScanner()
+    {
+        this(ArpFrameSender.DEFAULT_PACKETS_PER_SECOND, ArpFrameSender.DEFAULT_BURST_SIZE);
+    }
+    
+    /**
+     * @param packetsPerSecond Sustained ARP send rate (0 or less: unpaced).
+     * @param burstSize        Frames allowed back to back.
+     */
+    public PcapArpScanner(int packetsPerSecond, int burstSize)
+    {
+        this.packetsPerSecond = packetsPerSecond;
+        this.burstSize = burstSize;
+    }
     
     @Override
     public Map<String, String> scan(List<String> ips)
@@ -78,103 +115,255 @@ public class PcapArpScanner implements ArpScanner
         
         logger.info("Starting active ARP scan on interface: {}", nif.getName());
         
-        ExecutorService pool = Executors.newFixedThreadPool(1);
-        
+        long passStart = System.nanoTime();
+        // A single handle and a single thread: a pcap_t is not thread-safe, so
+        // sends and reads are interleaved here instead of running in parallel
         try(PcapHandle handle = nif.openLive(SNAPLEN, PcapNetworkInterface.PromiscuousMode.PROMISCUOUS, READ_TIMEOUT))
         {
-            PcapHandle sendHandle = nif.openLive(SNAPLEN, PcapNetworkInterface.PromiscuousMode.PROMISCUOUS,
-                    READ_TIMEOUT);
-            
-            // Set filter to capture only ARP replies
-            handle.setFilter("arp", BpfProgram.BpfCompileMode.OPTIMIZE);
-            
-            // Listener task
-            Future<?> listenerTask = pool.submit(() ->
-            {
-                long endTime = System.currentTimeMillis() + SCAN_TIMEOUT_MS + (ips.size() * 5L); // Add buffer for
-                                                                                                 // sending time
-                while(System.currentTimeMillis() < endTime)
-                {
-                    try
-                    {
-                        Packet packet = handle.getNextPacket();
-                        if(packet != null && packet.contains(ArpPacket.class))
-                        {
-                            ArpPacket arp = packet.get(ArpPacket.class);
-                            if(arp.getHeader().getOperation().equals(ArpOperation.REPLY))
-                            {
-                                String ip = arp.getHeader().getSrcProtocolAddr().getHostAddress();
-                                String mac = arp.getHeader().getSrcHardwareAddr().toString();
-                                detectedDevices.put(ip, mac.toUpperCase());
-                            }
-                        }
-                    }
-                    catch(Exception e)
-                    {
-                        // Ignore
-                    }
-                }
-            });
-            
-            // Sender loop
             MacAddress srcMac = nif.getLinkLayerAddresses().stream().filter(a -> a instanceof MacAddress)
                     .map(a -> (MacAddress) a).findFirst().orElse(null);
             
             InetAddress srcIp = nif.getAddresses().stream().map(a -> a.getAddress())
                     .filter(a -> a instanceof java.net.Inet4Address).findFirst().orElse(null);
             
-            if(srcMac != null && srcIp != null)
+            if(srcMac == null || srcIp == null)
             {
-                for(String ip : ips)
-                {
-                    try
-                    {
-                        sendArpRequest(sendHandle, srcMac, srcIp, InetAddress.getByName(ip));
-                        // Slight delay to avoid flooding too fast?
-                        // Thread.sleep(1);
-                    }
-                    catch(Exception e)
-                    {
-                        logger.error("Error sending ARP to {}", ip, e);
-                    }
-                }
+                logger.error("Could not determine source MAC or IP for interface {}", nif.getName());
+                return detectedDevices;
             }
-            else
+            
+            // Let the kernel drop everything except ARP replies addressed to us, so
+            // gratuitous ARP and other hosts' traffic never reach user space
+            handle.setFilter(replyFilter(srcMac), BpfProgram.BpfCompileMode.OPTIMIZE);
+            // Reads return at once when nothing is queued, so they never delay a send
+            handle.setBlockingMode(PcapHandle.BlockingMode.NONBLOCKING);
+            
+            int[] targetIps = new int[ips.size()];
+            IntLongHashMap targets = new IntLongHashMap(ips.size());
+            for(int i = 0; i < targetIps.length; i++)
             {
-                logger.error("Could not determine source MAC or IP for interface {}", nif.getName());
+                targetIps[i] = IpRange.parseIp(ips.get(i));
+                targets.put(targetIps[i], 0);
             }
+            IntLongHashMap replies = new IntLongHashMap(ips.size());
+            ArpFrameSender sender = new ArpFrameSender(handle, srcMac.getAddress(),
+                    IpRange.parseIp(srcIp.getHostAddress()), packetsPerSecond, burstSize);
             
-            // Wait until listener finishes
-            listenerTask.get();
-            sendHandle.close();
+            String endReason = runPass(handle, sender, targetIps, targets, replies);
+            logger.info("Sent {} ARP requests in {} ms ({} pps, {} send errors, {} pacer waits)", sender.getSent(),
+                    sender.getElapsedNanos() / 1_000_000, sender.getRate(), sender.getErrors(),
+                    sender.getPacerWaits());
+            recordSend(sender);
+            recordCaptureDrops(handle);
+            
+            replies.forEach((ip, mac) -> detectedDevices.put(IpRange.toIp(ip), NeighborFrameParser.formatMac(mac)));
+            long passNanos = System.nanoTime() - passStart;
+            logger.info("ARP pass on {}: {}/{} targets replied in {} ms ({})", nif.getName(), replies.size(),
+                    targets.size(), passNanos / 1_000_000, endReason);
+            synchronized(this)
+            {
+                repliesReceived += replies.size();
+                passes++;
+                passTotalNanos += passNanos;
+            }
             
         }
-        catch(Exception e)
+        catch(InterruptedException e)
         {
-            logger.error("Error during Pcap ARP scan", e);
+            Thread.currentThread().interrupt();
         }
-        finally
+        catch(Exception e)
         {
-            pool.shutdown();
+            logger.error("Error during Pcap ARP scan", e);
         }
         
         return detectedDevices;
     }
     
-    private void sendArpRequest(PcapHandle handle, MacAddress srcMac, InetAddress srcIp, InetAddress dstIp)
-            throws Exception
+    /**
+     * Sends one request per target as fast as the pacer allows and, between
+     * sends, drains the replies already captured. Stops as soon as every
+     * target has answered, or once sending is over and no new reply came for
+     * {@link #QUIET_PERIOD_MS}, or at the latest {@link #SCAN_TIMEOUT_MS}
+     * after the last frame was sent.
+     *
+     * @return Why the pass ended, for the log.
+     */
+    private static String runPass(PcapHandle handle, ArpFrameSender sender, int[] targetIps,
+            IntLongHashMap targets, IntLongHashMap replies) throws InterruptedException, NotOpenException
     {
-        ArpPacket.Builder arpBuilder = new ArpPacket.Builder().hardwareType(ArpHardwareType.ETHERNET)
-                .protocolType(EtherType.IPV4).hardwareAddrLength((byte) MacAddress.SIZE_IN_BYTES)
-                .protocolAddrLength((byte) ByteArrays.INET4_ADDRESS_SIZE_IN_BYTES).operation(ArpOperation.REQUEST)
-                .srcHardwareAddr(srcMac).srcProtocolAddr(srcIp).dstHardwareAddr(MacAddress.ETHER_BROADCAST_ADDRESS)
-                .dstProtocolAddr(dstIp);
-        
-        EthernetPacket.Builder etherBuilder = new EthernetPacket.Builder().dstAddr(MacAddress.ETHER_BROADCAST_ADDRESS)
-                .srcAddr(srcMac).type(EtherType.ARP).payloadBuilder(arpBuilder).paddingAtBuild(true);
-        
-        Packet p = etherBuilder.build();
-        handle.sendPacket(p);
+        int next = 0;
+        int outstanding = targets.size();
+        long sendDoneAt = 0;
+        long lastReplyAt = 0;
+        while(true)
+        {
+            while(next < targetIps.length && sender.trySend(targetIps[next]))
+            {
+                next++;
+            }
+            if(next == targetIps.length && sendDoneAt == 0)
+            {
+                sendDoneAt = System.currentTimeMillis();
+            }
+            
+            boolean idle = true;
+            byte[] frame;
+            while((frame = handle.getNextRawPacket()) != null)
+            {
+                idle = false;
+                if(decodeReply(frame, targets, replies))
+                {
+                    outstanding--;
+                    lastReplyAt = System.currentTimeMillis();
+                }
+            }
+            
+            if(outstanding == 0)
+            {
+                return "all targets replied";
+            }
+            if(sendDoneAt != 0)
+            {
+                long now = System.currentTimeMillis();
+                if(now >= Math.max(sendDoneAt, lastReplyAt) + QUIET_PERIOD_MS)
+                {
+                    return "quiet period";
+                }
+                if(now >= sendDoneAt + SCAN_TIMEOUT_MS)
+                {
+                    return "timeout";
+                }
+            }
+            if(idle)
+            {
+                // Nothing to read: sleep until the pacer frees a token, polling
+                // the capture at least every POLL_INTERVAL_NANOS
+                long wait = next < targetIps.length ? sender.nanosUntilReady() : POLL_INTERVAL_NANOS;
+                LockSupport.parkNanos(Math.min(Math.max(wait, 1), POLL_INTERVAL_NANOS));
+                if(Thread.interrupted())
+                {
+                    throw new InterruptedException();
+                }
+            }
+        }
+    }
+    
+    /**
+     * BPF filter for ARP replies (opcode 2) sent to our MAC, untagged or
+     * 802.1Q tagged. Without a MAC the filter still keeps only replies.
+     * <p>
+     * The {@code vlan} keyword shifts the offsets of every later term by the
+     * tag length, so the untagged branch goes first and {@code arp[6:2]}
+     * after it reads the opcode of the tagged frame.
+     */
+    static String replyFilter(MacAddress ourMac)
+    {
+        String filter = "(arp and arp[6:2] = 2) or (vlan and arp and arp[6:2] = 2)";
+        return ourMac != null ? "ether dst " + ourMac + " and (" + filter + ")" : filter;
+    }
+    
+    /**
+     * Reads an ARP reply straight from the captured frame bytes (optionally
+     * 802.1Q tagged) and records sender IP → sender MAC if the sender is one
+     * of the targets. Returns true only for the first reply of a target.
+     */
+    static boolean decodeReply(byte[] frame, IntLongHashMap targets, IntLongHashMap replies)
+    {
+        int offset = ETHERNET_HEADER;
+        if(frame.length < offset + ARP_LENGTH)
+        {
+            return false;
+        }
+        int etherType = u16(frame, 12);
+        if(etherType == ETHERTYPE_VLAN)
+        {
+            offset += 4;
+            if(frame.length < offset + ARP_LENGTH)
+            {
+                return false;
+            }
+            etherType = u16(frame, 16);
+        }
+        if(etherType != ETHERTYPE_ARP || u16(frame, offset) != 1 || u16(frame, offset + 2) != ETHERTYPE_IPV4
+                || frame[offset + 4] != 6 || frame[offset + 5] != 4 || u16(frame, offset + 6) != ARP_REPLY)
+        {
+            return false;
+        }
+        long mac = 0;
+        for(int i = 0; i < 6; i++)
+        {
+            mac = (mac << 8) | (frame[offset + 8 + i] & 0xFF);
+        }
+        int ip = ((frame[offset + 14] & 0xFF) << 24) | ((frame[offset + 15] & 0xFF) << 16)
+                | ((frame[offset + 16] & 0xFF) << 8) | (frame[offset + 17] & 0xFF);
+        if(!targets.containsKey(ip))
+        {
+            return false;
+        }
+        boolean first = !replies.containsKey(ip);
+        replies.put(ip, mac);
+        return first;
+    }
+    
+    private static int u16(byte[] frame, int offset)
+    {
+        return ((frame[offset] & 0xFF) << 8) | (frame[offset + 1] & 0xFF);
+    }
+    
+    private synchronized void recordSend(ArpFrameSender sender)
+    {
+        sent += sender.getSent();
+        sendErrors += sender.getErrors();
+        sendNanos += sender.getElapsedNanos();
+        pacerWaits += sender.getPacerWaits();
+    }
+    
+    /**
+     * Frames the capture side lost (kernel buffer or interface drops): replies
+     * that arrived but never reached the listener.
+     */
+    private void recordCaptureDrops(PcapHandle handle)
+    {
+        try
+        {
+            PcapStat stats = handle.getStats();
+            long dropped = stats.getNumPacketsDropped() + stats.getNumPacketsDroppedByIf();
+            synchronized(this)
+            {
+                captureDrops += dropped;
+            }
+        }
+        catch(Exception e)
+        {
+            logger.debug("Pcap statistics not available: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * Adds the send statistics accumulated since the last call to the scan
+     * metrics. The drop estimate counts frames that failed to send plus
+     * frames dropped on the capture side.
+     */
+    public synchronized void reportTo(ScanMetrics metrics)
+    {
+        metrics.add(ScanMetrics.ARP_SENT, sent);
+        metrics.add(ScanMetrics.ARP_SEND_ERRORS, sendErrors);
+        metrics.add(ScanMetrics.ARP_SEND_MS, sendNanos / 1_000_000);
+        metrics.add(ScanMetrics.ARP_SEND_PPS, sendNanos > 0 ? sent * 1_000_000_000L / sendNanos : sent);
+        metrics.add(ScanMetrics.ARP_PACER_WAITS, pacerWaits);
+        metrics.add(ScanMetrics.ARP_DROP_ESTIMATE, sendErrors + captureDrops);
+        metrics.add(ScanMetrics.ARP_REPLIES, repliesReceived);
+        metrics.add(ScanMetrics.ARP_PASSES, passes);
+        metrics.add(ScanMetrics.ARP_PASS_MS, passTotalNanos / 1_000_000);
+        sent = 0;
+        sendErrors = 0;
+        sendNanos = 0;
+        pacerWaits = 0;
+        captureDrops = 0;
+        repliesReceived = 0;
+        passes = 0;
+        passTotalNanos = 0;
     }
     
     private PcapNetworkInterface findBestInterface(String targetIp)
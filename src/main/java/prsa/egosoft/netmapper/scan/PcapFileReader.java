@@ -0,0 +1,133 @@
+package prsa.egosoft.netmapper.scan;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Reads Ethernet frames from a classic libpcap capture file (microsecond or
+ * nanosecond timestamps, either byte order).
+ * <p>
+ * Implemented in plain Java so captures can be replayed on machines without
+ * libpcap/Npcap. One frame buffer is reused for the whole file, so the
+ * handler must copy anything it keeps. pcapng files are not supported.
+ */
+public class PcapFileReader implements Closeable
+{
+    private static final int MAGIC_MICROS = 0xA1B2C3D4;
+    private static final int MAGIC_NANOS = 0xA1B23C4D;
+    private static final int LINKTYPE_ETHERNET = 1;
+    private static final int MAX_FRAME = 256 * 1024;
+
+    /**
+     * Receives each frame; {@code frame} is only valid during the call.
+     */
+    @FunctionalInterface
+    public interface FrameHandler
+    {
+        void onFrame(byte[] frame, int length, long timestampMillis);
+    }
+
+    private final DataInputStream in;
+    private final boolean swapped;
+    private final boolean nanos;
+    private byte[] buffer;
+
+    public PcapFileReader(File file) throws IOException
+    {
+        this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 256 * 1024));
+        try
+        {
+            int magic = in.readInt();
+            if(magic == MAGIC_MICROS || magic == MAGIC_NANOS)
+            {
+                swapped = false;
+            }
+            else if(Integer.reverseBytes(magic) == MAGIC_MICROS || Integer.reverseBytes(magic) == MAGIC_NANOS)
+            {
+                swapped = true;
+                magic = Integer.reverseBytes(magic);
+            }
+            else
+            {
+                throw new IOException("Not a pcap file (pcapng is not supported): " + file);
+            }
+            nanos = magic == MAGIC_NANOS;
+            // version major/minor, thiszone, sigfigs
+            in.skipBytes(12);
+            int snaplen = readInt();
+            int linkType = readInt();
+            if(linkType != LINKTYPE_ETHERNET)
+            {
+                throw new IOException("Unsupported pcap link type " + linkType + " (only Ethernet): " + file);
+            }
+            buffer = new byte[Math.max(1514, Math.min(snaplen <= 0 ? MAX_FRAME : snaplen, MAX_FRAME))];
+        }
+        catch(IOException e)
+        {
+            in.close();
+            throw e;
+        }
+    }
+
+    private int readInt() throws IOException
+    {
+        int value = in.readInt();
+        return swapped ? Integer.reverseBytes(value) : value;
+    }
+
+    /**
+     * Hands every frame in the file to the handler and returns how many
+     * were read. A record cut short at the end of the file ends the read.
+     */
+    public long readAll(FrameHandler handler) throws IOException
+    {
+        long frames = 0;
+        while(true)
+        {
+            int seconds;
+            try
+            {
+                seconds = readInt();
+            }
+            catch(EOFException e)
+            {
+                return frames;
+            }
+            try
+            {
+                int fraction = readInt();
+                int capturedLength = readInt();
+                readInt(); // original length
+                if(capturedLength < 0 || capturedLength > MAX_FRAME)
+                {
+                    throw new IOException("Corrupt pcap record length " + capturedLength);
+                }
+                if(capturedLength > buffer.length)
+                {
+                    buffer = new byte[capturedLength];
+                }
+                in.readFully(buffer, 0, capturedLength);
+                long millis = Integer.toUnsignedLong(seconds) * 1000
+                        + Integer.toUnsignedLong(fraction) / (nanos ? 1_000_000 : 1000);
+                handler.onFrame(buffer, capturedLength, millis);
+                frames++;
+            }
+            catch(EOFException e)
+            {
+                // Truncated last record (capture still being written or cut)
+                return frames;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        in.close();
+    }
+}
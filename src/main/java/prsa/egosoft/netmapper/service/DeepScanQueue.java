@@ -0,0 +1,151 @@
+package prsa.egosoft.netmapper.service;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Cola de prioridad del descubrimiento completo. La infraestructura sale
+ * antes que los equipos finales para que la columna vertebral de la
+ * topología (routers, switches y gateways) esté disponible cuanto antes:
+ * <ol>
+ * <li>{@link #TIER_GATEWAY}: next hops vistos en tablas de rutas.</li>
+ * <li>{@link #TIER_INFRASTRUCTURE}: switches y routers según el sondeo o un
+ * escaneo anterior.</li>
+ * <li>{@link #TIER_SNMP}: resto de agentes SNMP.</li>
+ * </ol>
+ * Un objetivo en cola puede subir de nivel con {@link #promote(String, int)}
+ * (p. ej. al aparecer como next hop de un router ya descubierto). Cuando
+ * terminan todos los objetivos de infraestructura entregados, la columna
+ * vertebral se considera lista ({@link #complete(String)} devuelve true una
+ * única vez).
+ */
+public class DeepScanQueue
+{
+    public static final int TIER_GATEWAY = 0;
+    public static final int TIER_INFRASTRUCTURE = 1;
+    public static final int TIER_SNMP = 2;
+
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>();
+    // Mejor nivel de cada IP pendiente
+    private final Map<String, Integer> pending = new HashMap<>();
+    private final Set<String> backboneInFlight = new HashSet<>();
+    private int backboneTaken;
+    private boolean backboneReady;
+    private long sequence;
+
+    private static final class Entry implements Comparable<Entry>
+    {
+        final String ip;
+        final int tier;
+        final long seq;
+
+        Entry(String ip, int tier, long seq)
+        {
+            this.ip = ip;
+            this.tier = tier;
+            this.seq = seq;
+        }
+
+        @Override
+        public int compareTo(Entry other)
+        {
+            int byTier = Integer.compare(tier, other.tier);
+            return byTier != 0 ? byTier : Long.compare(seq, other.seq);
+        }
+    }
+
+    /**
+     * Encola un objetivo. Si ya estaba pendiente se queda con el mejor nivel.
+     */
+    public synchronized void add(String ip, int tier)
+    {
+        Integer current = pending.get(ip);
+        if(current == null || tier < current)
+        {
+            pending.put(ip, tier);
+            queue.add(new Entry(ip, tier, sequence++));
+        }
+    }
+
+    /**
+     * Sube de nivel un objetivo que sigue pendiente. No hace nada si ya salió
+     * de la cola o no estaba en ella.
+     */
+    public synchronized void promote(String ip, int tier)
+    {
+        Integer current = pending.get(ip);
+        if(current != null && tier < current)
+        {
+            pending.put(ip, tier);
+            queue.add(new Entry(ip, tier, sequence++));
+        }
+    }
+
+    /**
+     * Saca el siguiente objetivo por prioridad o null si la cola está vacía.
+     */
+    public synchronized String poll()
+    {
+        Entry entry;
+        while((entry = queue.poll()) != null)
+        {
+            Integer tier = pending.get(entry.ip);
+            // Entradas obsoletas tras una promoción
+            if(tier == null || tier != entry.tier)
+            {
+                continue;
+            }
+            pending.remove(entry.ip);
+            if(isBackboneTier(tier))
+            {
+                backboneInFlight.add(entry.ip);
+                backboneTaken++;
+            }
+            return entry.ip;
+        }
+        return null;
+    }
+
+    /**
+     * Marca un objetivo como terminado. Devuelve true sólo la primera vez que,
+     * tras ello, no queda infraestructura pendiente ni en curso.
+     */
+    public synchronized boolean complete(String ip)
+    {
+        backboneInFlight.remove(ip);
+        if(backboneReady || backboneTaken == 0 || !backboneInFlight.isEmpty())
+        {
+            return false;
+        }
+        for(Integer tier : pending.values())
+        {
+            if(isBackboneTier(tier))
+            {
+                return false;
+            }
+        }
+        backboneReady = true;
+        return true;
+    }
+
+    /**
+     * Número de objetivos de infraestructura entregados hasta ahora.
+     */
+    public synchronized int getBackboneCount()
+    {
+        return backboneTaken;
+    }
+
+    public synchronized boolean isEmpty()
+    {
+        return pending.isEmpty();
+    }
+
+    private static boolean isBackboneTier(int tier)
+    {
+        return tier <= TIER_INFRASTRUCTURE;
+    }
+}
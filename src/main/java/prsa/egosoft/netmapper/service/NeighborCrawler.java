@@ -0,0 +1,248 @@
+package prsa.egosoft.netmapper.service;
+
+import prsa.egosoft.netmapper.core.RttEstimator;
+import prsa.egosoft.netmapper.core.ScanMetrics;
+import prsa.egosoft.netmapper.core.SnmpClient;
+import prsa.egosoft.netmapper.model.DetectedEndpoint;
+import prsa.egosoft.netmapper.model.NetworkDevice;
+import prsa.egosoft.netmapper.model.NetworkInterface;
+import prsa.egosoft.netmapper.strategy.StandardMibStrategy;
+import prsa.egosoft.netmapper.util.IpRange;
+import prsa.egosoft.netmapper.util.IpRangeSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Descubrimiento por rastreo de vecinos: parte de unas IPs semilla y sólo
+ * visita las direcciones que la propia red anuncia (IPs de gestión de
+ * vecinos LLDP/CDP, next hops de las tablas de rutas y entradas de
+ * ipNetToMediaTable), en vez de barrer rangos enteros.
+ * <p>
+ * Cada candidato se sondea (un GET) y, si responde, se descubre por completo
+ * y se expande a su vez. Las IPs se deduplican (también las del resto de
+ * interfaces de un equipo ya visitado), la profundidad se limita contando
+ * saltos desde la semilla y sólo se visitan las direcciones de los prefijos
+ * permitidos.
+ */
+public class NeighborCrawler
+{
+    private static final Logger logger = LoggerFactory.getLogger(NeighborCrawler.class);
+
+    /** Prefijos por defecto si no se indican: direcciones privadas RFC 1918. */
+    public static final String DEFAULT_ALLOWED_PREFIXES = "10.0.0.0/8,172.16.0.0/12,192.168.0.0/16";
+    public static final int DEFAULT_MAX_DEPTH = 8;
+
+    private static final long PROBE_TIMEOUT_MS = 400;
+
+    private final ScanContext context;
+    private final SnmpClient client;
+    private final IpRangeSet allowed;
+    private final int maxDepth;
+    private final int concurrency;
+    private final Consumer<NetworkDevice> onSuccess;
+    private final StandardMibStrategy strategy = new StandardMibStrategy();
+
+    private final Set<String> seen = ConcurrentHashMap.newKeySet();
+    private final ArrayDeque<Candidate> queue = new ArrayDeque<>();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private int active;
+    private int outstanding;
+
+    private static final class Candidate
+    {
+        final String ip;
+        final int depth;
+
+        Candidate(String ip, int depth)
+        {
+            this.ip = ip;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * @param allowed     Prefijos que se pueden visitar. Las semillas siempre
+     *                    se visitan.
+     * @param maxDepth    Saltos máximos desde una semilla.
+     * @param concurrency Dispositivos descubiertos a la vez.
+     */
+    public NeighborCrawler(ScanContext context, SnmpClient client, IpRangeSet allowed, int maxDepth,
+            int concurrency, Consumer<NetworkDevice> onSuccess)
+    {
+        this.context = context;
+        this.client = client;
+        this.allowed = allowed;
+        this.maxDepth = maxDepth;
+        this.concurrency = Math.max(1, concurrency);
+        this.onSuccess = onSuccess;
+    }
+
+    /**
+     * Rastrea desde las semillas hasta agotar los candidatos o el plazo.
+     *
+     * @return false si se agotó el plazo.
+     */
+    public boolean crawl(Iterable<String> seeds, long timeout, TimeUnit unit) throws InterruptedException
+    {
+        synchronized(this)
+        {
+            for(String seed : seeds)
+            {
+                if(seen.add(seed))
+                {
+                    queue.add(new Candidate(seed, 0));
+                    outstanding++;
+                }
+            }
+            if(outstanding == 0)
+            {
+                return true;
+            }
+        }
+        pump();
+        return done.await(timeout, unit);
+    }
+
+    /**
+     * Arranca candidatos mientras haya hueco.
+     */
+    private void pump()
+    {
+        while(true)
+        {
+            Candidate next;
+            synchronized(this)
+            {
+                if(active >= concurrency || queue.isEmpty())
+                {
+                    return;
+                }
+                next = queue.poll();
+                active++;
+            }
+            visit(next);
+        }
+    }
+
+    private void visit(Candidate candidate)
+    {
+        context.getMetrics().increment(ScanMetrics.CRAWL_CANDIDATES);
+        client.sweepAsync(candidate.ip, PROBE_TIMEOUT_MS).thenCompose(probe ->
+        {
+            if(probe == null)
+            {
+                return CompletableFuture.completedFuture((NetworkDevice) null);
+            }
+            NetworkDevice device = new NetworkDevice(candidate.ip);
+            return strategy.discoverAsync(client, device).thenApply(ignored -> device);
+        }).whenComplete((device, error) ->
+        {
+            if(error != null)
+            {
+                logger.debug("Crawl of {} failed: {}", candidate.ip, error.getMessage());
+            }
+            else if(device != null && device.getSysDescr() != null)
+            {
+                RttEstimator rtt = context.getSnmpSession().findRttEstimator(candidate.ip);
+                if(rtt != null && rtt.hasSamples())
+                {
+                    device.setSnmpSrttMillis(rtt.getSrttMillis());
+                    device.setSnmpRttvarMillis(rtt.getRttvarMillis());
+                }
+                context.getMetrics().increment(ScanMetrics.CRAWL_DEVICES);
+                try
+                {
+                    onSuccess.accept(device);
+                }
+                catch(RuntimeException e)
+                {
+                    logger.warn("Crawl callback failed for {}", candidate.ip, e);
+                }
+                expand(device, candidate.depth);
+            }
+            finish();
+        });
+    }
+
+    /**
+     * Encola las direcciones que el dispositivo anuncia.
+     */
+    private void expand(NetworkDevice device, int depth)
+    {
+        // Las demás IPs del mismo equipo no son dispositivos nuevos
+        for(NetworkInterface ni : device.getInterfaces())
+        {
+            if(ni.getIpAddress() != null)
+            {
+                seen.add(ni.getIpAddress());
+            }
+        }
+        if(depth >= maxDepth)
+        {
+            return;
+        }
+        for(String neighbor : device.getNeighborAddresses())
+        {
+            offer(neighbor, depth + 1);
+        }
+        for(String nextHop : device.getRoutingTable().values())
+        {
+            offer(nextHop, depth + 1);
+        }
+        for(List<DetectedEndpoint> endpoints : device.getMacAddressTable().values())
+        {
+            for(DetectedEndpoint endpoint : endpoints)
+            {
+                if(endpoint.getIpAddress() != null)
+                {
+                    offer(endpoint.getIpAddress(), depth + 1);
+                }
+            }
+        }
+    }
+
+    private void offer(String ip, int depth)
+    {
+        if(!IpRange.isIpv4Literal(ip) || !allowed.contains(ip))
+        {
+            return;
+        }
+        if(!seen.add(ip))
+        {
+            return;
+        }
+        synchronized(this)
+        {
+            queue.add(new Candidate(ip, depth));
+            outstanding++;
+        }
+    }
+
+    private void finish()
+    {
+        boolean finished;
+        synchronized(this)
+        {
+            active--;
+            outstanding--;
+            finished = outstanding == 0;
+        }
+        if(finished)
+        {
+            done.countDown();
+        }
+        else
+        {
+            pump();
+        }
+    }
+}
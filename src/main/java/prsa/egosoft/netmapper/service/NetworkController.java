@@ -2,19 +2,21 @@ package prsa.egosoft.netmapper.service;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import prsa.egosoft.netmapper.model.MonitorEvent;
 import prsa.egosoft.netmapper.model.NetworkDevice;
 import prsa.egosoft.netmapper.core.TopologyInferenceEngine;
 import prsa.egosoft.netmapper.model.NetworkInterfaceInfo;
 import prsa.egosoft.netmapper.util.NetworkDiscoveryUtils;
-import prsa.egosoft.netmapper.util.SubnetUtils;
+import prsa.egosoft.netmapper.util.IpRangeSet;
+import prsa.egosoft.netmapper.util.MacVendorUtils;
 
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.File;
 import java.io.IOException;
@@ -28,11 +30,18 @@ public class NetworkController {
     private final NetworkScannerService scannerService;
     private final Map<String, NetworkDevice> discoveredDevices;
     private final TopologyInferenceEngine inferenceEngine;
+    private volatile Consumer<Map<String, NetworkDevice>> backboneListener;
+    private ScanJournal journal;
+    private volatile boolean monitoring;
+    private volatile PassiveCollector passiveCollector;
 
     public NetworkController() {
         this.scannerService = new NetworkScannerService();
         this.discoveredDevices = new ConcurrentHashMap<>();
         this.inferenceEngine = new TopologyInferenceEngine();
+        // Re-escaneos parten del RTT aprendido de cada agente
+        this.scannerService.setKnownDevices(discoveredDevices);
+        this.scannerService.setBackboneListener(this::previewBackbone);
     }
 
     public void setVerbose(boolean verbose) {
@@ -43,6 +52,68 @@ public class NetworkController {
         inferenceEngine.setForensics(forensics);
     }
 
+    /**
+     * Sets the default GETBULK max-repetitions used by SNMP walks.
+     */
+    public void setMaxRepetitions(int maxRepetitions) {
+        scannerService.setMaxRepetitions(maxRepetitions);
+    }
+
+    /**
+     * Overrides GETBULK max-repetitions for a single device.
+     */
+    public void setMaxRepetitions(String ip, int maxRepetitions) {
+        scannerService.setMaxRepetitions(ip, maxRepetitions);
+    }
+
+    /**
+     * Caps simultaneous SNMP requests sent to any single agent.
+     */
+    public void setAgentInFlightLimit(int limit) {
+        scannerService.setAgentInFlightLimit(limit);
+    }
+
+    /**
+     * Sets the global target of simultaneous SNMP requests across the scan.
+     */
+    public void setGlobalInFlightLimit(int limit) {
+        scannerService.setGlobalInFlightLimit(limit);
+    }
+
+    /**
+     * Paces the active ARP sweep: sustained packets per second and the number
+     * of frames allowed back to back.
+     */
+    public void setArpRate(int packetsPerSecond, int burstSize) {
+        scannerService.setArpRate(packetsPerSecond, burstSize);
+    }
+
+    /**
+     * Allows vendor lookups to query online APIs for MAC prefixes missing from
+     * the bundled registry and the local cache (disabled by default).
+     */
+    public void setOnlineVendorLookup(boolean enabled) {
+        MacVendorUtils.setOnlineLookup(enabled);
+    }
+
+    /**
+     * Selects the executor for per-device scan tasks (virtual threads when the
+     * JDK supports them, or the platform thread pool).
+     */
+    public void setExecutorMode(ScanExecutorMode mode) {
+        scannerService.setExecutorMode(mode);
+    }
+
+    /**
+     * Registers a listener for the early topology preview: as soon as the
+     * infrastructure of a scan has been discovered, inference runs on a copy of
+     * the partial results and the listener receives it, while endpoints are
+     * still being scanned. The full inference still runs at the end.
+     */
+    public void setBackboneListener(Consumer<Map<String, NetworkDevice>> listener) {
+        this.backboneListener = listener;
+    }
+
     public Map<String, NetworkDevice> getDiscoveredDevices() {
         return discoveredDevices;
     }
@@ -70,27 +141,85 @@ public class NetworkController {
         logger.info("Loaded {} devices (including shadow nodes) from {}", discoveredDevices.size(), jsonFile.getName());
     }
 
+    /**
+     * Enables checkpointing to an append-only journal. If the journal already
+     * exists, the devices it holds are restored into the discovered devices
+     * and the targets it lists as completed are skipped by later scans;
+     * new results are appended to it.
+     *
+     * @param journalFile The journal file, created if it does not exist.
+     * @return The number of devices restored from the journal.
+     * @throws IOException If the journal cannot be read or opened for writing.
+     */
+    public int openJournal(File journalFile) throws IOException {
+        closeJournal();
+        journal = ScanJournal.open(journalFile);
+        for (NetworkDevice device : journal.getDevices()) {
+            discoveredDevices.put(device.getIpAddress(), device);
+        }
+        scannerService.setJournal(journal);
+        return journal.getDevices().size();
+    }
+
+    /**
+     * Flushes and closes the checkpoint journal, if any.
+     */
+    public void closeJournal() {
+        if (journal != null) {
+            scannerService.setJournal(null);
+            journal.close();
+            journal = null;
+        }
+    }
+
     /**
      * Triggers the MUDFR inference engine to discover shadow nodes and build
      * physical topology.
      */
     public void processInference() {
         logger.info("Starting MUDFR topology inference (3-Motor Architecture)...");
+        runInference(inferenceEngine, discoveredDevices);
+        logger.info("Inference complete. Total devices tracked: {}", discoveredDevices.size());
+    }
 
+    private static void runInference(TopologyInferenceEngine engine, Map<String, NetworkDevice> devices) {
         // Motor 0: Shadow Node Inference (Discovery Enrichment)
-        Map<String, NetworkDevice> inferredMap = inferenceEngine.inferShadowNodes(discoveredDevices);
-        discoveredDevices.putAll(inferredMap);
+        Map<String, NetworkDevice> inferredMap = engine.inferShadowNodes(devices);
+        devices.putAll(inferredMap);
 
         // Motor 1: Backbone Engine (Deterministic Topology)
-        inferenceEngine.processBackbone(discoveredDevices);
+        engine.processBackbone(devices);
 
         // Motor 2: Edge Engine (Negative Triangulation)
-        inferenceEngine.processEdge(discoveredDevices);
+        engine.processEdge(devices);
 
         // Motor 3: Logical Layer (L3 Adjacencies)
-        inferenceEngine.processLogicalLayer(discoveredDevices);
+        engine.processLogicalLayer(devices);
+    }
 
-        logger.info("Inference complete. Total devices tracked: {}", discoveredDevices.size());
+    /**
+     * Runs inference on a deep copy of the devices discovered so far, so the
+     * scan and the final inference never see the partial results.
+     */
+    private void previewBackbone() {
+        Consumer<Map<String, NetworkDevice>> listener = backboneListener;
+        if (listener == null) {
+            return;
+        }
+        Map<String, NetworkDevice> snapshot = new ConcurrentHashMap<>(new ObjectMapper().convertValue(
+                discoveredDevices, new TypeReference<Map<String, NetworkDevice>>() {
+                }));
+        Thread preview = new Thread(() -> {
+            try {
+                runInference(new TopologyInferenceEngine(), snapshot);
+                logger.info("Backbone preview inference complete: {} devices", snapshot.size());
+                listener.accept(snapshot);
+            } catch (RuntimeException e) {
+                logger.warn("Backbone preview inference failed", e);
+            }
+        }, "backbone-preview");
+        preview.setDaemon(true);
+        preview.start();
     }
 
     /**
@@ -130,43 +259,175 @@ public class NetworkController {
      */
     public void scanNetworkBlocking(String target, String community, Consumer<NetworkDevice> onDeviceFound,
             String localAddress) {
-        List<String> ips = SubnetUtils.getIpList(target);
-        if (ips.isEmpty()) {
+        if (IpRangeSet.parse(target).isEmpty()) {
             logger.error("Invalid target format: {}", target);
             return;
         }
 
-        CountDownLatch latch = new CountDownLatch(ips.size());
+        scannerService.scanNetworkBlocking(target, community, device -> {
+            discoveredDevices.put(device.getIpAddress(), device);
+            if (onDeviceFound != null) {
+                onDeviceFound.accept(device);
+            }
+        }, error -> {
+            // Ignore individual errors (timeouts) during bulk scan
+        }, null, localAddress);
+        processInference();
+    }
+
+    /**
+     * Discovers the network by crawling from seed IPs: each discovered device
+     * contributes its LLDP/CDP neighbor management addresses, route next hops
+     * and ARP entries as new candidates, instead of sweeping whole ranges.
+     *
+     * @param seeds           Seed IPs or ranges.
+     * @param allowedPrefixes Comma-separated CIDRs the crawl may visit, or null
+     *                        for the RFC 1918 private ranges.
+     * @param maxDepth        Maximum hops from a seed.
+     */
+    public void crawlBlocking(String seeds, String community, String allowedPrefixes, int maxDepth,
+            Consumer<NetworkDevice> onDeviceFound, String localAddress) {
+        scannerService.crawlBlocking(seeds, community, allowedPrefixes, maxDepth, device -> {
+            discoveredDevices.put(device.getIpAddress(), device);
+            if (onDeviceFound != null) {
+                onDeviceFound.accept(device);
+            }
+        }, localAddress);
+        processInference();
+    }
 
-        for (String ip : ips) {
-            scannerService.scanDevice(ip, community, device -> {
-                discoveredDevices.put(device.getIpAddress(), device);
-                if (onDeviceFound != null) {
-                    onDeviceFound.accept(device);
+    /**
+     * Keeps re-polling the discovered devices every {@code intervalSeconds}
+     * until {@link #stopMonitor()} is called or the thread is interrupted.
+     * Each cycle costs one GET of change indicators per device plus a full
+     * rediscovery only for the devices that changed (see
+     * {@link NetworkMonitor}); forwarding tables of unchanged devices are only
+     * re-read on a slower, staggered interval. Only the differences are
+     * reported. Inference is re-run only when a cycle changed the topology.
+     *
+     * @param scope             Ranges where new devices are looked for, or
+     *                          null for the RFC 1918 private ranges.
+     * @param onEvent           Receives every change detected.
+     * @param onTopologyChanged Called after inference has been re-run, may be
+     *                          null.
+     */
+    public void monitorBlocking(String scope, String community, long intervalSeconds, Consumer<MonitorEvent> onEvent,
+            Runnable onTopologyChanged) {
+        NetworkMonitor monitor = new NetworkMonitor(scannerService, community, null,
+                scope != null ? IpRangeSet.parse(scope) : null);
+        monitoring = true;
+        try {
+            // The first cycle records the baseline indicators
+            while (monitoring) {
+                List<MonitorEvent> events = monitor.poll(discoveredDevices);
+                boolean topologyChanged = false;
+                for (MonitorEvent event : events) {
+                    topologyChanged |= event.affectsTopology();
+                    if (onEvent != null) {
+                        onEvent.accept(event);
+                    }
                 }
-                latch.countDown();
-            }, error -> {
-                // Ignore individual errors (timeouts) during bulk scan
-                latch.countDown();
-            }, null, localAddress);
+                if (topologyChanged) {
+                    removeInferredDevices();
+                    processInference();
+                    if (onTopologyChanged != null) {
+                        onTopologyChanged.run();
+                    }
+                }
+                if (monitoring) {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(intervalSeconds));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            monitoring = false;
         }
+    }
+
+    /**
+     * Ends a running {@link #monitorBlocking} loop after its current cycle.
+     */
+    public void stopMonitor() {
+        monitoring = false;
+    }
 
+    /**
+     * Learns devices from an offline capture file (ARP, LLDP and CDP frames)
+     * without sending anything, then runs inference.
+     *
+     * @param onDeviceLearned Receives every device added or changed, may be
+     *                        null.
+     * @return the number of frames read.
+     */
+    public long importPcap(File pcapFile, Consumer<NetworkDevice> onDeviceLearned) throws IOException {
+        PassiveCollector collector = new PassiveCollector(discoveredDevices, onDeviceLearned);
+        long frames = collector.readPcap(pcapFile);
+        processInference();
+        return frames;
+    }
+
+    /**
+     * Listens on the given interfaces and adds what ARP, LLDP and CDP traffic
+     * reveals to the discovered devices as it arrives, without sending a
+     * probe. Inference is re-run every {@code inferenceIntervalSeconds} if
+     * something was learned, until {@link #stopPassiveCollect()} is called or
+     * the thread is interrupted.
+     *
+     * @param onDeviceLearned   Receives every device added or changed.
+     * @param onTopologyChanged Called after inference has been re-run, may be
+     *                          null.
+     */
+    public void passiveCollectBlocking(List<String> interfaces, long inferenceIntervalSeconds,
+            Consumer<NetworkDevice> onDeviceLearned, Runnable onTopologyChanged) {
+        PassiveCollector collector = new PassiveCollector(discoveredDevices, onDeviceLearned);
+        if (collector.start(interfaces) == 0) {
+            logger.warn("Passive capture could not open any interface.");
+            return;
+        }
+        passiveCollector = collector;
         try {
-            // Wait with a generous timeout based on the number of IPs
-            // 100 threads in scannerService, 5s timeout per device normally
-            long timeout = Math.max(30, (ips.size() / 100) * 10 + 30);
-            if (!latch.await(timeout, TimeUnit.SECONDS)) {
-                logger.warn("Scan timed out after {} seconds. Some devices might be missing.", timeout);
+            while (passiveCollector == collector) {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(inferenceIntervalSeconds));
+                if (collector.takeChanged()) {
+                    collector.runExclusive(() -> {
+                        removeInferredDevices();
+                        processInference();
+                    });
+                    if (onTopologyChanged != null) {
+                        onTopologyChanged.run();
+                    }
+                }
             }
-            processInference();
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
-            logger.error("Scan interrupted", e);
+        } finally {
+            collector.stop();
+            passiveCollector = null;
         }
     }
 
     /**
-     * Performs automatic discovery of local networks and scans them.
+     * Ends a running {@link #passiveCollectBlocking} loop.
+     */
+    public void stopPassiveCollect() {
+        passiveCollector = null;
+    }
+
+    /**
+     * Drops the shadow nodes added by inference so that the next run starts
+     * from the polled devices only.
+     */
+    private void removeInferredDevices() {
+        discoveredDevices.values()
+                .removeIf(device -> device.getDiscoveryMethod() == NetworkDevice.DiscoveryMethod.ARP_INFERENCE
+                        || device.getDiscoveryMethod() == NetworkDevice.DiscoveryMethod.FDB_SNOOP);
+    }
+
+    /**
+     * Performs automatic discovery of local networks and scans them all
+     * concurrently, each from its own interface and local address, with one
+     * shared in-flight budget. Inference runs once over the merged results.
      */
     public void autoDiscoverBlocking(String community, Consumer<NetworkDevice> onDeviceFound) {
         List<NetworkInterfaceInfo> networks = NetworkDiscoveryUtils.discoverLocalNetworksWithInterfaces();
@@ -175,14 +436,19 @@ public class NetworkController {
             return;
         }
 
-        for (NetworkInterfaceInfo netInfo : networks) {
-            logger.info("Auto-discovering network: {} on {} (Local IP: {})", netInfo.getCidr(),
-                    netInfo.getInterfaceDisplayName(), netInfo.getLocalIp());
-            scanNetworkBlocking(netInfo.getCidr(), community, onDeviceFound, netInfo.getLocalIp());
-        }
+        scannerService.scanNetworksBlocking(networks, community, device -> {
+            discoveredDevices.put(device.getIpAddress(), device);
+            if (onDeviceFound != null) {
+                onDeviceFound.accept(device);
+            }
+        }, error -> {
+            // Ignore individual errors (timeouts) during bulk scan
+        });
+        processInference();
     }
 
     public void shutdown() {
+        closeJournal();
         scannerService.shutdown();
     }
 }
@@ -0,0 +1,451 @@
+package prsa.egosoft.netmapper.service;
+
+import prsa.egosoft.netmapper.core.RttEstimator;
+import prsa.egosoft.netmapper.core.ScanMetrics;
+import prsa.egosoft.netmapper.core.SnmpClient;
+import prsa.egosoft.netmapper.i18n.Messages;
+import prsa.egosoft.netmapper.model.DetectedEndpoint;
+import prsa.egosoft.netmapper.model.MonitorEvent;
+import prsa.egosoft.netmapper.model.NetworkDevice;
+import prsa.egosoft.netmapper.model.NetworkInterface;
+import prsa.egosoft.netmapper.strategy.StandardMibStrategy;
+import prsa.egosoft.netmapper.util.IpRange;
+import prsa.egosoft.netmapper.util.IpRangeSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Re-sondeo diferencial de dispositivos ya descubiertos. En cada ciclo cada
+ * agente SNMP recibe un único GET con sus indicadores de cambio (sysUpTime,
+ * ifNumber, ifTableLastChange y lldpStatsRemTablesLastChangeTime):
+ * <ul>
+ * <li>Sin respuesta en {@link #MISSES_BEFORE_REMOVAL} ciclos seguidos: el
+ * dispositivo se da de baja.</li>
+ * <li>sysUpTime menor que en el ciclo anterior (reinicio) o algún indicador
+ * distinto: descubrimiento completo y comparación con el anterior.</li>
+ * <li>Sin cambios: nada más. La FDB y la tabla ARP, que no tienen indicador
+ * de cambio propio, se releen en un intervalo aparte más lento
+ * ({@link #DEFAULT_FDB_REFRESH_SECONDS}) para detectar MACs que cambian de
+ * puerto; el vencimiento de cada dispositivo se reparte a lo largo del
+ * intervalo para que no coincidan todos en el mismo ciclo.</li>
+ * </ul>
+ * Los indicadores de un dispositivo que ha cambiado sólo se guardan cuando
+ * su redescubrimiento termina bien; si falla, el cambio se vuelve a detectar
+ * en el ciclo siguiente.
+ * Las direcciones nuevas que anuncian los dispositivos (vecinos, next hops,
+ * entradas ARP) dentro del ámbito se sondean una sola vez; las que responden
+ * se descubren y se notifican como altas.
+ * <p>
+ * El primer ciclo fija la línea base de indicadores. Cada ciclo devuelve sólo
+ * las diferencias como {@link MonitorEvent}.
+ */
+public class NetworkMonitor
+{
+    private static final Logger logger = LoggerFactory.getLogger(NetworkMonitor.class);
+
+    public static final long DEFAULT_INTERVAL_SECONDS = 300;
+    public static final int MISSES_BEFORE_REMOVAL = 2;
+    public static final long DEFAULT_FDB_REFRESH_SECONDS = 1800;
+
+    private static final String OID_SYS_UPTIME = "1.3.6.1.2.1.1.3.0";
+    private static final String OID_IF_NUMBER = "1.3.6.1.2.1.2.1.0";
+    private static final String OID_IF_TABLE_LAST_CHANGE = "1.3.6.1.2.1.31.1.5.0";
+    private static final String OID_LLDP_REM_TABLES_LAST_CHANGE = "1.0.8802.1.1.2.1.2.1.0";
+    private static final long PROBE_TIMEOUT_MS = 400;
+    private static final long CYCLE_TIMEOUT_SECONDS = 600;
+
+    private final NetworkScannerService scanner;
+    private final String community;
+    private final String localAddress;
+    private final IpRangeSet scope;
+    private final StandardMibStrategy strategy = new StandardMibStrategy();
+
+    // Indicadores del último ciclo por IP: uptime, ifNumber, ifTableLastChange, lldpLastChange
+    private final Map<String, long[]> indicators = new ConcurrentHashMap<>();
+    private final Map<String, Integer> misses = new ConcurrentHashMap<>();
+    // Próxima relectura de la FDB por IP (System.nanoTime)
+    private final Map<String, Long> fdbRefreshDue = new ConcurrentHashMap<>();
+    private long fdbRefreshNanos = TimeUnit.SECONDS.toNanos(DEFAULT_FDB_REFRESH_SECONDS);
+    // Candidatos ya sondeados que no respondieron: no se repiten
+    private final Set<String> silent = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param scope Direcciones en las que se buscan dispositivos nuevos; null
+     *              para las redes privadas RFC 1918.
+     */
+    public NetworkMonitor(NetworkScannerService scanner, String community, String localAddress, IpRangeSet scope)
+    {
+        this.scanner = scanner;
+        this.community = community;
+        this.localAddress = localAddress;
+        this.scope = scope != null && !scope.isEmpty() ? scope
+                : IpRangeSet.parse(NeighborCrawler.DEFAULT_ALLOWED_PREFIXES);
+    }
+
+    /**
+     * Cada cuánto se relee la FDB de un dispositivo sin cambios.
+     */
+    public void setFdbRefreshInterval(long interval, TimeUnit unit)
+    {
+        this.fdbRefreshNanos = unit.toNanos(interval);
+    }
+
+    /**
+     * Ejecuta un ciclo sobre los dispositivos indicados, que se actualizan en
+     * el propio mapa (altas, bajas y dispositivos redescubiertos).
+     *
+     * @return los cambios detectados en este ciclo.
+     */
+    public List<MonitorEvent> poll(Map<String, NetworkDevice> devices) throws InterruptedException
+    {
+        long start = System.nanoTime();
+        List<MonitorEvent> events = Collections.synchronizedList(new ArrayList<>());
+        Set<String> candidates = ConcurrentHashMap.newKeySet();
+
+        ScanContext context = scanner.openScanContext();
+        try
+        {
+            SnmpClient client = context.createClient(community, localAddress);
+            ScanMetrics metrics = context.getMetrics();
+
+            List<NetworkDevice> managed = new ArrayList<>();
+            for(NetworkDevice device : devices.values())
+            {
+                if(device.getSysDescr() != null && IpRange.isIpv4Literal(device.getIpAddress()))
+                {
+                    managed.add(device);
+                }
+            }
+
+            TargetWindow window = new TargetWindow(TargetWindow.DEFAULT_CAPACITY, CYCLE_TIMEOUT_SECONDS,
+                    TimeUnit.SECONDS);
+            for(NetworkDevice device : managed)
+            {
+                if(!window.acquire())
+                {
+                    break;
+                }
+                metrics.increment(ScanMetrics.MONITOR_POLLED);
+                pollDevice(client, context, device, devices, events, candidates).whenComplete((ignored, error) ->
+                {
+                    if(error != null)
+                    {
+                        logger.debug("Monitor poll of {} failed: {}", device.getIpAddress(), error.getMessage());
+                    }
+                    window.complete();
+                });
+            }
+            if(!window.awaitCompletion())
+            {
+                logger.warn("Monitor cycle timed out ({}/{} devices polled)", window.getCompleted(),
+                        window.getSubmitted());
+            }
+
+            // Altas: sólo direcciones nuevas, cada una se sondea una vez
+            candidates.removeAll(devices.keySet());
+            candidates.removeAll(silent);
+            TargetWindow probeWindow = new TargetWindow(TargetWindow.DEFAULT_CAPACITY, CYCLE_TIMEOUT_SECONDS,
+                    TimeUnit.SECONDS);
+            for(String ip : candidates)
+            {
+                if(!probeWindow.acquire())
+                {
+                    break;
+                }
+                metrics.increment(ScanMetrics.MONITOR_CANDIDATES);
+                discoverNew(client, context, ip, devices, events).whenComplete((ignored, error) ->
+                        probeWindow.complete());
+            }
+            probeWindow.awaitCompletion();
+
+            metrics.add(ScanMetrics.MONITOR_EVENTS, events.size());
+            logger.info("Monitor cycle: {} devices polled, {} rediscovered, {} events in {} ms", managed.size(),
+                    metrics.get(ScanMetrics.MONITOR_REDISCOVERED), events.size(),
+                    (System.nanoTime() - start) / 1_000_000);
+        }
+        catch(IOException e)
+        {
+            logger.error("Could not open SNMP transport for monitor cycle", e);
+        }
+        finally
+        {
+            context.close();
+        }
+        return new ArrayList<>(events);
+    }
+
+    private CompletableFuture<Void> pollDevice(SnmpClient client, ScanContext context, NetworkDevice device,
+            Map<String, NetworkDevice> devices, List<MonitorEvent> events, Set<String> candidates)
+    {
+        String ip = device.getIpAddress();
+        return client.getLongsAsync(ip, OID_SYS_UPTIME, OID_IF_NUMBER, OID_IF_TABLE_LAST_CHANGE,
+                OID_LLDP_REM_TABLES_LAST_CHANGE).thenCompose(current ->
+                {
+                    if(current == null)
+                    {
+                        int missed = misses.merge(ip, 1, Integer::sum);
+                        if(missed >= MISSES_BEFORE_REMOVAL)
+                        {
+                            devices.remove(ip);
+                            indicators.remove(ip);
+                            misses.remove(ip);
+                            fdbRefreshDue.remove(ip);
+                            events.add(new MonitorEvent(MonitorEvent.Type.DEVICE_REMOVED, ip, -1,
+                                    device.getSysName()));
+                        }
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    misses.remove(ip);
+                    long[] previous = indicators.get(ip);
+                    if(previous == null)
+                    {
+                        // Línea base
+                        indicators.put(ip, current);
+                        scheduleFdbRefresh(ip, true);
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    boolean restarted = current[0] >= 0 && previous[0] >= 0 && current[0] < previous[0];
+                    if(restarted || !Arrays.equals(Arrays.copyOfRange(previous, 1, previous.length),
+                            Arrays.copyOfRange(current, 1, current.length)))
+                    {
+                        // Los indicadores nuevos se guardan sólo si el redescubrimiento termina bien
+                        return rediscover(client, context, device, current, restarted, devices, events,
+                                candidates);
+                    }
+                    indicators.put(ip, current);
+                    Long due = fdbRefreshDue.get(ip);
+                    if(device.getMacAddressTable().isEmpty() || (due != null && System.nanoTime() - due < 0))
+                    {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    scheduleFdbRefresh(ip, false);
+                    return refreshMacTable(client, device, events, candidates);
+                });
+    }
+
+    /**
+     * Fija la próxima relectura de la FDB. En la línea base el vencimiento se
+     * reparte dentro del intervalo según la IP.
+     */
+    private void scheduleFdbRefresh(String ip, boolean baseline)
+    {
+        long delay = baseline ? fdbRefreshNanos / 1000 * Math.floorMod(ip.hashCode(), 1000) : fdbRefreshNanos;
+        fdbRefreshDue.put(ip, System.nanoTime() + delay);
+    }
+
+    /**
+     * Descubrimiento completo de un dispositivo que ha cambiado; sustituye al
+     * anterior en el mapa y guarda sus indicadores actuales. Si falla no se
+     * toca nada, de modo que el cambio se vuelve a detectar.
+     */
+    private CompletableFuture<Void> rediscover(SnmpClient client, ScanContext context, NetworkDevice previous,
+            long[] current, boolean restarted, Map<String, NetworkDevice> devices, List<MonitorEvent> events,
+            Set<String> candidates)
+    {
+        String ip = previous.getIpAddress();
+        context.getMetrics().increment(ScanMetrics.MONITOR_REDISCOVERED);
+        NetworkDevice fresh = new NetworkDevice(ip);
+        return strategy.discoverAsync(client, fresh).toCompletableFuture().thenRun(() ->
+        {
+            if(fresh.getSysDescr() == null)
+            {
+                return;
+            }
+            indicators.put(ip, current);
+            // El descubrimiento completo ya incluye la FDB
+            scheduleFdbRefresh(ip, false);
+            if(restarted)
+            {
+                events.add(new MonitorEvent(MonitorEvent.Type.DEVICE_RESTARTED, ip, -1, previous.getSysName()));
+            }
+            fresh.setStabilityScore(previous.getStabilityScore());
+            storeRtt(context, fresh);
+            diffInterfaces(previous, fresh, events);
+            diffNeighbors(previous, fresh, events);
+            diffMacTables(ip, previous.getMacAddressTable(), fresh.getMacAddressTable(), events);
+            collectCandidates(fresh, candidates);
+            devices.put(ip, fresh);
+        });
+    }
+
+    private CompletableFuture<Void> refreshMacTable(SnmpClient client, NetworkDevice device,
+            List<MonitorEvent> events, Set<String> candidates)
+    {
+        String ip = device.getIpAddress();
+        NetworkDevice refreshed = new NetworkDevice(ip);
+        return strategy.refreshMacAddressTableAsync(client, refreshed).toCompletableFuture().thenRun(() ->
+        {
+            diffMacTables(ip, device.getMacAddressTable(), refreshed.getMacAddressTable(), events);
+            device.setMacAddressTable(refreshed.getMacAddressTable());
+            collectCandidates(refreshed, candidates);
+        });
+    }
+
+    private CompletableFuture<Void> discoverNew(SnmpClient client, ScanContext context, String ip,
+            Map<String, NetworkDevice> devices, List<MonitorEvent> events)
+    {
+        return client.sweepAsync(ip, PROBE_TIMEOUT_MS).thenCompose(probe ->
+        {
+            if(probe == null)
+            {
+                silent.add(ip);
+                return CompletableFuture.completedFuture(null);
+            }
+            NetworkDevice device = new NetworkDevice(ip);
+            return strategy.discoverAsync(client, device).toCompletableFuture().thenRun(() ->
+            {
+                if(device.getSysDescr() == null)
+                {
+                    silent.add(ip);
+                    return;
+                }
+                storeRtt(context, device);
+                devices.put(ip, device);
+                events.add(new MonitorEvent(MonitorEvent.Type.DEVICE_ADDED, ip, -1, device.getSysName()));
+            });
+        });
+    }
+
+    private void collectCandidates(NetworkDevice device, Set<String> candidates)
+    {
+        List<String> addresses = new ArrayList<>(device.getNeighborAddresses());
+        addresses.addAll(device.getRoutingTable().values());
+        for(List<DetectedEndpoint> endpoints : device.getMacAddressTable().values())
+        {
+            for(DetectedEndpoint endpoint : endpoints)
+            {
+                if(endpoint.getIpAddress() != null)
+                {
+                    addresses.add(endpoint.getIpAddress());
+                }
+            }
+        }
+        for(String address : addresses)
+        {
+            if(IpRange.isIpv4Literal(address) && scope.contains(address))
+            {
+                candidates.add(address);
+            }
+        }
+    }
+
+    private static void storeRtt(ScanContext context, NetworkDevice device)
+    {
+        RttEstimator rtt = context.getSnmpSession().findRttEstimator(device.getIpAddress());
+        if(rtt != null && rtt.hasSamples())
+        {
+            device.setSnmpSrttMillis(rtt.getSrttMillis());
+            device.setSnmpRttvarMillis(rtt.getRttvarMillis());
+        }
+    }
+
+    /**
+     * Cambios de estado operativo de los enlaces.
+     */
+    private static void diffInterfaces(NetworkDevice previous, NetworkDevice fresh, List<MonitorEvent> events)
+    {
+        String up = Messages.getString("interface.status.up");
+        Map<Integer, String> before = new HashMap<>();
+        for(NetworkInterface ni : previous.getInterfaces())
+        {
+            before.put(ni.getIndex(), ni.getOperStatus());
+        }
+        for(NetworkInterface ni : fresh.getInterfaces())
+        {
+            String old = before.get(ni.getIndex());
+            String now = ni.getOperStatus();
+            if(old == null || now == null || old.equals(now))
+            {
+                continue;
+            }
+            if(up.equals(now))
+            {
+                events.add(new MonitorEvent(MonitorEvent.Type.LINK_UP, fresh.getIpAddress(), ni.getIndex(),
+                        ni.getDescription()));
+            }
+            else if(up.equals(old))
+            {
+                events.add(new MonitorEvent(MonitorEvent.Type.LINK_DOWN, fresh.getIpAddress(), ni.getIndex(),
+                        ni.getDescription()));
+            }
+        }
+    }
+
+    /**
+     * Vecinos LLDP que aparecen o desaparecen en cada puerto.
+     */
+    private static void diffNeighbors(NetworkDevice previous, NetworkDevice fresh, List<MonitorEvent> events)
+    {
+        Map<Integer, String> before = previous.getLldpNeighbors();
+        Map<Integer, String> after = fresh.getLldpNeighbors();
+        for(Map.Entry<Integer, String> entry : before.entrySet())
+        {
+            if(!entry.getValue().equals(after.get(entry.getKey())))
+            {
+                events.add(new MonitorEvent(MonitorEvent.Type.NEIGHBOR_REMOVED, fresh.getIpAddress(),
+                        entry.getKey(), entry.getValue()));
+            }
+        }
+        for(Map.Entry<Integer, String> entry : after.entrySet())
+        {
+            if(!entry.getValue().equals(before.get(entry.getKey())))
+            {
+                events.add(new MonitorEvent(MonitorEvent.Type.NEIGHBOR_ADDED, fresh.getIpAddress(),
+                        entry.getKey(), entry.getValue()));
+            }
+        }
+    }
+
+    /**
+     * MACs de la FDB que siguen aprendidas pero en otro puerto. Las que
+     * aparecen o caducan no se notifican: es el envejecimiento normal de la
+     * tabla. Las entradas ARP (con IP) se ignoran porque su índice es una
+     * interfaz L3, no un puerto.
+     */
+    private static void diffMacTables(String ip, Map<Integer, List<DetectedEndpoint>> before,
+            Map<Integer, List<DetectedEndpoint>> after, List<MonitorEvent> events)
+    {
+        Map<String, Integer> oldPorts = fdbPorts(before);
+        if(oldPorts.isEmpty())
+        {
+            return;
+        }
+        for(Map.Entry<String, Integer> entry : fdbPorts(after).entrySet())
+        {
+            Integer oldPort = oldPorts.get(entry.getKey());
+            if(oldPort != null && !oldPort.equals(entry.getValue()))
+            {
+                events.add(new MonitorEvent(MonitorEvent.Type.MAC_MOVED, ip, entry.getValue(),
+                        entry.getKey() + " (" + oldPort + " -> " + entry.getValue() + ")"));
+            }
+        }
+    }
+
+    private static Map<String, Integer> fdbPorts(Map<Integer, List<DetectedEndpoint>> table)
+    {
+        Map<String, Integer> ports = new HashMap<>();
+        for(Map.Entry<Integer, List<DetectedEndpoint>> entry : table.entrySet())
+        {
+            for(DetectedEndpoint endpoint : entry.getValue())
+            {
+                if(endpoint.getIpAddress() == null && endpoint.getMacAddress() != null)
+                {
+                    ports.put(endpoint.getMacAddress(), entry.getKey());
+                }
+            }
+        }
+        return ports;
+    }
+}
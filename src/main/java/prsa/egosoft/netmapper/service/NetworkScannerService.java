@@ -1,22 +1,30 @@
 package prsa.egosoft.netmapper.service;
 
 import prsa.egosoft.netmapper.Main;
+import prsa.egosoft.netmapper.core.RttEstimator;
+import prsa.egosoft.netmapper.core.ScanMetrics;
 import prsa.egosoft.netmapper.core.SnmpClient;
+import prsa.egosoft.netmapper.core.SnmpRequestScheduler;
+import prsa.egosoft.netmapper.core.SnmpSession;
 import prsa.egosoft.netmapper.model.NetworkDevice;
+import prsa.egosoft.netmapper.model.NetworkInterfaceInfo;
 import prsa.egosoft.netmapper.strategy.DiscoveryStrategy;
 import prsa.egosoft.netmapper.strategy.StandardMibStrategy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.Map;
 
-import prsa.egosoft.netmapper.util.SubnetUtils;
-import prsa.egosoft.netmapper.scan.ArpScanner;
+import prsa.egosoft.netmapper.util.IpRangeSet;
+import prsa.egosoft.netmapper.scan.ArpPassScheduler;
+import prsa.egosoft.netmapper.scan.ArpFrameSender;
 import prsa.egosoft.netmapper.scan.PcapArpScanner;
 
 /**
@@ -25,11 +33,71 @@ import prsa.egosoft.netmapper.scan.PcapArpScanner;
 public class NetworkScannerService
 {
     private static final Logger logger = LoggerFactory.getLogger(NetworkScannerService.class);
+    private static final long PROBE_TIMEOUT_MS = 400;
     private ExecutorService executorService;
+    private ScanExecutorMode executorMode;
+    private int defaultMaxRepetitions = SnmpSession.DEFAULT_MAX_REPETITIONS;
+    private final Map<String, Integer> maxRepetitionsOverrides = new java.util.concurrent.ConcurrentHashMap<>();
+    private Map<String, NetworkDevice> knownDevices;
+    private int agentInFlightLimit = SnmpRequestScheduler.DEFAULT_AGENT_LIMIT;
+    private int globalInFlightLimit = SnmpRequestScheduler.DEFAULT_GLOBAL_LIMIT;
+    private volatile Runnable backboneListener;
+    private volatile ScanJournal journal;
+    private int arpPacketsPerSecond = ArpFrameSender.DEFAULT_PACKETS_PER_SECOND;
+    private int arpBurstSize = ArpFrameSender.DEFAULT_BURST_SIZE;
     
     public NetworkScannerService()
     {
-        this.executorService = Executors.newFixedThreadPool(300); // 300 threads to process /24 in one pass
+        this(ScanExecutorMode.AUTO);
+    }
+    
+    public NetworkScannerService(ScanExecutorMode executorMode)
+    {
+        this.executorMode = executorMode.resolve();
+        this.executorService = this.executorMode.create();
+        logger.debug("Scan executor mode: {}", this.executorMode);
+    }
+    
+    /**
+     * Cambia el ejecutor de tareas por dispositivo. Las tareas ya encoladas
+     * terminan en el ejecutor anterior.
+     */
+    public synchronized void setExecutorMode(ScanExecutorMode mode)
+    {
+        ScanExecutorMode resolved = mode.resolve();
+        if(resolved == executorMode)
+        {
+            return;
+        }
+        ExecutorService previous = executorService;
+        executorService = resolved.create();
+        executorMode = resolved;
+        previous.shutdown();
+        logger.info("Scan executor mode: {}", executorMode);
+    }
+    
+    /**
+     * Modo efectivo del ejecutor (VIRTUAL o PLATFORM).
+     */
+    public ScanExecutorMode getExecutorMode()
+    {
+        return executorMode;
+    }
+    
+    /**
+     * max-repetitions por defecto de los walks GETBULK.
+     */
+    public void setMaxRepetitions(int maxRepetitions)
+    {
+        this.defaultMaxRepetitions = maxRepetitions;
+    }
+    
+    /**
+     * max-repetitions específico para un dispositivo.
+     */
+    public void setMaxRepetitions(String ip, int maxRepetitions)
+    {
+        maxRepetitionsOverrides.put(ip, maxRepetitions);
     }
     
     /**
@@ -67,98 +135,461 @@ public class NetworkScannerService
     {
         new Thread(() ->
         {
-            List<String> ips = SubnetUtils.getIpList(cidrInput);
-            if(ips.isEmpty())
+            scanNetworkBlocking(cidrInput, community, onSuccess, onError, interfaceName, localAddress);
+            if(onComplete != null)
+            {
+                onComplete.run();
+            }
+        }).start();
+    }
+    
+    /**
+     * Escanea un rango de red bloqueando hasta que terminen todas las IPs.
+     * <p>
+     * Dos niveles. Barrido rápido: ARP activo (si hay privilegios) y sondeo
+     * SNMP de sysObjectID/sysServices en paralelo sobre todo el rango.
+     * Descubrimiento MIB completo sólo para los dispositivos que respondieron
+     * al sondeo, por prioridad ({@link DeepScanQueue}): gateways y equipos de
+     * red primero, para tener cuanto antes la columna vertebral de la
+     * topología. El resto sólo pasa por la estrategia ARP local, que no genera
+     * tráfico SNMP.
+     * <p>
+     * Con un diario ({@link #setJournal(ScanJournal)}) se saltan los objetivos
+     * que ya terminaron y se registra cada objetivo al terminar.
+     */
+    public void scanNetworkBlocking(String cidrInput, String community, Consumer<NetworkDevice> onSuccess,
+            Consumer<String> onError, String interfaceName, String localAddress)
+    {
+        ScanContext context = openScanContext();
+        try
+        {
+            scanRange(cidrInput, community, onSuccess, onError, interfaceName, localAddress, context);
+        }
+        finally
+        {
+            closeScanContext(context);
+        }
+    }
+    
+    /**
+     * Escanea varias redes locales a la vez, cada una desde su interfaz (ARP
+     * con su propio handle pcap y SNMP ligado a su dirección local). Todas
+     * comparten un único contexto: una sesión SNMP con un socket por
+     * dirección local y un solo planificador, así que el presupuesto global
+     * de peticiones en vuelo es común. Bloquea hasta que terminan todas.
+     */
+    public void scanNetworksBlocking(List<NetworkInterfaceInfo> networks, String community,
+            Consumer<NetworkDevice> onSuccess, Consumer<String> onError)
+    {
+        ScanContext context = openScanContext();
+        List<Thread> workers = new java.util.ArrayList<>();
+        try
+        {
+            for(NetworkInterfaceInfo network : networks)
+            {
+                Thread worker = new Thread(() ->
+                {
+                    logger.info("Auto-discovering network: {} on {} (Local IP: {})", network.getCidr(),
+                            network.getInterfaceDisplayName(), network.getLocalIp());
+                    try
+                    {
+                        scanRange(network.getCidr(), community, onSuccess, onError, network.getInterfaceName(),
+                                network.getLocalIp(), context);
+                    }
+                    catch(RuntimeException e)
+                    {
+                        logger.error("Scan of {} failed", network.getCidr(), e);
+                    }
+                }, "scan-" + network.getInterfaceName());
+                workers.add(worker);
+                worker.start();
+            }
+            for(Thread worker : workers)
+            {
+                worker.join();
+            }
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            workers.forEach(Thread::interrupt);
+            logger.error("Auto-discovery interrupted", e);
+        }
+        finally
+        {
+            closeScanContext(context);
+        }
+    }
+    
+    /**
+     * Vuelca el diario y cierra el contexto de un escaneo.
+     */
+    private void closeScanContext(ScanContext context)
+    {
+        ScanJournal journal = this.journal;
+        if(journal != null)
+        {
+            journal.flush();
+            journal.reportTo(context.getMetrics());
+        }
+        context.close();
+    }
+    
+    /**
+     * Escaneo de un rango dentro de un contexto abierto por el llamante.
+     */
+    private void scanRange(String cidrInput, String community, Consumer<NetworkDevice> onSuccess,
+            Consumer<String> onError, String interfaceName, String localAddress, ScanContext context)
+    {
+        long scanStart = System.nanoTime();
+        // Rangos fusionados sobre enteros: las IPs se generan al recorrerlos
+        IpRangeSet ips = IpRangeSet.parse(cidrInput);
+        if(ips.isEmpty())
+        {
+            if(onError != null)
+            {
+                onError.accept(
+                        prsa.egosoft.netmapper.i18n.Messages.getString("message.error_invalid_format", cidrInput));
+            }
+            return;
+        }
+        
+        logger.info("Starting network scan: {} IPs detected in range {}", ips.size(), cidrInput);
+        
+        // Phase 1.5: Temporal Tracking. Las pasadas 2..N sólo repiten los que
+        // no han respondido y una muestra de los que sí (ArpPassScheduler)
+        Map<String, String> activeArpMap = new java.util.HashMap<>();
+        Map<String, Double> arpStability = new java.util.HashMap<>();
+        if(Main.IS_ADMIN)
+        {
+            try
             {
-                if(onError != null)
+                PcapArpScanner arpScanner = new PcapArpScanner(arpPacketsPerSecond, arpBurstSize);
+                ArpPassScheduler.Result arp;
+                try
                 {
-                    onError.accept(
-                            prsa.egosoft.netmapper.i18n.Messages.getString("message.error_invalid_format", cidrInput));
+                    arp = new ArpPassScheduler(arpScanner).run(ips.asList(), interfaceName);
                 }
-                if(onComplete != null)
+                finally
                 {
-                    onComplete.run();
+                    arpScanner.reportTo(context.getMetrics());
                 }
+                activeArpMap.putAll(arp.getMacs());
+                arp.getObservations().forEach((ip, observation) -> arpStability.put(ip, observation.getStability()));
+                logger.info("Temporal ARP Scan detected {} unique devices in {} passes ({} probes).",
+                        activeArpMap.size(), arp.getPasses(), arp.getProbesSent());
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
                 return;
             }
+            catch(Exception | LinkageError e)
+            {
+                logger.warn("Could not perform temporal ARP scan (Pcap4J): {}", e.getMessage());
+            }
+        }
+        
+        ScanJournal journal = this.journal;
+        long timeoutSeconds = Math.max(600, (ips.size() / 100) * 10 + 30);
+        try
+        {
+            // Phase 2: SNMP liveness probe
+            Map<String, SnmpClient.ProbeResult> responders = probeTargets(ips, community, localAddress, context,
+                    timeoutSeconds, journal);
             
-            logger.info("Starting network scan: {} IPs detected in range {}", ips.size(), cidrInput);
+            // Phase 3: Deep discovery (SNMP completo sólo para los que respondieron),
+            // infraestructura primero
+            long deepStart = System.nanoTime();
+            DeepScanQueue queue = new DeepScanQueue();
+            java.util.Set<String> gateways = knownGateways();
+            responders.forEach((ip, probe) -> queue.add(ip, classifyTarget(ip, probe, gateways)));
             
-            // Phase 1.5: Temporal Tracking (3 passes to calculate stability)
-            Map<String, String> activeArpMap = new java.util.HashMap<>();
-            Map<String, Integer> observationCounts = new java.util.HashMap<>();
-            int maxPasses = 3;
-            if(Main.IS_ADMIN)
+            // Pocos dispositivos a la vez, para que el orden de la cola se respete
+            // también en el planificador de peticiones
+            int deepConcurrency = Math.max(1, globalInFlightLimit / agentInFlightLimit);
+            TargetWindow snmpWindow = new TargetWindow(deepConcurrency, timeoutSeconds,
+                    java.util.concurrent.TimeUnit.SECONDS);
+            Runnable onBackbone = () ->
             {
-                try
+                long backboneMillis = (System.nanoTime() - scanStart) / 1_000_000;
+                context.getMetrics().add(ScanMetrics.SCAN_BACKBONE_MS, backboneMillis);
+                context.getMetrics().add(ScanMetrics.SCAN_BACKBONE_DEVICES, queue.getBackboneCount());
+                logger.info("Topology backbone ready: {} infrastructure devices in {} ms", queue.getBackboneCount(),
+                        backboneMillis);
+                Runnable listener = backboneListener;
+                if(listener != null)
                 {
-                    ArpScanner scanner = new PcapArpScanner();
-                    for(int pass = 1; pass <= maxPasses; pass++)
-                    {
-                        logger.info("ARP Pass {}/{}", pass, maxPasses);
-                        Map<String, String> currentPass = scanner.scan(ips, interfaceName);
-                        for(Map.Entry<String, String> entry : currentPass.entrySet())
-                        {
-                            activeArpMap.put(entry.getKey(), entry.getValue());
-                            observationCounts.put(entry.getKey(),
-                                    observationCounts.getOrDefault(entry.getKey(), 0) + 1);
-                        }
-                        if(pass < maxPasses)
-                        {
-                            Thread.sleep(2000); // Small gap between passes for this implementation
-                        }
-                    }
-                    logger.info("Temporal ARP Scan detected {} unique devices.", activeArpMap.size());
+                    listener.run();
                 }
-                catch(Exception e)
+            };
+            String next;
+            while((next = queue.poll()) != null)
+            {
+                if(!snmpWindow.acquire())
                 {
-                    logger.warn("Could not perform temporal ARP scan (Pcap4J): {}", e.getMessage());
+                    break;
                 }
+                String ip = next;
+                submitDeepScan(ip, community, onSuccess, onError, localAddress, context, activeArpMap,
+                        arpStability, true, device ->
+                        {
+                            // Los next hops de un router suben al primer nivel
+                            if(device != null)
+                            {
+                                for(String nextHop : device.getRoutingTable().values())
+                                {
+                                    queue.promote(nextHop, DeepScanQueue.TIER_GATEWAY);
+                                }
+                            }
+                            if(journal != null)
+                            {
+                                journal.record(ip, device);
+                            }
+                            if(queue.complete(ip))
+                            {
+                                onBackbone.run();
+                            }
+                            snmpWindow.complete();
+                        });
             }
             
-            java.util.concurrent.CountDownLatch latch = new java.util.concurrent.CountDownLatch(ips.size());
-            
+            // Objetivos sin SNMP (sólo estrategia ARP), en flujo desde el rango
+            TargetWindow window = new TargetWindow(TargetWindow.DEFAULT_CAPACITY, timeoutSeconds,
+                    java.util.concurrent.TimeUnit.SECONDS);
             for(String ip : ips)
             {
-                String knownMac = activeArpMap.get(ip);
-                double stability = (double) observationCounts.getOrDefault(ip, 0) / maxPasses;
-                scanDevice(ip, community, device ->
+                if(responders.containsKey(ip) || (journal != null && journal.isCompleted(ip)))
                 {
-                    device.setStabilityScore(stability);
-                    if(onSuccess != null)
-                    {
-                        onSuccess.accept(device);
-                    }
-                    latch.countDown();
-                }, error ->
+                    continue;
+                }
+                // Sin SNMP sólo queda la estrategia ARP, que exige administrador:
+                // si ni el barrido activo ni la tabla ARP del sistema (una
+                // búsqueda en la instantánea compartida) conocen la IP, no se
+                // lanza tarea para ella
+                if(!Main.IS_ADMIN || (!activeArpMap.containsKey(ip) && context.getArpTable().lookup(ip) == null))
                 {
-                    if(onError != null)
+                    // No responde a nada que podamos preguntar: terminado
+                    if(journal != null)
                     {
-                        onError.accept(error);
+                        journal.record(ip, null);
                     }
-                    latch.countDown();
-                }, knownMac, localAddress);
+                    continue;
+                }
+                if(!window.acquire())
+                {
+                    break;
+                }
+                submitDeepScan(ip, community, onSuccess, onError, localAddress, context, activeArpMap,
+                        arpStability, false, device ->
+                        {
+                            if(journal != null)
+                            {
+                                journal.record(ip, device);
+                            }
+                            window.complete();
+                        });
             }
             
-            try
+            // Wait for all devices to be processed
+            if(!snmpWindow.awaitCompletion() || !window.awaitCompletion())
             {
-                // Wait for all devices to be processed
-                if(!latch.await(600, java.util.concurrent.TimeUnit.SECONDS))
-                {
-                    logger.warn("Scan timed out before all devices were processed");
-                }
+                logger.warn("Scan timed out before all devices were processed ({}/{})",
+                        snmpWindow.getCompleted() + window.getCompleted(),
+                        snmpWindow.getSubmitted() + window.getSubmitted());
             }
-            catch(InterruptedException e)
+            long deepMillis = (System.nanoTime() - deepStart) / 1_000_000;
+            context.getMetrics().add(ScanMetrics.SCAN_DEEP_MS, deepMillis);
+            logger.info("Deep discovery phase: {} targets ({} SNMP, {} infrastructure) in {} ms",
+                    snmpWindow.getSubmitted() + window.getSubmitted(), snmpWindow.getSubmitted(),
+                    queue.getBackboneCount(), deepMillis);
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            logger.error("Scan interrupted", e);
+        }
+    }
+    
+    /**
+     * Descubrimiento por rastreo de vecinos ({@link NeighborCrawler}): parte de
+     * las semillas y sólo visita las IPs que anuncian los dispositivos ya
+     * descubiertos. Bloquea hasta agotar los candidatos.
+     *
+     * @param seeds           IPs o rangos semilla (mismo formato que un escaneo).
+     * @param allowedPrefixes Prefijos que se pueden visitar (CIDR separados por
+     *                        comas); null para las redes privadas RFC 1918.
+     * @param maxDepth        Saltos máximos desde una semilla.
+     */
+    public void crawlBlocking(String seeds, String community, String allowedPrefixes, int maxDepth,
+            Consumer<NetworkDevice> onSuccess, String localAddress)
+    {
+        IpRangeSet seedSet = IpRangeSet.parse(seeds);
+        if(seedSet.isEmpty())
+        {
+            logger.error("Invalid crawl seeds: {}", seeds);
+            return;
+        }
+        IpRangeSet allowed = IpRangeSet.parse(allowedPrefixes != null && !allowedPrefixes.trim().isEmpty()
+                ? allowedPrefixes : NeighborCrawler.DEFAULT_ALLOWED_PREFIXES);
+        logger.info("Starting neighbor crawl from {} seeds (max depth {}, allowed {})", seedSet.size(), maxDepth,
+                allowed);
+        
+        ScanContext context = openScanContext();
+        try
+        {
+            NeighborCrawler crawler = new NeighborCrawler(context, context.createClient(community, localAddress),
+                    allowed, maxDepth, Math.max(1, globalInFlightLimit / agentInFlightLimit),
+                    device -> onSuccess.accept(device));
+            if(!crawler.crawl(seedSet, 1, java.util.concurrent.TimeUnit.HOURS))
             {
-                Thread.currentThread().interrupt();
-                logger.error("Scan interrupted", e);
+                logger.warn("Neighbor crawl timed out");
             }
-            
-            if(onComplete != null)
+            logger.info("Neighbor crawl finished: {} devices from {} candidates",
+                    context.getMetrics().get(ScanMetrics.CRAWL_DEVICES),
+                    context.getMetrics().get(ScanMetrics.CRAWL_CANDIDATES));
+        }
+        catch(java.io.IOException e)
+        {
+            logger.error("Could not open SNMP transport for crawl", e);
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            logger.error("Crawl interrupted", e);
+        }
+        finally
+        {
+            context.close();
+        }
+    }
+    
+    /**
+     * Lanza el descubrimiento de un objetivo. {@code onDone} recibe el
+     * dispositivo (null si falló o no respondió) cuando termina, por cualquier
+     * camino.
+     */
+    private void submitDeepScan(String ip, String community, Consumer<NetworkDevice> onSuccess,
+            Consumer<String> onError, String localAddress, ScanContext context, Map<String, String> activeArpMap,
+            Map<String, Double> arpStability, boolean snmpAlive, Consumer<NetworkDevice> onDone)
+    {
+        String knownMac = activeArpMap.get(ip);
+        double stability = arpStability.getOrDefault(ip, 0.0);
+        AtomicReference<NetworkDevice> scanned = new AtomicReference<>();
+        scanDevice(ip, community, device ->
+        {
+            device.setStabilityScore(stability);
+            scanned.set(device);
+            if(onSuccess != null)
             {
-                onComplete.run();
+                onSuccess.accept(device);
             }
-        }).start();
+        }, onError, knownMac, localAddress, context, () -> onDone.accept(scanned.get()), snmpAlive);
+    }
+    
+    /**
+     * Nivel de prioridad de un agente SNMP a partir del sondeo y de lo que se
+     * sabe de escaneos anteriores.
+     */
+    private int classifyTarget(String ip, SnmpClient.ProbeResult probe, java.util.Set<String> gateways)
+    {
+        if(gateways.contains(ip))
+        {
+            return DeepScanQueue.TIER_GATEWAY;
+        }
+        if(probe.isNetworkDevice())
+        {
+            return DeepScanQueue.TIER_INFRASTRUCTURE;
+        }
+        NetworkDevice known = knownDevices != null ? knownDevices.get(ip) : null;
+        if(known != null)
+        {
+            NetworkDevice.DeviceType type = known.getTypeEnum();
+            String layer = known.getLayer();
+            if(type == NetworkDevice.DeviceType.SWITCH || type == NetworkDevice.DeviceType.ROUTER
+                    || type == NetworkDevice.DeviceType.FIREWALL || "core".equals(layer)
+                    || "distribution".equals(layer) || "access".equals(layer))
+            {
+                return DeepScanQueue.TIER_INFRASTRUCTURE;
+            }
+        }
+        return DeepScanQueue.TIER_SNMP;
+    }
+    
+    /**
+     * Next hops de las tablas de rutas de escaneos anteriores.
+     */
+    private java.util.Set<String> knownGateways()
+    {
+        java.util.Set<String> gateways = new java.util.HashSet<>();
+        if(knownDevices != null)
+        {
+            for(NetworkDevice known : knownDevices.values())
+            {
+                gateways.addAll(known.getRoutingTable().values());
+            }
+        }
+        return gateways;
+    }
+    
+    /**
+     * Sondea en paralelo todo el rango con un único GET de sysObjectID de
+     * timeout corto. Devuelve las IPs que respondieron. Los objetivos ya
+     * terminados según el diario no se sondean.
+     */
+    private Map<String, SnmpClient.ProbeResult> probeTargets(IpRangeSet ips, String community, String localAddress,
+            ScanContext context, long timeoutSeconds, ScanJournal journal) throws InterruptedException
+    {
+        long start = System.nanoTime();
+        Map<String, SnmpClient.ProbeResult> responders = new java.util.concurrent.ConcurrentHashMap<>();
+        SnmpClient client;
+        try
+        {
+            client = context.createClient(community, localAddress);
+        }
+        catch(java.io.IOException e)
+        {
+            logger.error("Could not open SNMP transport for probe phase", e);
+            return responders;
+        }
+        // Los sondeos son asíncronos: el planificador de la sesión regula cuántos
+        // van en vuelo y la ventana cuántos hay pendientes, sin ocupar un hilo ni
+        // un futuro por cada IP del rango
+        TargetWindow window = new TargetWindow(TargetWindow.DEFAULT_CAPACITY, timeoutSeconds,
+                java.util.concurrent.TimeUnit.SECONDS);
+        for(String ip : ips)
+        {
+            if(journal != null && journal.isCompleted(ip))
+            {
+                journal.skip();
+                continue;
+            }
+            if(!window.acquire())
+            {
+                break;
+            }
+            client.sweepAsync(ip, PROBE_TIMEOUT_MS).whenComplete((probe, error) ->
+            {
+                if(probe != null)
+                {
+                    responders.put(ip, probe);
+                }
+                window.complete();
+            });
+        }
+        if(!window.awaitCompletion())
+        {
+            logger.warn("SNMP probe phase timed out after {}/{} probes; continuing with {} responders",
+                    window.getCompleted(), window.getSubmitted(), responders.size());
+        }
+        long probeMillis = (System.nanoTime() - start) / 1_000_000;
+        ScanMetrics metrics = context.getMetrics();
+        metrics.add(ScanMetrics.SCAN_PROBE_MS, probeMillis);
+        metrics.add(ScanMetrics.SCAN_PROBE_TARGETS, window.getSubmitted());
+        metrics.add(ScanMetrics.SCAN_PROBE_RESPONDERS, responders.size());
+        logger.info("SNMP probe phase: {}/{} responders in {} ms", responders.size(), window.getSubmitted(),
+                probeMillis);
+        return responders;
     }
     
     public void scanDevice(String ip, String community, Consumer<NetworkDevice> onSuccess, Consumer<String> onError)
@@ -167,21 +598,104 @@ public class NetworkScannerService
     }
     
     /**
-     * Escanea un único dispositivo IP de forma asíncrona.
+     * Escanea un único dispositivo IP de forma asíncrona, con su propio contexto
+     * de escaneo.
      */
     public void scanDevice(String ip, String community, Consumer<NetworkDevice> onSuccess, Consumer<String> onError,
             String knownMac, String localAddress)
+    {
+        ScanContext context = openScanContext();
+        scanDevice(ip, community, onSuccess, onError, knownMac, localAddress, context, context::close, true);
+    }
+    
+    /**
+     * Abre un contexto de escaneo (sesión SNMP compartida y métricas). El
+     * llamante debe cerrarlo cuando terminen todas las tareas.
+     */
+    public ScanContext openScanContext()
+    {
+        ScanContext context = new ScanContext();
+        SnmpSession session = context.getSnmpSession();
+        session.setDefaultMaxRepetitions(defaultMaxRepetitions);
+        maxRepetitionsOverrides.forEach(session::setMaxRepetitions);
+        session.getScheduler().setAgentLimit(agentInFlightLimit);
+        session.getScheduler().setGlobalLimit(globalInFlightLimit);
+        if(knownDevices != null)
+        {
+            for(NetworkDevice known : knownDevices.values())
+            {
+                session.seedRtt(known.getIpAddress(), known.getSnmpSrttMillis(), known.getSnmpRttvarMillis());
+            }
+        }
+        return context;
+    }
+    
+    /**
+     * Máximo de peticiones SNMP simultáneas a un mismo agente.
+     */
+    public void setAgentInFlightLimit(int limit)
+    {
+        this.agentInFlightLimit = Math.max(1, limit);
+    }
+    
+    /**
+     * Objetivo global de peticiones SNMP simultáneas en todo el escaneo.
+     */
+    public void setGlobalInFlightLimit(int limit)
+    {
+        this.globalInFlightLimit = Math.max(1, limit);
+    }
+    
+    /**
+     * Ritmo de envío del barrido ARP activo: paquetes por segundo sostenidos
+     * (0 sin límite) y ráfaga máxima.
+     */
+    public void setArpRate(int packetsPerSecond, int burstSize)
+    {
+        this.arpPacketsPerSecond = packetsPerSecond;
+        this.arpBurstSize = Math.max(1, burstSize);
+    }
+    
+    /**
+     * Dispositivos ya conocidos (p. ej. de un escaneo anterior o un mapa
+     * cargado). Se usan para arrancar cada escaneo con el RTT aprendido de
+     * cada agente en lugar del timeout por defecto.
+     */
+    public void setKnownDevices(Map<String, NetworkDevice> knownDevices)
+    {
+        this.knownDevices = knownDevices;
+    }
+    
+    /**
+     * Escanea un único dispositivo IP de forma asíncrona dentro de un escaneo en
+     * curso, reutilizando la sesión SNMP del contexto.
+     */
+    public void scanDevice(String ip, String community, Consumer<NetworkDevice> onSuccess, Consumer<String> onError,
+            String knownMac, String localAddress, ScanContext context)
+    {
+        scanDevice(ip, community, onSuccess, onError, knownMac, localAddress, context, null, true);
+    }
+    
+    /**
+     * {@code onDone} (puede ser null) se ejecuta una sola vez al terminar, por
+     * cualquier camino y aunque los callbacks lancen una excepción: libera el
+     * hueco del objetivo en la ventana o cierra el contexto.
+     */
+    private void scanDevice(String ip, String community, Consumer<NetworkDevice> onSuccess, Consumer<String> onError,
+            String knownMac, String localAddress, ScanContext context, Runnable onDone, boolean snmpAlive)
     {
         executorService.submit(() ->
         {
-            SnmpClient client = null;
+            SnmpClient client;
+            NetworkDevice device;
+            CompletionStage<Void> snmpDiscovery;
             try
             {
                 // logger.info("Scanning {}", ip); // Reduce log noise for bulk scans
-                client = new SnmpClient(community, localAddress);
+                client = context.createClient(community, localAddress);
                 
                 // Crear dispositivo
-                NetworkDevice device = new NetworkDevice(ip);
+                device = new NetworkDevice(ip);
                 
                 // Si tenemos MAC del escaneo activo, la asignamos directamente
                 if(knownMac != null)
@@ -195,7 +709,8 @@ public class NetworkScannerService
                 }
                 
                 // Cadena de estrategias: ARP primero (rápido), luego SNMP (detallado)
-                DiscoveryStrategy arpStrategy = new prsa.egosoft.netmapper.strategy.ArpDiscoveryStrategy();
+                DiscoveryStrategy arpStrategy = new prsa.egosoft.netmapper.strategy.ArpDiscoveryStrategy(
+                        context.getArpTable());
                 DiscoveryStrategy snmpStrategy = new StandardMibStrategy();
                 
                 // 1. ARP Discovery (rápido)
@@ -204,53 +719,123 @@ public class NetworkScannerService
                     arpStrategy.discover(client, device);
                 }
                 
-                // 2. SNMP Discovery (detallado)
-                // Usamos client para SNMP
-                if(snmpStrategy.isApplicable(device.getSysDescr(), device.getSysObjectId()))
+                // 2. SNMP Discovery (detallado). Es asíncrono: este hilo queda
+                // libre mientras el dispositivo responde
+                if(snmpAlive && snmpStrategy.isApplicable(device.getSysDescr(), device.getSysObjectId()))
                 {
-                    snmpStrategy.discover(client, device);
-                }
-                
-                // Solo reportar éxito si el dispositivo respondió a algo (ARP o SNMP)
-                if(device.getSysDescr() != null || !device.getInterfaces().isEmpty() || device.getVendor() != null)
-                {
-                    onSuccess.accept(device);
+                    snmpDiscovery = snmpStrategy.discoverAsync(client, device);
                 }
                 else
                 {
-                    logger.debug("Dispositivo {} no respondió ni a ARP ni a SNMP.", ip);
+                    snmpDiscovery = CompletableFuture.completedFuture(null);
                 }
-                
             }
             catch(Exception e)
             {
-                // En escaneo masivo, es normal que muchas IPs no respondan (timeout).
-                // Podríamos filtrar errores de timeout para no saturar la UI, o dejar que la UI
-                // decida.
-                // Para single scan (scanDevice invocado directamente) queremos ver el error.
-                // Para bulk, tal vez solo loguear.
-                // Decisión: propagar error. La UI puede ignorar timeouts si quiere.
-                logger.error("Error scanning device {}", ip, e);
-                onError.accept(
-                        prsa.egosoft.netmapper.i18n.Messages.getString("message.error_accessing", ip, e.getMessage()));
+                try
+                {
+                    reportScanError(ip, e, onError);
+                }
+                finally
+                {
+                    runDone(onDone);
+                }
+                return;
             }
-            finally
+            
+            snmpDiscovery.whenComplete((ignored, error) ->
             {
-                if(client != null)
+                try
                 {
-                    try
-                    {
-                        client.stop();
-                    }
-                    catch(IOException e)
-                    {
-                        logger.error("Error closing SNMP client", e);
-                    }
+                    finishScan(ip, device, context, error, onSuccess, onError);
                 }
-            }
+                catch(RuntimeException e)
+                {
+                    logger.error("Scan callback failed for {}", ip, e);
+                }
+                finally
+                {
+                    runDone(onDone);
+                }
+            });
         });
     }
     
+    private void finishScan(String ip, NetworkDevice device, ScanContext context, Throwable error,
+            Consumer<NetworkDevice> onSuccess, Consumer<String> onError)
+    {
+        if(error != null)
+        {
+            reportScanError(ip, error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error, onError);
+            return;
+        }
+        
+        // Guardamos el RTT aprendido para que el próximo escaneo parta de él
+        RttEstimator rtt = context.getSnmpSession().findRttEstimator(ip);
+        if(rtt != null && rtt.hasSamples())
+        {
+            device.setSnmpSrttMillis(rtt.getSrttMillis());
+            device.setSnmpRttvarMillis(rtt.getRttvarMillis());
+        }
+        
+        // Solo reportar éxito si el dispositivo respondió a algo (ARP o SNMP)
+        if(device.getSysDescr() != null || !device.getInterfaces().isEmpty() || device.getVendor() != null)
+        {
+            if(onSuccess != null)
+            {
+                onSuccess.accept(device);
+            }
+        }
+        else
+        {
+            logger.debug("Dispositivo {} no respondió ni a ARP ni a SNMP.", ip);
+        }
+    }
+    
+    private static void runDone(Runnable onDone)
+    {
+        if(onDone != null)
+        {
+            onDone.run();
+        }
+    }
+    
+    private void reportScanError(String ip, Throwable e, Consumer<String> onError)
+    {
+        // En escaneo masivo, es normal que muchas IPs no respondan (timeout).
+        // Podríamos filtrar errores de timeout para no saturar la UI, o dejar que la UI
+        // decida.
+        // Para single scan (scanDevice invocado directamente) queremos ver el error.
+        // Para bulk, tal vez solo loguear.
+        // Decisión: propagar error. La UI puede ignorar timeouts si quiere.
+        logger.error("Error scanning device {}", ip, e);
+        if(onError == null)
+        {
+            return;
+        }
+        onError.accept(prsa.egosoft.netmapper.i18n.Messages.getString("message.error_accessing", ip, e.getMessage()));
+    }
+    
+    /**
+     * Aviso cuando termina el descubrimiento de toda la infraestructura de un
+     * escaneo, antes que el de los equipos finales. Se invoca desde un hilo
+     * del escaneo.
+     */
+    public void setBackboneListener(Runnable listener)
+    {
+        this.backboneListener = listener;
+    }
+    
+    /**
+     * Diario de los escaneos siguientes, o null para no usarlo. El llamante
+     * lo cierra.
+     */
+    public void setJournal(ScanJournal journal)
+    {
+        this.journal = journal;
+    }
+    
     public void shutdown()
     {
         executorService.shutdown();
@@ -0,0 +1,485 @@
+package prsa.egosoft.netmapper.service;
+
+import prsa.egosoft.netmapper.core.ScanMetrics;
+import prsa.egosoft.netmapper.i18n.Messages;
+import prsa.egosoft.netmapper.model.NetworkDevice;
+import prsa.egosoft.netmapper.model.NetworkInterface;
+import prsa.egosoft.netmapper.scan.NeighborFrameParser;
+import prsa.egosoft.netmapper.scan.PcapFileReader;
+import prsa.egosoft.netmapper.util.IntLongHashMap;
+import prsa.egosoft.netmapper.util.IpRange;
+import prsa.egosoft.netmapper.util.MacVendorUtils;
+import org.pcap4j.core.BpfProgram;
+import org.pcap4j.core.PcapHandle;
+import org.pcap4j.core.PcapNetworkInterface;
+import org.pcap4j.core.Pcaps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Descubrimiento pasivo: escucha el tráfico y aprende sin enviar un solo
+ * paquete.
+ * <ul>
+ * <li>ARP (peticiones, respuestas y ARP gratuito): enlaces IP ↔ MAC. Cada IP
+ * nueva se da de alta como host sombra.</li>
+ * <li>LLDP y CDP: el equipo vecino con su nombre, descripción, capacidades,
+ * dirección de gestión y el puerto por el que anuncia.</li>
+ * </ul>
+ * Lo aprendido se mezcla en el mapa de dispositivos recibido (el del
+ * controlador) con {@link NetworkDevice.DiscoveryMethod#PASSIVE_TRAFFIC};
+ * los dispositivos ya gestionados por SNMP sólo actualizan la última vez que
+ * se vieron y sus fuentes de descubrimiento. Cada alta o cambio se notifica.
+ * <p>
+ * El mapa está indexado por IP. Un vecino LLDP/CDP que no anuncia dirección
+ * de gestión se asocia por nombre o por MAC a un dispositivo existente; si
+ * no hay ninguno se guarda aparte ({@link #getUnaddressedNeighbors()}) hasta
+ * que un anuncio posterior o un ARP de esa MAC le dé una IP.
+ * <p>
+ * Puede capturar en vivo en varias interfaces (un hilo por interfaz) o leer
+ * un fichero .pcap, lo que permite probarlo sin tráfico real. Las tramas
+ * repetidas (el mismo ARP cada pocos segundos) se descartan con un índice
+ * primitivo sin tocar el modelo.
+ */
+public class PassiveCollector
+{
+    private static final Logger logger = LoggerFactory.getLogger(PassiveCollector.class);
+
+    public static final long DEFAULT_INFERENCE_INTERVAL_SECONDS = 30;
+
+    private static final int SNAPLEN = 1518;
+    private static final int READ_TIMEOUT_MS = 100;
+    // Una IP ya conocida con la misma MAC sólo refresca lastSeen cada tanto
+    private static final long TOUCH_INTERVAL_MS = 1000;
+
+    private final Map<String, NetworkDevice> devices;
+    private final Consumer<NetworkDevice> onChange;
+    private final ScanMetrics metrics = new ScanMetrics();
+    private final IntLongHashMap macByIp = new IntLongHashMap(1024);
+    private final IntLongHashMap touchedAt = new IntLongHashMap(1024);
+    private final AtomicBoolean changed = new AtomicBoolean();
+    // Vecinos sin dirección de gestión, por la MAC del puerto que anuncia
+    private final Map<Long, NetworkDevice> unaddressed = new HashMap<>();
+    private final NeighborFrameParser.Listener listener = new NeighborFrameParser.Listener()
+    {
+        @Override
+        public void onAddress(int ip, long mac, boolean gratuitous, long timestampMillis)
+        {
+            learnAddress(ip, mac, timestampMillis);
+        }
+
+        @Override
+        public void onNeighbor(NeighborFrameParser.Advertisement advertisement)
+        {
+            learnNeighbor(advertisement);
+        }
+    };
+
+    private final List<Thread> captureThreads = new ArrayList<>();
+    private volatile boolean running;
+
+    /**
+     * @param devices  Mapa donde se dan de alta y actualizan los dispositivos.
+     * @param onChange Recibe cada dispositivo nuevo o modificado; puede ser null.
+     */
+    public PassiveCollector(Map<String, NetworkDevice> devices, Consumer<NetworkDevice> onChange)
+    {
+        this.devices = devices;
+        this.onChange = onChange;
+    }
+
+    /**
+     * Procesa todas las tramas de un fichero .pcap y devuelve cuántas leyó.
+     */
+    public long readPcap(File file) throws IOException
+    {
+        long start = System.nanoTime();
+        long frames;
+        try(PcapFileReader reader = new PcapFileReader(file))
+        {
+            frames = reader.readAll(this::process);
+        }
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        logger.info("Read {} frames from {} in {} ms: {}", frames, file.getName(), millis, metrics);
+        return frames;
+    }
+
+    /**
+     * Empieza a capturar en vivo en las interfaces indicadas, cada una en su
+     * propio hilo. Devuelve cuántas se pudieron abrir.
+     */
+    public synchronized int start(List<String> interfaceNames)
+    {
+        running = true;
+        for(String name : interfaceNames)
+        {
+            PcapHandle handle;
+            try
+            {
+                PcapNetworkInterface nif = Pcaps.getDevByName(name);
+                if(nif == null)
+                {
+                    logger.warn("Passive capture: interface '{}' not found", name);
+                    continue;
+                }
+                handle = nif.openLive(SNAPLEN, PcapNetworkInterface.PromiscuousMode.PROMISCUOUS, READ_TIMEOUT_MS);
+                handle.setFilter(NeighborFrameParser.CAPTURE_FILTER, BpfProgram.BpfCompileMode.OPTIMIZE);
+            }
+            catch(Exception | LinkageError e)
+            {
+                logger.warn("Passive capture: could not open interface '{}': {}", name, e.getMessage());
+                continue;
+            }
+            Thread thread = new Thread(() -> capture(handle, name), "passive-" + name);
+            thread.setDaemon(true);
+            thread.start();
+            captureThreads.add(thread);
+            logger.info("Passive capture started on {}", name);
+        }
+        return captureThreads.size();
+    }
+
+    private void capture(PcapHandle handle, String name)
+    {
+        try
+        {
+            while(running && !Thread.currentThread().isInterrupted())
+            {
+                byte[] frame = handle.getNextRawPacket();
+                if(frame != null)
+                {
+                    process(frame, frame.length, System.currentTimeMillis());
+                }
+            }
+        }
+        catch(Exception e)
+        {
+            logger.warn("Passive capture on {} stopped: {}", name, e.getMessage());
+        }
+        finally
+        {
+            handle.close();
+        }
+    }
+
+    /**
+     * Detiene la captura en vivo y espera a que terminen sus hilos.
+     */
+    public void stop()
+    {
+        List<Thread> threads;
+        synchronized(this)
+        {
+            running = false;
+            threads = new ArrayList<>(captureThreads);
+            captureThreads.clear();
+        }
+        for(Thread thread : threads)
+        {
+            try
+            {
+                thread.join(READ_TIMEOUT_MS * 10);
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        logger.info("Passive capture stopped: {}", metrics);
+    }
+
+    /**
+     * Indica si se aprendió algo desde la última llamada.
+     */
+    public boolean takeChanged()
+    {
+        return changed.getAndSet(false);
+    }
+
+    /**
+     * Ejecuta la acción sin que ninguna trama modifique el modelo mientras
+     * tanto (p. ej. la inferencia sobre el mapa compartido).
+     */
+    public synchronized void runExclusive(Runnable action)
+    {
+        action.run();
+    }
+
+    public ScanMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    private void process(byte[] frame, int length, long timestampMillis)
+    {
+        metrics.increment(ScanMetrics.PASSIVE_FRAMES);
+        NeighborFrameParser.parse(frame, length, timestampMillis, listener);
+    }
+
+    private synchronized void learnAddress(int ipValue, long macValue, long timestampMillis)
+    {
+        long previousMac = macByIp.get(ipValue, -1);
+        if(previousMac == macValue && timestampMillis - touchedAt.get(ipValue, 0) < TOUCH_INTERVAL_MS)
+        {
+            return;
+        }
+        macByIp.put(ipValue, macValue);
+        touchedAt.put(ipValue, timestampMillis);
+
+        String ip = IpRange.toIp(ipValue);
+        String mac = NeighborFrameParser.formatMac(macValue);
+        NetworkDevice device = devices.get(ip);
+        if(device == null && unaddressed.containsKey(macValue))
+        {
+            // Un vecino LLDP/CDP sin dirección de gestión que usa esta IP
+            device = unaddressed.remove(macValue);
+            assignAddress(device, ip, mac);
+            device.setLastSeenTimestamp(timestampMillis);
+            device.addDiscoverySource("ARP");
+            notifyChange(device);
+            return;
+        }
+        if(device == null)
+        {
+            device = new NetworkDevice(ip);
+            device.setTypeEnum(NetworkDevice.DeviceType.SHADOW_HOST);
+            device.setDiscoveryMethod(NetworkDevice.DiscoveryMethod.PASSIVE_TRAFFIC);
+            device.setMgmtState(NetworkDevice.ManagementState.UNKNOWN);
+            device.setConfidence(0.7);
+            device.setVendor(MacVendorUtils.getVendor(macValue));
+            NetworkInterface ni = new NetworkInterface(0, Messages.getString("technical.passive_capture"));
+            ni.setMacAddress(mac);
+            ni.setIpAddress(ip);
+            device.addInterface(ni);
+            device.addDiscoverySource("ARP");
+            device.setLastSeenTimestamp(timestampMillis);
+            devices.put(ip, device);
+            metrics.increment(ScanMetrics.PASSIVE_ADDRESSES);
+            notifyChange(device);
+            return;
+        }
+        device.setLastSeenTimestamp(timestampMillis);
+        device.addDiscoverySource("ARP");
+        if(previousMac == macValue)
+        {
+            return;
+        }
+        // IP nueva para el colector o que ha cambiado de MAC
+        for(NetworkInterface ni : device.getInterfaces())
+        {
+            if(ip.equals(ni.getIpAddress()))
+            {
+                if(ni.getMacAddress() == null || ni.getMacAddress().isEmpty())
+                {
+                    ni.setMacAddress(mac);
+                    notifyChange(device);
+                }
+                else if(!mac.equalsIgnoreCase(ni.getMacAddress())
+                        && device.getDiscoveryMethod() == NetworkDevice.DiscoveryMethod.PASSIVE_TRAFFIC)
+                {
+                    logger.info("Passive: {} moved from {} to {}", ip, ni.getMacAddress(), mac);
+                    ni.setMacAddress(mac);
+                    device.setVendor(MacVendorUtils.getVendor(macValue));
+                    metrics.increment(ScanMetrics.PASSIVE_MAC_CHANGES);
+                    notifyChange(device);
+                }
+                return;
+            }
+        }
+    }
+
+    private synchronized void learnNeighbor(NeighborFrameParser.Advertisement advertisement)
+    {
+        metrics.increment(ScanMetrics.PASSIVE_NEIGHBORS);
+        String identity = advertisement.getIdentity();
+        String key = advertisement.getManagementAddress();
+        long sourceMac = advertisement.getSourceMac();
+        String mac = NeighborFrameParser.formatMac(sourceMac);
+        NetworkDevice device = key != null ? devices.get(key) : null;
+        NetworkDevice pending = unaddressed.get(sourceMac);
+        if(device == null && pending == null)
+        {
+            device = findBySysName(identity);
+            if(device == null)
+            {
+                device = findByMac(mac);
+            }
+        }
+        else if(device != null && pending != null)
+        {
+            unaddressed.remove(sourceMac);
+        }
+        boolean modified = false;
+        if(device == null)
+        {
+            device = pending;
+            if(device == null)
+            {
+                device = new NetworkDevice(key);
+                device.setDiscoveryMethod(NetworkDevice.DiscoveryMethod.PASSIVE_TRAFFIC);
+                device.setMgmtState(NetworkDevice.ManagementState.UNKNOWN);
+                device.setConfidence(0.9);
+                modified = true;
+                if(key == null)
+                {
+                    // Fuera del mapa por IP hasta que se conozca su dirección
+                    unaddressed.put(sourceMac, device);
+                    metrics.increment(ScanMetrics.PASSIVE_UNADDRESSED);
+                }
+                else
+                {
+                    devices.put(key, device);
+                    metrics.increment(ScanMetrics.PASSIVE_DEVICES);
+                }
+            }
+            else if(key != null)
+            {
+                // El vecino ya anuncia dirección de gestión
+                unaddressed.remove(sourceMac);
+                assignAddress(device, key, null);
+                modified = true;
+            }
+        }
+        device.setLastSeenTimestamp(advertisement.getTimestampMillis());
+        device.addDiscoverySource(advertisement.getProtocol().name());
+        if(device.getDiscoveryMethod() == NetworkDevice.DiscoveryMethod.PASSIVE_TRAFFIC)
+        {
+            modified |= applyAdvertisement(device, advertisement);
+        }
+        if(modified && device.getIpAddress() != null)
+        {
+            notifyChange(device);
+        }
+    }
+
+    /**
+     * Da de alta en el mapa por IP un vecino que estaba guardado sólo por su
+     * MAC. Si se conoce la MAC que usa esa IP, el puerto correspondiente
+     * recibe la dirección.
+     */
+    private void assignAddress(NetworkDevice device, String ip, String mac)
+    {
+        device.setIpAddress(ip);
+        for(NetworkInterface ni : device.getInterfaces())
+        {
+            if(ni.getIpAddress() == null && (mac == null || mac.equalsIgnoreCase(ni.getMacAddress())))
+            {
+                ni.setIpAddress(ip);
+            }
+        }
+        devices.put(ip, device);
+        metrics.increment(ScanMetrics.PASSIVE_DEVICES);
+    }
+
+    /**
+     * Vecinos LLDP/CDP que no han anunciado dirección de gestión ni se han
+     * visto en ARP, y por tanto no están en el mapa de dispositivos.
+     */
+    public synchronized List<NetworkDevice> getUnaddressedNeighbors()
+    {
+        return new ArrayList<>(unaddressed.values());
+    }
+
+    /**
+     * Copia lo anunciado en un dispositivo pasivo. Devuelve true si cambió
+     * algo.
+     */
+    private boolean applyAdvertisement(NetworkDevice device, NeighborFrameParser.Advertisement advertisement)
+    {
+        boolean modified = false;
+        String sysName = advertisement.getIdentity();
+        if(!sysName.equals(device.getSysName()))
+        {
+            device.setSysName(sysName);
+            modified = true;
+        }
+        if(advertisement.getSystemDescription() != null)
+        {
+            device.setSysDescr(advertisement.getSystemDescription());
+        }
+        if(advertisement.getPlatform() != null)
+        {
+            device.setModel(advertisement.getPlatform());
+        }
+        NetworkDevice.DeviceType type = advertisement.isRouter() ? NetworkDevice.DeviceType.ROUTER
+                : advertisement.isBridge() ? NetworkDevice.DeviceType.SWITCH : NetworkDevice.DeviceType.UNKNOWN;
+        if(type != device.getTypeEnum() && (type != NetworkDevice.DeviceType.UNKNOWN || device.getTypeEnum() == null))
+        {
+            device.setTypeEnum(type);
+            modified = true;
+        }
+        String mac = NeighborFrameParser.formatMac(advertisement.getSourceMac());
+        if(device.getVendor() == null)
+        {
+            device.setVendor(MacVendorUtils.getVendor(advertisement.getSourceMac()));
+        }
+        String port = advertisement.getPortDescription() != null ? advertisement.getPortDescription()
+                : advertisement.getPortId();
+        if(port == null)
+        {
+            return modified;
+        }
+        for(NetworkInterface ni : device.getInterfaces())
+        {
+            if(port.equals(ni.getDescription()))
+            {
+                return modified;
+            }
+        }
+        // Puerto del vecino por el que llega el anuncio
+        NetworkInterface ni = new NetworkInterface(device.getInterfaces().size() + 1, port);
+        ni.setMacAddress(mac);
+        ni.setIpAddress(advertisement.getManagementAddress());
+        ni.setNeighborInfo(Messages.getString("technical.passive_capture") + " (" + advertisement.getProtocol() + ")");
+        device.addInterface(ni);
+        return true;
+    }
+
+    private NetworkDevice findBySysName(String sysName)
+    {
+        for(NetworkDevice device : devices.values())
+        {
+            if(sysName.equalsIgnoreCase(device.getSysName()))
+            {
+                return device;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Dispositivo del mapa con una interfaz que usa esta MAC.
+     */
+    private NetworkDevice findByMac(String mac)
+    {
+        for(NetworkDevice device : devices.values())
+        {
+            for(NetworkInterface ni : device.getInterfaces())
+            {
+                if(mac.equalsIgnoreCase(ni.getMacAddress()))
+                {
+                    return device;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void notifyChange(NetworkDevice device)
+    {
+        changed.set(true);
+        if(onChange != null)
+        {
+            onChange.accept(device);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package prsa.egosoft.netmapper.service;
+
+import prsa.egosoft.netmapper.core.ScanMetrics;
+import prsa.egosoft.netmapper.core.SnmpClient;
+import prsa.egosoft.netmapper.core.SnmpSession;
+import prsa.egosoft.netmapper.util.ArpTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Estado compartido por todas las tareas de un mismo escaneo: la sesión SNMP
+ * multiplexada, la tabla ARP del sistema y las métricas. Se abre al empezar
+ * el escaneo y se cierra al terminar.
+ */
+public class ScanContext implements Closeable
+{
+    private static final Logger logger = LoggerFactory.getLogger(ScanContext.class);
+
+    private final ScanMetrics metrics;
+    private final SnmpSession snmpSession;
+    private final ArpTable arpTable = new ArpTable();
+    private final long startNanos;
+
+    public ScanContext()
+    {
+        this.metrics = new ScanMetrics();
+        this.snmpSession = new SnmpSession(metrics);
+        this.startNanos = System.nanoTime();
+    }
+
+    public ScanMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    public SnmpSession getSnmpSession()
+    {
+        return snmpSession;
+    }
+
+    /**
+     * Tabla ARP del sistema, leída como mucho una vez por
+     * {@link ArpTable#DEFAULT_TTL_MS} para todo el escaneo.
+     */
+    public ArpTable getArpTable()
+    {
+        return arpTable;
+    }
+
+    /**
+     * Crea un cliente SNMP ligero para un dispositivo. No hace falta cerrarlo.
+     */
+    public SnmpClient createClient(String community, String localAddress) throws IOException
+    {
+        return new SnmpClient(snmpSession, community, localAddress);
+    }
+
+    @Override
+    public void close()
+    {
+        try
+        {
+            snmpSession.close();
+        }
+        catch(IOException e)
+        {
+            logger.error("Error closing shared SNMP session", e);
+        }
+        metrics.add(ScanMetrics.SNMP_INFLIGHT_PEAK, snmpSession.getScheduler().getPeakInFlight());
+        metrics.add(ScanMetrics.ARP_TABLE_LOADS, arpTable.getLoads());
+        logger.info("Scan metrics ({} ms): {}", (System.nanoTime() - startNanos) / 1_000_000, metrics);
+    }
+}
@@ -0,0 +1,95 @@
+package prsa.egosoft.netmapper.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tipo de ejecutor que usa el escáner para las tareas por dispositivo.
+ * <p>
+ * Con hilos virtuales (JDK 21+) cada objetivo tiene su propio hilo y un rango
+ * grande no se encola detrás de los timeouts SNMP de los primeros. El
+ * proyecto compila para Java 11 ({@code maven.compiler.release}), así que la
+ * fábrica de hilos virtuales sólo se encuentra por reflexión al ejecutar en
+ * un JDK 21 o posterior; en JDKs anteriores se usa el pool fijo de hilos de
+ * plataforma.
+ */
+public enum ScanExecutorMode
+{
+    /** Hilos virtuales si el JDK los ofrece; si no, pool de plataforma. */
+    AUTO,
+    /** Hilos virtuales; si el JDK no los ofrece se avisa y se usa el pool. */
+    VIRTUAL,
+    /** Pool fijo de hilos de plataforma. */
+    PLATFORM;
+
+    /** Tamaño del pool de plataforma: una /24 en una sola pasada. */
+    public static final int PLATFORM_POOL_SIZE = 300;
+
+    private static final Logger logger = LoggerFactory.getLogger(ScanExecutorMode.class);
+    private static final Method VIRTUAL_FACTORY = findVirtualFactory();
+
+    /**
+     * Indica si el JDK en ejecución ofrece hilos virtuales.
+     */
+    public static boolean isVirtualThreadsAvailable()
+    {
+        return VIRTUAL_FACTORY != null;
+    }
+
+    /**
+     * Modo efectivo tras comprobar el JDK: nunca devuelve AUTO. Avisa si se
+     * pidieron hilos virtuales y el JDK no los tiene.
+     */
+    public ScanExecutorMode resolve()
+    {
+        if(this == PLATFORM)
+        {
+            return PLATFORM;
+        }
+        if(!isVirtualThreadsAvailable())
+        {
+            if(this == VIRTUAL)
+            {
+                logger.warn("Virtual threads not available on Java {}; using a pool of {} platform threads",
+                        System.getProperty("java.version"), PLATFORM_POOL_SIZE);
+            }
+            return PLATFORM;
+        }
+        return VIRTUAL;
+    }
+
+    /**
+     * Crea el ejecutor correspondiente a este modo (AUTO según el JDK).
+     */
+    public ExecutorService create()
+    {
+        if(this != PLATFORM && isVirtualThreadsAvailable())
+        {
+            try
+            {
+                return (ExecutorService) VIRTUAL_FACTORY.invoke(null);
+            }
+            catch(ReflectiveOperationException | RuntimeException e)
+            {
+                logger.warn("Could not create virtual thread executor, using platform threads", e);
+            }
+        }
+        return Executors.newFixedThreadPool(PLATFORM_POOL_SIZE);
+    }
+
+    private static Method findVirtualFactory()
+    {
+        try
+        {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        }
+        catch(NoSuchMethodException e)
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package prsa.egosoft.netmapper.service;
+
+import prsa.egosoft.netmapper.core.ScanMetrics;
+import prsa.egosoft.netmapper.model.NetworkDevice;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Diario de escaneo en disco para poder reanudar un escaneo interrumpido.
+ * <p>
+ * Es un fichero de sólo añadir con un registro JSON por línea: la IP de cada
+ * objetivo terminado y, si respondió, el {@link NetworkDevice} serializado.
+ * Los registros se escriben por lotes ({@link #BATCH_SIZE} registros o
+ * {@link #FLUSH_INTERVAL_MS} ms, lo que llegue antes), así que una caída
+ * pierde como mucho el último lote. Al abrir un diario existente se cargan
+ * los objetivos terminados y los dispositivos; una última línea incompleta
+ * (caída a mitad de escritura) se descarta.
+ */
+public class ScanJournal implements Closeable
+{
+    private static final Logger logger = LoggerFactory.getLogger(ScanJournal.class);
+
+    public static final int BATCH_SIZE = 256;
+    public static final long FLUSH_INTERVAL_MS = 1000;
+
+    private final File file;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Set<String> completed = ConcurrentHashMap.newKeySet();
+    private final Map<String, NetworkDevice> devices = new LinkedHashMap<>();
+    private final BufferedOutputStream out;
+
+    private int pending;
+    private long lastFlushNanos = System.nanoTime();
+    private boolean closed;
+
+    // Coste del diario, se vuelca en las métricas de cada escaneo
+    private long records;
+    private long bytes;
+    private long flushes;
+    private long writeNanos;
+    private long skipped;
+
+    private ScanJournal(File file) throws IOException
+    {
+        this.file = file;
+        boolean newLine = load();
+        this.out = new BufferedOutputStream(new FileOutputStream(file, true), 64 * 1024);
+        if(newLine)
+        {
+            // Cerramos la línea cortada para no pegarle el siguiente registro
+            out.write('\n');
+        }
+    }
+
+    /**
+     * Abre un diario, cargando su contenido si ya existe.
+     */
+    public static ScanJournal open(File file) throws IOException
+    {
+        return new ScanJournal(file);
+    }
+
+    /**
+     * Lee el diario existente. Devuelve true si el fichero no termina en
+     * salto de línea.
+     */
+    private boolean load() throws IOException
+    {
+        if(!file.exists() || file.length() == 0)
+        {
+            return false;
+        }
+        long start = System.nanoTime();
+        int corrupt = 0;
+        try(BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8))
+        {
+            String line;
+            while((line = reader.readLine()) != null)
+            {
+                if(line.isEmpty())
+                {
+                    continue;
+                }
+                try
+                {
+                    JsonNode node = mapper.readTree(line);
+                    String ip = node.path("ip").asText(null);
+                    if(ip == null)
+                    {
+                        corrupt++;
+                        continue;
+                    }
+                    completed.add(ip);
+                    JsonNode device = node.get("device");
+                    if(device != null && !device.isNull())
+                    {
+                        devices.put(ip, mapper.treeToValue(device, NetworkDevice.class));
+                    }
+                }
+                catch(IOException e)
+                {
+                    corrupt++;
+                }
+            }
+        }
+        logger.info("Loaded scan journal {}: {} completed targets, {} devices in {} ms{}", file.getName(),
+                completed.size(), devices.size(), (System.nanoTime() - start) / 1_000_000,
+                corrupt > 0 ? " (" + corrupt + " unreadable records skipped)" : "");
+        try(RandomAccessFile raf = new RandomAccessFile(file, "r"))
+        {
+            raf.seek(raf.length() - 1);
+            return raf.read() != '\n';
+        }
+    }
+
+    /**
+     * Indica si el objetivo ya terminó en una ejecución anterior (o en ésta).
+     */
+    public boolean isCompleted(String ip)
+    {
+        return completed.contains(ip);
+    }
+
+    /**
+     * Cuenta un objetivo que no se escanea por estar ya en el diario.
+     */
+    public synchronized void skip()
+    {
+        skipped++;
+    }
+
+    /**
+     * Dispositivos recuperados del diario al abrirlo.
+     */
+    public Collection<NetworkDevice> getDevices()
+    {
+        return devices.values();
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * Registra un objetivo terminado, con su dispositivo o null si no
+     * respondió. La serialización se hace fuera del cerrojo.
+     */
+    public void record(String ip, NetworkDevice device)
+    {
+        long start = System.nanoTime();
+        byte[] line;
+        try
+        {
+            ObjectNode node = mapper.createObjectNode();
+            node.put("ip", ip);
+            if(device != null)
+            {
+                node.set("device", mapper.valueToTree(device));
+            }
+            line = mapper.writeValueAsBytes(node);
+        }
+        catch(IOException | IllegalArgumentException e)
+        {
+            logger.warn("Could not serialize journal record for {}: {}", ip, e.getMessage());
+            return;
+        }
+        synchronized(this)
+        {
+            if(closed)
+            {
+                return;
+            }
+            try
+            {
+                out.write(line);
+                out.write('\n');
+                completed.add(ip);
+                records++;
+                bytes += line.length + 1;
+                pending++;
+                if(pending >= BATCH_SIZE || System.nanoTime() - lastFlushNanos >= FLUSH_INTERVAL_MS * 1_000_000)
+                {
+                    flushLocked();
+                }
+            }
+            catch(IOException e)
+            {
+                logger.warn("Could not write scan journal {}: {}", file, e.getMessage());
+            }
+            writeNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Escribe en disco los registros pendientes.
+     */
+    public synchronized void flush()
+    {
+        if(closed || pending == 0)
+        {
+            return;
+        }
+        long start = System.nanoTime();
+        try
+        {
+            flushLocked();
+        }
+        catch(IOException e)
+        {
+            logger.warn("Could not flush scan journal {}: {}", file, e.getMessage());
+        }
+        writeNanos += System.nanoTime() - start;
+    }
+
+    private void flushLocked() throws IOException
+    {
+        out.flush();
+        pending = 0;
+        flushes++;
+        lastFlushNanos = System.nanoTime();
+    }
+
+    /**
+     * Vuelca el coste del diario acumulado desde la última llamada en las
+     * métricas del escaneo.
+     */
+    public synchronized void reportTo(ScanMetrics metrics)
+    {
+        metrics.add(ScanMetrics.JOURNAL_RECORDS, records);
+        metrics.add(ScanMetrics.JOURNAL_BYTES, bytes);
+        metrics.add(ScanMetrics.JOURNAL_FLUSHES, flushes);
+        metrics.add(ScanMetrics.JOURNAL_MS, writeNanos / 1_000_000);
+        metrics.add(ScanMetrics.JOURNAL_SKIPPED, skipped);
+        records = 0;
+        bytes = 0;
+        flushes = 0;
+        writeNanos = 0;
+        skipped = 0;
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        if(closed)
+        {
+            return;
+        }
+        try
+        {
+            out.close();
+        }
+        catch(IOException e)
+        {
+            logger.warn("Could not close scan journal {}: {}", file, e.getMessage());
+        }
+        closed = true;
+    }
+}
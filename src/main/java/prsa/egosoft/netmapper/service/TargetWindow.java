@@ -0,0 +1,86 @@
+package prsa.egosoft.netmapper.service;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ventana acotada de objetivos en curso entre el productor (el iterador
+ * perezoso de IPs del rango) y las tareas de escaneo. El productor pide un
+ * hueco con {@link #acquire()} antes de lanzar cada objetivo y se bloquea si
+ * la ventana está llena; cada tarea devuelve su hueco con
+ * {@link #complete()}. Así nunca hay más de {@code capacity} tareas, futuros
+ * ni IPs pendientes en memoria, sea cual sea el tamaño del rango.
+ * <p>
+ * Todas las esperas respetan un plazo común para todo el escaneo.
+ */
+public class TargetWindow
+{
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final int capacity;
+    private final Semaphore slots;
+    private final long deadlineNanos;
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+
+    public TargetWindow(int capacity, long timeout, TimeUnit unit)
+    {
+        this.capacity = capacity;
+        this.slots = new Semaphore(capacity);
+        this.deadlineNanos = System.nanoTime() + unit.toNanos(timeout);
+    }
+
+    /**
+     * Reserva un hueco para un nuevo objetivo, esperando a que termine alguno
+     * si la ventana está llena. Devuelve false si se agota el plazo.
+     */
+    public boolean acquire() throws InterruptedException
+    {
+        if(!slots.tryAcquire(remainingNanos(), TimeUnit.NANOSECONDS))
+        {
+            return false;
+        }
+        submitted.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Marca un objetivo como terminado y libera su hueco. Debe llamarse una
+     * sola vez por cada {@link #acquire()} que devolvió true.
+     */
+    public void complete()
+    {
+        completed.incrementAndGet();
+        slots.release();
+    }
+
+    /**
+     * Espera a que terminen todos los objetivos lanzados. Devuelve false si se
+     * agota el plazo.
+     */
+    public boolean awaitCompletion() throws InterruptedException
+    {
+        if(!slots.tryAcquire(capacity, remainingNanos(), TimeUnit.NANOSECONDS))
+        {
+            return false;
+        }
+        slots.release(capacity);
+        return true;
+    }
+
+    public long getSubmitted()
+    {
+        return submitted.get();
+    }
+
+    public long getCompleted()
+    {
+        return completed.get();
+    }
+
+    private long remainingNanos()
+    {
+        return Math.max(0, deadlineNanos - System.nanoTime());
+    }
+}
@@ -3,27 +3,37 @@ package prsa.egosoft.netmapper.strategy;
 import prsa.egosoft.netmapper.core.SnmpClient;
 import prsa.egosoft.netmapper.model.NetworkDevice;
 import prsa.egosoft.netmapper.model.NetworkInterface;
+import prsa.egosoft.netmapper.util.ArpTable;
 import prsa.egosoft.netmapper.util.MacVendorUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 /**
  * Estrategia de descubrimiento mediante tabla ARP (Fast). Útil para identificar
  * dispositivos que no responden a SNMP. Compatible con Linux (/proc/net/arp) y
  * Windows (arp -a).
+ * <p>
+ * La tabla del sistema se lee a través de un {@link ArpTable} compartido, de
+ * modo que cada dispositivo cuesta una búsqueda en un índice en lugar de una
+ * lectura del fichero o un proceso {@code arp -a}.
  */
 public class ArpDiscoveryStrategy implements DiscoveryStrategy
 {
     private static final Logger logger = LoggerFactory.getLogger(ArpDiscoveryStrategy.class);
-    private static final String LINUX_ARP_FILE = "/proc/net/arp";
-    private static final boolean IS_WINDOWS = System.getProperty("os.name").toLowerCase().contains("win");
+    // Para quien la instancie sin tabla de escaneo
+    private static final ArpTable SHARED_TABLE = new ArpTable();
+    
+    private final ArpTable arpTable;
+    
+    public ArpDiscoveryStrategy()
+    {
+        this(SHARED_TABLE);
+    }
+    
+    public ArpDiscoveryStrategy(ArpTable arpTable)
+    {
+        this.arpTable = arpTable;
+    }
     
     @Override
     public boolean isApplicable(String sysDescr, String sysObjectId)
@@ -36,10 +46,7 @@ public class ArpDiscoveryStrategy implements DiscoveryStrategy
     public void discover(SnmpClient snmpClient, NetworkDevice device)
     {
         String ip = device.getIpAddress();
-        String mac = IS_WINDOWS ? findMacInArpCommand(ip) : findMacInArpLinuxFile(ip);
-        
-        // Fallback: Si en Linux falla el fichero, podríamos intentar 'arp -n'
-        // pero /proc/net/arp es lo estándar.
+        String mac = arpTable.lookup(ip);
         
         if(mac != null)
         {
@@ -70,82 +77,4 @@ public class ArpDiscoveryStrategy implements DiscoveryStrategy
             logger.debug("ARP discovery exitoso para {}: MAC={}, Vendor={}", ip, mac, vendor);
         }
     }
-    
-    private String findMacInArpLinuxFile(String ip)
-    {
-        try(BufferedReader br = new BufferedReader(new FileReader(LINUX_ARP_FILE)))
-        {
-            String line;
-            // Saltar cabecera
-            br.readLine();
-            while((line = br.readLine()) != null)
-            {
-                String[] parts = line.split("\\s+");
-                if(parts.length >= 4 && parts[0].equals(ip))
-                {
-                    String mac = parts[3];
-                    if(isValidMac(mac))
-                    {
-                        return normalizeMac(mac);
-                    }
-                }
-            }
-        }
-        catch(IOException e)
-        {
-            logger.error("Error reading system ARP table ({})", LINUX_ARP_FILE, e);
-        }
-        return null;
-    }
-    
-    private String findMacInArpCommand(String ip)
-    {
-        try
-        {
-            ProcessBuilder pb = new ProcessBuilder("arp", "-a");
-            Process process = pb.start();
-            try(BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream())))
-            {
-                String line;
-                while((line = reader.readLine()) != null)
-                {
-                    if(line.contains(ip))
-                    {
-                        String mac = extractMacFromLine(line);
-                        if(mac != null && isValidMac(mac))
-                        {
-                            return normalizeMac(mac);
-                        }
-                    }
-                }
-            }
-        }
-        catch(IOException e)
-        {
-            logger.error("Error executing arp -a command", e);
-        }
-        return null;
-    }
-    
-    private String extractMacFromLine(String line)
-    {
-        // Regex para dirección MAC (XX:XX:XX:XX:XX:XX o XX-XX-XX-XX-XX-XX)
-        Pattern pattern = Pattern.compile("([0-9A-Fa-f]{2}[:-]){5}[0-9A-Fa-f]{2}");
-        Matcher matcher = pattern.matcher(line);
-        if(matcher.find())
-        {
-            return matcher.group();
-        }
-        return null;
-    }
-    
-    private boolean isValidMac(String mac)
-    {
-        return mac != null && !mac.equals("00:00:00:00:00:00") && !mac.equals("00-00-00-00-00-00");
-    }
-    
-    private String normalizeMac(String mac)
-    {
-        return mac.replace("-", ":").toUpperCase();
-    }
 }
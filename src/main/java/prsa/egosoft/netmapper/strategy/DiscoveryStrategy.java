@@ -3,6 +3,9 @@ package prsa.egosoft.netmapper.strategy;
 import prsa.egosoft.netmapper.core.SnmpClient;
 import prsa.egosoft.netmapper.model.NetworkDevice;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
 /**
  * Interfaz para implementar diferentes estrategias de descubrimiento
  * dependiendo del fabricante o tipo de dispositivo.
@@ -19,4 +22,22 @@ public interface DiscoveryStrategy
      * Ejecuta el descubrimiento de información del dispositivo.
      */
     void discover(SnmpClient snmpClient, NetworkDevice device);
+    
+    /**
+     * Variante asíncrona de {@link #discover(SnmpClient, NetworkDevice)}. Las
+     * estrategias basadas en SNMP la implementan sin bloquear hilos; por
+     * defecto se ejecuta la versión bloqueante en el hilo llamante.
+     */
+    default CompletionStage<Void> discoverAsync(SnmpClient snmpClient, NetworkDevice device)
+    {
+        try
+        {
+            discover(snmpClient, device);
+            return CompletableFuture.completedFuture(null);
+        }
+        catch(RuntimeException e)
+        {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 }
@@ -6,11 +6,20 @@ import prsa.egosoft.netmapper.model.NetworkInterface;
 import prsa.egosoft.netmapper.model.DetectedEndpoint;
 import prsa.egosoft.netmapper.util.MacVendorUtils;
 import prsa.egosoft.netmapper.util.InterfaceTypeUtils;
+import org.snmp4j.smi.OctetString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.Map;
 import java.util.HashMap;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.stream.LongStream;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 
@@ -19,6 +28,8 @@ import java.util.regex.Matcher;
  * mayoría de routers y switches para información básica.
  */
 public class StandardMibStrategy implements DiscoveryStrategy {
+    private static final Logger logger = LoggerFactory.getLogger(StandardMibStrategy.class);
+
     // OIDs MIB-II System
     private static final String OID_SYS_DESCR = "1.3.6.1.2.1.1.1.0";
     private static final String OID_SYS_OBJECT_ID = "1.3.6.1.2.1.1.2.0";
@@ -38,6 +49,8 @@ public class StandardMibStrategy implements DiscoveryStrategy {
     private static final String OID_IF_OPER_STATUS = "1.3.6.1.2.1.2.2.1.8";
     private static final String OID_IF_IN_ERRORS = "1.3.6.1.2.1.2.2.1.14";
     private static final String OID_IF_OUT_ERRORS = "1.3.6.1.2.1.2.2.1.20";
+    // ifHighSpeed (ifXTable, mismo índice que ifTable). Unidades: Mbps
+    private static final String OID_IF_HIGH_SPEED = "1.3.6.1.2.1.31.1.1.1.15";
 
     // OIDs IP Address Table
     private static final String OID_IP_AD_ENT_IF_INDEX = "1.3.6.1.2.1.4.20.1.2";
@@ -47,6 +60,34 @@ public class StandardMibStrategy implements DiscoveryStrategy {
     private static final String OID_IP_ROUTE_NEXT_HOP = "1.3.6.1.2.1.4.21.1.7";
     private static final String OID_IP_ROUTE_PROTO = "1.3.6.1.2.1.4.21.1.9";
 
+    // BRIDGE-MIB / Q-BRIDGE-MIB
+    private static final String OID_BASE_PORT_IF_INDEX = "1.3.6.1.2.1.17.1.4.1.2";
+    private static final String OID_FDB_PORT = "1.3.6.1.2.1.17.4.3.1.2";
+    private static final String OID_VLAN_STATIC_NAME = "1.3.6.1.2.1.17.7.1.4.3.1.1";
+    // Indexado por TimeFilter (0) y VlanIndex
+    private static final String OID_VLAN_EGRESS_PORTS = "1.3.6.1.2.1.17.7.1.4.2.1.4";
+    // OID Key: .1.3.6.1.2.1.17.7.1.4.5.1.1.{dot1dBasePort}
+    private static final String OID_PVID = "1.3.6.1.2.1.17.7.1.4.5.1.1";
+    private static final String OID_STP_PORT_STATE = "1.3.6.1.2.1.17.2.15.1.3";
+    // dot1dStpPortRole (Rapid STP)
+    private static final String OID_STP_PORT_ROLE = "1.3.6.1.2.1.17.2.15.1.4";
+
+    // ipNetToMediaPhysAddress. Key format: .ifIndex.ip1.ip2.ip3.ip4
+    private static final String OID_ARP_PHYS_ADDRESS = "1.3.6.1.2.1.4.22.1.2";
+    // dot3StatsDuplexStatus (EtherLike-MIB)
+    private static final String OID_DUPLEX_STATUS = "1.3.6.1.2.1.10.7.2.1.19";
+
+    // LLDP (lldpRemSysName, lldpRemPortDesc, lldpRemSysDesc) y CDP
+    private static final String OID_LLDP_REM_SYS_NAME = "1.0.8802.1.1.2.1.4.1.1.9";
+    private static final String OID_LLDP_REM_PORT_DESC = "1.0.8802.1.1.2.1.4.1.1.8";
+    private static final String OID_LLDP_REM_SYS_DESC = "1.0.8802.1.1.2.1.4.1.1.10";
+    private static final String OID_CDP_DEVICE_ID = "1.3.6.1.4.1.9.9.23.1.2.1.1.6";
+    private static final String OID_CDP_DEVICE_PORT = "1.3.6.1.4.1.9.9.23.1.2.1.1.7";
+    private static final String OID_LLDP_REM_MAN_ADDR_IF_SUBTYPE = "1.0.8802.1.1.2.1.4.2.1.3";
+    private static final String OID_CDP_ADDRESS = "1.3.6.1.4.1.9.9.23.1.2.1.1.4";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     @Override
     public boolean isApplicable(String sysDescr, String sysObjectId) {
         // Esta es la estrategia por defecto, siempre retorna true si no hay otra más
@@ -56,26 +97,194 @@ public class StandardMibStrategy implements DiscoveryStrategy {
 
     @Override
     public void discover(SnmpClient snmp, NetworkDevice device) {
+        discoverAsync(snmp, device).toCompletableFuture().join();
+    }
+
+    /**
+     * Descubrimiento sin bloquear hilos: tras el grupo system se piden todas
+     * las tablas a la vez (el planificador de la sesión limita cuántas
+     * peticiones van en vuelo hacia este agente) y, cuando han llegado todas,
+     * se aplican al dispositivo en un único hilo y en el orden de siempre.
+     */
+    @Override
+    public CompletionStage<Void> discoverAsync(SnmpClient snmp, NetworkDevice device) {
         String ip = device.getIpAddress();
+        // Las tablas (FDB, ifTable...) se recorren con GETBULK
+        snmp.setWalkMode(SnmpClient.WalkMode.GETBULK);
+
+        // 1. Información del Sistema (grupo system completo en una sola PDU)
+        return snmp.getAllAsync(ip, OID_SYS_DESCR, OID_SYS_NAME, OID_SYS_LOCATION, OID_SYS_CONTACT,
+                OID_SYS_UPTIME, OID_SYS_OBJECT_ID, OID_SYS_SERVICES).thenCompose(system -> {
+                    if (!applySystemGroup(device, system)) {
+                        return CompletableFuture.completedFuture(null); // Device is not responding to SNMP
+                    }
+                    return fetchTables(snmp, ip, device);
+                });
+    }
+
+    /**
+     * Vuelve a leer sólo la tabla de direcciones MAC (FDB de BRIDGE-MIB y
+     * ipNetToMediaTable) de un dispositivo ya descubierto, sustituyendo la
+     * anterior. Ninguna de las dos tiene indicador de cambio, así que la
+     * monitorización las relee periódicamente en un intervalo propio.
+     */
+    public CompletionStage<Void> refreshMacAddressTableAsync(SnmpClient snmp, NetworkDevice device) {
+        String ip = device.getIpAddress();
+        snmp.setWalkMode(SnmpClient.WalkMode.GETBULK);
+        CompletableFuture<Map<Integer, Integer>> bridgePortMap = recover(
+                snmp.walkAsync(ip, OID_BASE_PORT_IF_INDEX).thenApply(this::parseBridgePortMap), new HashMap<>(),
+                "bridge port map");
+        CompletableFuture<long[]> fdb = recover(fetchFdb(snmp, ip), new long[0], "MAC table");
+        CompletableFuture<Map<String, String>> arpEntries = recover(snmp.walkAsync(ip, OID_ARP_PHYS_ADDRESS),
+                new HashMap<>(), "ARP Table");
+        return CompletableFuture.allOf(bridgePortMap, fdb, arpEntries).thenRun(() -> {
+            device.getMacAddressTable().clear();
+            applyMacAddressTable(device, bridgePortMap.join(), fdb.join());
+            applyIpNetToMediaTable(device, arpEntries.join());
+        });
+    }
+
+    private CompletableFuture<Void> fetchTables(SnmpClient snmp, String ip, NetworkDevice device) {
+        // 2. Interfaces (ifTable + ifHighSpeed de ifXTable en las mismas PDUs)
+        CompletableFuture<Map<String, Map<String, String>>> ifRows = snmp.getTableAsync(ip, OID_IF_DESCR,
+                OID_IF_TYPE, OID_IF_MTU, OID_IF_SPEED, OID_IF_PHYS_ADDRESS, OID_IF_ADMIN_STATUS, OID_IF_OPER_STATUS,
+                OID_IF_IN_ERRORS, OID_IF_OUT_ERRORS, OID_IF_HIGH_SPEED);
+        // 3. IP Address Mapping to Interface Index (índice = IP)
+        CompletableFuture<Map<String, Map<String, String>>> ipAddrRows = snmp.getTableAsync(ip,
+                OID_IP_AD_ENT_IF_INDEX, OID_IP_AD_ENT_NET_MASK);
+        // 4. Routing Table (ipRouteTable)
+        CompletableFuture<Map<String, Map<String, String>>> routeRows = snmp.getTableAsync(ip,
+                OID_IP_ROUTE_NEXT_HOP, OID_IP_ROUTE_PROTO);
+        // 5-6. BRIDGE-MIB: mapa de puertos (compartido por FDB, VLANs y STP) y FDB
+        CompletableFuture<Map<Integer, Integer>> bridgePortMap = recover(
+                snmp.walkAsync(ip, OID_BASE_PORT_IF_INDEX).thenApply(this::parseBridgePortMap), new HashMap<>(),
+                "bridge port map");
+        CompletableFuture<long[]> fdb = recover(fetchFdb(snmp, ip), new long[0], "MAC table");
+        CompletableFuture<Map<String, String>> vlanNames = recover(snmp.walkAsync(ip, OID_VLAN_STATIC_NAME),
+                new HashMap<>(), "VLANs");
+        CompletableFuture<Map<String, String>> pvids = recover(snmp.walkAsync(ip, OID_PVID), new HashMap<>(),
+                "VLANs");
+        CompletableFuture<Map<String, String>> egressPorts = recover(snmp.walkAsync(ip, OID_VLAN_EGRESS_PORTS),
+                new HashMap<>(), "VLANs");
+        // 7. ARP Table (ipNetToMediaTable) - Fallback/Supplement for L3 devices
+        CompletableFuture<Map<String, String>> arpEntries = recover(snmp.walkAsync(ip, OID_ARP_PHYS_ADDRESS),
+                new HashMap<>(), "ARP Table");
+        // 8. LLDP / CDP Neighbors
+        CompletableFuture<Map<String, Map<String, String>>> lldpRows = recover(snmp.getTableAsync(ip,
+                OID_LLDP_REM_SYS_NAME, OID_LLDP_REM_PORT_DESC, OID_LLDP_REM_SYS_DESC), new HashMap<>(), "LLDP Table");
+        CompletableFuture<Map<String, Map<String, String>>> cdpRows = recover(
+                snmp.getTableAsync(ip, OID_CDP_DEVICE_ID, OID_CDP_DEVICE_PORT), new HashMap<>(), "CDP Table");
+        CompletableFuture<Set<String>> neighborAddresses = fetchNeighborAddresses(snmp, ip);
+        // 9. STP Status (dot1dStpPortTable)
+        CompletableFuture<Map<String, Map<String, String>>> stpRows = recover(
+                snmp.getTableAsync(ip, OID_STP_PORT_STATE, OID_STP_PORT_ROLE), new HashMap<>(), "STP Status");
+        // 10. Duplex Status (EtherLike-MIB)
+        CompletableFuture<Map<String, String>> duplex = recover(snmp.walkAsync(ip, OID_DUPLEX_STATUS),
+                new HashMap<>(), "Duplex Status");
 
-        // 1. Información del Sistema
-        String sysDescr = snmp.get(ip, OID_SYS_DESCR);
+        return CompletableFuture.allOf(ifRows, ipAddrRows, routeRows, bridgePortMap, fdb, vlanNames, pvids,
+                egressPorts, arpEntries, lldpRows, cdpRows, neighborAddresses, stpRows, duplex).thenRun(() -> {
+                    applyInterfaces(device, ifRows.join(), ipAddrRows.join());
+                    applyRoutes(device, routeRows.join());
+
+                    // 5. Tabla de Direcciones MAC (BRIDGE-MIB)
+                    try {
+                        applyMacAddressTable(device, bridgePortMap.join(), fdb.join());
+                    } catch (Exception e) {
+                        logger.warn("Error fetching MAC table on {}: {}", device.getIpAddress(), e.getMessage());
+                    }
+
+                    // 6. VLANs (Q-BRIDGE-MIB simple)
+                    try {
+                        applyVlans(device, vlanNames.join(), bridgePortMap.join(), pvids.join(), egressPorts.join());
+                    } catch (Exception e) {
+                        logger.warn("Error fetching VLANs on {}: {}", device.getIpAddress(), e.getMessage());
+                    }
+
+                    // 6b. Fallback: Detect VLANs from interface naming (Linux, etc.)
+                    try {
+                        detectVlansFromInterfaceNames(device);
+                    } catch (Exception e) {
+                        logger.warn("Error detecting VLANs from interface names on {}: {}", device.getIpAddress(),
+                                e.getMessage());
+                    }
+
+                    // 7. ARP Table (ipNetToMediaTable)
+                    try {
+                        applyIpNetToMediaTable(device, arpEntries.join());
+                    } catch (Exception e) {
+                        logger.warn("Error fetching ARP Table on {}: {}", device.getIpAddress(), e.getMessage());
+                    }
+
+                    // 8. LLDP Neighbors (lldpRemTable)
+                    try {
+                        applyLldpTable(device, lldpRows.join());
+                        if (!device.getLldpNeighbors().isEmpty()) {
+                            device.addDiscoverySource("LLDP");
+                        }
+                    } catch (Exception e) {
+                        logger.warn("Error fetching LLDP Table on {}: {}", device.getIpAddress(), e.getMessage());
+                    }
+
+                    // 8b. CDP Neighbors (cdpCacheTable)
+                    try {
+                        applyCdpTable(device, cdpRows.join());
+                    } catch (Exception e) {
+                        logger.warn("Error fetching CDP Table on {}: {}", device.getIpAddress(), e.getMessage());
+                    }
+                    device.getNeighborAddresses().addAll(neighborAddresses.join());
+
+                    // 9. STP Status (dot1dStpPortTable)
+                    try {
+                        applyStpStatus(device, stpRows.join(), bridgePortMap.join());
+                    } catch (Exception e) {
+                        logger.warn("Error fetching STP Status on {}: {}", device.getIpAddress(), e.getMessage());
+                    }
+
+                    // 10. Duplex Status (EtherLike-MIB)
+                    try {
+                        applyDuplexStatus(device, duplex.join());
+                    } catch (Exception e) {
+                        logger.warn("Error fetching Duplex Status on {}: {}", device.getIpAddress(), e.getMessage());
+                    }
+
+                    // 11. Layer Detection (Phase 10)
+                    detectLayer(device);
+                });
+    }
+
+    /**
+     * Si una lectura falla se informa y se continúa con un resultado vacío,
+     * como en el descubrimiento secuencial.
+     */
+    private static <T> CompletableFuture<T> recover(CompletableFuture<T> future, T empty, String what) {
+        return future.exceptionally(e -> {
+            logger.warn("Error fetching {}: {}", what, e.getMessage());
+            return empty;
+        });
+    }
+
+    /**
+     * Aplica el grupo system. Devuelve false si el dispositivo no respondió.
+     */
+    private boolean applySystemGroup(NetworkDevice device, Map<String, String> system) {
+        String sysDescr = system.get(OID_SYS_DESCR);
         if (sysDescr == null) {
-            return; // Early departure: Device is not responding to SNMP
+            return false;
         }
         device.addDiscoverySource("SNMP");
         device.setConfidence(1.0); // Base confidence for responding SNMP device
         device.setSysDescr(sysDescr);
-        device.setSysName(snmp.get(ip, OID_SYS_NAME));
-        device.setSysLocation(snmp.get(ip, OID_SYS_LOCATION));
-        device.setSysContact(snmp.get(ip, OID_SYS_CONTACT));
-        device.setSysUpTime(snmp.get(ip, OID_SYS_UPTIME));
+        device.setSysName(system.get(OID_SYS_NAME));
+        device.setSysLocation(system.get(OID_SYS_LOCATION));
+        device.setSysContact(system.get(OID_SYS_CONTACT));
+        device.setSysUpTime(system.get(OID_SYS_UPTIME));
 
         // 1b. Identificación de Marca/Modelo y Tipo
-        String sysObjectIdVal = snmp.get(ip, OID_SYS_OBJECT_ID);
+        String sysObjectIdVal = system.get(OID_SYS_OBJECT_ID);
         device.setSysObjectId(sysObjectIdVal);
 
-        String sysServicesStr = snmp.get(ip, OID_SYS_SERVICES);
+        String sysServicesStr = system.get(OID_SYS_SERVICES);
         int sysServices = 0;
         try {
             if (sysServicesStr != null) {
@@ -89,47 +298,33 @@ public class StandardMibStrategy implements DiscoveryStrategy {
         device.setFormattedServices(formatSysServices(sysServices));
         detectDeviceType(device, sysServices);
 
-        // 2. Interfaces
-        Map<String, String> ifDescrs = snmp.walk(ip, OID_IF_DESCR);
-        Map<String, String> ifTypes = snmp.walk(ip, OID_IF_TYPE);
-        Map<String, String> ifMtus = snmp.walk(ip, OID_IF_MTU);
-        Map<String, String> ifSpeeds = snmp.walk(ip, OID_IF_SPEED);
-        Map<String, String> ifPhysAddr = snmp.walk(ip, OID_IF_PHYS_ADDRESS);
-        Map<String, String> ifAdminStatus = snmp.walk(ip, OID_IF_ADMIN_STATUS);
-        Map<String, String> ifOperStatus = snmp.walk(ip, OID_IF_OPER_STATUS);
-        Map<String, String> ifInErr = snmp.walk(ip, OID_IF_IN_ERRORS);
-        Map<String, String> ifOutErr = snmp.walk(ip, OID_IF_OUT_ERRORS);
-
-        // 3. IP Address Mapping to Interface Index
-        Map<String, String> ipIfIndex = snmp.walk(ip, OID_IP_AD_ENT_IF_INDEX);
-        Map<String, String> ipNetMask = snmp.walk(ip, OID_IP_AD_ENT_NET_MASK);
-
-        // 2b. High Speed Interfaces (ifXTable)
-        // ifHighSpeed: 1.3.6.1.2.1.31.1.1.1.15 (Units: Mbps)
-        String oidIfHighSpeed = "1.3.6.1.2.1.31.1.1.1.15";
-        Map<String, String> ifHighSpeeds = snmp.walk(ip, oidIfHighSpeed);
-
-        // Procesar interfaces
-        for (Map.Entry<String, String> entry : ifDescrs.entrySet()) {
-            String oid = entry.getKey();
+        return true;
+    }
+
+    private void applyInterfaces(NetworkDevice device, Map<String, Map<String, String>> ifRows,
+            Map<String, Map<String, String>> ipAddrRows) {
+        for (Map.Entry<String, Map<String, String>> entry : ifRows.entrySet()) {
+            Map<String, String> row = entry.getValue();
+            String descr = row.get(OID_IF_DESCR);
+            if (descr == null) {
+                continue; // Fila sólo presente en ifXTable
+            }
             try {
-                // Extraer índice (último componente del OID)
-                int index = Integer.parseInt(oid.substring(oid.lastIndexOf('.') + 1));
-                String descr = entry.getValue();
+                int index = Integer.parseInt(entry.getKey());
 
                 NetworkInterface netIf = new NetworkInterface(index, descr);
 
                 // Configuración extendida
-                String rawType = ifTypes.get(OID_IF_TYPE + "." + index);
+                String rawType = row.get(OID_IF_TYPE);
                 netIf.setType(InterfaceTypeUtils.formatInterfaceType(rawType));
-                String mtuStr = ifMtus.get(OID_IF_MTU + "." + index);
+                String mtuStr = row.get(OID_IF_MTU);
                 if (mtuStr != null) {
                     netIf.setMtu(Integer.parseInt(mtuStr));
                 }
 
                 // Speed Logic: Prefer High Speed if available and > 0, otherwise normal speed
-                String highSpeedStr = ifHighSpeeds.get(oidIfHighSpeed + "." + index);
-                String speedStr = ifSpeeds.get(OID_IF_SPEED + "." + index);
+                String highSpeedStr = row.get(OID_IF_HIGH_SPEED);
+                String speedStr = row.get(OID_IF_SPEED);
 
                 long finalSpeed = 0;
                 if (highSpeedStr != null) {
@@ -163,27 +358,26 @@ public class StandardMibStrategy implements DiscoveryStrategy {
                 }
 
                 // Asignar MAC Address
-                String rawMac = ifPhysAddr.get(OID_IF_PHYS_ADDRESS + "." + index);
+                String rawMac = row.get(OID_IF_PHYS_ADDRESS);
                 netIf.setMacAddress(formatMacAddress(rawMac));
 
                 // Estados
-                netIf.setAdminStatus(mapStatus(ifAdminStatus.get(OID_IF_ADMIN_STATUS + "." + index)));
-                netIf.setOperStatus(mapStatus(ifOperStatus.get(OID_IF_OPER_STATUS + "." + index)));
+                netIf.setAdminStatus(mapStatus(row.get(OID_IF_ADMIN_STATUS)));
+                netIf.setOperStatus(mapStatus(row.get(OID_IF_OPER_STATUS)));
 
-                String inErrStr = ifInErr.get(OID_IF_IN_ERRORS + "." + index);
+                String inErrStr = row.get(OID_IF_IN_ERRORS);
                 if (inErrStr != null)
                     netIf.setInErrors(Long.parseLong(inErrStr));
-                String outErrStr = ifOutErr.get(OID_IF_OUT_ERRORS + "." + index);
+                String outErrStr = row.get(OID_IF_OUT_ERRORS);
                 if (outErrStr != null)
                     netIf.setOutErrors(Long.parseLong(outErrStr));
 
-                // Buscar IP asociada a esta interfaz
-                for (Map.Entry<String, String> ipEntry : ipIfIndex.entrySet()) {
-                    if (Integer.parseInt(ipEntry.getValue()) == index) {
-                        // El OID key es OID_IP_AD_ENT_IF_INDEX + . + IP
-                        String ipOidSuffix = ipEntry.getKey().substring(OID_IP_AD_ENT_IF_INDEX.length() + 1);
-                        netIf.setIpAddress(ipOidSuffix);
-                        netIf.setSubnetMask(ipNetMask.get(OID_IP_AD_ENT_NET_MASK + "." + ipOidSuffix));
+                // Buscar IP asociada a esta interfaz (el índice de ipAddrTable es la IP)
+                for (Map.Entry<String, Map<String, String>> ipEntry : ipAddrRows.entrySet()) {
+                    String ipIfIndex = ipEntry.getValue().get(OID_IP_AD_ENT_IF_INDEX);
+                    if (ipIfIndex != null && Integer.parseInt(ipIfIndex) == index) {
+                        netIf.setIpAddress(ipEntry.getKey());
+                        netIf.setSubnetMask(ipEntry.getValue().get(OID_IP_AD_ENT_NET_MASK));
                         break;
                     }
                 }
@@ -194,16 +388,20 @@ public class StandardMibStrategy implements DiscoveryStrategy {
             }
         }
 
-        // 4. Routing Table (ipRouteTable)
-        Map<String, String> routeNextHops = snmp.walk(ip, OID_IP_ROUTE_NEXT_HOP);
-        Map<String, String> routeProtos = snmp.walk(ip, OID_IP_ROUTE_PROTO);
-        for (Map.Entry<String, String> routeEntry : routeNextHops.entrySet()) {
+    }
+
+    private void applyRoutes(NetworkDevice device, Map<String, Map<String, String>> routeRows) {
+        for (Map.Entry<String, Map<String, String>> routeEntry : routeRows.entrySet()) {
             try {
-                String destPrefix = routeEntry.getKey().substring(OID_IP_ROUTE_NEXT_HOP.length() + 1);
-                device.getRoutingTable().put(destPrefix, routeEntry.getValue());
+                String destPrefix = routeEntry.getKey();
+                String nextHop = routeEntry.getValue().get(OID_IP_ROUTE_NEXT_HOP);
+                if (nextHop == null) {
+                    continue;
+                }
+                device.getRoutingTable().put(destPrefix, nextHop);
 
                 // Map Protocol
-                String protoVal = routeProtos.get(OID_IP_ROUTE_PROTO + "." + destPrefix);
+                String protoVal = routeEntry.getValue().get(OID_IP_ROUTE_PROTO);
                 if (protoVal != null) {
                     device.getRouteProtocols().put(destPrefix, mapRouteProto(Integer.parseInt(protoVal)));
                 }
@@ -211,94 +409,26 @@ public class StandardMibStrategy implements DiscoveryStrategy {
                 continue;
             }
         }
-
-        // 5. Tabla de Direcciones MAC (BRIDGE-MIB)
-        try {
-            fetchMacAddressTable(snmp, ip, device);
-        } catch (Exception e) {
-            System.err.println("Error fetching MAC table: " + e.getMessage());
-        }
-
-        // 6. VLANs (Q-BRIDGE-MIB simple)
-        try {
-            fetchVlans(snmp, ip, device);
-        } catch (Exception e) {
-            System.err.println("Error fetching VLANs: " + e.getMessage());
-        }
-
-        // 6b. Fallback: Detect VLANs from interface naming (Linux, etc.)
-        try {
-            detectVlansFromInterfaceNames(device);
-        } catch (Exception e) {
-            System.err.println("Error detecting VLANs from interface names: " + e.getMessage());
-        }
-
-        // 7. ARP Table (ipNetToMediaTable) - Fallback/Supplement for L3 devices
-        try {
-            fetchIpNetToMediaTable(snmp, ip, device);
-        } catch (Exception e) {
-            System.err.println("Error fetching ARP Table: " + e.getMessage());
-        }
-
-        // 8. LLDP Neighbors (lldpRemTable)
-        try {
-            fetchLldpTable(snmp, ip, device);
-            if (!device.getLldpNeighbors().isEmpty()) {
-                device.addDiscoverySource("LLDP");
-            }
-        } catch (Exception e) {
-            System.err.println("Error fetching LLDP Table: " + e.getMessage());
-        }
-
-        // 8b. CDP Neighbors (cdpCacheTable)
-        try {
-            fetchCdpTable(snmp, ip, device);
-        } catch (Exception e) {
-            System.err.println("Error fetching CDP Table: " + e.getMessage());
-        }
-
-        // 9. STP Status (dot1dStpPortTable)
-        try {
-            fetchStpStatus(snmp, ip, device);
-        } catch (Exception e) {
-            System.err.println("Error fetching STP Status: " + e.getMessage());
-        }
-
-        // 10. Duplex Status (EtherLike-MIB)
-        try {
-            fetchDuplexStatus(snmp, ip, device);
-        } catch (Exception e) {
-            System.err.println("Error fetching Duplex Status: " + e.getMessage());
-        }
-
-        // 11. Layer Detection (Phase 10)
-        detectLayer(device);
     }
 
-    private void fetchCdpTable(SnmpClient snmp, String ip, NetworkDevice device) {
-        // cdpCacheDeviceId: 1.3.6.1.4.1.9.9.23.1.2.1.1.6
-        String oidCdpDeviceId = "1.3.6.1.4.1.9.9.23.1.2.1.1.6";
-        // cdpCacheDevicePort: 1.3.6.1.4.1.9.9.23.1.2.1.1.7
-        String oidCdpDevicePort = "1.3.6.1.4.1.9.9.23.1.2.1.1.7";
-
-        Map<String, String> deviceIds = snmp.walk(ip, oidCdpDeviceId);
-        Map<String, String> devicePorts = snmp.walk(ip, oidCdpDevicePort);
-
-        if (!deviceIds.isEmpty()) {
+    private void applyCdpTable(NetworkDevice device, Map<String, Map<String, String>> cdpRows) {
+        if (!cdpRows.isEmpty()) {
             device.addDiscoverySource("CDP");
         }
 
-        for (Map.Entry<String, String> entry : deviceIds.entrySet()) {
+        for (Map.Entry<String, Map<String, String>> entry : cdpRows.entrySet()) {
             try {
-                String oidSuffix = entry.getKey().substring(oidCdpDeviceId.length() + 1);
+                String oidSuffix = entry.getKey();
                 // Suffix is usually <ifIndex>.<cacheIndex>
                 String[] parts = oidSuffix.split("\\.");
                 if (parts.length < 2)
                     continue;
                 int ifIndex = Integer.parseInt(parts[0]);
 
-                String neighborName = entry.getValue();
-                String remotePort = devicePorts.get(oidCdpDevicePort + "." + oidSuffix);
+                String neighborName = entry.getValue().get(OID_CDP_DEVICE_ID);
+                if (neighborName == null)
+                    continue;
+                String remotePort = entry.getValue().get(OID_CDP_DEVICE_PORT);
 
                 String info = neighborName + (remotePort != null ? " on " + remotePort : "") + " (CDP)";
 
@@ -317,19 +447,8 @@ public class StandardMibStrategy implements DiscoveryStrategy {
         }
     }
 
-    private void fetchLldpTable(SnmpClient snmp, String ip, NetworkDevice device) {
-        // lldpRemSysName: 1.0.8802.1.1.2.1.4.1.1.9
-        String oidLldpSysName = "1.0.8802.1.1.2.1.4.1.1.9";
-        // lldpRemPortDesc: 1.0.8802.1.1.2.1.4.1.1.8
-        String oidLldpPortDesc = "1.0.8802.1.1.2.1.4.1.1.8";
-        // lldpRemSysDesc: 1.0.8802.1.1.2.1.4.1.1.10
-        String oidLldpSysDesc = "1.0.8802.1.1.2.1.4.1.1.10";
-
-        Map<String, String> names = snmp.walk(ip, oidLldpSysName);
-        Map<String, String> portDescs = snmp.walk(ip, oidLldpPortDesc);
-        Map<String, String> sysDescs = snmp.walk(ip, oidLldpSysDesc);
-
-        if (names.isEmpty() && portDescs.isEmpty() && sysDescs.isEmpty()) {
+    private void applyLldpTable(NetworkDevice device, Map<String, Map<String, String>> lldpRows) {
+        if (lldpRows.isEmpty()) {
             return;
         }
 
@@ -340,10 +459,10 @@ public class StandardMibStrategy implements DiscoveryStrategy {
         // ifIndex logic
         // often (timeMark.portNum.index).
 
-        for (Map.Entry<String, String> entry : names.entrySet()) {
+        for (Map.Entry<String, Map<String, String>> entry : lldpRows.entrySet()) {
             try {
-                // Key: ...timeMark.portNum.index
-                String oidSuffix = entry.getKey().substring(oidLldpSysName.length() + 1);
+                // Key: timeMark.portNum.index
+                String oidSuffix = entry.getKey();
                 String[] parts = oidSuffix.split("\\.");
                 if (parts.length < 2)
                     continue;
@@ -351,8 +470,10 @@ public class StandardMibStrategy implements DiscoveryStrategy {
                 // Usually the second to last is lldpRemLocalPortNum
                 int localPortNum = Integer.parseInt(parts[1]);
 
-                String neighborName = entry.getValue();
-                String remotePort = portDescs.get(oidLldpPortDesc + "." + oidSuffix);
+                String neighborName = entry.getValue().get(OID_LLDP_REM_SYS_NAME);
+                if (neighborName == null)
+                    continue;
+                String remotePort = entry.getValue().get(OID_LLDP_REM_PORT_DESC);
 
                 String info = neighborName;
                 if (remotePort != null)
@@ -376,23 +497,17 @@ public class StandardMibStrategy implements DiscoveryStrategy {
         }
     }
 
-    private void fetchStpStatus(SnmpClient snmp, String ip, NetworkDevice device) {
-        // dot1dStpPortState: 1.3.6.1.2.1.17.2.15.1.3
-        String oidStpState = "1.3.6.1.2.1.17.2.15.1.3";
-        // dot1dStpPortRole (Rapid STP): 1.3.6.1.2.1.17.2.15.1.4
-        String oidStpRole = "1.3.6.1.2.1.17.2.15.1.4";
-
-        Map<String, String> states = snmp.walk(ip, oidStpState);
-        Map<String, String> roles = snmp.walk(ip, oidStpRole);
-
-        // Map Bridge Port -> IfIndex
-        Map<Integer, Integer> bridgeMap = getBridgePortToIfIndexMap(snmp, ip);
+    private void applyStpStatus(NetworkDevice device, Map<String, Map<String, String>> stpRows,
+            Map<Integer, Integer> bridgeMap) {
         boolean hasMap = !bridgeMap.isEmpty();
 
-        for (Map.Entry<String, String> entry : states.entrySet()) {
+        for (Map.Entry<String, Map<String, String>> entry : stpRows.entrySet()) {
             try {
-                int bridgePort = Integer.parseInt(entry.getKey().substring(oidStpState.length() + 1));
-                int stateVal = Integer.parseInt(entry.getValue());
+                String stateRaw = entry.getValue().get(OID_STP_PORT_STATE);
+                if (stateRaw == null)
+                    continue;
+                int bridgePort = Integer.parseInt(entry.getKey());
+                int stateVal = Integer.parseInt(stateRaw);
                 String stateStr = mapStpState(stateVal);
 
                 Integer ifIndex = bridgeMap.get(bridgePort);
@@ -403,7 +518,7 @@ public class StandardMibStrategy implements DiscoveryStrategy {
                     for (NetworkInterface ni : device.getInterfaces()) {
                         if (ni.getIndex() == ifIndex) {
                             ni.setStpState(stateStr);
-                            String roleValStr = roles.get(oidStpRole + "." + bridgePort);
+                            String roleValStr = entry.getValue().get(OID_STP_PORT_ROLE);
                             if (roleValStr != null) {
                                 ni.setStpRole(mapStpRole(Integer.parseInt(roleValStr)));
                             }
@@ -453,14 +568,11 @@ public class StandardMibStrategy implements DiscoveryStrategy {
         }
     }
 
-    private void fetchDuplexStatus(SnmpClient snmp, String ip, NetworkDevice device) {
-        // dot3StatsDuplexStatus: 1.3.6.1.2.1.10.7.2.1.19
-        String oidDuplex = "1.3.6.1.2.1.10.7.2.1.19";
-        Map<String, String> statuses = snmp.walk(ip, oidDuplex);
+    private void applyDuplexStatus(NetworkDevice device, Map<String, String> statuses) {
 
         for (Map.Entry<String, String> entry : statuses.entrySet()) {
             try {
-                int ifIndex = Integer.parseInt(entry.getKey().substring(oidDuplex.length() + 1));
+                int ifIndex = Integer.parseInt(entry.getKey().substring(OID_DUPLEX_STATUS.length() + 1));
                 int val = Integer.parseInt(entry.getValue());
                 String duplex = "Unknown";
                 if (val == 2)
@@ -522,8 +634,7 @@ public class StandardMibStrategy implements DiscoveryStrategy {
                                     .getString("vlan.detected_from", detectionMethod, descr) + ")";
                             addVlanIfNotExists(device, vlanId, vlanEntry);
 
-                            System.out.println(
-                                    "DEBUG: Detected VLAN " + vlanId + " from " + detectionMethod + ": " + descr);
+                            logger.debug("Detected VLAN {} from {}: {}", vlanId, detectionMethod, descr);
                             break; // Stop after first match
                         }
                     } catch (NumberFormatException e) {
@@ -558,19 +669,12 @@ public class StandardMibStrategy implements DiscoveryStrategy {
         device.getVlans().add(vlanEntry);
     }
 
-    private void fetchIpNetToMediaTable(SnmpClient snmp, String ip, NetworkDevice device) {
-        // ipNetToMediaPhysAddress: 1.3.6.1.2.1.4.22.1.2
-        // Key format: .ifIndex.ip1.ip2.ip3.ip4
-        String oidArpPhysAddress = "1.3.6.1.2.1.4.22.1.2";
-
-        System.out.println("DEBUG: Fetching ARP Table (ipNetToMediaTable)...");
-
-        Map<String, String> arpEntries = snmp.walk(ip, oidArpPhysAddress);
-        System.out.println("DEBUG: ARP Table Size: " + arpEntries.size());
+    private void applyIpNetToMediaTable(NetworkDevice device, Map<String, String> arpEntries) {
+        logger.debug("ARP table size on {}: {}", device.getIpAddress(), arpEntries.size());
 
         for (Map.Entry<String, String> entry : arpEntries.entrySet()) {
             try {
-                String oidSuffix = entry.getKey().substring(oidArpPhysAddress.length() + 1);
+                String oidSuffix = entry.getKey().substring(OID_ARP_PHYS_ADDRESS.length() + 1);
                 // Suffix is ifIndex.ip.ip.ip.ip
                 String[] parts = oidSuffix.split("\\.");
                 if (parts.length < 5) {
@@ -592,72 +696,105 @@ public class StandardMibStrategy implements DiscoveryStrategy {
         }
     }
 
-    private void fetchMacAddressTable(SnmpClient snmp, String ip, NetworkDevice device) {
-        // dot1dTpFdbAddress
-        String oidMacAddress = "1.3.6.1.2.1.17.4.3.1.1";
-        // dot1dTpFdbPort
-        String oidMacPort = "1.3.6.1.2.1.17.4.3.1.2";
+    /**
+     * IPs de gestión IPv4 de los vecinos: en LLDP van codificadas en el índice
+     * de lldpRemManAddrTable (timeMark.puerto.remIndex.subtipo.longitud.dirección)
+     * y en CDP son el valor binario de cdpCacheAddress.
+     */
+    private CompletableFuture<Set<String>> fetchNeighborAddresses(SnmpClient snmp, String ip) {
+        Set<String> addresses = Collections.synchronizedSet(new LinkedHashSet<>());
+        CompletableFuture<Integer> lldp = snmp.walkAsync(ip, OID_LLDP_REM_MAN_ADDR_IF_SUBTYPE, (index, value) -> {
+            // Subtipo 1 = IPv4, longitud 4
+            if (index.length == 9 && index[3] == 1 && index[4] == 4) {
+                addresses.add(index[5] + "." + index[6] + "." + index[7] + "." + index[8]);
+            }
+        });
+        CompletableFuture<Integer> cdp = snmp.walkAsync(ip, OID_CDP_ADDRESS, (index, value) -> {
+            if (value instanceof OctetString && ((OctetString) value).length() == 4) {
+                byte[] b = ((OctetString) value).getValue();
+                addresses.add((b[0] & 0xFF) + "." + (b[1] & 0xFF) + "." + (b[2] & 0xFF) + "." + (b[3] & 0xFF));
+            }
+        });
+        return recover(lldp, 0, "LLDP management addresses")
+                .thenCombine(recover(cdp, 0, "CDP addresses"), (l, c) -> addresses);
+    }
+
+    /**
+     * Recorre dot1dTpFdbPort en streaming. dot1dTpFdbTable está indexada por la
+     * propia MAC (6 sub-identificadores), así que la MAC sale del índice y no
+     * hace falta el walk de dot1dTpFdbAddress. Cada entrada se guarda empaquetada
+     * en un long: MAC (48 bits) y puerto bridge (16 bits).
+     */
+    private CompletableFuture<long[]> fetchFdb(SnmpClient snmp, String ip) {
+        LongStream.Builder entries = LongStream.builder();
+        return snmp.walkAsync(ip, OID_FDB_PORT, (index, value) -> {
+            int bridgePort = value.toInt();
+            if (index.length != 6 || bridgePort < 0 || bridgePort > 0xFFFF) {
+                return;
+            }
+            long mac = 0;
+            for (int i = 0; i < 6; i++) {
+                mac = (mac << 8) | (index[i] & 0xFF);
+            }
+            entries.add((mac << 16) | bridgePort);
+        }).thenApply(count -> entries.build().toArray());
+    }
 
-        Map<Integer, Integer> bridgePortMap = getBridgePortToIfIndexMap(snmp, ip);
+    private void applyMacAddressTable(NetworkDevice device, Map<Integer, Integer> bridgePortMap, long[] fdb) {
         boolean hasBridgeMap = !bridgePortMap.isEmpty();
 
-        System.out.println("DEBUG: Bridge Port Map size: " + bridgePortMap.size());
-        if (!bridgePortMap.isEmpty()) {
-            System.out.println("DEBUG: Sample Mapping: " + bridgePortMap.entrySet().iterator().next());
+        if (logger.isDebugEnabled()) {
+            logger.debug("Bridge port map size on {}: {}{}", device.getIpAddress(), bridgePortMap.size(),
+                    bridgePortMap.isEmpty() ? "" : " (sample " + bridgePortMap.entrySet().iterator().next() + ")");
         }
 
-        Map<String, String> macs = snmp.walk(ip, oidMacAddress);
-        Map<String, String> ports = snmp.walk(ip, oidMacPort);
-
-        System.out.println("DEBUG: MAC Table Size: " + macs.size());
-        System.out.println("DEBUG: Port Table Size: " + ports.size());
-
         int mappedCount = 0;
-
-        for (Map.Entry<String, String> entry : macs.entrySet()) {
+        for (long entry : fdb) {
             try {
-                String suffix = entry.getKey().substring(oidMacAddress.length() + 1);
-                String mac = formatMacAddress(entry.getValue());
-                String vendor = MacVendorUtils.getVendor(mac);
-
-                String portVal = ports.get(oidMacPort + "." + suffix);
-                if (portVal != null) {
-                    int bridgePort = Integer.parseInt(portVal);
-                    Integer ifIndex = bridgePortMap.get(bridgePort);
+                int bridgePort = (int) (entry & 0xFFFF);
+                Integer ifIndex = bridgePortMap.get(bridgePort);
 
-                    if (ifIndex == null && !hasBridgeMap) {
-                        // Fallback: Si no hay mapa, asumimos que port bridge == ifIndex
-                        ifIndex = bridgePort;
-                    }
+                if (ifIndex == null && !hasBridgeMap) {
+                    // Fallback: Si no hay mapa, asumimos que port bridge == ifIndex
+                    ifIndex = bridgePort;
+                }
 
-                    if (ifIndex != null) {
-                        DetectedEndpoint endpoint = new DetectedEndpoint(mac, null, vendor);
-                        device.getMacAddressTable().computeIfAbsent(ifIndex, k -> new ArrayList<>()).add(endpoint);
-                        mappedCount++;
-                    } else {
-                        // System.out.println("DEBUG: Unmapped Bridge Port: " + bridgePort); // Verbose
-                    }
+                if (ifIndex != null) {
+                    String mac = formatMac(entry >>> 16);
+                    DetectedEndpoint endpoint = new DetectedEndpoint(mac, null, MacVendorUtils.getVendor(mac));
+                    device.getMacAddressTable().computeIfAbsent(ifIndex, k -> new ArrayList<>()).add(endpoint);
+                    mappedCount++;
                 }
             } catch (Exception e) {
-                System.err.println("Error processing MAC entry: " + e.getMessage());
-                continue;
+                logger.warn("Error processing MAC entry on {}: {}", device.getIpAddress(), e.getMessage());
             }
         }
-        System.out.println("DEBUG: Total Mapped MACs: " + mappedCount);
+
+        logger.debug("FDB size on {}: {} entries, {} MACs mapped", device.getIpAddress(), fdb.length, mappedCount);
     }
 
-    private void fetchVlans(SnmpClient snmp, String ip, NetworkDevice device) {
-        // dot1qVlanStaticName: 1.3.6.1.2.1.17.7.1.4.3.1.1
-        String oidVlanName = "1.3.6.1.2.1.17.7.1.4.3.1.1";
-        // dot1qVlanCurrentEgressPorts: 1.3.6.1.2.1.17.7.1.4.2.1.4
-        // Indexado por TimeFilter (0) y VlanIndex
-        String oidEgressPorts = "1.3.6.1.2.1.17.7.1.4.2.1.4";
+    /**
+     * Convierte una MAC de 48 bits en "xx:xx:xx:xx:xx:xx".
+     */
+    private static String formatMac(long mac) {
+        char[] chars = new char[17];
+        for (int i = 0; i < 6; i++) {
+            int b = (int) (mac >>> (40 - 8 * i)) & 0xFF;
+            if (i > 0) {
+                chars[i * 3 - 1] = ':';
+            }
+            chars[i * 3] = HEX_DIGITS[b >> 4];
+            chars[i * 3 + 1] = HEX_DIGITS[b & 0x0F];
+        }
+        return new String(chars);
+    }
 
+    private void applyVlans(NetworkDevice device, Map<String, String> vlanNames,
+            Map<Integer, Integer> bridgePortMap, Map<String, String> pvids, Map<String, String> egressPorts) {
         // Primero obtenemos nombres para listar en el dispositivo (requisito original)
-        Map<String, String> vlanNames = snmp.walk(ip, oidVlanName);
         for (Map.Entry<String, String> entry : vlanNames.entrySet()) {
             try {
-                String vlanIdStr = entry.getKey().substring(oidVlanName.length() + 1);
+                String vlanIdStr = entry.getKey().substring(OID_VLAN_STATIC_NAME.length() + 1);
                 String name = entry.getValue();
                 device.getVlans().add("VLAN " + vlanIdStr + ": " + name);
             } catch (Exception e) {
@@ -665,21 +802,15 @@ public class StandardMibStrategy implements DiscoveryStrategy {
             }
         }
 
-        // Obtenemos el mapa de Puerto Bridge -> ifIndex
+        // Mapa de Puerto Bridge -> ifIndex
         // Si falla (vacío), no podemos mapear puertos a interfaces, por lo que salimos
-        Map<Integer, Integer> bridgePortMap = getBridgePortToIfIndexMap(snmp, ip);
         boolean hasBridgeMap = !bridgePortMap.isEmpty();
 
         // 1. VLANs Nativas (PVID) - Untagged
-        // dot1qPvid: 1.3.6.1.2.1.17.7.1.4.5.1.1
-        // OID Key: .1.3.6.1.2.1.17.7.1.4.5.1.1.{dot1dBasePort}
-        String oidPvid = "1.3.6.1.2.1.17.7.1.4.5.1.1";
-        Map<String, String> pvids = snmp.walk(ip, oidPvid);
-
         for (Map.Entry<String, String> entry : pvids.entrySet()) {
             try {
                 String oid = entry.getKey();
-                int bridgePort = Integer.parseInt(oid.substring(oidPvid.length() + 1));
+                int bridgePort = Integer.parseInt(oid.substring(OID_PVID.length() + 1));
                 int vlanId = Integer.parseInt(entry.getValue());
 
                 Integer ifIndex = bridgePortMap.get(bridgePort);
@@ -703,7 +834,6 @@ public class StandardMibStrategy implements DiscoveryStrategy {
         // 2. VLANs Etiquetadas (Egress Ports)
         // Ahora procesamos puertos miembros (tagged + untagged teóricamente, pero
         // filtramos)
-        Map<String, String> egressPorts = snmp.walk(ip, oidEgressPorts);
         for (Map.Entry<String, String> entry : egressPorts.entrySet()) {
             try {
                 String oid = entry.getKey();
@@ -747,14 +877,12 @@ public class StandardMibStrategy implements DiscoveryStrategy {
         }
     }
 
-    private Map<Integer, Integer> getBridgePortToIfIndexMap(SnmpClient snmp, String ip) {
-        String oidBasePortIfIndex = "1.3.6.1.2.1.17.1.4.1.2";
-        Map<String, String> bridgeToIfIndex = snmp.walk(ip, oidBasePortIfIndex);
+    private Map<Integer, Integer> parseBridgePortMap(Map<String, String> bridgeToIfIndex) {
         Map<Integer, Integer> bridgePortMap = new HashMap<>();
 
         for (Map.Entry<String, String> entry : bridgeToIfIndex.entrySet()) {
             try {
-                int bridgePort = Integer.parseInt(entry.getKey().substring(oidBasePortIfIndex.length() + 1));
+                int bridgePort = Integer.parseInt(entry.getKey().substring(OID_BASE_PORT_IF_INDEX.length() + 1));
                 int ifIdx = Integer.parseInt(entry.getValue());
                 bridgePortMap.put(bridgePort, ifIdx);
             } catch (Exception e) {
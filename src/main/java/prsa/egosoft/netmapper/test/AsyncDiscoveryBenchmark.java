@@ -0,0 +1,136 @@
+package prsa.egosoft.netmapper.test;
+
+import prsa.egosoft.netmapper.core.SnmpClient;
+import prsa.egosoft.netmapper.model.NetworkDevice;
+import prsa.egosoft.netmapper.service.ScanContext;
+import prsa.egosoft.netmapper.strategy.StandardMibStrategy;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compara el descubrimiento SNMP bloqueante (un hilo por dispositivo en un
+ * pool fijo) con el asíncrono sobre los listeners de SNMP4J, contra una /20
+ * simulada de agentes en 127.10.0.0/20.
+ * <p>
+ * Uso: {@code AsyncDiscoveryBenchmark [latenciaMs] [hilosBloqueante] [enVueloMax] [puerto]}
+ * <p>
+ * El límite global de peticiones en vuelo debe quedar por debajo de lo que el
+ * agente simulado (un único hilo) puede servir; si no, la cola del simulador
+ * dispara los timeouts y se mide el simulador en lugar del cliente.
+ */
+public class AsyncDiscoveryBenchmark
+{
+    private static final int PORTS = 24;
+    private static final int FDB_ENTRIES = 64;
+
+    public static void main(String[] args) throws Exception
+    {
+        long latency = args.length > 0 ? Long.parseLong(args[0]) : 20;
+        int blockingThreads = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+        int maxInFlight = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : 16161;
+
+        List<String> ips = new ArrayList<>();
+        for(int i = 0; i < 4096; i++)
+        {
+            ips.add("127.10." + (i >> 8) + "." + (i & 0xFF));
+        }
+
+        try(SimulatedSnmpAgent agent = new SimulatedSnmpAgent(ips, port,
+                SimulatedSnmpAgent.switchMib(PORTS, FDB_ENTRIES), latency, 1000))
+        {
+            System.out.println("Simulated /20: " + ips.size() + " agents, latency " + latency + " ms");
+            Result blocking = run("blocking", ips, port, maxInFlight, agent, blockingThreads);
+            Result async = run("async", ips, port, maxInFlight, agent, 0);
+            System.out.printf("Speed-up async/blocking: %.2fx%n", async.devicesPerSecond() / blocking.devicesPerSecond());
+        }
+    }
+
+    private static Result run(String mode, List<String> ips, int port, int maxInFlight, SimulatedSnmpAgent agent,
+            int threads) throws Exception
+    {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        threadBean.resetPeakThreadCount();
+        long requestsBefore = agent.getRequestCount();
+        AtomicInteger complete = new AtomicInteger();
+        StandardMibStrategy strategy = new StandardMibStrategy();
+        long start = System.nanoTime();
+        int inFlightPeak;
+
+        try(ScanContext context = new ScanContext())
+        {
+            context.getSnmpSession().setAgentPort(port);
+            context.getSnmpSession().getScheduler().setGlobalLimit(maxInFlight);
+            SnmpClient client = context.createClient("public", null);
+            if(threads > 0)
+            {
+                ExecutorService pool = Executors.newFixedThreadPool(threads);
+                for(String ip : ips)
+                {
+                    pool.submit(() ->
+                    {
+                        NetworkDevice device = new NetworkDevice(ip);
+                        strategy.discover(client, device);
+                        if(device.getSysName() != null && device.getInterfaces().size() == PORTS)
+                        {
+                            complete.incrementAndGet();
+                        }
+                    });
+                }
+                pool.shutdown();
+                pool.awaitTermination(1, TimeUnit.HOURS);
+            }
+            else
+            {
+                List<CompletableFuture<Void>> futures = new ArrayList<>(ips.size());
+                for(String ip : ips)
+                {
+                    NetworkDevice device = new NetworkDevice(ip);
+                    futures.add(strategy.discoverAsync(client, device).toCompletableFuture().thenRun(() ->
+                    {
+                        if(device.getSysName() != null && device.getInterfaces().size() == PORTS)
+                        {
+                            complete.incrementAndGet();
+                        }
+                    }));
+                }
+                CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+            }
+            inFlightPeak = context.getSnmpSession().getScheduler().getPeakInFlight();
+        }
+
+        Result result = new Result((System.nanoTime() - start) / 1_000_000, complete.get(),
+                agent.getRequestCount() - requestsBefore);
+        System.out.printf("%-8s %6d ms  %5d/%d complete  %8.1f dev/s  %6d requests  peak threads %4d  peak in-flight %d%n",
+                mode, result.wallMillis, result.complete, ips.size(), result.devicesPerSecond(), result.requests,
+                threadBean.getPeakThreadCount(), inFlightPeak);
+        return result;
+    }
+
+    private static final class Result
+    {
+        final long wallMillis;
+        final int complete;
+        final long requests;
+
+        Result(long wallMillis, int complete, long requests)
+        {
+            this.wallMillis = wallMillis;
+            this.complete = complete;
+            this.requests = requests;
+        }
+
+        double devicesPerSecond()
+        {
+            return complete * 1000.0 / Math.max(1, wallMillis);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package prsa.egosoft.netmapper.test;
+
+import prsa.egosoft.netmapper.core.ScanMetrics;
+import prsa.egosoft.netmapper.model.NetworkDevice;
+import prsa.egosoft.netmapper.service.PassiveCollector;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Mide el colector pasivo sobre una captura sintética: genera un .pcap con
+ * tráfico ARP de una /16 (cada host repite su ARP varias veces, como en una
+ * VLAN real) más anuncios LLDP periódicos de un switch, y lo procesa con
+ * {@link PassiveCollector#readPcap(File)}.
+ * <p>
+ * Uso: {@code PassiveCaptureBenchmark [hosts] [tramasPorHost]}
+ * <p>
+ * No necesita libpcap ni privilegios: el fichero se lee en Java.
+ */
+public class PassiveCaptureBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        int hosts = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+        int framesPerHost = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+        File capture = File.createTempFile("netmapper-passive", ".pcap");
+        capture.deleteOnExit();
+        long frames = writeCapture(capture, hosts, framesPerHost);
+        System.out.println("Synthetic capture: " + frames + " frames, " + hosts + " hosts, "
+                + capture.length() / 1024 + " KiB");
+
+        // Primera pasada para calentar el JIT, la segunda es la que cuenta
+        for(int round = 1; round <= 2; round++)
+        {
+            Map<String, NetworkDevice> devices = new ConcurrentHashMap<>();
+            PassiveCollector collector = new PassiveCollector(devices, null);
+            long start = System.nanoTime();
+            collector.readPcap(capture);
+            long nanos = System.nanoTime() - start;
+            ScanMetrics metrics = collector.getMetrics();
+            System.out.printf("Round %d: %d devices in %d ms (%.0f frames/s), %d ARP hosts, %d neighbor frames%n",
+                    round, devices.size(), nanos / 1_000_000, frames * 1e9 / nanos,
+                    metrics.get(ScanMetrics.PASSIVE_ADDRESSES), metrics.get(ScanMetrics.PASSIVE_NEIGHBORS));
+        }
+    }
+
+    private static long writeCapture(File file, int hosts, int framesPerHost) throws IOException
+    {
+        long frames = 0;
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file))))
+        {
+            ByteBuffer header = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(0xA1B2C3D4).putShort((short) 2).putShort((short) 4).putInt(0).putInt(0).putInt(65535)
+                    .putInt(1);
+            out.write(header.array());
+            byte[] lldp = lldpFrame();
+            long micros = 1_700_000_000_000_000L;
+            for(int round = 0; round < framesPerHost; round++)
+            {
+                writeRecord(out, micros, lldp);
+                frames++;
+                for(int host = 0; host < hosts; host++)
+                {
+                    micros += 200;
+                    writeRecord(out, micros, arpFrame(0x0A000000 | (host + 2), 0x005056000000L | host));
+                    frames++;
+                }
+            }
+        }
+        return frames;
+    }
+
+    private static void writeRecord(DataOutputStream out, long micros, byte[] frame) throws IOException
+    {
+        ByteBuffer record = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        record.putInt((int) (micros / 1_000_000)).putInt((int) (micros % 1_000_000)).putInt(frame.length)
+                .putInt(frame.length);
+        out.write(record.array());
+        out.write(frame);
+    }
+
+    private static byte[] arpFrame(int ip, long mac)
+    {
+        ByteBuffer frame = ByteBuffer.allocate(60);
+        putMac(frame, 0xFFFFFFFFFFFFL);
+        putMac(frame, mac);
+        frame.putShort((short) 0x0806).putShort((short) 1).putShort((short) 0x0800).put((byte) 6).put((byte) 4)
+                .putShort((short) 1);
+        putMac(frame, mac);
+        frame.putInt(ip);
+        putMac(frame, 0);
+        frame.putInt(0x0A000001);
+        return frame.array();
+    }
+
+    private static byte[] lldpFrame()
+    {
+        ByteBuffer frame = ByteBuffer.allocate(128);
+        putMac(frame, 0x0180C200000EL);
+        putMac(frame, 0x001122330001L);
+        frame.putShort((short) 0x88CC);
+        putTlv(frame, 1, new byte[] { 4, 0x00, 0x11, 0x22, 0x33, 0x00, 0x00 });
+        putTlv(frame, 2, new byte[] { 5, 'G', 'i', '1', '/', '0', '/', '1' });
+        putTlv(frame, 3, new byte[] { 0, 120 });
+        putTlv(frame, 5, "bench-switch".getBytes());
+        putTlv(frame, 7, new byte[] { 0, 0x04, 0, 0x04 });
+        putTlv(frame, 8, new byte[] { 5, 1, 10, 0, 0, 1, 2, 0, 0, 0, 1, 0 });
+        putTlv(frame, 0, new byte[0]);
+        byte[] bytes = new byte[frame.position()];
+        System.arraycopy(frame.array(), 0, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    private static void putTlv(ByteBuffer frame, int type, byte[] value)
+    {
+        frame.putShort((short) ((type << 9) | value.length)).put(value);
+    }
+
+    private static void putMac(ByteBuffer frame, long mac)
+    {
+        for(int shift = 40; shift >= 0; shift -= 8)
+        {
+            frame.put((byte) (mac >>> shift));
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package prsa.egosoft.netmapper.test;
+
+import prsa.egosoft.netmapper.service.NetworkScannerService;
+import prsa.egosoft.netmapper.service.ScanExecutorMode;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Mide el tiempo total, la memoria y los hilos de un escaneo de una /16
+ * (127.20.0.0/16) con cada modo de ejecutor. Un {@link SimulatedSnmpAgent}
+ * responde en parte de las IPs; el resto no contesta, como en una red real.
+ * <p>
+ * Uso: {@code ScanExecutorBenchmark [agentesVivos] [latenciaMs] [enVueloMax]}
+ * <p>
+ * Necesita el puerto 161, así que debe ejecutarse como root. Con un JDK sin
+ * hilos virtuales el modo VIRTUAL cae al pool de plataforma y así se indica
+ * en la salida.
+ */
+public class ScanExecutorBenchmark
+{
+    private static final String RANGE = "127.20.0.0/16";
+
+    public static void main(String[] args) throws Exception
+    {
+        int alive = args.length > 0 ? Integer.parseInt(args[0]) : 2048;
+        long latency = args.length > 1 ? Long.parseLong(args[1]) : 20;
+        int maxInFlight = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+
+        // Agentes repartidos por toda la /16
+        List<String> aliveIps = new ArrayList<>();
+        int stride = Math.max(1, 65536 / alive);
+        for(int i = 1; i < 65535 && aliveIps.size() < alive; i += stride)
+        {
+            aliveIps.add("127.20." + (i >> 8) + "." + (i & 0xFF));
+        }
+
+        try(SimulatedSnmpAgent agent = new SimulatedSnmpAgent(aliveIps, 161, SimulatedSnmpAgent.switchMib(24, 64),
+                latency, 1000))
+        {
+            System.out.println("Scanning " + RANGE + " with " + aliveIps.size() + " simulated agents, latency "
+                    + latency + " ms, Java " + System.getProperty("java.version"));
+            run(ScanExecutorMode.PLATFORM, maxInFlight);
+            run(ScanExecutorMode.VIRTUAL, maxInFlight);
+            System.out.println("Simulated agents answered " + agent.getRequestCount() + " requests");
+        }
+    }
+
+    private static void run(ScanExecutorMode mode, int maxInFlight)
+    {
+        System.gc();
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        threadBean.resetPeakThreadCount();
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if(pool.getType() == MemoryType.HEAP)
+            {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+
+        NetworkScannerService service = new NetworkScannerService(mode);
+        service.setGlobalInFlightLimit(maxInFlight);
+        AtomicInteger found = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        long start = System.nanoTime();
+        service.scanNetworkBlocking(RANGE, "public", device ->
+        {
+            if(device.getSysName() != null)
+            {
+                found.incrementAndGet();
+            }
+        }, error -> errors.incrementAndGet(), null, null);
+        long wallMillis = (System.nanoTime() - start) / 1_000_000;
+        service.shutdown();
+
+        long peakHeap = 0;
+        for(MemoryPoolMXBean pool : heapPools)
+        {
+            peakHeap += pool.getPeakUsage().getUsed();
+        }
+        System.out.printf("%-8s (effective %-8s) %7d ms  %5d SNMP devices  %d errors  peak heap %5d MB  peak threads %d%n",
+                mode, service.getExecutorMode(), wallMillis, found.get(), errors.get(), peakHeap >> 20,
+                threadBean.getPeakThreadCount());
+    }
+}
@@ -0,0 +1,323 @@
+package prsa.egosoft.netmapper.test;
+
+import org.snmp4j.PDU;
+import org.snmp4j.asn1.BER;
+import org.snmp4j.asn1.BERInputStream;
+import org.snmp4j.smi.Counter32;
+import org.snmp4j.smi.Gauge32;
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.IpAddress;
+import org.snmp4j.smi.Null;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.TimeTicks;
+import org.snmp4j.smi.Variable;
+import org.snmp4j.smi.VariableBinding;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Agente SNMP v2c simulado para pruebas de rendimiento sin red real. Escucha
+ * en un socket UDP por cada IP "viva" (p. ej. direcciones 127.x.y.z de
+ * loopback) con un único hilo selector, responde GET/GETNEXT/GETBULK sobre una
+ * MIB de switch sintética y aplica una latencia configurable. Las IPs sin
+ * socket simplemente no responden, como un host caído.
+ */
+public class SimulatedSnmpAgent implements Closeable
+{
+    private static final OID OID_SYS_NAME = new OID("1.3.6.1.2.1.1.5.0");
+
+    private final NavigableMap<OID, Variable> mib;
+    private final long latencyMillis;
+    private final int maxResponseVarbinds;
+    private final Selector selector;
+    private final List<DatagramChannel> channels = new ArrayList<>();
+    private final ScheduledExecutorService responder = Executors.newSingleThreadScheduledExecutor(r ->
+    {
+        Thread t = new Thread(r, "sim-snmp-responder");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicLong requests = new AtomicLong();
+    private final Thread selectorThread;
+    private volatile boolean running = true;
+
+    /**
+     * @param aliveIps            IPs locales en las que responder.
+     * @param port                Puerto UDP (161 requiere privilegios).
+     * @param mib                 MIB servida por todos los agentes.
+     * @param latencyMillis       Retardo aplicado a cada respuesta.
+     * @param maxResponseVarbinds Por encima de este número de varbinds se
+     *                            responde tooBig.
+     */
+    public SimulatedSnmpAgent(Collection<String> aliveIps, int port, NavigableMap<OID, Variable> mib,
+            long latencyMillis, int maxResponseVarbinds) throws IOException
+    {
+        this.mib = mib;
+        this.latencyMillis = latencyMillis;
+        this.maxResponseVarbinds = maxResponseVarbinds;
+        this.selector = Selector.open();
+        for(String ip : aliveIps)
+        {
+            DatagramChannel channel = DatagramChannel.open();
+            channel.bind(new InetSocketAddress(ip, port));
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, ip);
+            channels.add(channel);
+        }
+        this.selectorThread = new Thread(this::selectLoop, "sim-snmp-selector");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    public long getRequestCount()
+    {
+        return requests.get();
+    }
+
+    private void selectLoop()
+    {
+        ByteBuffer in = ByteBuffer.allocate(65535);
+        while(running)
+        {
+            try
+            {
+                selector.select(200);
+                for(SelectionKey key : selector.selectedKeys())
+                {
+                    DatagramChannel channel = (DatagramChannel) key.channel();
+                    in.clear();
+                    SocketAddress sender = channel.receive(in);
+                    if(sender == null)
+                    {
+                        continue;
+                    }
+                    in.flip();
+                    byte[] response = handle(in, (String) key.attachment());
+                    if(response != null)
+                    {
+                        ByteBuffer out = ByteBuffer.wrap(response);
+                        responder.schedule(() ->
+                        {
+                            try
+                            {
+                                channel.send(out, sender);
+                            }
+                            catch(IOException ignored)
+                            {
+                            }
+                        }, latencyMillis, TimeUnit.MILLISECONDS);
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+            catch(IOException e)
+            {
+                if(running)
+                {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private byte[] handle(ByteBuffer buffer, String ip)
+    {
+        try
+        {
+            BERInputStream in = new BERInputStream(buffer);
+            BER.MutableByte type = new BER.MutableByte();
+            BER.decodeHeader(in, type);
+            Integer32 version = new Integer32();
+            version.decodeBER(in);
+            OctetString community = new OctetString();
+            community.decodeBER(in);
+            PDU request = new PDU();
+            request.decodeBER(in);
+            requests.incrementAndGet();
+
+            PDU response = answer(request, ip);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int length = version.getBERLength() + community.getBERLength() + response.getBERLength();
+            BER.encodeHeader(out, BER.SEQUENCE, length);
+            version.encodeBER(out);
+            community.encodeBER(out);
+            response.encodeBER(out);
+            return out.toByteArray();
+        }
+        catch(IOException e)
+        {
+            return null;
+        }
+    }
+
+    private PDU answer(PDU request, String ip)
+    {
+        PDU response = new PDU();
+        response.setType(PDU.RESPONSE);
+        response.setRequestID(request.getRequestID());
+        List<? extends VariableBinding> vbs = request.getVariableBindings();
+
+        switch(request.getType())
+        {
+            case PDU.GET:
+                for(VariableBinding vb : vbs)
+                {
+                    Variable value = lookup(vb.getOid(), ip);
+                    response.add(new VariableBinding(vb.getOid(), value != null ? value : Null.noSuchObject));
+                }
+                break;
+            case PDU.GETNEXT:
+                for(VariableBinding vb : vbs)
+                {
+                    response.add(next(vb.getOid(), ip));
+                }
+                break;
+            case PDU.GETBULK:
+                int nonRepeaters = Math.max(0, Math.min(request.getNonRepeaters(), vbs.size()));
+                for(int i = 0; i < nonRepeaters; i++)
+                {
+                    response.add(next(vbs.get(i).getOid(), ip));
+                }
+                List<OID> cursors = new ArrayList<>();
+                for(int i = nonRepeaters; i < vbs.size(); i++)
+                {
+                    cursors.add(vbs.get(i).getOid());
+                }
+                for(int r = 0; r < request.getMaxRepetitions() && !cursors.isEmpty(); r++)
+                {
+                    boolean allEnd = true;
+                    for(int c = 0; c < cursors.size(); c++)
+                    {
+                        VariableBinding vb = next(cursors.get(c), ip);
+                        response.add(vb);
+                        cursors.set(c, vb.getOid());
+                        allEnd &= vb.getVariable().isException();
+                    }
+                    if(allEnd)
+                    {
+                        break;
+                    }
+                }
+                break;
+            default:
+                response.setErrorStatus(PDU.genErr);
+        }
+
+        if(response.size() > maxResponseVarbinds)
+        {
+            PDU tooBig = new PDU();
+            tooBig.setType(PDU.RESPONSE);
+            tooBig.setRequestID(request.getRequestID());
+            tooBig.setErrorStatus(PDU.tooBig);
+            tooBig.addAll(vbs);
+            return tooBig;
+        }
+        return response;
+    }
+
+    private Variable lookup(OID oid, String ip)
+    {
+        if(OID_SYS_NAME.equals(oid))
+        {
+            return new OctetString("sim-" + ip);
+        }
+        return mib.get(oid);
+    }
+
+    private VariableBinding next(OID oid, String ip)
+    {
+        Map.Entry<OID, Variable> entry = mib.higherEntry(oid);
+        if(entry == null)
+        {
+            return new VariableBinding(oid, Null.endOfMibView);
+        }
+        return new VariableBinding(entry.getKey(), lookup(entry.getKey(), ip));
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        running = false;
+        selector.wakeup();
+        try
+        {
+            selectorThread.join(1000);
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        for(DatagramChannel channel : channels)
+        {
+            channel.close();
+        }
+        selector.close();
+        responder.shutdownNow();
+    }
+
+    /**
+     * MIB sintética de un switch de acceso: grupo system, ifTable/ifXTable,
+     * ipAddrTable, BRIDGE-MIB (puertos base y FDB) y Q-BRIDGE (PVID).
+     */
+    public static NavigableMap<OID, Variable> switchMib(int ports, int fdbEntries)
+    {
+        NavigableMap<OID, Variable> mib = new TreeMap<>();
+        put(mib, "1.3.6.1.2.1.1.1.0", new OctetString("Simulated Cisco IOS Software, C2960 Software switch"));
+        put(mib, "1.3.6.1.2.1.1.2.0", new OID("1.3.6.1.4.1.9.1.1208"));
+        put(mib, "1.3.6.1.2.1.1.3.0", new TimeTicks(123456));
+        put(mib, "1.3.6.1.2.1.1.4.0", new OctetString("noc@example.org"));
+        put(mib, "1.3.6.1.2.1.1.5.0", new OctetString("sim"));
+        put(mib, "1.3.6.1.2.1.1.6.0", new OctetString("lab"));
+        put(mib, "1.3.6.1.2.1.1.7.0", new Integer32(2));
+        for(int i = 1; i <= ports; i++)
+        {
+            put(mib, "1.3.6.1.2.1.2.2.1.2." + i, new OctetString("GigabitEthernet0/" + i));
+            put(mib, "1.3.6.1.2.1.2.2.1.3." + i, new Integer32(6));
+            put(mib, "1.3.6.1.2.1.2.2.1.4." + i, new Integer32(1500));
+            put(mib, "1.3.6.1.2.1.2.2.1.5." + i, new Gauge32(1000000000L));
+            put(mib, "1.3.6.1.2.1.2.2.1.6." + i,
+                    new OctetString(new byte[] { 0, 0x1b, 0x2c, 0, (byte) (i >> 8), (byte) i }));
+            put(mib, "1.3.6.1.2.1.2.2.1.7." + i, new Integer32(1));
+            put(mib, "1.3.6.1.2.1.2.2.1.8." + i, new Integer32(i % 3 == 0 ? 2 : 1));
+            put(mib, "1.3.6.1.2.1.2.2.1.14." + i, new Counter32(0));
+            put(mib, "1.3.6.1.2.1.2.2.1.20." + i, new Counter32(0));
+            put(mib, "1.3.6.1.2.1.17.1.4.1.2." + i, new Integer32(i));
+            put(mib, "1.3.6.1.2.1.17.7.1.4.5.1.1." + i, new Gauge32(1));
+            put(mib, "1.3.6.1.2.1.31.1.1.1.15." + i, new Gauge32(1000));
+        }
+        put(mib, "1.3.6.1.2.1.4.20.1.2.10.0.0.1", new Integer32(1));
+        put(mib, "1.3.6.1.2.1.4.20.1.3.10.0.0.1", new IpAddress("255.255.255.0"));
+        for(int i = 0; i < fdbEntries; i++)
+        {
+            String index = "0.80.86." + ((i >> 16) & 0xFF) + "." + ((i >> 8) & 0xFF) + "." + (i & 0xFF);
+            byte[] mac = { 0, 0x50, 0x56, (byte) (i >> 16), (byte) (i >> 8), (byte) i };
+            put(mib, "1.3.6.1.2.1.17.4.3.1.1." + index, new OctetString(mac));
+            put(mib, "1.3.6.1.2.1.17.4.3.1.2." + index, new Integer32(1 + (i % ports)));
+        }
+        return mib;
+    }
+
+    private static void put(Map<OID, Variable> mib, String oid, Variable value)
+    {
+        mib.put(new OID(oid), value);
+    }
+}
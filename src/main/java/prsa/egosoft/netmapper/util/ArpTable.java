@@ -0,0 +1,161 @@
+package prsa.egosoft.netmapper.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Instantánea de la tabla de vecinos del sistema operativo (IP → MAC),
+ * compartida por todas las tareas de un escaneo.
+ * <p>
+ * La tabla se lee entera de una vez (/proc/net/arp en Linux, {@code arp -a}
+ * en Windows) y se guarda como índice; cada consulta es un acceso a un
+ * HashMap. Como el sistema va aprendiendo vecinos durante el escaneo, la
+ * instantánea caduca a los {@code ttlMillis} y la siguiente consulta la
+ * vuelve a leer (un único hilo lee, el resto espera y reutiliza el
+ * resultado).
+ */
+public class ArpTable
+{
+    private static final Logger logger = LoggerFactory.getLogger(ArpTable.class);
+    private static final String LINUX_ARP_FILE = "/proc/net/arp";
+    private static final boolean IS_WINDOWS = System.getProperty("os.name").toLowerCase().contains("win");
+    // Dirección MAC (XX:XX:XX:XX:XX:XX o XX-XX-XX-XX-XX-XX)
+    private static final Pattern MAC_PATTERN = Pattern.compile("([0-9A-Fa-f]{2}[:-]){5}[0-9A-Fa-f]{2}");
+
+    public static final long DEFAULT_TTL_MS = 2000;
+
+    private final long ttlNanos;
+    private volatile Map<String, String> entries = Collections.emptyMap();
+    private volatile long loadedAt;
+    private volatile boolean loaded;
+    private long loads;
+
+    public ArpTable()
+    {
+        this(DEFAULT_TTL_MS);
+    }
+
+    public ArpTable(long ttlMillis)
+    {
+        this.ttlNanos = ttlMillis * 1_000_000;
+    }
+
+    /**
+     * MAC (mayúsculas, separada por ':') de la IP, o null si el sistema no
+     * la tiene resuelta.
+     */
+    public String lookup(String ip)
+    {
+        return snapshot().get(ip);
+    }
+
+    /**
+     * Índice IP → MAC vigente, releyendo la tabla si ha caducado.
+     */
+    public Map<String, String> snapshot()
+    {
+        if(!loaded || System.nanoTime() - loadedAt >= ttlNanos)
+        {
+            synchronized(this)
+            {
+                if(!loaded || System.nanoTime() - loadedAt >= ttlNanos)
+                {
+                    entries = IS_WINDOWS ? readArpCommand() : readLinuxFile();
+                    loadedAt = System.nanoTime();
+                    loaded = true;
+                    loads++;
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Número de veces que se ha leído la tabla del sistema.
+     */
+    public synchronized long getLoads()
+    {
+        return loads;
+    }
+
+    private static Map<String, String> readLinuxFile()
+    {
+        Map<String, String> table = new HashMap<>();
+        try(BufferedReader br = Files.newBufferedReader(Paths.get(LINUX_ARP_FILE), StandardCharsets.US_ASCII))
+        {
+            String line;
+            // Saltar cabecera
+            br.readLine();
+            while((line = br.readLine()) != null)
+            {
+                // IP, HW type, Flags, HW address, Mask, Device
+                String[] parts = line.trim().split("\\s+");
+                if(parts.length >= 4 && isValidMac(parts[3]))
+                {
+                    table.put(parts[0], normalizeMac(parts[3]));
+                }
+            }
+        }
+        catch(IOException e)
+        {
+            logger.error("Error reading system ARP table ({})", LINUX_ARP_FILE, e);
+        }
+        return table;
+    }
+
+    private static Map<String, String> readArpCommand()
+    {
+        Map<String, String> table = new HashMap<>();
+        try
+        {
+            Process process = new ProcessBuilder("arp", "-a").redirectErrorStream(true).start();
+            try(BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream())))
+            {
+                String line;
+                while((line = reader.readLine()) != null)
+                {
+                    // "  192.168.1.1     aa-bb-cc-dd-ee-ff     dynamic"
+                    String trimmed = line.trim();
+                    int space = trimmed.indexOf(' ');
+                    if(space <= 0 || !IpRange.isIpv4Literal(trimmed.substring(0, space)))
+                    {
+                        continue;
+                    }
+                    Matcher matcher = MAC_PATTERN.matcher(trimmed);
+                    if(matcher.find(space) && isValidMac(matcher.group()))
+                    {
+                        table.put(trimmed.substring(0, space), normalizeMac(matcher.group()));
+                    }
+                }
+            }
+        }
+        catch(IOException e)
+        {
+            logger.error("Error executing arp -a command", e);
+        }
+        return table;
+    }
+
+    private static boolean isValidMac(String mac)
+    {
+        return mac != null && !mac.equals("00:00:00:00:00:00") && !mac.equals("00-00-00-00-00-00")
+                && MAC_PATTERN.matcher(mac).matches();
+    }
+
+    private static String normalizeMac(String mac)
+    {
+        return mac.replace("-", ":").toUpperCase();
+    }
+}
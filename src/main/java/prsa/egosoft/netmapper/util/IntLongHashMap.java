@@ -0,0 +1,164 @@
+package prsa.egosoft.netmapper.util;
+
+import java.util.Arrays;
+
+/**
+ * Mapa int → long de direccionamiento abierto (sondeo lineal) sin objetos
+ * por entrada: ni boxing ni nodos. Pensado para caminos calientes como la
+ * captura de respuestas ARP (IP como int → MAC en los 48 bits bajos).
+ * <p>
+ * No es thread-safe; un único hilo escritor y lectura después de sincronizar
+ * (p. ej. tras {@code Future.get()}).
+ */
+public final class IntLongHashMap
+{
+    /**
+     * Recibe cada entrada en {@link #forEach(EntryConsumer)}.
+     */
+    @FunctionalInterface
+    public interface EntryConsumer
+    {
+        void accept(int key, long value);
+    }
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private int[] keys;
+    private long[] values;
+    private boolean[] used;
+    private int size;
+    private int threshold;
+
+    public IntLongHashMap()
+    {
+        this(16);
+    }
+
+    public IntLongHashMap(int expectedSize)
+    {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity)
+    {
+        keys = new int[capacity];
+        values = new long[capacity];
+        used = new boolean[capacity];
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int slot(int key, int mask)
+    {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Asocia el valor a la clave, sustituyendo el anterior si lo había.
+     */
+    public void put(int key, long value)
+    {
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while(used[i])
+        {
+            if(keys[i] == key)
+            {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        used[i] = true;
+        keys[i] = key;
+        values[i] = value;
+        if(++size > threshold)
+        {
+            rehash();
+        }
+    }
+
+    /**
+     * Valor de la clave, o {@code defaultValue} si no está.
+     */
+    public long get(int key, long defaultValue)
+    {
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while(used[i])
+        {
+            if(keys[i] == key)
+            {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return defaultValue;
+    }
+
+    public boolean containsKey(int key)
+    {
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while(used[i])
+        {
+            if(keys[i] == key)
+            {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public void clear()
+    {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    public void forEach(EntryConsumer consumer)
+    {
+        for(int i = 0; i < keys.length; i++)
+        {
+            if(used[i])
+            {
+                consumer.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    private void rehash()
+    {
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        boolean[] oldUsed = used;
+        allocate(oldKeys.length << 1);
+        int mask = keys.length - 1;
+        for(int j = 0; j < oldKeys.length; j++)
+        {
+            if(oldUsed[j])
+            {
+                int i = slot(oldKeys[j], mask);
+                while(used[i])
+                {
+                    i = (i + 1) & mask;
+                }
+                used[i] = true;
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+}
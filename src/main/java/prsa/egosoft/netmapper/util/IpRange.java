@@ -0,0 +1,303 @@
+package prsa.egosoft.netmapper.util;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Rango inclusivo de direcciones IPv4 guardado como dos enteros de 32 bits.
+ * Los enteros se interpretan sin signo: todas las comparaciones usan
+ * {@link Integer#compareUnsigned(int, int)}.
+ * <p>
+ * Incluye el parseo de direcciones a entero sin pasar por
+ * {@link InetAddress} salvo para nombres de host.
+ */
+public final class IpRange implements Iterable<String>
+{
+    private final int start;
+    private final int end;
+
+    public IpRange(int start, int end)
+    {
+        if(Integer.compareUnsigned(start, end) > 0)
+        {
+            int temp = start;
+            start = end;
+            end = temp;
+        }
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Interpreta un bloque: CIDR ("10.0.0.0/24"), IP con máscara
+     * ("10.0.0.0/255.255.255.0"), rango ("10.0.0.1 - 10.0.0.50") o IP única.
+     * En redes por debajo de /31 se omiten la dirección de red y la de
+     * broadcast.
+     *
+     * @throws IllegalArgumentException si el bloque no es válido.
+     */
+    public static IpRange parse(String block)
+    {
+        if(block == null || block.trim().isEmpty())
+        {
+            throw new IllegalArgumentException("Empty IP block");
+        }
+        block = block.trim();
+
+        // Caso Rango: "IP_START - IP_END"
+        int dash = block.indexOf('-');
+        if(dash >= 0)
+        {
+            if(block.indexOf('-', dash + 1) >= 0)
+            {
+                throw new IllegalArgumentException("Invalid IP range: " + block);
+            }
+            return new IpRange(parseIp(block.substring(0, dash).trim()), parseIp(block.substring(dash + 1).trim()));
+        }
+
+        int slash = block.indexOf('/');
+        if(slash < 0)
+        {
+            int ip = parseIp(block);
+            return new IpRange(ip, ip);
+        }
+        if(block.indexOf('/', slash + 1) >= 0)
+        {
+            throw new IllegalArgumentException("Invalid CIDR: " + block);
+        }
+
+        int ip = parseIp(block.substring(0, slash));
+        String suffix = block.substring(slash + 1);
+        int prefix;
+        if(suffix.indexOf('.') >= 0)
+        {
+            // Contamos los bits a 1 de la máscara
+            prefix = Integer.bitCount(parseIp(suffix));
+        }
+        else
+        {
+            try
+            {
+                prefix = Integer.parseInt(suffix);
+            }
+            catch(NumberFormatException e)
+            {
+                throw new IllegalArgumentException("Invalid prefix: " + block, e);
+            }
+            if(prefix < 0 || prefix > 32)
+            {
+                throw new IllegalArgumentException("Invalid prefix: " + block);
+            }
+        }
+
+        if(prefix == 32)
+        {
+            return new IpRange(ip, ip);
+        }
+        int mask = prefix == 0 ? 0 : -1 << (32 - prefix);
+        int network = ip & mask;
+        int broadcast = network | ~mask;
+        // Para /31 (P2P), network y broadcast son usables
+        if(prefix < 31)
+        {
+            return new IpRange(network + 1, broadcast - 1);
+        }
+        return new IpRange(network, broadcast);
+    }
+
+    /**
+     * Convierte una IPv4 en notación decimal con puntos a entero. Si no es
+     * numérica se resuelve como nombre de host.
+     *
+     * @throws IllegalArgumentException si no es una IPv4 válida.
+     */
+    public static int parseIp(String ip)
+    {
+        int value = parseDottedQuad(ip);
+        if(value != -1 || "255.255.255.255".equals(ip))
+        {
+            return value;
+        }
+        try
+        {
+            InetAddress address = InetAddress.getByName(ip);
+            if(address instanceof Inet4Address)
+            {
+                byte[] octets = address.getAddress();
+                return ((octets[0] & 0xFF) << 24) | ((octets[1] & 0xFF) << 16) | ((octets[2] & 0xFF) << 8)
+                        | (octets[3] & 0xFF);
+            }
+        }
+        catch(Exception e)
+        {
+            throw new IllegalArgumentException("Invalid IPv4 address: " + ip, e);
+        }
+        throw new IllegalArgumentException("Invalid IPv4 address: " + ip);
+    }
+
+    /**
+     * Parseo rápido de "a.b.c.d". Devuelve -1 si el texto no tiene esa forma
+     * (ambiguo con 255.255.255.255, que comprueba el llamante).
+     */
+    private static int parseDottedQuad(String ip)
+    {
+        if(ip == null)
+        {
+            return -1;
+        }
+        int value = 0;
+        int octet = 0;
+        int digits = 0;
+        int dots = 0;
+        for(int i = 0; i < ip.length(); i++)
+        {
+            char c = ip.charAt(i);
+            if(c >= '0' && c <= '9')
+            {
+                octet = octet * 10 + (c - '0');
+                if(++digits > 3 || octet > 255)
+                {
+                    return -1;
+                }
+            }
+            else if(c == '.' && digits > 0 && dots < 3)
+            {
+                value = (value << 8) | octet;
+                octet = 0;
+                digits = 0;
+                dots++;
+            }
+            else
+            {
+                return -1;
+            }
+        }
+        if(dots != 3 || digits == 0)
+        {
+            return -1;
+        }
+        return (value << 8) | octet;
+    }
+
+    /**
+     * Indica si el texto es una IPv4 numérica válida, sin resolver nombres.
+     */
+    public static boolean isIpv4Literal(String ip)
+    {
+        return parseDottedQuad(ip) != -1 || "255.255.255.255".equals(ip);
+    }
+
+    public static String toIp(int ip)
+    {
+        return ((ip >>> 24) & 0xFF) + "." + ((ip >>> 16) & 0xFF) + "." + ((ip >>> 8) & 0xFF) + "." + (ip & 0xFF);
+    }
+
+    /**
+     * Compara dos IPs como enteros sin signo.
+     */
+    public static int compare(int ip1, int ip2)
+    {
+        return Integer.compareUnsigned(ip1, ip2);
+    }
+
+    public int getStart()
+    {
+        return start;
+    }
+
+    public int getEnd()
+    {
+        return end;
+    }
+
+    /**
+     * Número de direcciones del rango (hasta 2^32, por eso long).
+     */
+    public long size()
+    {
+        return Integer.toUnsignedLong(end) - Integer.toUnsignedLong(start) + 1;
+    }
+
+    public boolean contains(int ip)
+    {
+        return compare(ip, start) >= 0 && compare(ip, end) <= 0;
+    }
+
+    /**
+     * Recorre las direcciones como enteros, sin crear objetos por IP.
+     */
+    public PrimitiveIterator.OfInt intIterator()
+    {
+        return new PrimitiveIterator.OfInt()
+        {
+            private long next = Integer.toUnsignedLong(start);
+            private final long last = Integer.toUnsignedLong(end);
+
+            @Override
+            public boolean hasNext()
+            {
+                return next <= last;
+            }
+
+            @Override
+            public int nextInt()
+            {
+                if(next > last)
+                {
+                    throw new NoSuchElementException();
+                }
+                return (int) next++;
+            }
+        };
+    }
+
+    @Override
+    public Iterator<String> iterator()
+    {
+        PrimitiveIterator.OfInt ints = intIterator();
+        return new Iterator<String>()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                return ints.hasNext();
+            }
+
+            @Override
+            public String next()
+            {
+                return toIp(ints.nextInt());
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if(this == o)
+        {
+            return true;
+        }
+        if(!(o instanceof IpRange))
+        {
+            return false;
+        }
+        IpRange other = (IpRange) o;
+        return start == other.start && end == other.end;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * start + end;
+    }
+
+    @Override
+    public String toString()
+    {
+        return start == end ? toIp(start) : toIp(start) + " - " + toIp(end);
+    }
+}
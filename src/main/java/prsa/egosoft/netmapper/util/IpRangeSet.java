@@ -0,0 +1,271 @@
+package prsa.egosoft.netmapper.util;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.RandomAccess;
+
+/**
+ * Conjunto de direcciones IPv4 como lista ordenada de {@link IpRange}
+ * disjuntos. Los bloques que se solapan o son contiguos se fusionan, así que
+ * cada IP aparece una sola vez aunque la entrada la repita. Ocupa lo mismo
+ * para una /30 que para una /8: las direcciones se generan al recorrerlo.
+ */
+public final class IpRangeSet implements Iterable<String>
+{
+    private static final IpRangeSet EMPTY = new IpRangeSet(new int[0], new int[0]);
+
+    // Inicio y fin (inclusive) de cada rango, ordenados y sin solapes
+    private final int[] starts;
+    private final int[] ends;
+    // offsets[i] = número de IPs en los rangos anteriores a i
+    private final long[] offsets;
+
+    private IpRangeSet(int[] starts, int[] ends)
+    {
+        this.starts = starts;
+        this.ends = ends;
+        this.offsets = new long[starts.length + 1];
+        for(int i = 0; i < starts.length; i++)
+        {
+            offsets[i + 1] = offsets[i] + Integer.toUnsignedLong(ends[i]) - Integer.toUnsignedLong(starts[i]) + 1;
+        }
+    }
+
+    /**
+     * Interpreta una lista de bloques separados por comas (ver
+     * {@link IpRange#parse(String)}). Los bloques no válidos se ignoran.
+     */
+    public static IpRangeSet parse(String input)
+    {
+        if(input == null || input.isEmpty())
+        {
+            return EMPTY;
+        }
+        List<IpRange> ranges = new ArrayList<>();
+        for(String block : input.split(","))
+        {
+            try
+            {
+                ranges.add(IpRange.parse(block));
+            }
+            catch(IllegalArgumentException e)
+            {
+                // Bloque no válido: se ignora como hacía getIpList
+            }
+        }
+        return of(ranges);
+    }
+
+    /**
+     * Construye el conjunto fusionando los rangos que se solapan o son
+     * contiguos.
+     */
+    public static IpRangeSet of(List<IpRange> ranges)
+    {
+        if(ranges.isEmpty())
+        {
+            return EMPTY;
+        }
+        List<IpRange> sorted = new ArrayList<>(ranges);
+        sorted.sort((a, b) -> IpRange.compare(a.getStart(), b.getStart()));
+        int[] starts = new int[sorted.size()];
+        int[] ends = new int[sorted.size()];
+        int count = 0;
+        for(IpRange range : sorted)
+        {
+            if(count > 0 && Integer.toUnsignedLong(range.getStart()) <= Integer.toUnsignedLong(ends[count - 1]) + 1)
+            {
+                if(IpRange.compare(range.getEnd(), ends[count - 1]) > 0)
+                {
+                    ends[count - 1] = range.getEnd();
+                }
+            }
+            else
+            {
+                starts[count] = range.getStart();
+                ends[count] = range.getEnd();
+                count++;
+            }
+        }
+        return new IpRangeSet(Arrays.copyOf(starts, count), Arrays.copyOf(ends, count));
+    }
+
+    /**
+     * Número total de direcciones, sin materializarlas.
+     */
+    public long size()
+    {
+        return offsets[starts.length];
+    }
+
+    public boolean isEmpty()
+    {
+        return starts.length == 0;
+    }
+
+    public boolean contains(int ip)
+    {
+        int i = findRange(ip);
+        return i >= 0 && IpRange.compare(ip, ends[i]) <= 0;
+    }
+
+    public boolean contains(String ip)
+    {
+        try
+        {
+            return contains(IpRange.parseIp(ip));
+        }
+        catch(IllegalArgumentException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Dirección en la posición indicada (en orden ascendente).
+     */
+    public int get(long index)
+    {
+        if(index < 0 || index >= size())
+        {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+        }
+        int range = Arrays.binarySearch(offsets, index);
+        // Si no coincide con el inicio de un rango, binarySearch devuelve
+        // -(punto de inserción) - 1; el rango es el anterior
+        range = range >= 0 ? range : -range - 2;
+        return starts[range] + (int) (index - offsets[range]);
+    }
+
+    public List<IpRange> getRanges()
+    {
+        List<IpRange> ranges = new ArrayList<>(starts.length);
+        for(int i = 0; i < starts.length; i++)
+        {
+            ranges.add(new IpRange(starts[i], ends[i]));
+        }
+        return Collections.unmodifiableList(ranges);
+    }
+
+    /**
+     * Recorre las direcciones en orden como enteros, sin crear objetos por IP.
+     */
+    public PrimitiveIterator.OfInt intIterator()
+    {
+        return new PrimitiveIterator.OfInt()
+        {
+            private int range;
+            private long next = starts.length > 0 ? Integer.toUnsignedLong(starts[0]) : 1;
+            private long last = starts.length > 0 ? Integer.toUnsignedLong(ends[0]) : 0;
+
+            @Override
+            public boolean hasNext()
+            {
+                return next <= last;
+            }
+
+            @Override
+            public int nextInt()
+            {
+                if(next > last)
+                {
+                    throw new NoSuchElementException();
+                }
+                int ip = (int) next++;
+                if(next > last && ++range < starts.length)
+                {
+                    next = Integer.toUnsignedLong(starts[range]);
+                    last = Integer.toUnsignedLong(ends[range]);
+                }
+                return ip;
+            }
+        };
+    }
+
+    @Override
+    public Iterator<String> iterator()
+    {
+        PrimitiveIterator.OfInt ints = intIterator();
+        return new Iterator<String>()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                return ints.hasNext();
+            }
+
+            @Override
+            public String next()
+            {
+                return IpRange.toIp(ints.nextInt());
+            }
+        };
+    }
+
+    /**
+     * Vista de sólo lectura como {@code List<String>} para las APIs que
+     * esperan una lista (p. ej. el escáner ARP). Cada elemento se genera al
+     * pedirlo; el tamaño se acota a {@link Integer#MAX_VALUE}.
+     */
+    public List<String> asList()
+    {
+        return new IpList();
+    }
+
+    /**
+     * Índice del último rango cuyo inicio es menor o igual que la IP, o -1.
+     */
+    private int findRange(int ip)
+    {
+        int low = 0;
+        int high = starts.length - 1;
+        int found = -1;
+        while(low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            if(IpRange.compare(starts[mid], ip) <= 0)
+            {
+                found = mid;
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public String toString()
+    {
+        return getRanges().toString();
+    }
+
+    private final class IpList extends AbstractList<String> implements RandomAccess
+    {
+        @Override
+        public String get(int index)
+        {
+            return IpRange.toIp(IpRangeSet.this.get(index));
+        }
+
+        @Override
+        public int size()
+        {
+            return (int) Math.min(Integer.MAX_VALUE, IpRangeSet.this.size());
+        }
+
+        @Override
+        public Iterator<String> iterator()
+        {
+            return IpRangeSet.this.iterator();
+        }
+    }
+}
@@ -1,26 +1,61 @@
 package prsa.egosoft.netmapper.util;
 
 import prsa.egosoft.netmapper.i18n.Messages;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.util.Arrays;
 import java.util.Map;
 import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
 
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
- * Utility for MAC Address OUI lookup with persistence and online update.
+ * Utility for MAC Address OUI lookup. Vendors come from the bundled vendor
+ * registry ({@link OuiDatabase}); prefixes it does not know fall back to the
+ * local cache file and, only if enabled, to online lookup.
  */
 public class MacVendorUtils
 {
+    private static final Logger logger = LoggerFactory.getLogger(MacVendorUtils.class);
     private static final String CACHE_FILE = "mac_vendors.properties";
     private static final ConcurrentHashMap<String, String> OUI_DB = new ConcurrentHashMap<>();
-    private static boolean loaded = false;
+    private static final Set<String> MISSES = ConcurrentHashMap.newKeySet();
+    private static volatile boolean loaded = false;
+    private static volatile boolean onlineLookup = false;
+    // Sorted copy of OUI_DB keyed by the 24-bit prefix, searched without
+    // building the "XX:XX:XX" key; rebuilt whenever the cache changes
+    private static volatile CacheIndex cacheIndex = new CacheIndex(new TreeMap<>());
+    
+    private static final class CacheIndex
+    {
+        final int[] prefixes;
+        final String[] vendors;
+        
+        CacheIndex(TreeMap<Integer, String> sorted)
+        {
+            prefixes = new int[sorted.size()];
+            vendors = new String[sorted.size()];
+            int i = 0;
+            for(Map.Entry<Integer, String> entry : sorted.entrySet())
+            {
+                prefixes[i] = entry.getKey();
+                vendors[i++] = entry.getValue();
+            }
+        }
+        
+        String get(int prefix)
+        {
+            int index = Arrays.binarySearch(prefixes, prefix);
+            return index >= 0 ? vendors[index] : null;
+        }
+    }
     
-    // Load cache from file
     // Load cache from file
     private static synchronized void loadCache()
     {
@@ -52,15 +87,31 @@ public class MacVendorUtils
             }
             catch(IOException e)
             {
-                System.err.println("Error loading vendor cache: " + e.getMessage());
+                logger.warn("Error loading vendor cache: {}", e.getMessage());
             }
         }
+        rebuildIndex();
         loaded = true;
     }
     
+    private static void rebuildIndex()
+    {
+        TreeMap<Integer, String> sorted = new TreeMap<>();
+        for(Map.Entry<String, String> entry : OUI_DB.entrySet())
+        {
+            long prefix = parseMac(entry.getKey());
+            if(prefix >= 0)
+            {
+                sorted.put((int) (prefix >>> 24), entry.getValue());
+            }
+        }
+        cacheIndex = new CacheIndex(sorted);
+    }
+    
     private static synchronized void saveCache(String oui, String vendor)
     {
         OUI_DB.put(oui, vendor);
+        rebuildIndex();
         
         // Use TreeMap to sort by OUI
         Map<String, String> sortedMap = new TreeMap<>(OUI_DB);
@@ -77,73 +128,119 @@ public class MacVendorUtils
         }
         catch(IOException e)
         {
-            System.err.println("Error saving vendor cache: " + e.getMessage());
+            logger.warn("Error saving vendor cache: {}", e.getMessage());
         }
     }
     
+    /**
+     * Enables the online APIs as a last resort for prefixes missing from the
+     * bundled registry and the local cache. Off by default: each miss can
+     * block a scan thread for several seconds when there is no internet
+     * (misses are remembered for the session).
+     */
+    public static void setOnlineLookup(boolean enabled)
+    {
+        onlineLookup = enabled;
+    }
+
+    /**
+     * Vendor for a MAC in any of the usual notations (XX:XX:XX:XX:XX:XX,
+     * XX-XX-..., XXXX.XXXX.XXXX or bare hex). A bare OUI is also accepted.
+     */
     public static String getVendor(String macAddress)
     {
-        loadCache(); // Ensure loaded
-        
-        if(macAddress == null || macAddress.length() < 8)
+        long mac = parseMac(macAddress);
+        if(mac < 0)
         {
             return Messages.getString("vendor.unknown");
         }
-        
-        // Normalize MAC: UPPERCASE and use : as separator
-        String cleaned = macAddress.toUpperCase().replace("-", ":").replace(".", ":");
-        // Ensure format XX:XX:XX
-        if(cleaned.length() >= 8)
+        return getVendor(mac);
+    }
+
+    /**
+     * Vendor for a 48-bit MAC held in the low bits of a long. Registry hits
+     * allocate nothing; only misses fall back to the local cache and, when
+     * enabled, the online APIs.
+     */
+    public static String getVendor(long mac)
+    {
+        // Locally Administered Address: U/L bit (0x02) of the first octet
+        if(((mac >>> 40) & 0x02) != 0)
         {
-            String oui = cleaned.substring(0, 8); // "XX:XX:XX"
-            
-            // 1. Check Local Cache
-            if(OUI_DB.containsKey(oui))
-            {
-                return OUI_DB.get(oui);
-            }
-            
-            // 2. Online Lookup
-            // First check if it's a Locally Administered Address (LAA)
-            if(isLocallyAdministered(oui))
-            {
-                String laaLabel = Messages.getString("vendor.laa");
-                saveCache(oui, laaLabel);
-                return laaLabel;
-            }
-            
-            String vendor = lookupOnline(macAddress); // Pass full MAC often required by APIs
+            return Messages.getString("vendor.laa");
+        }
+        String vendor = OuiDatabase.getDefault().lookup(mac);
+        if(vendor != null)
+        {
+            return vendor;
+        }
+        return lookupCache(mac);
+    }
+
+    private static String lookupCache(long mac)
+    {
+        if(!loaded)
+        {
+            loadCache();
+        }
+        String cached = cacheIndex.get((int) (mac >>> 24));
+        if(cached != null)
+        {
+            return cached;
+        }
+        if(!onlineLookup)
+        {
+            return Messages.getString("vendor.unknown");
+        }
+        String oui = String.format("%02X:%02X:%02X", (mac >>> 40) & 0xFF, (mac >>> 32) & 0xFF, (mac >>> 24) & 0xFF);
+        if(!MISSES.contains(oui))
+        {
+            String full = oui + String.format(":%02X:%02X:%02X", (mac >>> 16) & 0xFF, (mac >>> 8) & 0xFF, mac & 0xFF);
+            String vendor = lookupOnline(full); // Full MAC often required by APIs
             if(vendor != null && !vendor.trim().isEmpty() && !Messages.getString("vendor.unknown").equals(vendor))
             {
                 saveCache(oui, vendor);
                 return vendor;
             }
-            else
-            {
-                // Cache negative results as "Unknown" to avoid repeated online hits in the same
-                // session
-                saveCache(oui, Messages.getString("vendor.unknown"));
-            }
+            // Negative results are only remembered for this session
+            MISSES.add(oui);
         }
         return Messages.getString("vendor.unknown");
     }
-    
+
     /**
-     * Checks if a MAC prefix (OUI) is a Locally Administered Address (LAA). These
-     * are identified by the second least significant bit of the first byte being 1.
-     * In the first octet XX, X0, X1, X2, X3... the second hex digit must be 2, 6,
-     * A, or E.
+     * Parses hex digits skipping ':', '-' and '.' separators, without
+     * building intermediate strings. Returns -1 when the text is not a MAC.
      */
-    private static boolean isLocallyAdministered(String oui)
+    static long parseMac(String text)
     {
-        if(oui == null || oui.length() < 2)
+        if(text == null)
         {
-            return false;
+            return -1;
         }
-        char secondChar = oui.charAt(1);
-        return secondChar == '2' || secondChar == '6' || secondChar == 'A' || secondChar == 'E';
+        long mac = 0;
+        int digits = 0;
+        for(int i = 0; i < text.length() && digits < 12; i++)
+        {
+            char c = text.charAt(i);
+            int value = Character.digit(c, 16);
+            if(value >= 0)
+            {
+                mac = (mac << 4) | value;
+                digits++;
+            }
+            else if(c != ':' && c != '-' && c != '.')
+            {
+                return -1;
+            }
+        }
+        if(digits < 6)
+        {
+            return -1;
+        }
+        return mac << (4 * (12 - digits));
     }
-    
+
     private static String lookupOnline(String mac)
     {
         // 1. Primary Source: macvendors.com
@@ -157,7 +254,7 @@ public class MacVendorUtils
         }
         catch(Exception e)
         {
-            System.err.println("Primary API lookup failed for " + mac + ": " + e.getMessage());
+            logger.debug("Primary API lookup failed for {}: {}", mac, e.getMessage());
         }
         
         // 2. Secondary Source: macvendorlookup.com
@@ -179,7 +276,7 @@ public class MacVendorUtils
         }
         catch(Exception e)
         {
-            System.err.println("Secondary API lookup failed for " + mac + ": " + e.getMessage());
+            logger.debug("Secondary API lookup failed for {}: {}", mac, e.getMessage());
         }
         
         return null;
@@ -189,7 +286,6 @@ public class MacVendorUtils
     {
         try
         {
-            System.out.println("DEBUG: Querying online vendor for " + urlString);
             URL url = new URL(urlString);
             HttpURLConnection conn = (HttpURLConnection) url.openConnection();
             conn.setRequestMethod("GET");
@@ -206,7 +302,7 @@ public class MacVendorUtils
             }
             else if(status == 429)
             {
-                System.err.println("Rate limit exceeded for MAC Vendor API");
+                logger.warn("Rate limit exceeded for MAC Vendor API");
             }
         }
         catch(Exception e)
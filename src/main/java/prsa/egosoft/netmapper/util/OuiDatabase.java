@@ -0,0 +1,288 @@
+package prsa.egosoft.netmapper.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Registro de fabricantes por prefijo de MAC (bloques MA-L, MA-M y MA-S) en
+ * formato binario compacto, mapeado en memoria y consultado por prefijo más
+ * largo: primero los bloques de 36 bits, luego los de 28 y por último los OUI
+ * de 24.
+ * <p>
+ * El {@value #FILE_NAME} incluido en la aplicación sólo contiene los OUI de
+ * la caché local de fabricantes (mac_vendors.properties), no el registro
+ * completo del IEEE. Para usar éste basta con compilar oui.csv, mam.csv y
+ * oui36.csv con {@link OuiDatabaseCompiler} y dejar el resultado en el
+ * directorio de trabajo o en los recursos.
+ * <p>
+ * Formato (big-endian), generado por {@link OuiDatabaseCompiler}:
+ *
+ * <pre>
+ * int   MAGIC, int versión
+ * int   n36, int n28, int n24, int nFabricantes
+ * long  prefijos36[n36]   int fabricante36[n36]
+ * int   prefijos28[n28]   int fabricante28[n28]
+ * int   prefijos24[n24]   int fabricante24[n24]
+ * int   desplazamientoNombre[nFabricantes + 1]
+ * byte  nombres UTF-8
+ * </pre>
+ *
+ * Los prefijos están ordenados para búsqueda binaria directamente sobre el
+ * fichero mapeado. La consulta recibe la MAC como long, así que no hay que
+ * normalizar texto ni reservar memoria: cada nombre se decodifica una sola
+ * vez, la primera que se encuentra, y después se devuelve la misma cadena.
+ */
+public final class OuiDatabase
+{
+    private static final Logger logger = LoggerFactory.getLogger(OuiDatabase.class);
+
+    static final int MAGIC = 0x4F554931; // "OUI1"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+
+    // Base de datos externa junto al ejecutable (tiene prioridad) y recurso
+    // incluido en el jar
+    public static final String FILE_NAME = "oui.bin";
+    private static final String RESOURCE = "/" + FILE_NAME;
+
+    // Sin prefijos ni fabricantes: solo cabecera y el desplazamiento final
+    private static final OuiDatabase EMPTY = new OuiDatabase(
+            ByteBuffer.allocate(HEADER_SIZE + 4).putInt(0, MAGIC).putInt(4, VERSION));
+
+    private final ByteBuffer buffer;
+    private final int count36;
+    private final int count28;
+    private final int count24;
+    private final int base36;
+    private final int vendors36;
+    private final int base28;
+    private final int vendors28;
+    private final int base24;
+    private final int vendors24;
+    private final int nameOffsets;
+    private final int namesBase;
+    private final String[] names;
+
+    private OuiDatabase(ByteBuffer buffer)
+    {
+        this.buffer = buffer;
+        if(buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+        {
+            throw new IllegalArgumentException("Not an OUI database (bad magic or version)");
+        }
+        count36 = buffer.getInt(8);
+        count28 = buffer.getInt(12);
+        count24 = buffer.getInt(16);
+        int vendorCount = buffer.getInt(20);
+        base36 = HEADER_SIZE;
+        vendors36 = base36 + count36 * 8;
+        base28 = vendors36 + count36 * 4;
+        vendors28 = base28 + count28 * 4;
+        base24 = vendors28 + count28 * 4;
+        vendors24 = base24 + count24 * 4;
+        nameOffsets = vendors24 + count24 * 4;
+        namesBase = nameOffsets + (vendorCount + 1) * 4;
+        if(namesBase > buffer.limit() || namesBase + buffer.getInt(nameOffsets + vendorCount * 4) > buffer.limit())
+        {
+            throw new IllegalArgumentException("Truncated OUI database");
+        }
+        names = new String[vendorCount];
+    }
+
+    /**
+     * Mapea un fichero generado por {@link OuiDatabaseCompiler}.
+     */
+    public static OuiDatabase open(Path file) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            try
+            {
+                return new OuiDatabase(mapped);
+            }
+            catch(IllegalArgumentException e)
+            {
+                throw new IOException(e.getMessage() + ": " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Base de datos compartida: {@value #FILE_NAME} en el directorio de
+     * trabajo si existe, si no la incluida en la aplicación. Se carga la
+     * primera vez que se usa.
+     */
+    public static OuiDatabase getDefault()
+    {
+        return Holder.INSTANCE;
+    }
+
+    private static final class Holder
+    {
+        static final OuiDatabase INSTANCE = loadDefault();
+    }
+
+    private static OuiDatabase loadDefault()
+    {
+        long start = System.nanoTime();
+        try
+        {
+            OuiDatabase database;
+            Path external = Paths.get(FILE_NAME);
+            if(Files.isRegularFile(external))
+            {
+                database = open(external);
+            }
+            else
+            {
+                URL url = OuiDatabase.class.getResource(RESOURCE);
+                if(url == null)
+                {
+                    logger.warn("No OUI database found; vendors will only come from the local cache");
+                    return EMPTY;
+                }
+                database = "file".equals(url.getProtocol()) ? open(Paths.get(url.toURI())) : openResource();
+            }
+            logger.debug("OUI database loaded: {} MA-L, {} MA-M, {} MA-S prefixes in {} ms", database.count24,
+                    database.count28, database.count36, (System.nanoTime() - start) / 1_000_000);
+            return database;
+        }
+        catch(Exception e)
+        {
+            logger.warn("Could not load OUI database: {}", e.getMessage());
+            return EMPTY;
+        }
+    }
+
+    /**
+     * Dentro de un jar el recurso no se puede mapear: se copia una vez a un
+     * fichero temporal.
+     */
+    private static OuiDatabase openResource() throws IOException
+    {
+        Path copy = Files.createTempFile("netmapper-oui", ".bin");
+        copy.toFile().deleteOnExit();
+        try(InputStream in = OuiDatabase.class.getResourceAsStream(RESOURCE))
+        {
+            Files.copy(in, copy, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return open(copy);
+    }
+
+    /**
+     * Fabricante del bloque más específico que contiene la MAC (48 bits en
+     * los bits bajos), o null si no está registrada.
+     */
+    public String lookup(long mac)
+    {
+        int index = search36(mac >>> 12);
+        if(index >= 0)
+        {
+            return name(buffer.getInt(vendors36 + index * 4));
+        }
+        index = search32(base28, count28, (int) (mac >>> 20));
+        if(index >= 0)
+        {
+            return name(buffer.getInt(vendors28 + index * 4));
+        }
+        index = search32(base24, count24, (int) (mac >>> 24));
+        if(index >= 0)
+        {
+            return name(buffer.getInt(vendors24 + index * 4));
+        }
+        return null;
+    }
+
+    private int search36(long key)
+    {
+        int low = 0;
+        int high = count36 - 1;
+        while(low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            long value = buffer.getLong(base36 + mid * 8);
+            if(value < key)
+            {
+                low = mid + 1;
+            }
+            else if(value > key)
+            {
+                high = mid - 1;
+            }
+            else
+            {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Búsqueda binaria en una tabla de prefijos de 24 o 28 bits (siempre
+     * positivos, así que la comparación con signo vale).
+     */
+    private int search32(int base, int count, int key)
+    {
+        int low = 0;
+        int high = count - 1;
+        while(low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            int value = buffer.getInt(base + mid * 4);
+            if(value < key)
+            {
+                low = mid + 1;
+            }
+            else if(value > key)
+            {
+                high = mid - 1;
+            }
+            else
+            {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private String name(int vendor)
+    {
+        String name = names[vendor];
+        if(name == null)
+        {
+            // Carrera benigna: dos hilos pueden decodificar el mismo nombre
+            int start = buffer.getInt(nameOffsets + vendor * 4);
+            int end = buffer.getInt(nameOffsets + vendor * 4 + 4);
+            byte[] bytes = new byte[end - start];
+            for(int i = 0; i < bytes.length; i++)
+            {
+                bytes[i] = buffer.get(namesBase + start + i);
+            }
+            name = new String(bytes, StandardCharsets.UTF_8);
+            names[vendor] = name;
+        }
+        return name;
+    }
+
+    /**
+     * Número total de prefijos registrados.
+     */
+    public int size()
+    {
+        return count24 + count28 + count36;
+    }
+}
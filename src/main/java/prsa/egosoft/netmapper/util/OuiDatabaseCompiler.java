@@ -0,0 +1,234 @@
+package prsa.egosoft.netmapper.util;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Genera el fichero binario de {@link OuiDatabase} a partir de los registros
+ * públicos del IEEE (oui.csv, mam.csv y oui36.csv, columnas
+ * {@code Registry,Assignment,Organization Name,...}) o de ficheros con el
+ * formato de la caché local ({@code XX:XX:XX=Fabricante}).
+ * <p>
+ * Uso: {@code OuiDatabaseCompiler <salida.bin> <entrada>...}
+ * <p>
+ * Si un prefijo aparece en varias entradas gana la última, de modo que se
+ * pueden pasar correcciones locales detrás de los CSV oficiales.
+ */
+public class OuiDatabaseCompiler
+{
+    // Etiquetas que la caché guarda para prefijos sin fabricante (vendor.unknown
+    // y vendor.laa en los tres idiomas)
+    private static final Set<String> CACHE_LABELS = new HashSet<>(Arrays.asList("Unknown", "Desconocido", "未知",
+            "Locally Administered Address", "Dirección Administrada Localmente", "局域网管理地址"));
+
+    private final TreeMap<Long, String> prefixes36 = new TreeMap<>();
+    private final TreeMap<Integer, String> prefixes28 = new TreeMap<>();
+    private final TreeMap<Integer, String> prefixes24 = new TreeMap<>();
+
+    public static void main(String[] args) throws IOException
+    {
+        if(args.length < 2)
+        {
+            System.err.println("Usage: OuiDatabaseCompiler <output.bin> <oui.csv|mam.csv|oui36.csv|vendors.properties>...");
+            System.exit(1);
+        }
+        OuiDatabaseCompiler compiler = new OuiDatabaseCompiler();
+        for(int i = 1; i < args.length; i++)
+        {
+            compiler.read(Paths.get(args[i]));
+        }
+        Path output = Paths.get(args[0]);
+        compiler.write(output);
+        System.out.printf("%s: %d MA-L, %d MA-M, %d MA-S prefixes, %d bytes%n", output, compiler.prefixes24.size(),
+                compiler.prefixes28.size(), compiler.prefixes36.size(), Files.size(output));
+    }
+
+    /**
+     * Añade las asignaciones de un CSV del IEEE o de un fichero clave=valor.
+     */
+    public void read(Path file) throws IOException
+    {
+        try(BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8))
+        {
+            String line;
+            while((line = reader.readLine()) != null)
+            {
+                line = line.trim();
+                if(line.isEmpty() || line.startsWith("#") || line.startsWith("Registry,"))
+                {
+                    continue;
+                }
+                if(line.startsWith("MA-"))
+                {
+                    List<String> fields = splitCsv(line);
+                    if(fields.size() >= 3)
+                    {
+                        add(fields.get(1), fields.get(2));
+                    }
+                }
+                else
+                {
+                    int split = line.indexOf('=');
+                    if(split > 0)
+                    {
+                        String vendor = line.substring(split + 1).trim();
+                        if(!CACHE_LABELS.contains(vendor))
+                        {
+                            add(line.substring(0, split), vendor);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Registra un prefijo de 6, 7 o 9 dígitos hexadecimales (se ignoran los
+     * separadores).
+     */
+    private void add(String assignment, String vendor)
+    {
+        String hex = assignment.replaceAll("[^0-9A-Fa-f]", "");
+        vendor = vendor.trim();
+        if(vendor.isEmpty())
+        {
+            return;
+        }
+        switch(hex.length())
+        {
+            case 6:
+                prefixes24.put(Integer.parseInt(hex, 16), vendor);
+                break;
+            case 7:
+                prefixes28.put(Integer.parseInt(hex, 16), vendor);
+                break;
+            case 9:
+                prefixes36.put(Long.parseLong(hex, 16), vendor);
+                break;
+            default:
+                System.err.println("Ignoring assignment " + assignment);
+        }
+    }
+
+    private static List<String> splitCsv(String line)
+    {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for(int i = 0; i < line.length(); i++)
+        {
+            char c = line.charAt(i);
+            if(quoted)
+            {
+                if(c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"')
+                {
+                    field.append('"');
+                    i++;
+                }
+                else if(c == '"')
+                {
+                    quoted = false;
+                }
+                else
+                {
+                    field.append(c);
+                }
+            }
+            else if(c == '"')
+            {
+                quoted = true;
+            }
+            else if(c == ',')
+            {
+                fields.add(field.toString());
+                field.setLength(0);
+            }
+            else
+            {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    /**
+     * Escribe el formato descrito en {@link OuiDatabase}, con los nombres de
+     * fabricante deduplicados.
+     */
+    public void write(Path output) throws IOException
+    {
+        Map<String, Integer> vendorIndex = new HashMap<>();
+        ByteArrayOutputStream names = new ByteArrayOutputStream();
+        List<Integer> offsets = new ArrayList<>();
+        List<String> all = new ArrayList<>(prefixes36.values());
+        all.addAll(prefixes28.values());
+        all.addAll(prefixes24.values());
+        for(String vendor : all)
+        {
+            if(!vendorIndex.containsKey(vendor))
+            {
+                vendorIndex.put(vendor, offsets.size());
+                offsets.add(names.size());
+                names.write(vendor.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        offsets.add(names.size());
+
+        try(OutputStream file = Files.newOutputStream(output);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file)))
+        {
+            out.writeInt(OuiDatabase.MAGIC);
+            out.writeInt(OuiDatabase.VERSION);
+            out.writeInt(prefixes36.size());
+            out.writeInt(prefixes28.size());
+            out.writeInt(prefixes24.size());
+            out.writeInt(offsets.size() - 1);
+            for(long prefix : prefixes36.keySet())
+            {
+                out.writeLong(prefix);
+            }
+            for(String vendor : prefixes36.values())
+            {
+                out.writeInt(vendorIndex.get(vendor));
+            }
+            for(int prefix : prefixes28.keySet())
+            {
+                out.writeInt(prefix);
+            }
+            for(String vendor : prefixes28.values())
+            {
+                out.writeInt(vendorIndex.get(vendor));
+            }
+            for(int prefix : prefixes24.keySet())
+            {
+                out.writeInt(prefix);
+            }
+            for(String vendor : prefixes24.values())
+            {
+                out.writeInt(vendorIndex.get(vendor));
+            }
+            for(int offset : offsets)
+            {
+                out.writeInt(offset);
+            }
+            names.writeTo(out);
+        }
+    }
+}
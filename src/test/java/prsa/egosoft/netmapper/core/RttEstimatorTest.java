@@ -0,0 +1,86 @@
+package prsa.egosoft.netmapper.core;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RttEstimatorTest {
+
+    @Test
+    public void testInitialTimeoutWithoutSamples() {
+        RttEstimator rtt = new RttEstimator();
+        Assert.assertFalse(rtt.hasSamples());
+        Assert.assertEquals(RttEstimator.INITIAL_TIMEOUT_MS, rtt.getTimeoutMillis());
+    }
+
+    @Test
+    public void testFirstSampleSetsSrttAndHalfVariance() {
+        RttEstimator rtt = new RttEstimator();
+        rtt.sample(40);
+        Assert.assertEquals(40.0, rtt.getSrttMillis(), 0.001);
+        Assert.assertEquals(20.0, rtt.getRttvarMillis(), 0.001);
+        // 40 + 4 * 20
+        Assert.assertEquals(120, rtt.getTimeoutMillis());
+    }
+
+    @Test
+    public void testSmoothing() {
+        RttEstimator rtt = new RttEstimator();
+        rtt.sample(40);
+        rtt.sample(80);
+        // rttvar = 3/4 * 20 + 1/4 * |40 - 80|; srtt = 7/8 * 40 + 1/8 * 80
+        Assert.assertEquals(25.0, rtt.getRttvarMillis(), 0.001);
+        Assert.assertEquals(45.0, rtt.getSrttMillis(), 0.001);
+        Assert.assertEquals(145, rtt.getTimeoutMillis());
+    }
+
+    @Test
+    public void testTimeoutIsClamped() {
+        RttEstimator fast = new RttEstimator();
+        fast.sample(1);
+        Assert.assertEquals(RttEstimator.MIN_TIMEOUT_MS, fast.getTimeoutMillis());
+
+        RttEstimator slow = new RttEstimator();
+        slow.sample(4000);
+        Assert.assertEquals(RttEstimator.MAX_TIMEOUT_MS, slow.getTimeoutMillis());
+    }
+
+    @Test
+    public void testSeededFromPreviousScan() {
+        RttEstimator rtt = new RttEstimator(150, 25);
+        Assert.assertTrue(rtt.hasSamples());
+        Assert.assertEquals(250, rtt.getTimeoutMillis());
+    }
+
+    @Test
+    public void testBackOffOncePerTimeoutWindow() throws InterruptedException {
+        RttEstimator rtt = new RttEstimator();
+        rtt.sample(40);
+        long sentBefore = System.nanoTime();
+        Thread.sleep(1);
+
+        Assert.assertTrue(rtt.backOff(sentBefore));
+        // Requests sent before that backoff belong to the same loss
+        Assert.assertFalse(rtt.backOff(sentBefore));
+        Assert.assertEquals(240, rtt.getTimeoutMillis());
+
+        Thread.sleep(1);
+        Assert.assertTrue(rtt.backOff(System.nanoTime()));
+        Assert.assertEquals(480, rtt.getTimeoutMillis());
+    }
+
+    @Test
+    public void testBackOffIsCappedAndResetBySample() throws InterruptedException {
+        RttEstimator rtt = new RttEstimator();
+        rtt.sample(20);
+        for (int i = 0; i < 6; i++) {
+            Thread.sleep(1);
+            rtt.backOff(System.nanoTime());
+        }
+        // Backoff stops at 8x: 60 * 8
+        Assert.assertEquals(480, rtt.getTimeoutMillis());
+
+        // 20 + 4 * 7.5, raised to the minimum
+        rtt.sample(20);
+        Assert.assertEquals(RttEstimator.MIN_TIMEOUT_MS, rtt.getTimeoutMillis());
+    }
+}
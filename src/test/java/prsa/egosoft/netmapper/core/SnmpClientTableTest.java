@@ -0,0 +1,90 @@
+package prsa.egosoft.netmapper.core;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import prsa.egosoft.netmapper.test.SimulatedSnmpAgent;
+
+import java.net.DatagramSocket;
+import java.util.Collections;
+import java.util.Map;
+
+public class SnmpClientTableTest {
+
+    private static final String AGENT = "127.31.2.1";
+    private static final String IF_DESCR = "1.3.6.1.2.1.2.2.1.2";
+    private static final String IF_TYPE = "1.3.6.1.2.1.2.2.1.3";
+    private static final String IF_MTU = "1.3.6.1.2.1.2.2.1.4";
+    private static final String IF_HIGH_SPEED = "1.3.6.1.2.1.31.1.1.1.15";
+    private static final String IF_ALIAS = "1.3.6.1.2.1.31.1.1.1.18"; // Not served by the simulator
+    private static final int PORTS = 24;
+
+    private SimulatedSnmpAgent agent;
+    private SnmpSession session;
+    private SnmpClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        int port;
+        try (DatagramSocket probe = new DatagramSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        agent = new SimulatedSnmpAgent(Collections.singletonList(AGENT), port,
+                SimulatedSnmpAgent.switchMib(PORTS, 0), 1, 1000);
+        session = new SnmpSession(new ScanMetrics());
+        session.setAgentPort(port);
+        client = new SnmpClient(session, "public", null);
+        client.setWalkMode(SnmpClient.WalkMode.GETBULK);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        session.close();
+        agent.close();
+    }
+
+    @Test
+    public void testRowsCarryEveryColumn() {
+        // ifTable and ifXTable columns share the ifIndex
+        Map<String, Map<String, String>> rows = client.getTable(AGENT, IF_DESCR, IF_TYPE, IF_MTU, IF_HIGH_SPEED);
+
+        Assert.assertEquals(PORTS, rows.size());
+        for (int i = 1; i <= PORTS; i++) {
+            Map<String, String> row = rows.get(String.valueOf(i));
+            Assert.assertNotNull("Missing row " + i, row);
+            Assert.assertEquals("GigabitEthernet0/" + i, row.get(IF_DESCR));
+            Assert.assertEquals("6", row.get(IF_TYPE));
+            Assert.assertEquals("1500", row.get(IF_MTU));
+            Assert.assertEquals("1000", row.get(IF_HIGH_SPEED));
+        }
+    }
+
+    @Test
+    public void testMissingColumnLeavesCellsOut() {
+        Map<String, Map<String, String>> rows = client.getTable(AGENT, IF_DESCR, IF_ALIAS);
+
+        Assert.assertEquals(PORTS, rows.size());
+        for (Map<String, String> row : rows.values()) {
+            Assert.assertTrue(row.containsKey(IF_DESCR));
+            Assert.assertFalse(row.containsKey(IF_ALIAS));
+        }
+    }
+
+    @Test
+    public void testTableNeedsFewerRequestsThanColumnWalks() {
+        String[] columns = { IF_DESCR, IF_TYPE, IF_MTU, IF_HIGH_SPEED };
+
+        long before = agent.getRequestCount();
+        for (String column : columns) {
+            Assert.assertEquals(PORTS, client.walk(AGENT, column).size());
+        }
+        long walkRequests = agent.getRequestCount() - before;
+
+        before = agent.getRequestCount();
+        Assert.assertEquals(PORTS, client.getTable(AGENT, columns).size());
+        long tableRequests = agent.getRequestCount() - before;
+
+        Assert.assertTrue("table " + tableRequests + " vs walks " + walkRequests, tableRequests < walkRequests);
+    }
+}
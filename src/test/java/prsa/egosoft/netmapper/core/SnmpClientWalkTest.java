@@ -0,0 +1,93 @@
+package prsa.egosoft.netmapper.core;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import prsa.egosoft.netmapper.test.SimulatedSnmpAgent;
+
+import java.net.DatagramSocket;
+import java.util.Collections;
+import java.util.Map;
+
+public class SnmpClientWalkTest {
+
+    private static final String AGENT = "127.31.1.1";
+    private static final String IF_DESCR = "1.3.6.1.2.1.2.2.1.2";
+    private static final int PORTS = 24;
+    // The simulated agent answers tooBig above this many varbinds
+    private static final int MAX_RESPONSE_VARBINDS = 10;
+
+    private SimulatedSnmpAgent agent;
+    private SnmpSession session;
+    private SnmpClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        int port;
+        try (DatagramSocket probe = new DatagramSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        agent = new SimulatedSnmpAgent(Collections.singletonList(AGENT), port,
+                SimulatedSnmpAgent.switchMib(PORTS, 0), 1, MAX_RESPONSE_VARBINDS);
+        session = new SnmpSession(new ScanMetrics());
+        session.setAgentPort(port);
+        client = new SnmpClient(session, "public", null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        session.close();
+        agent.close();
+    }
+
+    private static void assertIfDescr(Map<String, String> walk) {
+        Assert.assertEquals(PORTS, walk.size());
+        for (int i = 1; i <= PORTS; i++) {
+            Assert.assertEquals("GigabitEthernet0/" + i, walk.get(IF_DESCR + "." + i));
+        }
+    }
+
+    @Test
+    public void testBulkWalkHalvesMaxRepetitionsOnTooBig() {
+        client.setWalkMode(SnmpClient.WalkMode.GETBULK);
+
+        assertIfDescr(client.walk(AGENT, IF_DESCR));
+        // 32 and 16 repetitions are refused, 8 fit
+        Assert.assertEquals(2, session.getMetrics().get(ScanMetrics.SNMP_TOO_BIG));
+        Assert.assertEquals(8, session.getMaxRepetitions(AGENT, 1));
+
+        // The reduced value is remembered for the next walk of the same agent
+        assertIfDescr(client.walk(AGENT, IF_DESCR));
+        Assert.assertEquals(2, session.getMetrics().get(ScanMetrics.SNMP_TOO_BIG));
+    }
+
+    @Test
+    public void testBulkWalkNeedsFewerRequestsThanGetNext() {
+        client.setWalkMode(SnmpClient.WalkMode.GETNEXT);
+        long before = agent.getRequestCount();
+        assertIfDescr(client.walk(AGENT, IF_DESCR));
+        long getNextRequests = agent.getRequestCount() - before;
+        // One GETNEXT per row plus the one that leaves the subtree
+        Assert.assertEquals(PORTS + 1, getNextRequests);
+
+        session.setMaxRepetitions(AGENT, MAX_RESPONSE_VARBINDS);
+        client.setWalkMode(SnmpClient.WalkMode.GETBULK);
+        before = agent.getRequestCount();
+        assertIfDescr(client.walk(AGENT, IF_DESCR));
+        long bulkRequests = agent.getRequestCount() - before;
+        Assert.assertEquals(0, session.getMetrics().get(ScanMetrics.SNMP_TOO_BIG));
+        Assert.assertEquals(3, bulkRequests);
+    }
+
+    @Test
+    public void testVisitorWalkStreamsEveryRow() {
+        client.setWalkMode(SnmpClient.WalkMode.GETBULK);
+        int[] rows = new int[PORTS + 1];
+        int visited = client.walk(AGENT, IF_DESCR, (index, value) -> rows[index[0]]++);
+        Assert.assertEquals(PORTS, visited);
+        for (int i = 1; i <= PORTS; i++) {
+            Assert.assertEquals(1, rows[i]);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package prsa.egosoft.netmapper.core;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+public class SnmpRequestSchedulerTest {
+
+    private ScanMetrics metrics;
+    private SnmpRequestScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        metrics = new ScanMetrics();
+        scheduler = new SnmpRequestScheduler(metrics);
+    }
+
+    @Test
+    public void testPerAgentLimit() {
+        scheduler.setAgentLimit(2);
+        CompletableFuture<Void> first = scheduler.acquireAsync("10.0.0.1");
+        CompletableFuture<Void> second = scheduler.acquireAsync("10.0.0.1");
+        CompletableFuture<Void> third = scheduler.acquireAsync("10.0.0.1");
+        CompletableFuture<Void> other = scheduler.acquireAsync("10.0.0.2");
+
+        Assert.assertTrue(first.isDone());
+        Assert.assertTrue(second.isDone());
+        Assert.assertFalse("Third request must wait for the agent", third.isDone());
+        Assert.assertTrue("Other agents are not blocked", other.isDone());
+        Assert.assertEquals(3, scheduler.getInFlight());
+
+        scheduler.release("10.0.0.1");
+        Assert.assertTrue(third.isDone());
+        Assert.assertEquals(3, scheduler.getInFlight());
+    }
+
+    @Test
+    public void testGlobalLimitIsSharedInTurns() {
+        scheduler.setAgentLimit(4);
+        scheduler.setGlobalLimit(2);
+        scheduler.acquireAsync("10.0.0.1");
+        scheduler.acquireAsync("10.0.0.1");
+        CompletableFuture<Void> a2 = scheduler.acquireAsync("10.0.0.1");
+        CompletableFuture<Void> b1 = scheduler.acquireAsync("10.0.0.2");
+        Assert.assertFalse(a2.isDone());
+        Assert.assertFalse(b1.isDone());
+
+        // The agent that queued first gets the freed slot, then the other one
+        scheduler.release("10.0.0.1");
+        Assert.assertTrue(a2.isDone());
+        Assert.assertFalse(b1.isDone());
+        scheduler.release("10.0.0.1");
+        Assert.assertTrue(b1.isDone());
+
+        Assert.assertEquals(2, scheduler.getInFlight());
+        Assert.assertEquals(2, scheduler.getPeakInFlight());
+        Assert.assertEquals(2, metrics.get(ScanMetrics.SNMP_SCHEDULER_WAITS));
+    }
+
+    @Test
+    public void testCancelledWaiterDoesNotConsumePermit() {
+        scheduler.setAgentLimit(1);
+        scheduler.acquireAsync("10.0.0.1");
+        CompletableFuture<Void> cancelled = scheduler.acquireAsync("10.0.0.1");
+        CompletableFuture<Void> next = scheduler.acquireAsync("10.0.0.1");
+        cancelled.cancel(false);
+
+        scheduler.release("10.0.0.1");
+        Assert.assertTrue(next.isDone());
+        Assert.assertFalse(next.isCompletedExceptionally());
+        Assert.assertEquals(1, scheduler.getInFlight());
+    }
+
+    @Test
+    public void testReleaseWithoutPermitIsIgnored() {
+        scheduler.release("10.0.0.9");
+        Assert.assertEquals(0, scheduler.getInFlight());
+    }
+
+    @Test
+    public void testCloseFailsWaitersAndNewRequests() throws InterruptedException {
+        scheduler.setAgentLimit(1);
+        scheduler.acquireAsync("10.0.0.1");
+        CompletableFuture<Void> waiting = scheduler.acquireAsync("10.0.0.1");
+        scheduler.close();
+
+        assertFailsWithIOException(waiting);
+        assertFailsWithIOException(scheduler.acquireAsync("10.0.0.1"));
+        Assert.assertEquals(0, scheduler.getInFlight());
+    }
+
+    private static void assertFailsWithIOException(CompletableFuture<Void> future) throws InterruptedException {
+        Assert.assertTrue(future.isCompletedExceptionally());
+        try {
+            future.get();
+            Assert.fail("Expected the permit to fail");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package prsa.egosoft.netmapper.core;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import prsa.egosoft.netmapper.test.SimulatedSnmpAgent;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public class SnmpSessionTest {
+
+    private static final String SYS_NAME = "1.3.6.1.2.1.1.5.0";
+    private static final List<String> AGENTS = Arrays.asList("127.31.0.1", "127.31.0.2", "127.31.0.3");
+
+    private SimulatedSnmpAgent agent;
+    private SnmpSession session;
+
+    @Before
+    public void setUp() throws Exception {
+        int port;
+        try (DatagramSocket probe = new DatagramSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        agent = new SimulatedSnmpAgent(AGENTS, port, SimulatedSnmpAgent.switchMib(4, 4), 5, 1000);
+        session = new SnmpSession(new ScanMetrics());
+        session.setAgentPort(port);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        session.close();
+        agent.close();
+    }
+
+    @Test
+    public void testClientsShareOneTransport() throws Exception {
+        List<SnmpClient> clients = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            clients.add(new SnmpClient(session, "public", null));
+        }
+
+        List<CompletableFuture<String>> replies = new ArrayList<>();
+        for (SnmpClient client : clients) {
+            for (String ip : AGENTS) {
+                replies.add(client.getAsync(ip, SYS_NAME));
+            }
+        }
+        int i = 0;
+        for (SnmpClient client : clients) {
+            for (String ip : AGENTS) {
+                Assert.assertEquals("sim-" + ip, replies.get(i++).join());
+            }
+        }
+
+        // 60 concurrent requests from 20 clients over a single socket
+        Assert.assertEquals(1, session.getSocketsCreated());
+        Assert.assertEquals(clients.size() * AGENTS.size(), session.getMetrics().get(ScanMetrics.SNMP_REQUESTS));
+    }
+
+    @Test
+    public void testStoppingClientKeepsSessionOpen() throws Exception {
+        SnmpClient first = new SnmpClient(session, "public", null);
+        SnmpClient second = new SnmpClient(session, "public", null);
+
+        first.stop();
+        Assert.assertFalse(session.isClosed());
+        Assert.assertEquals("sim-127.31.0.2", second.get("127.31.0.2", SYS_NAME));
+    }
+
+    @Test
+    public void testClosedSessionRejectsNewClients() throws Exception {
+        SnmpClient client = new SnmpClient(session, "public", null);
+        Assert.assertEquals("sim-127.31.0.1", client.get("127.31.0.1", SYS_NAME));
+
+        session.close();
+        Assert.assertTrue(session.isClosed());
+        try {
+            new SnmpClient(session, "public", null);
+            Assert.fail("A closed session must not hand out transports");
+        } catch (IOException expected) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package prsa.egosoft.netmapper.scan;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+public class ArpPassSchedulerTest {
+
+    private static final String A = "10.0.0.1";
+    private static final String B = "10.0.0.2";
+    private static final String C = "10.0.0.3";
+
+    /**
+     * Answers for the hosts listed for each pass and records what was probed.
+     */
+    private static class ScriptedScanner implements ArpScanner {
+        private final List<Set<String>> upPerPass;
+        private final List<List<String>> probes = new ArrayList<>();
+
+        ScriptedScanner(List<Set<String>> upPerPass) {
+            this.upPerPass = upPerPass;
+        }
+
+        @Override
+        public Map<String, String> scan(List<String> ips) {
+            return scan(ips, null);
+        }
+
+        @Override
+        public Map<String, String> scan(List<String> ips, String interfaceName) {
+            Set<String> up = upPerPass.get(Math.min(probes.size(), upPerPass.size() - 1));
+            probes.add(new ArrayList<>(ips));
+            Map<String, String> replies = new HashMap<>();
+            for (String ip : ips) {
+                if (up.contains(ip)) {
+                    replies.put(ip, "00:11:22:33:44:0" + ip.charAt(ip.length() - 1));
+                }
+            }
+            return replies;
+        }
+    }
+
+    private static Set<String> up(String... ips) {
+        return new HashSet<>(Arrays.asList(ips));
+    }
+
+    private static ArpPassScheduler scheduler(ArpScanner scanner) {
+        return new ArpPassScheduler(scanner, 3, 0.25, 0, new Random(1));
+    }
+
+    @Test
+    public void testStableNetworkConvergesAfterSecondPass() throws InterruptedException {
+        ScriptedScanner scanner = new ScriptedScanner(Collections.singletonList(up(A, B)));
+        ArpPassScheduler.Result result = scheduler(scanner).run(Arrays.asList(A, B, C), null);
+
+        Assert.assertEquals(2, result.getPasses());
+        Assert.assertEquals(6, result.getProbesSent());
+        Assert.assertEquals(up(A, B), result.getMacs().keySet());
+        Assert.assertEquals("00:11:22:33:44:01", result.getMacs().get(A));
+        Assert.assertEquals(1.0, result.getStability(A), 0.0);
+        Assert.assertEquals(0.0, result.getStability(C), 0.0);
+    }
+
+    @Test
+    public void testLaterPassesOnlyReprobeSilentIpsAndSample() throws InterruptedException {
+        List<String> range = new ArrayList<>();
+        for (int i = 1; i <= 40; i++) {
+            range.add("10.0.1." + i);
+        }
+        Set<String> responders = new HashSet<>(range.subList(0, 20));
+        ScriptedScanner scanner = new ScriptedScanner(Collections.singletonList(responders));
+        ArpPassScheduler.Result result = scheduler(scanner).run(range, null);
+
+        Assert.assertEquals(2, result.getPasses());
+        List<String> second = scanner.probes.get(1);
+        // 25% of 20 responders, but at least 8, plus the 20 silent IPs
+        Assert.assertEquals(28, second.size());
+        Assert.assertTrue(second.containsAll(range.subList(20, 40)));
+    }
+
+    @Test
+    public void testNewHostKeepsScanningAndCountsEarlierProbes() throws InterruptedException {
+        ScriptedScanner scanner = new ScriptedScanner(Arrays.asList(up(A, B), up(A, B, C)));
+        ArpPassScheduler.Result result = scheduler(scanner).run(Arrays.asList(A, B, C), null);
+
+        Assert.assertEquals(3, result.getPasses());
+        ArpPassScheduler.Observation late = result.getObservations().get(C);
+        Assert.assertEquals(3, late.getProbedAt().size());
+        Assert.assertEquals(2, late.getRepliedAt().size());
+        Assert.assertEquals(2.0 / 3, result.getStability(C), 0.001);
+    }
+
+    @Test
+    public void testLostSampleKeepsScanning() throws InterruptedException {
+        ScriptedScanner scanner = new ScriptedScanner(Arrays.asList(up(A, B), up(A), up(A, B)));
+        ArpPassScheduler.Result result = scheduler(scanner).run(Arrays.asList(A, B, C), null);
+
+        Assert.assertEquals(3, result.getPasses());
+        Assert.assertEquals(1.0, result.getStability(A), 0.0);
+        Assert.assertEquals(2.0 / 3, result.getStability(B), 0.001);
+    }
+
+    @Test
+    public void testSinglePassWhenMaxPassesIsOne() throws InterruptedException {
+        ScriptedScanner scanner = new ScriptedScanner(Collections.singletonList(up(A)));
+        ArpPassScheduler.Result result = new ArpPassScheduler(scanner, 1, 0.25, 0, new Random(1))
+                .run(Arrays.asList(A, B), null);
+
+        Assert.assertEquals(1, result.getPasses());
+        Assert.assertEquals(1, scanner.probes.size());
+    }
+}
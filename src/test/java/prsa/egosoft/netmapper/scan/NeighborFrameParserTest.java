@@ -0,0 +1,204 @@
+package prsa.egosoft.netmapper.scan;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import prsa.egosoft.netmapper.util.IpRange;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class NeighborFrameParserTest {
+
+    private static final long SOURCE_MAC = 0x001122334455L;
+
+    private final List<String> addresses = new ArrayList<>();
+    private final List<NeighborFrameParser.Advertisement> neighbors = new ArrayList<>();
+    private NeighborFrameParser.Listener listener;
+
+    @Before
+    public void setUp() {
+        listener = new NeighborFrameParser.Listener() {
+            @Override
+            public void onAddress(int ip, long mac, boolean gratuitous, long timestampMillis) {
+                addresses.add(IpRange.toIp(ip) + "=" + NeighborFrameParser.formatMac(mac) + (gratuitous ? " G" : ""));
+            }
+
+            @Override
+            public void onNeighbor(NeighborFrameParser.Advertisement advertisement) {
+                neighbors.add(advertisement);
+            }
+        };
+    }
+
+    private static void mac(ByteArrayOutputStream out, long mac) {
+        for (int i = 5; i >= 0; i--) {
+            out.write((int) (mac >>> (8 * i)));
+        }
+    }
+
+    private static void u16(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static void ip(ByteArrayOutputStream out, String ip) {
+        int value = IpRange.parseIp(ip);
+        u16(out, value >>> 16);
+        u16(out, value & 0xFFFF);
+    }
+
+    private static byte[] arp(String senderIp, String targetIp, boolean tagged) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mac(out, 0xFFFFFFFFFFFFL);
+        mac(out, SOURCE_MAC);
+        if (tagged) {
+            u16(out, 0x8100);
+            u16(out, 10);
+        }
+        u16(out, 0x0806);
+        u16(out, 1);
+        u16(out, 0x0800);
+        out.write(6);
+        out.write(4);
+        u16(out, 1);
+        mac(out, SOURCE_MAC);
+        ip(out, senderIp);
+        mac(out, 0);
+        ip(out, targetIp);
+        return out.toByteArray();
+    }
+
+    private static void lldpTlv(ByteArrayOutputStream out, int type, byte[] value) {
+        u16(out, (type << 9) | value.length);
+        out.write(value, 0, value.length);
+    }
+
+    private static byte[] withSubtype(int subtype, byte[] value) {
+        byte[] result = new byte[value.length + 1];
+        result[0] = (byte) subtype;
+        System.arraycopy(value, 0, result, 1, value.length);
+        return result;
+    }
+
+    private static byte[] text(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void cdpTlv(ByteArrayOutputStream out, int type, byte[] value) {
+        u16(out, type);
+        u16(out, value.length + 4);
+        out.write(value, 0, value.length);
+    }
+
+    @Test
+    public void testArpSenderIsReported() {
+        byte[] frame = arp("10.0.0.7", "10.0.0.1", false);
+        Assert.assertTrue(NeighborFrameParser.parse(frame, frame.length, 0, listener));
+        Assert.assertEquals("10.0.0.7=00:11:22:33:44:55", addresses.get(0));
+    }
+
+    @Test
+    public void testGratuitousTaggedArp() {
+        byte[] frame = arp("10.0.0.7", "10.0.0.7", true);
+        Assert.assertTrue(NeighborFrameParser.parse(frame, frame.length, 0, listener));
+        Assert.assertEquals("10.0.0.7=00:11:22:33:44:55 G", addresses.get(0));
+    }
+
+    @Test
+    public void testArpProbeIsIgnored() {
+        byte[] frame = arp("0.0.0.0", "10.0.0.7", false);
+        Assert.assertFalse(NeighborFrameParser.parse(frame, frame.length, 0, listener));
+        Assert.assertTrue(addresses.isEmpty());
+    }
+
+    @Test
+    public void testLldpAdvertisement() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mac(out, 0x0180C200000EL);
+        mac(out, SOURCE_MAC);
+        u16(out, 0x88CC);
+        lldpTlv(out, 1, new byte[] {4, 0x00, 0x11, 0x22, 0x33, 0x44, 0x00});
+        lldpTlv(out, 2, withSubtype(5, text("Gi1/0/24")));
+        lldpTlv(out, 3, new byte[] {0, 120});
+        lldpTlv(out, 5, text("core-sw1"));
+        lldpTlv(out, 6, text("Switch OS 1.0"));
+        lldpTlv(out, 7, new byte[] {0, 0x14, 0, 0x14});
+        lldpTlv(out, 8, new byte[] {5, 1, 10, 0, 0, 2, 2, 0, 0, 0, 1, 0});
+        lldpTlv(out, 0, new byte[0]);
+        byte[] frame = out.toByteArray();
+
+        Assert.assertTrue(NeighborFrameParser.parse(frame, frame.length, 1234, listener));
+        NeighborFrameParser.Advertisement lldp = neighbors.get(0);
+        Assert.assertEquals(NeighborFrameParser.Advertisement.Protocol.LLDP, lldp.getProtocol());
+        Assert.assertEquals("00:11:22:33:44:00", lldp.getChassisId());
+        Assert.assertEquals("Gi1/0/24", lldp.getPortId());
+        Assert.assertEquals(120, lldp.getTtlSeconds());
+        Assert.assertEquals("core-sw1", lldp.getIdentity());
+        Assert.assertEquals("Switch OS 1.0", lldp.getSystemDescription());
+        Assert.assertEquals("10.0.0.2", lldp.getManagementAddress());
+        Assert.assertTrue(lldp.isBridge());
+        Assert.assertTrue(lldp.isRouter());
+        Assert.assertEquals(SOURCE_MAC, lldp.getSourceMac());
+        Assert.assertEquals(1234, lldp.getTimestampMillis());
+    }
+
+    @Test
+    public void testCdpAdvertisement() {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        // LLC/SNAP header and CDP version, TTL, checksum
+        body.write(new byte[] {(byte) 0xAA, (byte) 0xAA, 3, 0, 0, 0x0C, 0x20, 0, 2, (byte) 180, 0, 0}, 0, 12);
+        cdpTlv(body, 0x0001, text("edge-sw2"));
+        cdpTlv(body, 0x0002, new byte[] {0, 0, 0, 1, 1, 1, (byte) 0xCC, 0, 4, 10, 0, 0, 3});
+        cdpTlv(body, 0x0003, text("FastEthernet0/1"));
+        cdpTlv(body, 0x0004, new byte[] {0, 0, 0, 0x08});
+        cdpTlv(body, 0x0006, text("cisco WS-C2960"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mac(out, 0x01000CCCCCCCL);
+        mac(out, SOURCE_MAC);
+        // 802.3 length field instead of an EtherType
+        u16(out, body.size());
+        byte[] payload = body.toByteArray();
+        out.write(payload, 0, payload.length);
+        byte[] frame = out.toByteArray();
+
+        Assert.assertTrue(NeighborFrameParser.parse(frame, frame.length, 0, listener));
+        NeighborFrameParser.Advertisement cdp = neighbors.get(0);
+        Assert.assertEquals(NeighborFrameParser.Advertisement.Protocol.CDP, cdp.getProtocol());
+        Assert.assertEquals("edge-sw2", cdp.getSystemName());
+        Assert.assertEquals("10.0.0.3", cdp.getManagementAddress());
+        Assert.assertEquals("FastEthernet0/1", cdp.getPortId());
+        Assert.assertEquals("cisco WS-C2960", cdp.getPlatform());
+        Assert.assertEquals(180, cdp.getTtlSeconds());
+        Assert.assertTrue(cdp.isBridge());
+        Assert.assertFalse(cdp.isRouter());
+    }
+
+    @Test
+    public void testTruncatedTlvIsRejected() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mac(out, 0x0180C200000EL);
+        mac(out, SOURCE_MAC);
+        u16(out, 0x88CC);
+        // Chassis ID claiming 100 bytes
+        u16(out, (1 << 9) | 100);
+        out.write(4);
+        byte[] frame = out.toByteArray();
+
+        Assert.assertFalse(NeighborFrameParser.parse(frame, frame.length, 0, listener));
+        Assert.assertTrue(neighbors.isEmpty());
+    }
+
+    @Test
+    public void testOtherFramesAreIgnored() {
+        byte[] frame = arp("10.0.0.7", "10.0.0.1", false);
+        frame[12] = 0x08;
+        frame[13] = 0x00;
+        Assert.assertFalse(NeighborFrameParser.parse(frame, frame.length, 0, listener));
+        Assert.assertFalse(NeighborFrameParser.parse(new byte[10], 10, 0, listener));
+        Assert.assertTrue(addresses.isEmpty());
+    }
+}
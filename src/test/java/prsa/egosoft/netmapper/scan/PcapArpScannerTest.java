@@ -0,0 +1,154 @@
+package prsa.egosoft.netmapper.scan;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.pcap4j.core.BpfProgram;
+import org.pcap4j.core.Pcaps;
+import org.pcap4j.packet.namednumber.DataLinkType;
+import org.pcap4j.util.MacAddress;
+import prsa.egosoft.netmapper.util.IntLongHashMap;
+import prsa.egosoft.netmapper.util.IpRange;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+public class PcapArpScannerTest {
+
+    private static final long SENDER_MAC = 0x001122334455L;
+    private static final long OUR_MAC = 0x02AABBCCDDEEL;
+
+    private IntLongHashMap targets;
+    private IntLongHashMap replies;
+
+    @Before
+    public void setUp() {
+        targets = new IntLongHashMap();
+        targets.put(IpRange.parseIp("10.0.0.5"), 0);
+        replies = new IntLongHashMap();
+    }
+
+    /**
+     * Ethernet II (optionally 802.1Q tagged) frame carrying an IPv4 ARP packet.
+     */
+    private static byte[] arpFrame(int opcode, String senderIp, boolean tagged) {
+        ByteBuffer frame = ByteBuffer.allocate(tagged ? 60 + 4 : 60);
+        putMac(frame, OUR_MAC);
+        putMac(frame, SENDER_MAC);
+        if (tagged) {
+            frame.putShort((short) 0x8100).putShort((short) 42);
+        }
+        frame.putShort((short) 0x0806);
+        frame.putShort((short) 1).putShort((short) 0x0800).put((byte) 6).put((byte) 4).putShort((short) opcode);
+        putMac(frame, SENDER_MAC);
+        frame.putInt(IpRange.parseIp(senderIp));
+        putMac(frame, OUR_MAC);
+        frame.putInt(IpRange.parseIp("10.0.0.1"));
+        return frame.array();
+    }
+
+    private static void putMac(ByteBuffer buffer, long mac) {
+        for (int i = 5; i >= 0; i--) {
+            buffer.put((byte) (mac >>> (8 * i)));
+        }
+    }
+
+    /**
+     * Compiles a filter with libpcap for Ethernet frames; skips the test where
+     * libpcap (or Npcap) is not installed.
+     */
+    private static BpfProgram compile(String filter) throws Exception {
+        Inet4Address netmask = (Inet4Address) InetAddress.getByName("255.255.255.0");
+        try {
+            return Pcaps.compileFilter(128, DataLinkType.EN10MB, filter, BpfProgram.BpfCompileMode.OPTIMIZE, netmask);
+        } catch (LinkageError e) {
+            Assume.assumeNoException("libpcap is not available", e);
+            return null;
+        }
+    }
+
+    @Test
+    public void testDecodesReplyFromTarget() {
+        Assert.assertTrue(PcapArpScanner.decodeReply(arpFrame(2, "10.0.0.5", false), targets, replies));
+        Assert.assertEquals(SENDER_MAC, replies.get(IpRange.parseIp("10.0.0.5"), 0));
+    }
+
+    @Test
+    public void testDecodesTaggedReply() {
+        Assert.assertTrue(PcapArpScanner.decodeReply(arpFrame(2, "10.0.0.5", true), targets, replies));
+        Assert.assertEquals(SENDER_MAC, replies.get(IpRange.parseIp("10.0.0.5"), 0));
+    }
+
+    @Test
+    public void testOnlyFirstReplyCounts() {
+        Assert.assertTrue(PcapArpScanner.decodeReply(arpFrame(2, "10.0.0.5", false), targets, replies));
+        Assert.assertFalse(PcapArpScanner.decodeReply(arpFrame(2, "10.0.0.5", true), targets, replies));
+        Assert.assertEquals(1, replies.size());
+    }
+
+    @Test
+    public void testIgnoresRequestsAndNonTargets() {
+        Assert.assertFalse(PcapArpScanner.decodeReply(arpFrame(1, "10.0.0.5", false), targets, replies));
+        Assert.assertFalse(PcapArpScanner.decodeReply(arpFrame(2, "10.0.0.6", false), targets, replies));
+        Assert.assertTrue(replies.isEmpty());
+    }
+
+    @Test
+    public void testIgnoresShortAndNonArpFrames() {
+        byte[] frame = arpFrame(2, "10.0.0.5", false);
+        byte[] truncated = new byte[40];
+        System.arraycopy(frame, 0, truncated, 0, truncated.length);
+        Assert.assertFalse(PcapArpScanner.decodeReply(truncated, targets, replies));
+
+        frame[12] = 0x08;
+        frame[13] = 0x00;
+        Assert.assertFalse(PcapArpScanner.decodeReply(frame, targets, replies));
+        Assert.assertTrue(replies.isEmpty());
+    }
+
+    @Test
+    public void testReplyFilterCoversTaggedFrames() {
+        String filter = PcapArpScanner.replyFilter(MacAddress.getByName("02:aa:bb:cc:dd:ee"));
+        Assert.assertTrue(filter.startsWith("ether dst 02:aa:bb:cc:dd:ee and ("));
+        Assert.assertTrue(filter.contains("(vlan and arp and arp[6:2] = 2)"));
+        // Untagged branch first: vlan shifts the offsets of every later term
+        Assert.assertTrue(filter.indexOf("(arp and") < filter.indexOf("vlan"));
+        Assert.assertFalse(PcapArpScanner.replyFilter(null).contains("ether dst"));
+    }
+
+    @Test
+    public void testCompiledFilterKeepsOnlyRepliesToUs() throws Exception {
+        BpfProgram filter = compile(PcapArpScanner.replyFilter(MacAddress.getByName("02:aa:bb:cc:dd:ee")));
+        try {
+            Assert.assertTrue(filter.applyFilter(arpFrame(2, "10.0.0.5", false)));
+            Assert.assertTrue(filter.applyFilter(arpFrame(2, "10.0.0.5", true)));
+
+            Assert.assertFalse(filter.applyFilter(arpFrame(1, "10.0.0.5", false)));
+            Assert.assertFalse(filter.applyFilter(arpFrame(1, "10.0.0.5", true)));
+
+            byte[] toOtherHost = arpFrame(2, "10.0.0.5", true);
+            toOtherHost[5] ^= 1;
+            Assert.assertFalse(filter.applyFilter(toOtherHost));
+
+            byte[] ipv4 = arpFrame(2, "10.0.0.5", false);
+            ipv4[12] = 0x08;
+            ipv4[13] = 0x00;
+            Assert.assertFalse(filter.applyFilter(ipv4));
+        } finally {
+            filter.free();
+        }
+    }
+
+    @Test
+    public void testCompiledFilterWithoutMacKeepsReplies() throws Exception {
+        BpfProgram filter = compile(PcapArpScanner.replyFilter(null));
+        try {
+            Assert.assertTrue(filter.applyFilter(arpFrame(2, "10.0.0.5", true)));
+            Assert.assertFalse(filter.applyFilter(arpFrame(1, "10.0.0.5", true)));
+        } finally {
+            filter.free();
+        }
+    }
+}
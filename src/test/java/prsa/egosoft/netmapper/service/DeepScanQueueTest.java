@@ -0,0 +1,95 @@
+package prsa.egosoft.netmapper.service;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DeepScanQueueTest {
+
+    private DeepScanQueue queue;
+
+    @Before
+    public void setUp() {
+        queue = new DeepScanQueue();
+    }
+
+    @Test
+    public void testInfrastructureBeforeHostsInArrivalOrder() {
+        queue.add("10.0.0.10", DeepScanQueue.TIER_SNMP);
+        queue.add("10.0.0.2", DeepScanQueue.TIER_INFRASTRUCTURE);
+        queue.add("10.0.0.11", DeepScanQueue.TIER_SNMP);
+        queue.add("10.0.0.1", DeepScanQueue.TIER_GATEWAY);
+        queue.add("10.0.0.3", DeepScanQueue.TIER_INFRASTRUCTURE);
+
+        Assert.assertEquals("10.0.0.1", queue.poll());
+        Assert.assertEquals("10.0.0.2", queue.poll());
+        Assert.assertEquals("10.0.0.3", queue.poll());
+        Assert.assertEquals("10.0.0.10", queue.poll());
+        Assert.assertEquals("10.0.0.11", queue.poll());
+        Assert.assertNull(queue.poll());
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testPromotionMovesPendingTargetAhead() {
+        queue.add("10.0.0.10", DeepScanQueue.TIER_SNMP);
+        queue.add("10.0.0.11", DeepScanQueue.TIER_SNMP);
+        queue.add("10.0.0.2", DeepScanQueue.TIER_INFRASTRUCTURE);
+        queue.promote("10.0.0.11", DeepScanQueue.TIER_GATEWAY);
+
+        Assert.assertEquals("10.0.0.11", queue.poll());
+        Assert.assertEquals("10.0.0.2", queue.poll());
+        // The stale entry left by the promotion is skipped
+        Assert.assertEquals("10.0.0.10", queue.poll());
+        Assert.assertNull(queue.poll());
+    }
+
+    @Test
+    public void testPromotionNeverDemotesOrRequeues() {
+        queue.add("10.0.0.1", DeepScanQueue.TIER_GATEWAY);
+        queue.promote("10.0.0.1", DeepScanQueue.TIER_SNMP);
+        queue.add("10.0.0.1", DeepScanQueue.TIER_SNMP);
+        Assert.assertEquals("10.0.0.1", queue.poll());
+        Assert.assertNull(queue.poll());
+
+        // Already taken: promoting does not bring it back
+        queue.promote("10.0.0.1", DeepScanQueue.TIER_GATEWAY);
+        Assert.assertNull(queue.poll());
+    }
+
+    @Test
+    public void testBackboneReadyOnceAfterLastInfrastructureTarget() {
+        queue.add("10.0.0.1", DeepScanQueue.TIER_GATEWAY);
+        queue.add("10.0.0.2", DeepScanQueue.TIER_INFRASTRUCTURE);
+        queue.add("10.0.0.10", DeepScanQueue.TIER_SNMP);
+
+        String gateway = queue.poll();
+        String sw = queue.poll();
+        Assert.assertEquals(2, queue.getBackboneCount());
+
+        Assert.assertFalse(queue.complete(gateway));
+        Assert.assertTrue(queue.complete(sw));
+
+        String host = queue.poll();
+        Assert.assertFalse(queue.complete(host));
+        Assert.assertEquals(2, queue.getBackboneCount());
+    }
+
+    @Test
+    public void testBackboneNotReadyWhileInfrastructureIsQueued() {
+        queue.add("10.0.0.1", DeepScanQueue.TIER_GATEWAY);
+        queue.add("10.0.0.10", DeepScanQueue.TIER_SNMP);
+        String gateway = queue.poll();
+        queue.promote("10.0.0.10", DeepScanQueue.TIER_INFRASTRUCTURE);
+
+        Assert.assertFalse(queue.complete(gateway));
+        Assert.assertTrue(queue.complete(queue.poll()));
+    }
+
+    @Test
+    public void testNoBackboneWithoutInfrastructure() {
+        queue.add("10.0.0.10", DeepScanQueue.TIER_SNMP);
+        Assert.assertFalse(queue.complete(queue.poll()));
+        Assert.assertEquals(0, queue.getBackboneCount());
+    }
+}
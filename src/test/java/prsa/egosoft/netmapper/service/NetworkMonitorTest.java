@@ -0,0 +1,151 @@
+package prsa.egosoft.netmapper.service;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.TimeTicks;
+import org.snmp4j.smi.Variable;
+import prsa.egosoft.netmapper.model.MonitorEvent;
+import prsa.egosoft.netmapper.model.NetworkDevice;
+import prsa.egosoft.netmapper.strategy.StandardMibStrategy;
+import prsa.egosoft.netmapper.test.SimulatedSnmpAgent;
+import prsa.egosoft.netmapper.util.IpRangeSet;
+
+import java.net.DatagramSocket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+public class NetworkMonitorTest {
+
+    private static final List<String> AGENTS = Arrays.asList("127.31.4.1", "127.31.4.2");
+    private static final OID SYS_UPTIME = new OID("1.3.6.1.2.1.1.3.0");
+    private static final OID IF_TABLE_LAST_CHANGE = new OID("1.3.6.1.2.1.31.1.5.0");
+    private static final OID IF_OPER_STATUS_1 = new OID("1.3.6.1.2.1.2.2.1.8.1");
+
+    private ConcurrentSkipListMap<OID, Variable> mib;
+    private SimulatedSnmpAgent agent;
+    private Map<String, NetworkDevice> devices;
+    private NetworkMonitor monitor;
+
+    @Before
+    public void setUp() throws Exception {
+        int port;
+        try (DatagramSocket probe = new DatagramSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        // The agent reads this map on every request, so the test can change what it serves
+        mib = new ConcurrentSkipListMap<>(SimulatedSnmpAgent.switchMib(4, 8));
+        mib.put(IF_TABLE_LAST_CHANGE, new TimeTicks(1000));
+        agent = new SimulatedSnmpAgent(AGENTS, port, mib, 1, 1000);
+
+        NetworkScannerService scanner = new NetworkScannerService() {
+            @Override
+            public ScanContext openScanContext() {
+                ScanContext context = super.openScanContext();
+                context.getSnmpSession().setAgentPort(port);
+                return context;
+            }
+        };
+
+        devices = new ConcurrentHashMap<>();
+        try (ScanContext context = scanner.openScanContext()) {
+            StandardMibStrategy strategy = new StandardMibStrategy();
+            for (String ip : AGENTS) {
+                NetworkDevice device = new NetworkDevice(ip);
+                strategy.discover(context.createClient("public", null), device);
+                devices.put(ip, device);
+            }
+        }
+        // Only the simulated agents are in scope, so no candidate outside them is probed
+        monitor = new NetworkMonitor(scanner, "public", null, IpRangeSet.parse("127.31.4.1-127.31.4.2"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        agent.close();
+    }
+
+    @Test
+    public void testUnchangedCycleCostsOneGetPerDevice() throws Exception {
+        Assert.assertTrue("Baseline cycle", monitor.poll(devices).isEmpty());
+
+        long before = agent.getRequestCount();
+        Assert.assertTrue(monitor.poll(devices).isEmpty());
+        Assert.assertEquals(AGENTS.size(), agent.getRequestCount() - before);
+        Assert.assertEquals(AGENTS.size(), devices.size());
+    }
+
+    @Test
+    public void testReportsRestartAndLinkDown() throws Exception {
+        monitor.poll(devices);
+        NetworkDevice before = devices.get("127.31.4.1");
+
+        // Every agent shares the MIB: both restart and both lose port 1
+        mib.put(SYS_UPTIME, new TimeTicks(10));
+        mib.put(IF_OPER_STATUS_1, new Integer32(2));
+        mib.put(IF_TABLE_LAST_CHANGE, new TimeTicks(20));
+        List<MonitorEvent> events = monitor.poll(devices);
+
+        for (String ip : AGENTS) {
+            Assert.assertTrue(events.toString(), hasEvent(events, MonitorEvent.Type.DEVICE_RESTARTED, ip, -1));
+            Assert.assertTrue(events.toString(), hasEvent(events, MonitorEvent.Type.LINK_DOWN, ip, 1));
+        }
+        Assert.assertEquals(2 * AGENTS.size(), events.size());
+        Assert.assertNotSame("Changed devices are rediscovered", before, devices.get("127.31.4.1"));
+
+        // The new indicators are the baseline now
+        Assert.assertTrue(monitor.poll(devices).isEmpty());
+    }
+
+    @Test
+    public void testLinkChangeWithoutRestart() throws Exception {
+        monitor.poll(devices);
+
+        mib.put(IF_OPER_STATUS_1, new Integer32(2));
+        mib.put(IF_TABLE_LAST_CHANGE, new TimeTicks(2000));
+        mib.put(SYS_UPTIME, new TimeTicks(200000));
+        List<MonitorEvent> events = monitor.poll(devices);
+        Assert.assertEquals(events.toString(), AGENTS.size(), events.size());
+        for (String ip : AGENTS) {
+            Assert.assertTrue(events.toString(), hasEvent(events, MonitorEvent.Type.LINK_DOWN, ip, 1));
+        }
+
+        mib.put(IF_OPER_STATUS_1, new Integer32(1));
+        mib.put(IF_TABLE_LAST_CHANGE, new TimeTicks(3000));
+        events = monitor.poll(devices);
+        for (String ip : AGENTS) {
+            Assert.assertTrue(events.toString(), hasEvent(events, MonitorEvent.Type.LINK_UP, ip, 1));
+        }
+    }
+
+    @Test
+    public void testSilentDevicesAreRemovedAfterMisses() throws Exception {
+        monitor.poll(devices);
+        agent.close();
+
+        for (int cycle = 1; cycle < NetworkMonitor.MISSES_BEFORE_REMOVAL; cycle++) {
+            Assert.assertTrue(monitor.poll(devices).isEmpty());
+            Assert.assertEquals(AGENTS.size(), devices.size());
+        }
+        List<MonitorEvent> events = monitor.poll(devices);
+        for (String ip : AGENTS) {
+            Assert.assertTrue(events.toString(), hasEvent(events, MonitorEvent.Type.DEVICE_REMOVED, ip, -1));
+        }
+        Assert.assertTrue(devices.isEmpty());
+    }
+
+    private static boolean hasEvent(List<MonitorEvent> events, MonitorEvent.Type type, String ip, int ifIndex) {
+        for (MonitorEvent event : events) {
+            if (event.getType() == type && event.getDeviceIp().equals(ip) && event.getInterfaceIndex() == ifIndex) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,93 @@
+package prsa.egosoft.netmapper.service;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import prsa.egosoft.netmapper.core.ScanMetrics;
+import prsa.egosoft.netmapper.model.NetworkDevice;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+public class ScanJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRecordsSurviveReopen() throws IOException {
+        File file = new File(folder.getRoot(), "scan.journal");
+        NetworkDevice device = new NetworkDevice("10.0.0.1");
+        device.setSysName("core-sw1");
+        try (ScanJournal journal = ScanJournal.open(file)) {
+            journal.record("10.0.0.1", device);
+            journal.record("10.0.0.2", null);
+            Assert.assertTrue(journal.isCompleted("10.0.0.2"));
+        }
+
+        try (ScanJournal journal = ScanJournal.open(file)) {
+            Assert.assertTrue(journal.isCompleted("10.0.0.1"));
+            Assert.assertTrue(journal.isCompleted("10.0.0.2"));
+            Assert.assertFalse(journal.isCompleted("10.0.0.3"));
+            Assert.assertEquals(1, journal.getDevices().size());
+            Assert.assertEquals("core-sw1", journal.getDevices().iterator().next().getSysName());
+        }
+    }
+
+    @Test
+    public void testTruncatedLastLineIsDiscardedAndClosed() throws IOException {
+        File file = new File(folder.getRoot(), "scan.journal");
+        try (ScanJournal journal = ScanJournal.open(file)) {
+            journal.record("10.0.0.1", null);
+        }
+        // Crash in the middle of the next record
+        Files.write(file.toPath(), "{\"ip\":\"10.0.0.2\",\"dev".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        try (ScanJournal journal = ScanJournal.open(file)) {
+            Assert.assertTrue(journal.isCompleted("10.0.0.1"));
+            Assert.assertFalse(journal.isCompleted("10.0.0.2"));
+            journal.record("10.0.0.3", null);
+        }
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        Assert.assertEquals(3, lines.size());
+        Assert.assertEquals("{\"ip\":\"10.0.0.3\"}", lines.get(2));
+        try (ScanJournal journal = ScanJournal.open(file)) {
+            Assert.assertTrue(journal.isCompleted("10.0.0.1"));
+            Assert.assertTrue(journal.isCompleted("10.0.0.3"));
+        }
+    }
+
+    @Test
+    public void testUnreadableRecordsAreSkipped() throws IOException {
+        File file = new File(folder.getRoot(), "scan.journal");
+        Files.write(file.toPath(), "garbage\n{\"device\":null}\n{\"ip\":\"10.0.0.9\"}\n".getBytes(StandardCharsets.UTF_8));
+        try (ScanJournal journal = ScanJournal.open(file)) {
+            Assert.assertTrue(journal.isCompleted("10.0.0.9"));
+            Assert.assertTrue(journal.getDevices().isEmpty());
+        }
+    }
+
+    @Test
+    public void testMetricsAreDrained() throws IOException {
+        File file = new File(folder.getRoot(), "scan.journal");
+        ScanMetrics metrics = new ScanMetrics();
+        try (ScanJournal journal = ScanJournal.open(file)) {
+            journal.record("10.0.0.1", null);
+            journal.skip();
+            journal.flush();
+            journal.reportTo(metrics);
+            journal.reportTo(metrics);
+        }
+        Assert.assertEquals(1, metrics.get(ScanMetrics.JOURNAL_RECORDS));
+        Assert.assertEquals(1, metrics.get(ScanMetrics.JOURNAL_SKIPPED));
+        Assert.assertEquals(1, metrics.get(ScanMetrics.JOURNAL_FLUSHES));
+        Assert.assertEquals("{\"ip\":\"10.0.0.1\"}\n".length(), metrics.get(ScanMetrics.JOURNAL_BYTES));
+    }
+}
@@ -0,0 +1,65 @@
+package prsa.egosoft.netmapper.service;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class TargetWindowTest {
+
+    @Test
+    public void testAcquireUpToCapacity() throws InterruptedException {
+        TargetWindow window = new TargetWindow(2, 50, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(window.acquire());
+        Assert.assertTrue(window.acquire());
+        Assert.assertFalse("A full window times out", window.acquire());
+        Assert.assertEquals(2, window.getSubmitted());
+    }
+
+    @Test
+    public void testCompleteUnblocksProducer() throws InterruptedException {
+        TargetWindow window = new TargetWindow(1, 5, TimeUnit.SECONDS);
+        Assert.assertTrue(window.acquire());
+
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean acquired = new AtomicBoolean();
+        Thread producer = new Thread(() -> {
+            started.countDown();
+            try {
+                acquired.set(window.acquire());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        started.await();
+        window.complete();
+        producer.join(5000);
+
+        Assert.assertTrue(acquired.get());
+        Assert.assertEquals(2, window.getSubmitted());
+        Assert.assertEquals(1, window.getCompleted());
+    }
+
+    @Test
+    public void testAwaitCompletion() throws InterruptedException {
+        TargetWindow window = new TargetWindow(4, 5, TimeUnit.SECONDS);
+        window.acquire();
+        window.acquire();
+        window.complete();
+        window.complete();
+        Assert.assertTrue(window.awaitCompletion());
+        // The window is reusable after waiting
+        Assert.assertTrue(window.acquire());
+    }
+
+    @Test
+    public void testAwaitCompletionTimesOutWithTargetsInFlight() throws InterruptedException {
+        TargetWindow window = new TargetWindow(4, 50, TimeUnit.MILLISECONDS);
+        window.acquire();
+        Assert.assertFalse(window.awaitCompletion());
+        Assert.assertEquals(0, window.getCompleted());
+    }
+}
@@ -0,0 +1,92 @@
+package prsa.egosoft.netmapper.strategy;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import prsa.egosoft.netmapper.core.SnmpClient;
+import prsa.egosoft.netmapper.model.DetectedEndpoint;
+import prsa.egosoft.netmapper.model.NetworkDevice;
+import prsa.egosoft.netmapper.service.ScanContext;
+import prsa.egosoft.netmapper.test.SimulatedSnmpAgent;
+
+import java.net.DatagramSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class StandardMibStrategyAsyncTest {
+
+    private static final int AGENTS = 16;
+    private static final int PORTS = 8;
+    private static final int FDB_ENTRIES = 32;
+
+    private final List<String> ips = new ArrayList<>();
+    private SimulatedSnmpAgent agent;
+    private ScanContext context;
+
+    @Before
+    public void setUp() throws Exception {
+        for (int i = 1; i <= AGENTS; i++) {
+            ips.add("127.31.3." + i);
+        }
+        int port;
+        try (DatagramSocket probe = new DatagramSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        agent = new SimulatedSnmpAgent(ips, port, SimulatedSnmpAgent.switchMib(PORTS, FDB_ENTRIES), 5, 1000);
+        context = new ScanContext();
+        context.getSnmpSession().setAgentPort(port);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        context.close();
+        agent.close();
+    }
+
+    @Test
+    public void testDiscoversDevicesConcurrently() throws Exception {
+        // Fewer global permits than agents: requests wait in the scheduler
+        context.getSnmpSession().getScheduler().setGlobalLimit(8);
+        SnmpClient client = context.createClient("public", null);
+        StandardMibStrategy strategy = new StandardMibStrategy();
+
+        List<NetworkDevice> devices = new ArrayList<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (String ip : ips) {
+            NetworkDevice device = new NetworkDevice(ip);
+            devices.add(device);
+            futures.add(strategy.discoverAsync(client, device).toCompletableFuture());
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+
+        for (NetworkDevice device : devices) {
+            Assert.assertEquals("sim-" + device.getIpAddress(), device.getSysName());
+            Assert.assertTrue(device.getSysDescr().startsWith("Simulated Cisco IOS"));
+            Assert.assertEquals(PORTS, device.getInterfaces().size());
+            int endpoints = 0;
+            for (List<DetectedEndpoint> port : device.getMacAddressTable().values()) {
+                endpoints += port.size();
+            }
+            Assert.assertEquals(FDB_ENTRIES, endpoints);
+        }
+        Assert.assertTrue(context.getSnmpSession().getScheduler().getPeakInFlight() <= 8);
+    }
+
+    @Test
+    public void testBlockingDiscoverMatchesAsync() throws Exception {
+        SnmpClient client = context.createClient("public", null);
+        StandardMibStrategy strategy = new StandardMibStrategy();
+
+        NetworkDevice blocking = new NetworkDevice(ips.get(0));
+        strategy.discover(client, blocking);
+        NetworkDevice async = new NetworkDevice(ips.get(0));
+        strategy.discoverAsync(client, async).toCompletableFuture().get(30, TimeUnit.SECONDS);
+
+        Assert.assertEquals(blocking.getSysName(), async.getSysName());
+        Assert.assertEquals(blocking.getInterfaces().size(), async.getInterfaces().size());
+        Assert.assertEquals(blocking.getMacAddressTable().keySet(), async.getMacAddressTable().keySet());
+    }
+}
@@ -0,0 +1,65 @@
+package prsa.egosoft.netmapper.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class IpRangeSetTest {
+
+    @Test
+    public void testOverlappingAndAdjacentBlocksAreMerged() {
+        IpRangeSet set = IpRangeSet.parse("10.0.0.1-10.0.0.10,10.0.0.5-10.0.0.20,10.0.0.21,10.0.1.0/30");
+        List<IpRange> ranges = set.getRanges();
+        Assert.assertEquals(2, ranges.size());
+        Assert.assertEquals("10.0.0.1 - 10.0.0.21", ranges.get(0).toString());
+        Assert.assertEquals("10.0.1.1 - 10.0.1.2", ranges.get(1).toString());
+        Assert.assertEquals(23, set.size());
+    }
+
+    @Test
+    public void testContainedBlockDoesNotExtendRange() {
+        IpRangeSet set = IpRangeSet.parse("10.0.0.0/24,10.0.0.10-10.0.0.20");
+        Assert.assertEquals(1, set.getRanges().size());
+        Assert.assertEquals(254, set.size());
+    }
+
+    @Test
+    public void testInvalidBlocksAreIgnored() {
+        IpRangeSet set = IpRangeSet.parse("10.0.0.1,not an ip/24,10.0.0.3");
+        Assert.assertEquals(2, set.size());
+        Assert.assertTrue(set.contains("10.0.0.3"));
+        Assert.assertFalse(set.contains("10.0.0.2"));
+        Assert.assertFalse(set.contains("garbage"));
+    }
+
+    @Test
+    public void testEmptyInput() {
+        Assert.assertTrue(IpRangeSet.parse("").isEmpty());
+        Assert.assertTrue(IpRangeSet.parse(null).isEmpty());
+        Assert.assertFalse(IpRangeSet.parse("").iterator().hasNext());
+    }
+
+    @Test
+    public void testIndexedAccessAcrossRanges() {
+        IpRangeSet set = IpRangeSet.parse("10.0.0.1-10.0.0.3,192.168.0.1-192.168.0.2");
+        Assert.assertEquals("10.0.0.1", IpRange.toIp(set.get(0)));
+        Assert.assertEquals("10.0.0.3", IpRange.toIp(set.get(2)));
+        Assert.assertEquals("192.168.0.1", IpRange.toIp(set.get(3)));
+        Assert.assertEquals("192.168.0.2", IpRange.toIp(set.get(4)));
+        Assert.assertEquals(Arrays.asList("10.0.0.1", "10.0.0.2", "10.0.0.3", "192.168.0.1", "192.168.0.2"),
+                set.asList());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testIndexOutOfBounds() {
+        IpRangeSet.parse("10.0.0.1").get(1);
+    }
+
+    @Test
+    public void testRangesAboveSignBitAreSortedUnsigned() {
+        IpRangeSet set = IpRangeSet.parse("200.0.0.1,10.0.0.1,128.0.0.1");
+        Assert.assertEquals(Arrays.asList("10.0.0.1", "128.0.0.1", "200.0.0.1"), set.asList());
+    }
+}
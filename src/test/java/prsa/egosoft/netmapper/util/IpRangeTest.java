@@ -0,0 +1,81 @@
+package prsa.egosoft.netmapper.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class IpRangeTest {
+
+    @Test
+    public void testParseCidrSkipsNetworkAndBroadcast() {
+        IpRange range = IpRange.parse("192.168.1.0/24");
+        Assert.assertEquals("192.168.1.1", IpRange.toIp(range.getStart()));
+        Assert.assertEquals("192.168.1.254", IpRange.toIp(range.getEnd()));
+        Assert.assertEquals(254, range.size());
+    }
+
+    @Test
+    public void testParsePointToPointAndHostPrefixes() {
+        IpRange p2p = IpRange.parse("10.0.0.4/31");
+        Assert.assertEquals("10.0.0.4", IpRange.toIp(p2p.getStart()));
+        Assert.assertEquals("10.0.0.5", IpRange.toIp(p2p.getEnd()));
+
+        IpRange host = IpRange.parse("10.0.0.7/32");
+        Assert.assertEquals(1, host.size());
+        Assert.assertEquals("10.0.0.7", host.toString());
+    }
+
+    @Test
+    public void testParseDottedMask() {
+        Assert.assertEquals(IpRange.parse("10.1.2.0/24"), IpRange.parse("10.1.2.77/255.255.255.0"));
+    }
+
+    @Test
+    public void testParseRangeIsNormalized() {
+        IpRange range = IpRange.parse(" 10.0.0.50 - 10.0.0.1 ");
+        Assert.assertEquals("10.0.0.1", IpRange.toIp(range.getStart()));
+        Assert.assertEquals("10.0.0.50", IpRange.toIp(range.getEnd()));
+        Assert.assertEquals(50, range.size());
+    }
+
+    @Test
+    public void testHighAddressesCompareUnsigned() {
+        IpRange range = IpRange.parse("200.0.0.0/8");
+        Assert.assertTrue(range.contains(IpRange.parseIp("200.255.0.1")));
+        Assert.assertFalse(range.contains(IpRange.parseIp("10.0.0.1")));
+        Assert.assertEquals((1L << 24) - 2, range.size());
+    }
+
+    @Test
+    public void testIteratesEveryAddress() {
+        List<String> ips = new ArrayList<>();
+        for (String ip : IpRange.parse("10.0.0.254 - 10.0.1.1")) {
+            ips.add(ip);
+        }
+        Assert.assertEquals(4, ips.size());
+        Assert.assertEquals("10.0.0.254", ips.get(0));
+        Assert.assertEquals("10.0.1.1", ips.get(3));
+    }
+
+    @Test
+    public void testParseIpLiterals() {
+        Assert.assertEquals(0x0A000001, IpRange.parseIp("10.0.0.1"));
+        Assert.assertEquals(-1, IpRange.parseIp("255.255.255.255"));
+        Assert.assertTrue(IpRange.isIpv4Literal("0.0.0.0"));
+        Assert.assertFalse(IpRange.isIpv4Literal("10.0.0"));
+        Assert.assertFalse(IpRange.isIpv4Literal("10.0.0.256"));
+        Assert.assertFalse(IpRange.isIpv4Literal("10..0.1"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsInvalidPrefix() {
+        IpRange.parse("10.0.0.0/33");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsDoubleDash() {
+        IpRange.parse("10.0.0.1-10.0.0.2-10.0.0.3");
+    }
+}
@@ -0,0 +1,77 @@
+package prsa.egosoft.netmapper.util;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+public class OuiDatabaseTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private OuiDatabase database;
+
+    @Before
+    public void setUp() throws IOException {
+        Path csv = folder.getRoot().toPath().resolve("registry.csv");
+        Files.write(csv, Arrays.asList(
+                "Registry,Assignment,Organization Name,Organization Address",
+                "MA-L,001122,\"Vendor L, Inc.\",Somewhere",
+                "MA-M,0011223,Vendor M,Somewhere",
+                "MA-S,001122334,Vendor S,Somewhere",
+                "MA-L,AABBCC,Vendor Ñ,Somewhere"), StandardCharsets.UTF_8);
+        Path overrides = folder.getRoot().toPath().resolve("vendors.properties");
+        Files.write(overrides, Arrays.asList(
+                "# Local Cache of MAC Vendors",
+                "AA:BB:CC=Vendor Override",
+                "DD:EE:FF=Unknown"), StandardCharsets.UTF_8);
+
+        OuiDatabaseCompiler compiler = new OuiDatabaseCompiler();
+        compiler.read(csv);
+        compiler.read(overrides);
+        Path bin = folder.getRoot().toPath().resolve("oui.bin");
+        compiler.write(bin);
+        database = OuiDatabase.open(bin);
+    }
+
+    @Test
+    public void testLongestPrefixWins() {
+        Assert.assertEquals("Vendor S", database.lookup(0x001122334ABCL));
+        Assert.assertEquals("Vendor M", database.lookup(0x0011223FFFFFL));
+        Assert.assertEquals("Vendor L, Inc.", database.lookup(0x001122FFFFFFL));
+        Assert.assertEquals(4, database.size());
+    }
+
+    @Test
+    public void testLaterInputOverridesAndCacheLabelsAreSkipped() {
+        Assert.assertEquals("Vendor Override", database.lookup(0xAABBCC000001L));
+        Assert.assertNull(database.lookup(0xDDEEFF000001L));
+    }
+
+    @Test
+    public void testUnknownPrefix() {
+        Assert.assertNull(database.lookup(0x001123000000L));
+        Assert.assertNull(database.lookup(0L));
+    }
+
+    @Test
+    public void testNamesAreDecodedOnce() {
+        String first = database.lookup(0x001122FFFFFFL);
+        Assert.assertSame(first, database.lookup(0x001122000000L));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsOtherFiles() throws IOException {
+        Path bogus = folder.getRoot().toPath().resolve("bogus.bin");
+        Files.write(bogus, new byte[64]);
+        OuiDatabase.open(bogus);
+    }
+}